@@ -224,6 +224,7 @@ public class Analytics {
         public int callProperties = 0;
 
         private long mTimeOfLastVideoEvent = -1;
+        private boolean mSetupPhasesRecorded = false;
 
         CallInfoImpl(String callId, int callDirection) {
             this.callId = callId;
@@ -274,6 +275,10 @@ public class Analytics {
         public void setCallEndTime(long endTime) {
             Log.d(TAG, "setting endTime for call " + callId + " to " + endTime);
             this.endTime = endTime;
+            if (!mSetupPhasesRecorded && callEvents != null) {
+                mSetupPhasesRecorded = true;
+                addCallSetupPhases(connectionService, callEvents.getEvents());
+            }
         }
 
         @Override
@@ -533,16 +538,48 @@ public class Analytics {
     private static final Map<String, CallInfoImpl> sCallIdToInfo = new HashMap<>();
     private static final LinkedList<String> sActiveCallIds = new LinkedList<>();
     private static final List<SessionTiming> sSessionTimings = new LinkedList<>();
+    // Session ID -> latency histogram. Unlike sSessionTimings, these have a constant footprint
+    // and are not cleared when the raw timings are dumped.
+    private static final Map<Integer, LatencyHistogram> sSessionTimingHistograms =
+            new HashMap<>();
+
+    private static final CallSetupPhaseTracker sCallSetupPhaseTracker =
+            new CallSetupPhaseTracker();
 
     public static void addSessionTiming(String sessionName, long time) {
         if (sLogSessionToSessionId.containsKey(sessionName)) {
+            int sessionId = sLogSessionToSessionId.get(sessionName);
             synchronized (sLock) {
-                sSessionTimings.add(new SessionTiming(sLogSessionToSessionId.get(sessionName),
-                        time));
+                sSessionTimings.add(new SessionTiming(sessionId, time));
+                LatencyHistogram histogram = sSessionTimingHistograms.get(sessionId);
+                if (histogram == null) {
+                    histogram = new LatencyHistogram();
+                    sSessionTimingHistograms.put(sessionId, histogram);
+                }
+                histogram.record(time);
             }
         }
     }
 
+    private static void addCallSetupPhases(String connectionService,
+            List<EventManager.Event> events) {
+        synchronized (sLock) {
+            sCallSetupPhaseTracker.onCallEnded(connectionService, events);
+        }
+    }
+
+    /**
+     * Returns a copy of the call-setup phase histogram for the given ConnectionService, or null
+     * if no calls using it have ended.
+     * @param phase One of the CallSetupPhaseTracker.PHASE_* constants.
+     */
+    public static LatencyHistogram getCallSetupPhaseHistogram(String connectionService,
+            int phase) {
+        synchronized (sLock) {
+            return sCallSetupPhaseTracker.getHistogram(connectionService, phase);
+        }
+    }
+
     public static CallInfo initiateCallAnalytics(String callId, int direction) {
         Log.d(TAG, "Starting analytics for call " + callId);
         CallInfoImpl callInfo = new CallInfoImpl(callId, direction);
@@ -583,9 +620,21 @@ public class Analytics {
                             .setSessionEntryPoint(timing.getKey())
                             .setTimeMillis(timing.getTime()))
                     .toArray(TelecomLogClass.LogSessionTiming[]::new);
+            result.sessionTimingHistograms = sSessionTimingHistograms.entrySet().stream()
+                    .map(e -> {
+                        TelecomLogClass.SessionTimingHistogram h =
+                                new TelecomLogClass.SessionTimingHistogram()
+                                        .setSessionEntryPoint(e.getKey());
+                        h.histogram = e.getValue().toProto();
+                        return h;
+                    })
+                    .toArray(TelecomLogClass.SessionTimingHistogram[]::new);
+            result.callSetupPhaseHistograms = sCallSetupPhaseTracker.toProto();
             if (args.length > 1 && CLEAR_ANALYTICS_ARG.equals(args[1])) {
                 sCallIdToInfo.clear();
                 sSessionTimings.clear();
+                sSessionTimingHistograms.clear();
+                sCallSetupPhaseTracker.reset();
             }
         }
         String encodedProto = Base64.encodeToString(
@@ -628,6 +677,34 @@ public class Analytics {
                     .filter(e -> sSessionIdToLogSession.containsKey(e.getKey()))
                     .forEach(e -> writer.printf("%s: %.2f\n",
                             sSessionIdToLogSession.get(e.getKey()), e.getValue()));
+
+            writer.println("Session latency histograms (ms):");
+            writer.increaseIndent();
+            sSessionTimingHistograms.entrySet().stream()
+                    .filter(e -> sSessionIdToLogSession.containsKey(e.getKey()))
+                    .forEach(e -> writer.printf("%s: %s\n",
+                            sSessionIdToLogSession.get(e.getKey()), e.getValue()));
+            writer.decreaseIndent();
+
+            writer.println("Call setup phase histograms (ms, last 1-2 days):");
+            writer.increaseIndent();
+            sCallSetupPhaseTracker.dump(writer);
+            writer.decreaseIndent();
+        }
+    }
+
+    /**
+     * Returns a copy of the latency histogram for the given session, or null if no timings have
+     * been recorded for it.
+     */
+    public static LatencyHistogram getSessionTimingHistogram(String sessionName) {
+        Integer sessionId = sLogSessionToSessionId.get(sessionName);
+        if (sessionId == null) {
+            return null;
+        }
+        synchronized (sLock) {
+            LatencyHistogram histogram = sSessionTimingHistograms.get(sessionId);
+            return histogram == null ? null : new LatencyHistogram(histogram);
         }
     }
 
@@ -27,6 +27,8 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.os.SomeArgs;
 import com.android.internal.util.Preconditions;
 
+import java.util.Objects;
+
 /**
  * Plays the default ringtone. Uses {@link Ringtone} in a separate thread so that this class can be
  * used from the main thread.
@@ -38,6 +40,8 @@ public class AsyncRingtonePlayer {
     private static final int EVENT_STOP = 2;
     private static final int EVENT_REPEAT = 3;
     private static final int EVENT_INCREASE_VOLUME = 4;
+    private static final int EVENT_PREFETCH = 5;
+    private static final int EVENT_DISCARD_PREFETCH = 6;
 
     // The interval in which to restart the ringer.
     private static final int RESTART_RINGER_MILLIS = 3000;
@@ -50,6 +54,39 @@ public class AsyncRingtonePlayer {
     private float mIncrementAmount;
     private float mCurrentIncrementVolume;
 
+    /**
+     * Identifies what a prefetched ringtone was resolved from, so that it is only used if the call
+     * would still resolve to the same ringtone.
+     */
+    private static final class PrefetchKey {
+        final Call call;
+        final Uri ringtoneUri;
+        final boolean isWorkContact;
+
+        PrefetchKey(Call call) {
+            this.call = call;
+            this.ringtoneUri = call.getRingtone();
+            this.isWorkContact = RingtoneFactory.isWorkContact(call);
+        }
+
+        boolean matches(Call call) {
+            return this.call == call && Objects.equals(ringtoneUri, call.getRingtone())
+                    && isWorkContact == RingtoneFactory.isWorkContact(call);
+        }
+    }
+
+    /** The call a ringtone is being prefetched for. Only accessed under the Telecom lock. */
+    private Call mPrefetchCall;
+
+    /** The prefetched ringtone. Only used by the ringtone thread. */
+    private Ringtone mPrefetchedRingtone;
+
+    /**
+     * What {@link #mPrefetchedRingtone} was resolved from; null if there is none. Written by the
+     * ringtone thread.
+     */
+    private volatile PrefetchKey mPrefetchedKey;
+
     /** Plays the ringtone. */
     public void play(RingtoneFactory factory, Call incomingCall,
             float incStartVolume, int incRampUpTime) {
@@ -59,15 +96,65 @@ public class AsyncRingtonePlayer {
         args.arg2 = incomingCall;
         args.argi1 = Math.round(incStartVolume * 100F);
         args.argi2 = incRampUpTime;
+        if (mPrefetchCall == incomingCall) {
+            mPrefetchCall = null;
+        }
         postMessage(EVENT_PLAY, true /* shouldCreateHandler */, args);
     }
 
+    /**
+     * Resolves and prepares the ringtone for an incoming call ahead of time, so that it is ready
+     * when {@link #play} is called. Any previously prefetched ringtone is discarded.
+     */
+    public void prefetch(RingtoneFactory factory, Call incomingCall) {
+        Log.d(this, "Posting prefetch.");
+        mPrefetchCall = incomingCall;
+        SomeArgs args = SomeArgs.obtain();
+        args.arg1 = factory;
+        args.arg2 = incomingCall;
+        postMessage(EVENT_PREFETCH, true /* shouldCreateHandler */, args);
+    }
+
+    /**
+     * @return Whether a ringtone is being prefetched for the given call.
+     */
+    public boolean isPrefetching(Call call) {
+        return call != null && mPrefetchCall == call;
+    }
+
+    /**
+     * @return Whether a ringtone that is still valid for the given call has been prefetched.
+     */
+    public boolean hasPrefetchedRingtone(Call call) {
+        PrefetchKey key = mPrefetchedKey;
+        return key != null && key.matches(call);
+    }
+
+    /** Discards the ringtone prefetched for the given call, if any. */
+    public void discardPrefetch(Call call) {
+        if (isPrefetching(call)) {
+            Log.d(this, "Posting discard prefetch.");
+            mPrefetchCall = null;
+            SomeArgs args = SomeArgs.obtain();
+            args.arg1 = call;
+            postMessage(EVENT_DISCARD_PREFETCH, false /* shouldCreateHandler */, args);
+        }
+    }
+
     /** Stops playing the ringtone. */
     public void stop() {
         Log.d(this, "Posting stop.");
         postMessage(EVENT_STOP, false /* shouldCreateHandler */, null);
     }
 
+    /**
+     * @return Whether the ringtone thread is running.
+     */
+    @VisibleForTesting
+    public synchronized boolean isThreadRunning() {
+        return mHandler != null;
+    }
+
     /**
      * Posts a message to the ringtone-thread handler. Creates the handler if specified by the
      * parameter shouldCreateHandler.
@@ -111,6 +198,12 @@ public class AsyncRingtonePlayer {
                     case EVENT_STOP:
                         handleStop();
                         break;
+                    case EVENT_PREFETCH:
+                        handlePrefetch((SomeArgs) msg.obj);
+                        break;
+                    case EVENT_DISCARD_PREFETCH:
+                        handleDiscardPrefetch((SomeArgs) msg.obj);
+                        break;
                     case EVENT_INCREASE_VOLUME:
                         mCurrentIncrementVolume += mIncrementAmount;
                         Log.d(AsyncRingtonePlayer.this, "Increasing ringtone volume to "
@@ -149,8 +242,13 @@ public class AsyncRingtonePlayer {
         ThreadUtil.checkNotOnMainThread();
         Log.i(this, "Play ringtone.");
 
+        boolean wasPrefetched = false;
         if (mRingtone == null) {
-            mRingtone = factory.getRingtone(incomingCall);
+            mRingtone = takePrefetchedRingtone(incomingCall);
+            wasPrefetched = mRingtone != null;
+            if (mRingtone == null) {
+                mRingtone = factory.getRingtone(incomingCall);
+            }
             if (mRingtone == null) {
                 Uri ringtoneUri = incomingCall.getRingtone();
                 String ringtoneUriString = (ringtoneUri == null) ? "null" :
@@ -174,6 +272,69 @@ public class AsyncRingtonePlayer {
         }
 
         handleRepeat();
+        Log.addEvent(incomingCall, LogUtils.Events.RINGTONE_STARTED,
+                wasPrefetched ? "prefetched" : null);
+    }
+
+    /**
+     * Resolves the ringtone for an incoming call without playing it. Executes on ringtone-thread.
+     */
+    private void handlePrefetch(SomeArgs args) {
+        RingtoneFactory factory = (RingtoneFactory) args.arg1;
+        Call incomingCall = (Call) args.arg2;
+        args.recycle();
+
+        discardPrefetchedRingtone();
+        if (Uri.EMPTY.equals(incomingCall.getRingtone())) {
+            return;
+        }
+
+        ThreadUtil.checkNotOnMainThread();
+        Log.d(this, "Prefetch ringtone.");
+        PrefetchKey key = new PrefetchKey(incomingCall);
+        mPrefetchedRingtone = factory.getRingtone(incomingCall);
+        if (mPrefetchedRingtone != null) {
+            mPrefetchedKey = key;
+        }
+    }
+
+    /**
+     * Discards the ringtone prefetched for a call. Executes on ringtone-thread.
+     */
+    private void handleDiscardPrefetch(SomeArgs args) {
+        Call call = (Call) args.arg1;
+        args.recycle();
+
+        PrefetchKey key = mPrefetchedKey;
+        if (key != null && key.call == call) {
+            Log.d(this, "Discard prefetched ringtone.");
+            discardPrefetchedRingtone();
+        }
+        quitThreadIfIdle();
+    }
+
+    /**
+     * @return The prefetched ringtone if it is still valid for the given call, otherwise null.
+     */
+    private Ringtone takePrefetchedRingtone(Call incomingCall) {
+        PrefetchKey key = mPrefetchedKey;
+        if (key == null || !key.matches(incomingCall)) {
+            discardPrefetchedRingtone();
+            return null;
+        }
+        Ringtone ringtone = mPrefetchedRingtone;
+        mPrefetchedRingtone = null;
+        mPrefetchedKey = null;
+        return ringtone;
+    }
+
+    private void discardPrefetchedRingtone() {
+        mPrefetchedKey = null;
+        if (mPrefetchedRingtone != null) {
+            // Stopping releases the media player prepared for the ringtone.
+            mPrefetchedRingtone.stop();
+            mPrefetchedRingtone = null;
+        }
     }
 
     private void handleRepeat() {
@@ -214,11 +375,22 @@ public class AsyncRingtonePlayer {
             // queue.
             mHandler.removeMessages(EVENT_REPEAT);
             mHandler.removeMessages(EVENT_INCREASE_VOLUME);
+        }
+        quitThreadIfIdle();
+    }
 
-            if (mHandler.hasMessages(EVENT_PLAY)) {
+    /**
+     * Quits the ringtone thread unless a ringtone is playing, prefetched or about to be. Executes
+     * on the ringtone-thread.
+     */
+    private void quitThreadIfIdle() {
+        synchronized(this) {
+            if (mHandler.hasMessages(EVENT_PLAY) || mHandler.hasMessages(EVENT_PREFETCH)) {
                 Log.v(this, "Keeping alive ringtone thread for subsequent play request.");
+            } else if (mRingtone != null || mPrefetchedRingtone != null) {
+                Log.v(this, "Keeping alive ringtone thread for current ringtone.");
             } else {
-                mHandler.removeMessages(EVENT_STOP);
+                mHandler.removeCallbacksAndMessages(null);
                 mHandler.getLooper().quitSafely();
                 mHandler = null;
                 Log.v(this, "Handler cleared.");
@@ -26,10 +26,14 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.telecom.Connection;
 import android.telecom.Log;
+import android.telecom.Logging.Runnable;
 import android.telecom.PhoneAccount;
 import android.telecom.VideoProfile;
 import android.telephony.PhoneNumberUtils;
@@ -37,8 +41,11 @@ import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
 import com.android.server.telecom.CallsManager.CallsManagerListener;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -58,6 +65,28 @@ public class BluetoothPhoneServiceImpl {
 
     private static final String TAG = "BluetoothPhoneService";
 
+    /**
+     * One clcc (C* List Current Calls) response, as sent to the headset.
+     */
+    private static final class ClccEntry {
+        final int index;
+        final int direction;
+        final int state;
+        final boolean isPartOfConference;
+        final String address;
+        final int addressType;
+
+        ClccEntry(int index, int direction, int state, boolean isPartOfConference,
+                String address, int addressType) {
+            this.index = index;
+            this.direction = direction;
+            this.state = state;
+            this.isPartOfConference = isPartOfConference;
+            this.address = address;
+            this.addressType = addressType;
+        }
+    }
+
     // match up with bthf_call_state_t of bt_hf.h
     private static final int CALL_STATE_ACTIVE = 0;
     private static final int CALL_STATE_HELD = 1;
@@ -84,6 +113,31 @@ public class BluetoothPhoneServiceImpl {
     private String mRingingAddress = null;
     private int mRingingAddressType = 0;
     private Call mOldHeldCall = null;
+    // mNumActiveCalls, mNumHeldCalls, mNumChildrenOfActiveCall and mBluetoothCallState as last
+    // sent to the headset, packed by packPhoneState.
+    private int mPhoneState = packPhoneState(0, 0, 0, CALL_STATE_IDLE);
+
+    // Phone state updates which don't change the bluetooth call state or the number of active
+    // calls are held back until this long after the previous update, so that a burst of changes
+    // (e.g. while calls are merged into a conference) results in a single update.
+    private long mPhoneStateCoalesceMillis;
+    private long mLastPhoneStateUpdateMillis;
+    private boolean mIsPhoneStateUpdatePending = false;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mPendingPhoneStateUpdate = new Runnable("BPSI.uHWCS", null) {
+        @Override
+        public void loggedRun() {
+            synchronized (mLock) {
+                mIsPhoneStateUpdatePending = false;
+                updateHeadsetWithCallState(false /* force */);
+            }
+        }
+    };
+
+    // Statistics, guarded by mLock.
+    private int mNumPhoneStateUpdatesSent = 0;
+    private int mNumPhoneStateUpdatesSuppressed = 0;
+    private int mNumPhoneStateUpdatesCoalesced = 0;
 
     /**
      * Binder implementation of IBluetoothHeadsetPhone. Implements the command interface that the
@@ -294,6 +348,8 @@ public class BluetoothPhoneServiceImpl {
     public CallsManagerListener mCallsManagerListener = new CallsManagerListenerBase() {
         @Override
         public void onCallAdded(Call call) {
+            call.addListener(mCallListener);
+            invalidateClccSnapshot();
             if (call.isExternalCall()) {
                 return;
             }
@@ -302,10 +358,15 @@ public class BluetoothPhoneServiceImpl {
 
         @Override
         public void onCallRemoved(Call call) {
+            call.removeListener(mCallListener);
+            invalidateClccSnapshot();
             if (call.isExternalCall()) {
                 return;
             }
-            mClccIndexMap.remove(call);
+            Integer index = mClccIndexMap.remove(call);
+            if (index != null) {
+                mUsedClccIndices.clear(index);
+            }
             updateHeadsetWithCallState(false /* force */);
         }
 
@@ -327,6 +388,7 @@ public class BluetoothPhoneServiceImpl {
 
         @Override
         public void onCallStateChanged(Call call, int oldState, int newState) {
+            invalidateClccSnapshot();
             if (call.isExternalCall()) {
                 return;
             }
@@ -356,6 +418,7 @@ public class BluetoothPhoneServiceImpl {
 
         @Override
         public void onIsConferencedChanged(Call call) {
+            invalidateClccSnapshot();
             if (call.isExternalCall()) {
                 return;
             }
@@ -389,6 +452,46 @@ public class BluetoothPhoneServiceImpl {
         }
     };
 
+    /**
+     * Listens for the changes to a call which affect its clcc response but aren't reported
+     * through the {@link CallsManagerListener}.
+     */
+    private final Call.Listener mCallListener = new Call.ListenerBase() {
+        @Override
+        public void onConnectionCapabilitiesChanged(Call call) {
+            invalidateClccSnapshot();
+        }
+
+        @Override
+        public void onConnectionPropertiesChanged(Call call, boolean didRttChange) {
+            invalidateClccSnapshot();
+        }
+
+        @Override
+        public void onParentChanged(Call call) {
+            invalidateClccSnapshot();
+        }
+
+        @Override
+        public void onChildrenChanged(Call call) {
+            invalidateClccSnapshot();
+        }
+
+        @Override
+        public void onHandleChanged(Call call) {
+            invalidateClccSnapshot();
+        }
+
+        /**
+         * Swapping or merging a conference changes which of its children is active, and so their
+         * clcc states.
+         */
+        @Override
+        public void onConferenceStateChanged(Call call) {
+            invalidateClccSnapshot();
+        }
+    };
+
     /**
      * Listens to connections and disconnections of bluetooth headsets.  We need to save the current
      * bluetooth headset so that we know where to send call updates.
@@ -438,6 +541,15 @@ public class BluetoothPhoneServiceImpl {
 
     // A map from Calls to indexes used to identify calls for CLCC (C* List Current Calls).
     private Map<Call, Integer> mClccIndexMap = new HashMap<>();
+    // The indexes in mClccIndexMap.
+    private final BitSet mUsedClccIndices = new BitSet();
+
+    // The clcc responses for the current calls, built when the headset lists the current calls
+    // and kept until a change to the calls is reported. mClccSnapshotVersion is the value of
+    // mClccVersion the snapshot was built at.
+    private List<ClccEntry> mClccSnapshot = new ArrayList<>();
+    private int mClccSnapshotVersion = -1;
+    private int mClccVersion = 0;
 
     private boolean mHeadsetUpdatedRecently = false;
 
@@ -462,6 +574,8 @@ public class BluetoothPhoneServiceImpl {
         mLock = lock;
         mCallsManager = callsManager;
         mPhoneAccountRegistrar = phoneAccountRegistrar;
+        mPhoneStateCoalesceMillis = Timeouts.getBluetoothPhoneStateCoalesceMillis(
+                context.getContentResolver());
 
         mBluetoothAdapter = bluetoothAdapter;
         if (mBluetoothAdapter == null) {
@@ -482,6 +596,38 @@ public class BluetoothPhoneServiceImpl {
         mBluetoothHeadset = bluetoothHeadset;
     }
 
+    @VisibleForTesting
+    public void setPhoneStateCoalesceMillis(long coalesceMillis) {
+        mPhoneStateCoalesceMillis = coalesceMillis;
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("Phone state updates sent: " + mNumPhoneStateUpdatesSent
+                    + " suppressed: " + mNumPhoneStateUpdatesSuppressed
+                    + " coalesced: " + mNumPhoneStateUpdatesCoalesced);
+        }
+    }
+
+    @VisibleForTesting
+    public int getNumPhoneStateUpdatesSuppressed() {
+        synchronized (mLock) {
+            return mNumPhoneStateUpdatesSuppressed;
+        }
+    }
+
+    @VisibleForTesting
+    public int getNumPhoneStateUpdatesCoalesced() {
+        synchronized (mLock) {
+            return mNumPhoneStateUpdatesCoalesced;
+        }
+    }
+
+    @VisibleForTesting
+    public Handler getHandler() {
+        return mHandler;
+    }
+
     private boolean processChld(int chld) {
         Call activeCall = mCallsManager.getActiveCall();
         Call ringingCall = mCallsManager.getRingingCall();
@@ -557,24 +703,44 @@ public class BluetoothPhoneServiceImpl {
     }
 
     private void sendListOfCalls(boolean shouldLog) {
-        Collection<Call> mCalls = mCallsManager.getCalls();
-        for (Call call : mCalls) {
-            // We don't send the parent conference call to the bluetooth device.
-            // We do, however want to send conferences that have no children to the bluetooth
-            // device (e.g. IMS Conference).
-            if (!call.isConference() ||
-                    (call.isConference() && call
-                            .can(Connection.CAPABILITY_CONFERENCE_HAS_NO_CHILDREN))) {
-                sendClccForCall(call, shouldLog);
+        if (mClccSnapshotVersion != mClccVersion) {
+            mClccSnapshot.clear();
+            Collection<Call> mCalls = mCallsManager.getCalls();
+            for (Call call : mCalls) {
+                // We don't send the parent conference call to the bluetooth device.
+                // We do, however want to send conferences that have no children to the bluetooth
+                // device (e.g. IMS Conference).
+                if (!call.isConference() ||
+                        (call.isConference() && call
+                                .can(Connection.CAPABILITY_CONFERENCE_HAS_NO_CHILDREN))) {
+                    ClccEntry entry = getClccForCall(call);
+                    if (entry != null) {
+                        mClccSnapshot.add(entry);
+                    }
+                }
             }
+            mClccSnapshotVersion = mClccVersion;
+        }
+        for (int i = 0; i < mClccSnapshot.size(); i++) {
+            sendClcc(mClccSnapshot.get(i), shouldLog);
         }
         sendClccEndMarker();
     }
 
     /**
-     * Sends a single clcc (C* List Current Calls) event for the specified call.
+     * Discards the cached clcc responses, so that they are rebuilt from the current calls the
+     * next time the headset lists them.
+     */
+    private void invalidateClccSnapshot() {
+        mClccVersion++;
+    }
+
+    /**
+     * Builds the clcc (C* List Current Calls) response for the specified call.
+     *
+     * @return The response, or null if the call shouldn't be listed.
      */
-    private void sendClccForCall(Call call, boolean shouldLog) {
+    private ClccEntry getClccForCall(Call call) {
         boolean isForeground = mCallsManager.getForegroundCall() == call;
         int state = convertCallState(call.getState(), isForeground);
         boolean isPartOfConference = false;
@@ -582,7 +748,7 @@ public class BluetoothPhoneServiceImpl {
                 .can(Connection.CAPABILITY_CONFERENCE_HAS_NO_CHILDREN);
 
         if (state == CALL_STATE_IDLE) {
-            return;
+            return null;
         }
 
         Call conferenceCall = call.getParentCall();
@@ -644,16 +810,22 @@ public class BluetoothPhoneServiceImpl {
         }
 
         int addressType = address == null ? -1 : PhoneNumberUtils.toaFromString(address);
+        return new ClccEntry(index, direction, state, isPartOfConference, address, addressType);
+    }
 
+    /**
+     * Sends a single clcc (C* List Current Calls) event.
+     */
+    private void sendClcc(ClccEntry entry, boolean shouldLog) {
         if (shouldLog) {
             Log.i(this, "sending clcc for call %d, %d, %d, %b, %s, %d",
-                    index, direction, state, isPartOfConference, Log.piiHandle(address),
-                    addressType);
+                    entry.index, entry.direction, entry.state, entry.isPartOfConference,
+                    Log.piiHandle(entry.address), entry.addressType);
         }
 
         if (mBluetoothHeadset != null) {
-            mBluetoothHeadset.clccResponse(
-                    index, direction, state, 0, isPartOfConference, address, addressType);
+            mBluetoothHeadset.clccResponse(entry.index, entry.direction, entry.state, 0,
+                    entry.isPartOfConference, entry.address, entry.addressType);
         }
     }
 
@@ -673,13 +845,12 @@ public class BluetoothPhoneServiceImpl {
             return mClccIndexMap.get(call);
         }
 
-        int i = 1;  // Indexes for bluetooth clcc are 1-based.
-        while (mClccIndexMap.containsValue(i)) {
-            i++;
-        }
+        // Indexes for bluetooth clcc are 1-based.
+        int i = mUsedClccIndices.nextClearBit(1);
 
         // NOTE: Indexes are removed in {@link #onCallRemoved}.
         mClccIndexMap.put(call, i);
+        mUsedClccIndices.set(i);
         return i;
     }
 
@@ -691,6 +862,10 @@ public class BluetoothPhoneServiceImpl {
      *      changed.
      */
     private void updateHeadsetWithCallState(boolean force) {
+        if (mBluetoothHeadset == null) {
+            return;
+        }
+
         Call activeCall = mCallsManager.getActiveCall();
         Call ringingCall = mCallsManager.getRingingCall();
         Call heldCall = mCallsManager.getHeldCall();
@@ -743,52 +918,60 @@ public class BluetoothPhoneServiceImpl {
             }
         }
 
-        if (mBluetoothHeadset != null &&
-                (force ||
-                        (!callsPendingSwitch &&
-                                (numActiveCalls != mNumActiveCalls ||
-                                        numChildrenOfActiveCall != mNumChildrenOfActiveCall ||
-                                        numHeldCalls != mNumHeldCalls ||
-                                        bluetoothCallState != mBluetoothCallState ||
-                                        !TextUtils.equals(ringingAddress, mRingingAddress) ||
-                                        ringingAddressType != mRingingAddressType ||
-                                (heldCall != mOldHeldCall && !ignoreHeldCallChange))))) {
-
-            // If the call is transitioning into the alerting state, send DIALING first.
-            // Some devices expect to see a DIALING state prior to seeing an ALERTING state
-            // so we need to send it first.
-            boolean sendDialingFirst = mBluetoothCallState != bluetoothCallState &&
-                    bluetoothCallState == CALL_STATE_ALERTING;
-
-            mOldHeldCall = heldCall;
-            mNumActiveCalls = numActiveCalls;
-            mNumChildrenOfActiveCall = numChildrenOfActiveCall;
-            mNumHeldCalls = numHeldCalls;
-            mBluetoothCallState = bluetoothCallState;
-            mRingingAddress = ringingAddress;
-            mRingingAddressType = ringingAddressType;
-
-            if (sendDialingFirst) {
-                // Log in full to make logs easier to debug.
-                Log.i(TAG, "updateHeadsetWithCallState " +
-                        "numActive %s, " +
-                        "numHeld %s, " +
-                        "callState %s, " +
-                        "ringing number %s, " +
-                        "ringing type %s",
-                        mNumActiveCalls,
-                        mNumHeldCalls,
-                        CALL_STATE_DIALING,
-                        Log.pii(mRingingAddress),
-                        mRingingAddressType);
-                mBluetoothHeadset.phoneStateChanged(
-                        mNumActiveCalls,
-                        mNumHeldCalls,
-                        CALL_STATE_DIALING,
-                        mRingingAddress,
-                        mRingingAddressType);
+        int phoneState = packPhoneState(numActiveCalls, numHeldCalls, numChildrenOfActiveCall,
+                bluetoothCallState);
+        if (!force) {
+            boolean hasChanged = phoneState != mPhoneState
+                    || !TextUtils.equals(ringingAddress, mRingingAddress)
+                    || ringingAddressType != mRingingAddressType
+                    || (heldCall != mOldHeldCall && !ignoreHeldCallChange);
+            if (callsPendingSwitch || !hasChanged) {
+                mNumPhoneStateUpdatesSuppressed++;
+                return;
             }
 
+            // Ringing, dialing and answering are sent straight away; anything else is held back
+            // if the previous update was sent too recently.
+            boolean isUrgent = bluetoothCallState != mBluetoothCallState
+                    || numActiveCalls != mNumActiveCalls
+                    || !TextUtils.equals(ringingAddress, mRingingAddress);
+            long nextUpdateMillis = mLastPhoneStateUpdateMillis + mPhoneStateCoalesceMillis;
+            long now = SystemClock.elapsedRealtime();
+            if (!isUrgent && now < nextUpdateMillis) {
+                mNumPhoneStateUpdatesCoalesced++;
+                if (!mIsPhoneStateUpdatePending) {
+                    mIsPhoneStateUpdatePending = true;
+                    mHandler.postDelayed(mPendingPhoneStateUpdate.prepare(),
+                            nextUpdateMillis - now);
+                }
+                return;
+            }
+        }
+
+        if (mIsPhoneStateUpdatePending) {
+            // This update supersedes the pending one.
+            mHandler.removeCallbacks(mPendingPhoneStateUpdate.getRunnableToCancel());
+            mPendingPhoneStateUpdate.cancel();
+            mIsPhoneStateUpdatePending = false;
+        }
+
+        // If the call is transitioning into the alerting state, send DIALING first.
+        // Some devices expect to see a DIALING state prior to seeing an ALERTING state
+        // so we need to send it first.
+        boolean sendDialingFirst = mBluetoothCallState != bluetoothCallState &&
+                bluetoothCallState == CALL_STATE_ALERTING;
+
+        mOldHeldCall = heldCall;
+        mNumActiveCalls = numActiveCalls;
+        mNumChildrenOfActiveCall = numChildrenOfActiveCall;
+        mNumHeldCalls = numHeldCalls;
+        mBluetoothCallState = bluetoothCallState;
+        mPhoneState = phoneState;
+        mRingingAddress = ringingAddress;
+        mRingingAddressType = ringingAddressType;
+
+        if (sendDialingFirst) {
+            // Log in full to make logs easier to debug.
             Log.i(TAG, "updateHeadsetWithCallState " +
                     "numActive %s, " +
                     "numHeld %s, " +
@@ -797,19 +980,50 @@ public class BluetoothPhoneServiceImpl {
                     "ringing type %s",
                     mNumActiveCalls,
                     mNumHeldCalls,
-                    mBluetoothCallState,
+                    CALL_STATE_DIALING,
                     Log.pii(mRingingAddress),
                     mRingingAddressType);
-
             mBluetoothHeadset.phoneStateChanged(
                     mNumActiveCalls,
                     mNumHeldCalls,
-                    mBluetoothCallState,
+                    CALL_STATE_DIALING,
                     mRingingAddress,
                     mRingingAddressType);
-
-            mHeadsetUpdatedRecently = true;
         }
+
+        Log.i(TAG, "updateHeadsetWithCallState " +
+                "numActive %s, " +
+                "numHeld %s, " +
+                "callState %s, " +
+                "ringing number %s, " +
+                "ringing type %s",
+                mNumActiveCalls,
+                mNumHeldCalls,
+                mBluetoothCallState,
+                Log.pii(mRingingAddress),
+                mRingingAddressType);
+
+        mBluetoothHeadset.phoneStateChanged(
+                mNumActiveCalls,
+                mNumHeldCalls,
+                mBluetoothCallState,
+                mRingingAddress,
+                mRingingAddressType);
+
+        mHeadsetUpdatedRecently = true;
+        mLastPhoneStateUpdateMillis = SystemClock.elapsedRealtime();
+        mNumPhoneStateUpdatesSent++;
+    }
+
+    /**
+     * Packs the counts and call state sent to the headset into a single value, so that a change
+     * to any of them can be detected with one comparison. Each value takes 8 bits; there are far
+     * fewer than 256 calls or call states.
+     */
+    private static int packPhoneState(int numActiveCalls, int numHeldCalls,
+            int numChildrenOfActiveCall, int bluetoothCallState) {
+        return (numActiveCalls & 0xff) << 24 | (numHeldCalls & 0xff) << 16
+                | (numChildrenOfActiveCall & 0xff) << 8 | (bluetoothCallState & 0xff);
     }
 
     private int getBluetoothCallStateForUpdate() {
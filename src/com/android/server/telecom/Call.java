@@ -65,8 +65,6 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *  Encapsulates all aspects of a given phone call throughout its lifecycle, starting
@@ -88,6 +86,15 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
     /** Identifies extras changes which originated from an incall service. */
     public static final int SOURCE_INCALL_SERVICE = 2;
 
+    /**
+     * Boolean {@link PhoneAccount} extra which a {@link ConnectionService} sets when its
+     * connections merge the extras passed to {@link Connection#onExtrasChanged(Bundle)} into
+     * their own, rather than replacing them. Extras changes from incall services are then sent to
+     * it as just the keys which changed, instead of the whole extras bundle.
+     */
+    public static final String EXTRA_SUPPORTS_EXTRAS_DELTAS =
+            "com.android.server.telecom.extra.SUPPORTS_EXTRAS_DELTAS";
+
     private static final int RTT_PIPE_READ_SIDE_INDEX = 0;
     private static final int RTT_PIPE_WRITE_SIDE_INDEX = 1;
 
@@ -132,6 +139,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
         void onRemoteRttRequest(Call call, int requestId);
         void onHandoverRequested(Call call, PhoneAccountHandle handoverTo, int videoState,
                                  Bundle extras);
+        void onConferenceStateChanged(Call call);
     }
 
     public abstract static class ListenerBase implements Listener {
@@ -206,6 +214,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
         @Override
         public void onHandoverRequested(Call call, PhoneAccountHandle handoverTo, int videoState,
                                         Bundle extras) {}
+        @Override
+        public void onConferenceStateChanged(Call call) {}
     }
 
     private final CallerInfoLookupHelper.OnQueryCompleteListener mCallerInfoQueryListener =
@@ -346,14 +356,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
      */
     private Intent mOriginalCallIntent = null;
 
-    /** Set of listeners on this call.
-     *
-     * ConcurrentHashMap constructor params: 8 is initial table size, 0.9f is
-     * load factor before resizing, 1 means we only expect a single thread to
-     * access the map so make only a single shard
-     */
-    private final Set<Listener> mListeners = Collections.newSetFromMap(
-            new ConcurrentHashMap<Listener, Boolean>(8, 0.9f, 1));
+    /** Listeners on this call, by the callbacks they handle. */
+    private final CallListeners mListeners = new CallListeners();
 
     private CreateConnectionProcessor mCreateConnectionProcessor;
 
@@ -394,7 +398,9 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
 
     private boolean mIsVoipAudioMode;
     private StatusHints mStatusHints;
-    private Bundle mExtras;
+    private VersionedExtras mExtras;
+    /** The version of {@link #mExtras} the connection service is known to have. */
+    private long mConnectionServiceExtrasVersion;
     private final ConnectionServiceRepository mRepository;
     private final Context mContext;
     private final CallsManager mCallsManager;
@@ -880,7 +886,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
 
     void setRingbackRequested(boolean ringbackRequested) {
         mRingbackRequested = ringbackRequested;
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListeners.ON_RINGBACK_REQUESTED)) {
             l.onRingbackRequested(this, mRingbackRequested);
         }
     }
@@ -946,7 +952,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
                                 mHandle.getSchemeSpecificPart());
             }
             startCallerInfoLookup();
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListeners.ON_HANDLE_CHANGED)) {
                 l.onHandleChanged(this);
             }
         }
@@ -965,7 +971,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
                 presentation != mCallerDisplayNamePresentation) {
             mCallerDisplayName = callerDisplayName;
             mCallerDisplayNamePresentation = presentation;
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListeners.ON_CALLER_DISPLAY_NAME_CHANGED)) {
                 l.onCallerDisplayNameChanged(this);
             }
         }
@@ -1036,7 +1042,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
     public void setConnectionManagerPhoneAccount(PhoneAccountHandle accountHandle) {
         if (!Objects.equals(mConnectionManagerPhoneAccountHandle, accountHandle)) {
             mConnectionManagerPhoneAccountHandle = accountHandle;
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(
+                    CallListeners.ON_CONNECTION_MANAGER_PHONE_ACCOUNT_CHANGED)) {
                 l.onConnectionManagerPhoneAccountChanged(this);
             }
         }
@@ -1052,7 +1059,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
     public void setTargetPhoneAccount(PhoneAccountHandle accountHandle) {
         if (!Objects.equals(mTargetPhoneAccountHandle, accountHandle)) {
             mTargetPhoneAccountHandle = accountHandle;
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListeners.ON_TARGET_PHONE_ACCOUNT_CHANGED)) {
                 l.onTargetPhoneAccountChanged(this);
             }
             configureIsWorkCall();
@@ -1297,7 +1304,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
 
             int previousCapabilities = mConnectionCapabilities;
             mConnectionCapabilities = connectionCapabilities;
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListeners.ON_CONNECTION_CAPABILITIES_CHANGED)) {
                 l.onConnectionCapabilitiesChanged(this);
             }
 
@@ -1330,7 +1337,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
                     Connection.PROPERTY_IS_RTT);
             boolean didRttChange =
                     (changedProperties & Connection.PROPERTY_IS_RTT) == Connection.PROPERTY_IS_RTT;
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListeners.ON_CONNECTION_PROPERTIES_CHANGED)) {
                 l.onConnectionPropertiesChanged(this, didRttChange);
             }
 
@@ -1342,7 +1349,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
                 Log.v(this, "setConnectionProperties: external call changed isExternal = %b",
                         isExternal);
                 Log.addEvent(this, LogUtils.Events.IS_EXTERNAL, isExternal);
-                for (Listener l : mListeners) {
+                for (Listener l : mListeners.get(CallListeners.ON_EXTERNAL_CALL_CHANGED)) {
                     l.onExternalCallChanged(this, isExternal);
                 }
             }
@@ -1423,6 +1430,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
 
         service.incrementAssociatedCallCount();
         mConnectionService = service;
+        // The new connection service hasn't been sent any of the extras yet.
+        mConnectionServiceExtrasVersion = 0;
         mAnalytics.setCallConnectionService(service.getComponentName().flattenToShortString());
         mConnectionService.addCall(this);
     }
@@ -1452,6 +1461,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
 
         service.incrementAssociatedCallCount();
         mConnectionService = service;
+        // The new connection service hasn't been sent any of the extras yet.
+        mConnectionServiceExtrasVersion = 0;
         mAnalytics.setCallConnectionService(service.getComponentName().flattenToShortString());
     }
 
@@ -1521,18 +1532,18 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
             case CALL_DIRECTION_INCOMING:
                 // Listeners (just CallsManager for now) will be responsible for checking whether
                 // the call should be blocked.
-                for (Listener l : mListeners) {
+                for (Listener l : mListeners.get(CallListeners.ON_SUCCESSFUL_INCOMING_CALL)) {
                     l.onSuccessfulIncomingCall(this);
                 }
                 break;
             case CALL_DIRECTION_OUTGOING:
-                for (Listener l : mListeners) {
+                for (Listener l : mListeners.get(CallListeners.ON_SUCCESSFUL_OUTGOING_CALL)) {
                     l.onSuccessfulOutgoingCall(this,
                             getStateFromConnectionState(connection.getState()));
                 }
                 break;
             case CALL_DIRECTION_UNKNOWN:
-                for (Listener l : mListeners) {
+                for (Listener l : mListeners.get(CallListeners.ON_SUCCESSFUL_UNKNOWN_CALL)) {
                     l.onSuccessfulUnknownCall(this, getStateFromConnectionState(connection
                             .getState()));
                 }
@@ -1548,17 +1559,17 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
 
         switch (mCallDirection) {
             case CALL_DIRECTION_INCOMING:
-                for (Listener listener : mListeners) {
+                for (Listener listener : mListeners.get(CallListeners.ON_FAILED_INCOMING_CALL)) {
                     listener.onFailedIncomingCall(this);
                 }
                 break;
             case CALL_DIRECTION_OUTGOING:
-                for (Listener listener : mListeners) {
+                for (Listener listener : mListeners.get(CallListeners.ON_FAILED_OUTGOING_CALL)) {
                     listener.onFailedOutgoingCall(this, disconnectCause);
                 }
                 break;
             case CALL_DIRECTION_UNKNOWN:
-                for (Listener listener : mListeners) {
+                for (Listener listener : mListeners.get(CallListeners.ON_FAILED_UNKNOWN_CALL)) {
                     listener.onFailedUnknownCall(this);
                 }
                 break;
@@ -1655,7 +1666,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
                 // the second call so that in-call only ever sees a single call...eliminating the
                 // jank altogether. The app will also be able to set the timeout via an extra on
                 // the ordered broadcast.
-                for (Listener listener : mListeners) {
+                for (Listener listener : mListeners.get(
+                        CallListeners.ON_CANCELED_VIA_NEW_OUTGOING_CALL_BROADCAST)) {
                     if (listener.onCanceledViaNewOutgoingCallBroadcast(
                             this, disconnectionTimeout)) {
                         // The first listener to handle this wins. A return value of true means that
@@ -1776,7 +1788,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
     }
 
     Bundle getExtras() {
-        return mExtras;
+        return mExtras == null ? null : mExtras.getBundle();
     }
 
     /**
@@ -1786,7 +1798,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
      * {@link #SOURCE_CONNECTION_SERVICE}, {@link #SOURCE_INCALL_SERVICE}).  Extras changes which
      * originate from a connection service will only be notified to incall services.  Likewise,
      * changes originating from the incall services will only notify the connection service of the
-     * change.
+     * change.  Only the extras whose values actually change are notified; if none do, nothing is.
      *
      * @param source The source of the extras addition.
      * @param extras The extras.
@@ -1796,18 +1808,26 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
             return;
         }
         if (mExtras == null) {
-            mExtras = new Bundle();
+            mExtras = new VersionedExtras();
+        }
+        boolean isConnectionServiceUpToDate =
+                mConnectionServiceExtrasVersion == mExtras.getVersion();
+        Bundle changed = mExtras.put(extras);
+        if (changed.isEmpty()) {
+            return;
+        }
+        if (source == SOURCE_CONNECTION_SERVICE && isConnectionServiceUpToDate) {
+            mConnectionServiceExtrasVersion = mExtras.getVersion();
         }
-        mExtras.putAll(extras);
 
-        for (Listener l : mListeners) {
-            l.onExtrasChanged(this, source, extras);
+        for (Listener l : mListeners.get(CallListeners.ON_EXTRAS_CHANGED)) {
+            l.onExtrasChanged(this, source, changed);
         }
 
         // If the change originated from an InCallService, notify the connection service.
         if (source == SOURCE_INCALL_SERVICE) {
             if (mConnectionService != null) {
-                mConnectionService.onExtrasChanged(this, mExtras);
+                sendExtrasToConnectionService();
             } else {
                 Log.e(this, new NullPointerException(),
                         "putExtras failed due to null CS callId=%s", getId());
@@ -1822,7 +1842,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
      * {@link #SOURCE_CONNECTION_SERVICE}, {@link #SOURCE_INCALL_SERVICE}).  Extras changes which
      * originate from a connection service will only be notified to incall services.  Likewise,
      * changes originating from the incall services will only notify the connection service of the
-     * change.
+     * change.  Only the keys which were present are notified; if none were, nothing is.
      *
      * @param source The source of the extras removal.
      * @param keys The extra keys to remove.
@@ -1831,18 +1851,24 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
         if (mExtras == null) {
             return;
         }
-        for (String key : keys) {
-            mExtras.remove(key);
+        boolean isConnectionServiceUpToDate =
+                mConnectionServiceExtrasVersion == mExtras.getVersion();
+        List<String> removed = mExtras.remove(keys);
+        if (removed.isEmpty()) {
+            return;
+        }
+        if (source == SOURCE_CONNECTION_SERVICE && isConnectionServiceUpToDate) {
+            mConnectionServiceExtrasVersion = mExtras.getVersion();
         }
 
-        for (Listener l : mListeners) {
-            l.onExtrasRemoved(this, source, keys);
+        for (Listener l : mListeners.get(CallListeners.ON_EXTRAS_REMOVED)) {
+            l.onExtrasRemoved(this, source, removed);
         }
 
         // If the change originated from an InCallService, notify the connection service.
         if (source == SOURCE_INCALL_SERVICE) {
             if (mConnectionService != null) {
-                mConnectionService.onExtrasChanged(this, mExtras);
+                sendExtrasToConnectionService();
             } else {
                 Log.e(this, new NullPointerException(),
                         "removeExtras failed due to null CS callId=%s", getId());
@@ -1850,6 +1876,32 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
         }
     }
 
+    /**
+     * Brings the connection service's extras up to date.  If it supports
+     * {@link #EXTRA_SUPPORTS_EXTRAS_DELTAS}, it is only sent the extras which changed since it was
+     * last up to date; a delta can't express a removal though, so once a key has been removed it
+     * is sent the whole bundle.
+     */
+    private void sendExtrasToConnectionService() {
+        Bundle extras = mExtras.getBundle();
+        if (isExtrasDeltaSupported()
+                && mExtras.getRemovedSince(mConnectionServiceExtrasVersion).isEmpty()) {
+            extras = mExtras.getChangedSince(mConnectionServiceExtrasVersion);
+        }
+        mConnectionService.onExtrasChanged(this, extras);
+        mConnectionServiceExtrasVersion = mExtras.getVersion();
+    }
+
+    private boolean isExtrasDeltaSupported() {
+        if (getTargetPhoneAccount() == null) {
+            return false;
+        }
+        PhoneAccount phoneAccount = mCallsManager.getPhoneAccountRegistrar()
+                .getPhoneAccountUnchecked(getTargetPhoneAccount());
+        return phoneAccount != null && phoneAccount.getExtras() != null
+                && phoneAccount.getExtras().getBoolean(EXTRA_SUPPORTS_EXTRAS_DELTAS, false);
+    }
+
     @VisibleForTesting
     public Bundle getIntentExtras() {
         return mIntentExtras;
@@ -1883,13 +1935,13 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
     }
 
     void onPostDialWait(String remaining) {
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListeners.ON_POST_DIAL_WAIT)) {
             l.onPostDialWait(this, remaining);
         }
     }
 
     void onPostDialChar(char nextChar) {
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListeners.ON_POST_DIAL_CHAR)) {
             l.onPostDialChar(this, nextChar);
         }
     }
@@ -1929,6 +1981,9 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
             Log.addEvent(this, LogUtils.Events.CONFERENCE_WITH);
             mConnectionService.mergeConference(this);
             mWasConferencePreviouslyMerged = true;
+            for (Listener l : mListeners.get(CallListeners.ON_CONFERENCE_STATE_CHANGED)) {
+                l.onConferenceStateChanged(this);
+            }
         }
     }
 
@@ -1953,6 +2008,9 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
                     mConferenceLevelActiveCall = null;
                     break;
             }
+            for (Listener l : mListeners.get(CallListeners.ON_CONFERENCE_STATE_CHANGED)) {
+                l.onConferenceStateChanged(this);
+            }
         }
     }
 
@@ -2061,7 +2119,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
      */
     void notifyParentChanged(Call parentCall) {
         Log.addEvent(this, LogUtils.Events.SET_PARENT, parentCall);
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListeners.ON_PARENT_CHANGED)) {
             l.onParentChanged(this);
         }
     }
@@ -2106,7 +2164,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
         mConferenceableCalls.clear();
         mConferenceableCalls.addAll(conferenceableCalls);
 
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListeners.ON_CONFERENCEABLE_CALLS_CHANGED)) {
             l.onConferenceableCallsChanged(this);
         }
     }
@@ -2135,7 +2193,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
 
             Log.addEvent(this, LogUtils.Events.ADD_CHILD, call);
 
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListeners.ON_CHILDREN_CHANGED)) {
                 l.onChildrenChanged(this);
             }
         }
@@ -2144,7 +2202,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
     private void removeChildCall(Call call) {
         if (mChildCalls.remove(call)) {
             Log.addEvent(this, LogUtils.Events.REMOVE_CHILD, call);
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListeners.ON_CHILDREN_CHANGED)) {
                 l.onChildrenChanged(this);
             }
         }
@@ -2270,7 +2328,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
 
         if (mCallerInfo.contactDisplayPhotoUri == null ||
                 mCallerInfo.cachedPhotoIcon != null || mCallerInfo.cachedPhoto != null) {
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListeners.ON_CALLER_INFO_CHANGED)) {
                 l.onCallerInfoChanged(this);
             }
         }
@@ -2295,7 +2353,8 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
                             if (result.length > 0) {
                                 Log.d(this, "maybeLoadCannedSmsResponses: got %s", result[0]);
                                 mCannedSmsResponses = result[0];
-                                for (Listener l : mListeners) {
+                                for (Listener l : mListeners.get(
+                                        CallListeners.ON_CANNED_SMS_RESPONSES_LOADED)) {
                                     l.onCannedSmsResponsesLoaded(Call.this);
                                 }
                             }
@@ -2364,7 +2423,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
 
     public void onRttConnectionFailure(int reason) {
         setRttStreams(false);
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListeners.ON_RTT_INITIATION_FAILURE)) {
             l.onRttInitiationFailure(this, reason);
         }
     }
@@ -2376,7 +2435,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
         }
 
         mPendingRttRequestId = mCallsManager.getNextRttRequestId();
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListeners.ON_REMOTE_RTT_REQUEST)) {
             l.onRemoteRttRequest(this, mPendingRttRequestId);
         }
     }
@@ -2452,7 +2511,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
 
         mVideoProvider = videoProvider;
 
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListeners.ON_VIDEO_CALL_PROVIDER_CHANGED)) {
             l.onVideoCallProviderChanged(Call.this);
         }
     }
@@ -2526,7 +2585,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
         if (mVideoState != previousVideoState) {
             Log.addEvent(this, LogUtils.Events.VIDEO_STATE_CHANGED,
                     VideoProfile.videoStateToString(videoState));
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListeners.ON_VIDEO_STATE_CHANGED)) {
                 l.onVideoStateChanged(this, previousVideoState, mVideoState);
             }
         }
@@ -2542,7 +2601,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
 
     public void setIsVoipAudioMode(boolean audioModeIsVoip) {
         mIsVoipAudioMode = audioModeIsVoip;
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListeners.ON_IS_VOIP_AUDIO_MODE_CHANGED)) {
             l.onIsVoipAudioModeChanged(this);
         }
     }
@@ -2553,7 +2612,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
 
     public void setStatusHints(StatusHints statusHints) {
         mStatusHints = statusHints;
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListeners.ON_STATUS_HINTS_CHANGED)) {
             l.onStatusHintsChanged(this);
         }
     }
@@ -2693,17 +2752,17 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
             Log.addEvent(this, LogUtils.Events.REMOTELY_HELD);
             // Inform listeners of the fact that a call hold tone was received.  This will trigger
             // the CallAudioManager to play a tone via the InCallTonePlayer.
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListeners.ON_HOLD_TONE_REQUESTED)) {
                 l.onHoldToneRequested(this);
             }
         } else if (Connection.EVENT_ON_HOLD_TONE_END.equals(event)) {
             mIsRemotelyHeld = false;
             Log.addEvent(this, LogUtils.Events.REMOTELY_UNHELD);
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListeners.ON_HOLD_TONE_REQUESTED)) {
                 l.onHoldToneRequested(this);
             }
         } else {
-            for (Listener l : mListeners) {
+            for (Listener l : mListeners.get(CallListeners.ON_CONNECTION_EVENT)) {
                 l.onConnectionEvent(this, event, extras);
             }
         }
@@ -2759,7 +2818,7 @@ public class Call implements CreateConnectionResponse, EventManager.Loggable {
      */
     private void requestHandover(PhoneAccountHandle handoverToHandle, int videoState,
                                  Bundle extras) {
-        for (Listener l : mListeners) {
+        for (Listener l : mListeners.get(CallListeners.ON_HANDOVER_REQUESTED)) {
             l.onHandoverRequested(this, handoverToHandle, videoState, extras);
         }
     }
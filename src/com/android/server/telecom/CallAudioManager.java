@@ -238,6 +238,10 @@ public class CallAudioManager extends CallsManagerListenerBase {
         }
 
         maybeStopRingingAndCallWaitingForAnsweredOrRejectedCall(call);
+
+        // Start bringing up bluetooth audio while the connection service answers the call.
+        mCallAudioRouteStateMachine.sendMessageWithSessionInfo(
+                CallAudioRouteStateMachine.PRECONNECT_BLUETOOTH);
     }
 
     @Override
@@ -497,6 +501,16 @@ public class CallAudioManager extends CallsManagerListenerBase {
         pw.increaseIndent();
         mCallAudioRouteStateMachine.dumpPendingMessages(pw);
         pw.decreaseIndent();
+
+        pw.println("CallAudioRouteStateMachine transition latencies (ms):");
+        pw.increaseIndent();
+        mCallAudioRouteStateMachine.dumpTransitionLatencies(pw);
+        pw.decreaseIndent();
+
+        pw.println("In-call tones:");
+        pw.increaseIndent();
+        mPlayerFactory.dump(pw);
+        pw.decreaseIndent();
     }
 
     @VisibleForTesting
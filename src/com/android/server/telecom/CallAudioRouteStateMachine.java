@@ -107,6 +107,8 @@ public class CallAudioRouteStateMachine extends StateMachine {
     public static final int TOGGLE_MUTE = 3003;
 
     public static final int SWITCH_FOCUS = 4001;
+    // Sent when a ringing call is answered; starts connecting SCO before the call becomes active.
+    public static final int PRECONNECT_BLUETOOTH = 4002;
 
     // Used in testing to execute verifications. Not compatible with subsessions.
     public static final int RUN_RUNNABLE = 9001;
@@ -120,6 +122,39 @@ public class CallAudioRouteStateMachine extends StateMachine {
     public static final int NO_INCLUDE_BLUETOOTH_IN_BASELINE = 0;
     public static final int INCLUDE_BLUETOOTH_IN_BASELINE = 1;
 
+    // Indices into the route switch table; route code == 1 << route index.
+    private static final int ROUTE_INDEX_EARPIECE = 0;
+    private static final int ROUTE_INDEX_BLUETOOTH = 1;
+    private static final int ROUTE_INDEX_WIRED_HEADSET = 2;
+    private static final int ROUTE_INDEX_SPEAKER = 3;
+    private static final int NUM_ROUTES = 4;
+    private static final String[] ROUTE_INDEX_TO_NAME =
+            {"earpiece", "bluetooth", "headset", "speaker"};
+
+    // Side effects of the user explicitly switching away from a route.
+    private static final int USER_SWITCH_FLAG_LEFT_BLUETOOTH = 1 << 0;
+    private static final int USER_SWITCH_FLAG_LEFT_SPEAKER = 1 << 1;
+
+    // Values of a cached AudioManager fact.
+    private static final int FACT_UNKNOWN = 0;
+    private static final int FACT_FALSE = 1;
+    private static final int FACT_TRUE = 2;
+
+    // Every CallAudioState the state machine can report, indexed by getCallAudioStateIndex.
+    // CallAudioState is immutable, so these are shared rather than allocated on every message.
+    private static final CallAudioState[] CALL_AUDIO_STATES =
+            new CallAudioState[2 * NUM_ROUTES * (CallAudioState.ROUTE_ALL + 1)];
+    static {
+        for (int muted = 0; muted < 2; muted++) {
+            for (int routeIndex = 0; routeIndex < NUM_ROUTES; routeIndex++) {
+                for (int mask = 0; mask <= CallAudioState.ROUTE_ALL; mask++) {
+                    CALL_AUDIO_STATES[getCallAudioStateIndex(muted == 1, routeIndex, mask)] =
+                            new CallAudioState(muted == 1, 1 << routeIndex, mask);
+                }
+            }
+        }
+    }
+
     @VisibleForTesting
     public static final SparseArray<String> AUDIO_ROUTE_TO_LOG_EVENT = new SparseArray<String>() {{
         put(CallAudioState.ROUTE_BLUETOOTH, LogUtils.Events.AUDIO_ROUTE_BT);
@@ -128,7 +163,8 @@ public class CallAudioRouteStateMachine extends StateMachine {
         put(CallAudioState.ROUTE_WIRED_HEADSET, LogUtils.Events.AUDIO_ROUTE_HEADSET);
     }};
 
-    private static final SparseArray<String> MESSAGE_CODE_TO_NAME = new SparseArray<String>() {{
+    @VisibleForTesting
+    public static final SparseArray<String> MESSAGE_CODE_TO_NAME = new SparseArray<String>() {{
         put(CONNECT_WIRED_HEADSET, "CONNECT_WIRED_HEADSET");
         put(DISCONNECT_WIRED_HEADSET, "DISCONNECT_WIRED_HEADSET");
         put(CONNECT_BLUETOOTH, "CONNECT_BLUETOOTH");
@@ -156,6 +192,7 @@ public class CallAudioRouteStateMachine extends StateMachine {
         put(TOGGLE_MUTE, "TOGGLE_MUTE");
 
         put(SWITCH_FOCUS, "SWITCH_FOCUS");
+        put(PRECONNECT_BLUETOOTH, "PRECONNECT_BLUETOOTH");
 
         put(RUN_RUNNABLE, "RUN_RUNNABLE");
     }};
@@ -179,19 +216,36 @@ public class CallAudioRouteStateMachine extends StateMachine {
             Log.continueSession((Session) msg.obj, "CARSM.pM_" + messageCodeName);
             Log.i(this, "Message received: %s=%d, arg1=%d", messageCodeName, msg.what, msg.arg1);
         }
+        // Other apps can change these, so they're only trusted for the duration of one message.
+        mSpeakerphoneState = FACT_UNKNOWN;
+        mMicrophoneMuteState = FACT_UNKNOWN;
+        mTransitionTracker.onMessageStarted(msg, getCurrentStateName());
     }
 
     @Override
     protected void onPostHandleMessage(Message msg) {
+        mTransitionTracker.onMessageFinished(getCurrentStateName());
         Log.endSession();
     }
 
     abstract class AudioState extends State {
+        // This state's row of the route switch table, indexed by route index. A null entry means
+        // that this state is already on that route. Filled in by the constructor.
+        private final AudioState[] mSwitchTargets = new AudioState[NUM_ROUTES];
+        // USER_SWITCH_FLAG_* to apply when the user switches away from this state's route.
+        private int mUserSwitchFlags;
+        private String mEnterEvent;
+        private String mExitEvent;
+
         @Override
         public void enter() {
             super.enter();
+            mTransitionTracker.onStateEntered();
+            if (mEnterEvent == null) {
+                mEnterEvent = "Entering state " + getName();
+            }
             Log.addEvent(mCallsManager.getForegroundCall(), LogUtils.Events.AUDIO_ROUTE,
-                    "Entering state " + getName());
+                    mEnterEvent);
             if (isActive()) {
                 Log.addEvent(mCallsManager.getForegroundCall(),
                         AUDIO_ROUTE_TO_LOG_EVENT.get(getRouteCode(), LogUtils.Events.AUDIO_ROUTE));
@@ -200,8 +254,11 @@ public class CallAudioRouteStateMachine extends StateMachine {
 
         @Override
         public void exit() {
+            if (mExitEvent == null) {
+                mExitEvent = "Leaving state " + getName();
+            }
             Log.addEvent(mCallsManager.getForegroundCall(), LogUtils.Events.AUDIO_ROUTE,
-                    "Leaving state " + getName());
+                    mExitEvent);
             super.exit();
         }
 
@@ -246,6 +303,22 @@ public class CallAudioRouteStateMachine extends StateMachine {
                 case SWITCH_FOCUS:
                     mAudioFocusType = msg.arg1;
                     return NOT_HANDLED;
+                case SWITCH_EARPIECE:
+                case USER_SWITCH_EARPIECE:
+                    switchRoute(ROUTE_INDEX_EARPIECE, msg.what == USER_SWITCH_EARPIECE);
+                    return HANDLED;
+                case SWITCH_BLUETOOTH:
+                case USER_SWITCH_BLUETOOTH:
+                    switchRoute(ROUTE_INDEX_BLUETOOTH, msg.what == USER_SWITCH_BLUETOOTH);
+                    return HANDLED;
+                case SWITCH_HEADSET:
+                case USER_SWITCH_HEADSET:
+                    switchRoute(ROUTE_INDEX_WIRED_HEADSET, msg.what == USER_SWITCH_HEADSET);
+                    return HANDLED;
+                case SWITCH_SPEAKER:
+                case USER_SWITCH_SPEAKER:
+                    switchRoute(ROUTE_INDEX_SPEAKER, msg.what == USER_SWITCH_SPEAKER);
+                    return HANDLED;
                 default:
                     return NOT_HANDLED;
             }
@@ -259,6 +332,42 @@ public class CallAudioRouteStateMachine extends StateMachine {
             return NOT_HANDLED;
         }
 
+        void setSwitchTargets(int userSwitchFlags, AudioState earpiece, AudioState bluetooth,
+                AudioState headset, AudioState speaker) {
+            mUserSwitchFlags = userSwitchFlags;
+            mSwitchTargets[ROUTE_INDEX_EARPIECE] = earpiece;
+            mSwitchTargets[ROUTE_INDEX_BLUETOOTH] = bluetooth;
+            mSwitchTargets[ROUTE_INDEX_WIRED_HEADSET] = headset;
+            mSwitchTargets[ROUTE_INDEX_SPEAKER] = speaker;
+        }
+
+        private void switchRoute(int routeIndex, boolean isExplicitUserRequest) {
+            AudioState target = mSwitchTargets[routeIndex];
+            if (target == null) {
+                // Nothing to do, we're already on this route.
+                return;
+            }
+            if (isExplicitUserRequest) {
+                if ((mUserSwitchFlags & USER_SWITCH_FLAG_LEFT_BLUETOOTH) != 0) {
+                    mHasUserExplicitlyLeftBluetooth = true;
+                }
+                if ((mUserSwitchFlags & USER_SWITCH_FLAG_LEFT_SPEAKER) != 0) {
+                    mWasOnSpeaker = false;
+                }
+            }
+            int route = 1 << routeIndex;
+            // The speakerphone is always available.
+            if (route != ROUTE_SPEAKER && (mAvailableRoutes & route) == 0) {
+                Log.w(this, "Ignoring switch to %s command. Not available.",
+                        ROUTE_INDEX_TO_NAME[routeIndex]);
+                return;
+            }
+            if (target == mActiveBluetoothRoute && mAudioFocusType != ACTIVE_FOCUS) {
+                target = mRingingBluetoothRoute;
+            }
+            transitionTo(target);
+        }
+
         // Behavior will depend on whether the state is an active one or a quiescent one.
         abstract public void updateSystemAudioState();
         abstract public boolean isActive();
@@ -281,8 +390,7 @@ public class CallAudioRouteStateMachine extends StateMachine {
             super.enter();
             setSpeakerphoneOn(false);
             setBluetoothOn(false);
-            CallAudioState newState = new CallAudioState(mIsMuted, ROUTE_EARPIECE,
-                    mAvailableRoutes);
+            CallAudioState newState = getCallAudioState(mIsMuted, ROUTE_EARPIECE, mAvailableRoutes);
             setSystemAudioState(newState, true);
             updateInternalCallAudioState();
         }
@@ -299,31 +407,6 @@ public class CallAudioRouteStateMachine extends StateMachine {
                 return HANDLED;
             }
             switch (msg.what) {
-                case SWITCH_EARPIECE:
-                case USER_SWITCH_EARPIECE:
-                    // Nothing to do here
-                    return HANDLED;
-                case SWITCH_BLUETOOTH:
-                case USER_SWITCH_BLUETOOTH:
-                    if ((mAvailableRoutes & ROUTE_BLUETOOTH) != 0) {
-                        transitionTo(mAudioFocusType == ACTIVE_FOCUS ?
-                                mActiveBluetoothRoute : mRingingBluetoothRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to bluetooth command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_HEADSET:
-                case USER_SWITCH_HEADSET:
-                    if ((mAvailableRoutes & ROUTE_WIRED_HEADSET) != 0) {
-                        transitionTo(mActiveHeadsetRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to headset command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_SPEAKER:
-                case USER_SWITCH_SPEAKER:
-                    transitionTo(mActiveSpeakerRoute);
-                    return HANDLED;
                 case SWITCH_FOCUS:
                     if (msg.arg1 == NO_FOCUS) {
                         reinitialize();
@@ -364,30 +447,6 @@ public class CallAudioRouteStateMachine extends StateMachine {
                 return HANDLED;
             }
             switch (msg.what) {
-                case SWITCH_EARPIECE:
-                case USER_SWITCH_EARPIECE:
-                    // Nothing to do here
-                    return HANDLED;
-                case SWITCH_BLUETOOTH:
-                case USER_SWITCH_BLUETOOTH:
-                    if ((mAvailableRoutes & ROUTE_BLUETOOTH) != 0) {
-                        transitionTo(mQuiescentBluetoothRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to bluetooth command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_HEADSET:
-                case USER_SWITCH_HEADSET:
-                    if ((mAvailableRoutes & ROUTE_WIRED_HEADSET) != 0) {
-                        transitionTo(mQuiescentHeadsetRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to headset command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_SPEAKER:
-                case USER_SWITCH_SPEAKER:
-                    transitionTo(mQuiescentSpeakerRoute);
-                    return HANDLED;
                 case SWITCH_FOCUS:
                     if (msg.arg1 == ACTIVE_FOCUS || msg.arg1 == RINGING_FOCUS) {
                         transitionTo(mActiveEarpieceRoute);
@@ -464,8 +523,8 @@ public class CallAudioRouteStateMachine extends StateMachine {
             super.enter();
             setSpeakerphoneOn(false);
             setBluetoothOn(false);
-            CallAudioState newState = new CallAudioState(mIsMuted, ROUTE_WIRED_HEADSET,
-                    mAvailableRoutes);
+            CallAudioState newState =
+                    getCallAudioState(mIsMuted, ROUTE_WIRED_HEADSET, mAvailableRoutes);
             setSystemAudioState(newState, true);
             updateInternalCallAudioState();
         }
@@ -482,31 +541,6 @@ public class CallAudioRouteStateMachine extends StateMachine {
                 return HANDLED;
             }
             switch (msg.what) {
-                case SWITCH_EARPIECE:
-                case USER_SWITCH_EARPIECE:
-                    if ((mAvailableRoutes & ROUTE_EARPIECE) != 0) {
-                        transitionTo(mActiveEarpieceRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to earpiece command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_BLUETOOTH:
-                case USER_SWITCH_BLUETOOTH:
-                    if ((mAvailableRoutes & ROUTE_BLUETOOTH) != 0) {
-                        transitionTo(mAudioFocusType == ACTIVE_FOCUS ?
-                                mActiveBluetoothRoute : mRingingBluetoothRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to bluetooth command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_HEADSET:
-                case USER_SWITCH_HEADSET:
-                    // Nothing to do
-                    return HANDLED;
-                case SWITCH_SPEAKER:
-                case USER_SWITCH_SPEAKER:
-                    transitionTo(mActiveSpeakerRoute);
-                    return HANDLED;
                 case SWITCH_FOCUS:
                     if (msg.arg1 == NO_FOCUS) {
                         reinitialize();
@@ -547,30 +581,6 @@ public class CallAudioRouteStateMachine extends StateMachine {
                 return HANDLED;
             }
             switch (msg.what) {
-                case SWITCH_EARPIECE:
-                case USER_SWITCH_EARPIECE:
-                    if ((mAvailableRoutes & ROUTE_EARPIECE) != 0) {
-                        transitionTo(mQuiescentEarpieceRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to earpiece command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_BLUETOOTH:
-                case USER_SWITCH_BLUETOOTH:
-                    if ((mAvailableRoutes & ROUTE_BLUETOOTH) != 0) {
-                        transitionTo(mQuiescentBluetoothRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to bluetooth command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_HEADSET:
-                case USER_SWITCH_HEADSET:
-                    // Nothing to do
-                    return HANDLED;
-                case SWITCH_SPEAKER:
-                case USER_SWITCH_SPEAKER:
-                    transitionTo(mQuiescentSpeakerRoute);
-                    return HANDLED;
                 case SWITCH_FOCUS:
                     if (msg.arg1 == ACTIVE_FOCUS || msg.arg1 == RINGING_FOCUS) {
                         transitionTo(mActiveHeadsetRoute);
@@ -651,8 +661,8 @@ public class CallAudioRouteStateMachine extends StateMachine {
             super.enter();
             setSpeakerphoneOn(false);
             setBluetoothOn(true);
-            CallAudioState newState = new CallAudioState(mIsMuted, ROUTE_BLUETOOTH,
-                    mAvailableRoutes);
+            CallAudioState newState =
+                    getCallAudioState(mIsMuted, ROUTE_BLUETOOTH, mAvailableRoutes);
             setSystemAudioState(newState, true);
             updateInternalCallAudioState();
         }
@@ -669,36 +679,6 @@ public class CallAudioRouteStateMachine extends StateMachine {
                 return HANDLED;
             }
             switch (msg.what) {
-                case USER_SWITCH_EARPIECE:
-                    mHasUserExplicitlyLeftBluetooth = true;
-                    // fall through
-                case SWITCH_EARPIECE:
-                    if ((mAvailableRoutes & ROUTE_EARPIECE) != 0) {
-                        transitionTo(mActiveEarpieceRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to earpiece command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_BLUETOOTH:
-                case USER_SWITCH_BLUETOOTH:
-                    // Nothing to do
-                    return HANDLED;
-                case USER_SWITCH_HEADSET:
-                    mHasUserExplicitlyLeftBluetooth = true;
-                    // fall through
-                case SWITCH_HEADSET:
-                    if ((mAvailableRoutes & ROUTE_WIRED_HEADSET) != 0) {
-                        transitionTo(mActiveHeadsetRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to headset command. Not available.");
-                    }
-                    return HANDLED;
-                case USER_SWITCH_SPEAKER:
-                    mHasUserExplicitlyLeftBluetooth = true;
-                    // fall through
-                case SWITCH_SPEAKER:
-                    transitionTo(mActiveSpeakerRoute);
-                    return HANDLED;
                 case SWITCH_FOCUS:
                     if (msg.arg1 == NO_FOCUS) {
                         reinitialize();
@@ -731,8 +711,8 @@ public class CallAudioRouteStateMachine extends StateMachine {
             super.enter();
             setSpeakerphoneOn(false);
             // Do not enable SCO audio here, since RING is being sent to the headset.
-            CallAudioState newState = new CallAudioState(mIsMuted, ROUTE_BLUETOOTH,
-                    mAvailableRoutes);
+            CallAudioState newState =
+                    getCallAudioState(mIsMuted, ROUTE_BLUETOOTH, mAvailableRoutes);
             setSystemAudioState(newState);
             updateInternalCallAudioState();
         }
@@ -749,36 +729,6 @@ public class CallAudioRouteStateMachine extends StateMachine {
                 return HANDLED;
             }
             switch (msg.what) {
-                case USER_SWITCH_EARPIECE:
-                    mHasUserExplicitlyLeftBluetooth = true;
-                    // fall through
-                case SWITCH_EARPIECE:
-                    if ((mAvailableRoutes & ROUTE_EARPIECE) != 0) {
-                        transitionTo(mActiveEarpieceRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to earpiece command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_BLUETOOTH:
-                case USER_SWITCH_BLUETOOTH:
-                    // Nothing to do
-                    return HANDLED;
-                case USER_SWITCH_HEADSET:
-                    mHasUserExplicitlyLeftBluetooth = true;
-                    // fall through
-                case SWITCH_HEADSET:
-                    if ((mAvailableRoutes & ROUTE_WIRED_HEADSET) != 0) {
-                        transitionTo(mActiveHeadsetRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to headset command. Not available.");
-                    }
-                    return HANDLED;
-                case USER_SWITCH_SPEAKER:
-                    mHasUserExplicitlyLeftBluetooth = true;
-                    // fall through
-                case SWITCH_SPEAKER:
-                    transitionTo(mActiveSpeakerRoute);
-                    return HANDLED;
                 case SWITCH_FOCUS:
                     if (msg.arg1 == NO_FOCUS) {
                         reinitialize();
@@ -786,6 +736,15 @@ public class CallAudioRouteStateMachine extends StateMachine {
                         transitionTo(mActiveBluetoothRoute);
                     }
                     return HANDLED;
+                case PRECONNECT_BLUETOOTH:
+                    // The call has been answered but isn't active yet. Start connecting SCO now so
+                    // that it overlaps with the connection service answering the call; entering
+                    // ActiveBluetoothRoute won't reconnect while the connection is pending.
+                    if (mIsBluetoothPreconnectEnabled) {
+                        Log.i(this, "Preconnecting bluetooth audio for answered call");
+                        setBluetoothOn(true);
+                    }
+                    return HANDLED;
                 case BT_AUDIO_DISCONNECT:
                     // BT SCO might be connected when in-band ringing is enabled
                     sendInternalMessage(SWITCH_BASELINE_ROUTE, NO_INCLUDE_BLUETOOTH_IN_BASELINE);
@@ -826,30 +785,6 @@ public class CallAudioRouteStateMachine extends StateMachine {
                 return HANDLED;
             }
             switch (msg.what) {
-                case SWITCH_EARPIECE:
-                case USER_SWITCH_EARPIECE:
-                    if ((mAvailableRoutes & ROUTE_EARPIECE) != 0) {
-                        transitionTo(mQuiescentEarpieceRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to earpiece command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_BLUETOOTH:
-                case USER_SWITCH_BLUETOOTH:
-                    // Nothing to do
-                    return HANDLED;
-                case SWITCH_HEADSET:
-                case USER_SWITCH_HEADSET:
-                    if ((mAvailableRoutes & ROUTE_WIRED_HEADSET) != 0) {
-                        transitionTo(mQuiescentHeadsetRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to headset command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_SPEAKER:
-                case USER_SWITCH_SPEAKER:
-                    transitionTo(mQuiescentSpeakerRoute);
-                    return HANDLED;
                 case SWITCH_FOCUS:
                     if (msg.arg1 == ACTIVE_FOCUS) {
                         transitionTo(mActiveBluetoothRoute);
@@ -924,8 +859,7 @@ public class CallAudioRouteStateMachine extends StateMachine {
             mWasOnSpeaker = true;
             setSpeakerphoneOn(true);
             setBluetoothOn(false);
-            CallAudioState newState = new CallAudioState(mIsMuted, ROUTE_SPEAKER,
-                    mAvailableRoutes);
+            CallAudioState newState = getCallAudioState(mIsMuted, ROUTE_SPEAKER, mAvailableRoutes);
             setSystemAudioState(newState);
             updateInternalCallAudioState();
         }
@@ -942,41 +876,6 @@ public class CallAudioRouteStateMachine extends StateMachine {
                 return HANDLED;
             }
             switch(msg.what) {
-                case USER_SWITCH_EARPIECE:
-                    mWasOnSpeaker = false;
-                    // fall through
-                case SWITCH_EARPIECE:
-                    if ((mAvailableRoutes & ROUTE_EARPIECE) != 0) {
-                        transitionTo(mActiveEarpieceRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to earpiece command. Not available.");
-                    }
-                    return HANDLED;
-                case USER_SWITCH_BLUETOOTH:
-                    mWasOnSpeaker = false;
-                    // fall through
-                case SWITCH_BLUETOOTH:
-                    if ((mAvailableRoutes & ROUTE_BLUETOOTH) != 0) {
-                        transitionTo(mAudioFocusType == ACTIVE_FOCUS ?
-                                mActiveBluetoothRoute : mRingingBluetoothRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to bluetooth command. Not available.");
-                    }
-                    return HANDLED;
-                case USER_SWITCH_HEADSET:
-                    mWasOnSpeaker = false;
-                    // fall through
-                case SWITCH_HEADSET:
-                    if ((mAvailableRoutes & ROUTE_WIRED_HEADSET) != 0) {
-                        transitionTo(mActiveHeadsetRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to headset command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_SPEAKER:
-                case USER_SWITCH_SPEAKER:
-                    // Nothing to do
-                    return HANDLED;
                 case SWITCH_FOCUS:
                     if (msg.arg1 == NO_FOCUS) {
                         reinitialize();
@@ -1019,34 +918,6 @@ public class CallAudioRouteStateMachine extends StateMachine {
                 return HANDLED;
             }
             switch(msg.what) {
-                case SWITCH_EARPIECE:
-                case USER_SWITCH_EARPIECE:
-                    if ((mAvailableRoutes & ROUTE_EARPIECE) != 0) {
-                        transitionTo(mQuiescentEarpieceRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to earpiece command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_BLUETOOTH:
-                case USER_SWITCH_BLUETOOTH:
-                    if ((mAvailableRoutes & ROUTE_BLUETOOTH) != 0) {
-                        transitionTo(mQuiescentBluetoothRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to bluetooth command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_HEADSET:
-                case USER_SWITCH_HEADSET:
-                    if ((mAvailableRoutes & ROUTE_WIRED_HEADSET) != 0) {
-                        transitionTo(mQuiescentHeadsetRoute);
-                    } else {
-                        Log.w(this, "Ignoring switch to headset command. Not available.");
-                    }
-                    return HANDLED;
-                case SWITCH_SPEAKER:
-                case USER_SWITCH_SPEAKER:
-                    // Nothing to do
-                    return HANDLED;
                 case SWITCH_FOCUS:
                     if (msg.arg1 == ACTIVE_FOCUS || msg.arg1 == RINGING_FOCUS) {
                         transitionTo(mActiveSpeakerRoute);
@@ -1133,10 +1004,14 @@ public class CallAudioRouteStateMachine extends StateMachine {
     private final StatusBarNotifier mStatusBarNotifier;
     private final CallAudioManager.AudioServiceFactory mAudioServiceFactory;
     private final boolean mDoesDeviceSupportEarpieceRoute;
+    private final boolean mIsBluetoothPreconnectEnabled;
     private final TelecomSystem.SyncRoot mLock;
     private boolean mHasUserExplicitlyLeftBluetooth = false;
 
-    private HashMap<String, Integer> mStateNameToRouteCode;
+    // AudioManager state as last read or set while handling the current message; FACT_*.
+    private int mSpeakerphoneState = FACT_UNKNOWN;
+    private int mMicrophoneMuteState = FACT_UNKNOWN;
+
     private HashMap<Integer, AudioState> mRouteCodeToQuiescentState;
 
     // CallAudioState is used as an interface to communicate with many other system components.
@@ -1144,6 +1019,9 @@ public class CallAudioRouteStateMachine extends StateMachine {
     private CallAudioState mCurrentCallAudioState;
     private CallAudioState mLastKnownCallAudioState;
 
+    private final CallAudioRouteTransitionTracker mTransitionTracker =
+            new CallAudioRouteTransitionTracker(MESSAGE_CODE_TO_NAME);
+
     public CallAudioRouteStateMachine(
             Context context,
             CallsManager callsManager,
@@ -1171,18 +1049,31 @@ public class CallAudioRouteStateMachine extends StateMachine {
         mStatusBarNotifier = statusBarNotifier;
         mAudioServiceFactory = audioServiceFactory;
         mDoesDeviceSupportEarpieceRoute = doesDeviceSupportEarpieceRoute;
+        mIsBluetoothPreconnectEnabled = mContext.getResources().getBoolean(
+                R.bool.preconnect_bluetooth_audio_on_answer);
         mLock = callsManager.getLock();
 
-        mStateNameToRouteCode = new HashMap<>(8);
-        mStateNameToRouteCode.put(mQuiescentEarpieceRoute.getName(), ROUTE_EARPIECE);
-        mStateNameToRouteCode.put(mQuiescentBluetoothRoute.getName(), ROUTE_BLUETOOTH);
-        mStateNameToRouteCode.put(mQuiescentHeadsetRoute.getName(), ROUTE_WIRED_HEADSET);
-        mStateNameToRouteCode.put(mQuiescentSpeakerRoute.getName(), ROUTE_SPEAKER);
-        mStateNameToRouteCode.put(mRingingBluetoothRoute.getName(), ROUTE_BLUETOOTH);
-        mStateNameToRouteCode.put(mActiveEarpieceRoute.getName(), ROUTE_EARPIECE);
-        mStateNameToRouteCode.put(mActiveBluetoothRoute.getName(), ROUTE_BLUETOOTH);
-        mStateNameToRouteCode.put(mActiveHeadsetRoute.getName(), ROUTE_WIRED_HEADSET);
-        mStateNameToRouteCode.put(mActiveSpeakerRoute.getName(), ROUTE_SPEAKER);
+        // Route switch table: the state each state moves to on SWITCH_<route> and
+        // USER_SWITCH_<route>, in earpiece, bluetooth, headset, speaker order. A switch to
+        // bluetooth from an active route goes to the ringing bluetooth route without active focus.
+        mActiveEarpieceRoute.setSwitchTargets(0,
+                null, mActiveBluetoothRoute, mActiveHeadsetRoute, mActiveSpeakerRoute);
+        mActiveHeadsetRoute.setSwitchTargets(0,
+                mActiveEarpieceRoute, mActiveBluetoothRoute, null, mActiveSpeakerRoute);
+        mActiveBluetoothRoute.setSwitchTargets(USER_SWITCH_FLAG_LEFT_BLUETOOTH,
+                mActiveEarpieceRoute, null, mActiveHeadsetRoute, mActiveSpeakerRoute);
+        mRingingBluetoothRoute.setSwitchTargets(USER_SWITCH_FLAG_LEFT_BLUETOOTH,
+                mActiveEarpieceRoute, null, mActiveHeadsetRoute, mActiveSpeakerRoute);
+        mActiveSpeakerRoute.setSwitchTargets(USER_SWITCH_FLAG_LEFT_SPEAKER,
+                mActiveEarpieceRoute, mActiveBluetoothRoute, mActiveHeadsetRoute, null);
+        mQuiescentEarpieceRoute.setSwitchTargets(0,
+                null, mQuiescentBluetoothRoute, mQuiescentHeadsetRoute, mQuiescentSpeakerRoute);
+        mQuiescentHeadsetRoute.setSwitchTargets(0,
+                mQuiescentEarpieceRoute, mQuiescentBluetoothRoute, null, mQuiescentSpeakerRoute);
+        mQuiescentBluetoothRoute.setSwitchTargets(0,
+                mQuiescentEarpieceRoute, null, mQuiescentHeadsetRoute, mQuiescentSpeakerRoute);
+        mQuiescentSpeakerRoute.setSwitchTargets(0,
+                mQuiescentEarpieceRoute, mQuiescentBluetoothRoute, mQuiescentHeadsetRoute, null);
 
         mRouteCodeToQuiescentState = new HashMap<>(4);
         mRouteCodeToQuiescentState.put(ROUTE_EARPIECE, mQuiescentEarpieceRoute);
@@ -1245,7 +1136,7 @@ public class CallAudioRouteStateMachine extends StateMachine {
         switch (msg.what) {
             case MUTE_ON:
                 setMuteOn(true);
-                newCallAudioState = new CallAudioState(mIsMuted,
+                newCallAudioState = getCallAudioState(mIsMuted,
                         mCurrentCallAudioState.getRoute(),
                         mAvailableRoutes);
                 setSystemAudioState(newCallAudioState);
@@ -1253,7 +1144,7 @@ public class CallAudioRouteStateMachine extends StateMachine {
                 return;
             case MUTE_OFF:
                 setMuteOn(false);
-                newCallAudioState = new CallAudioState(mIsMuted,
+                newCallAudioState = getCallAudioState(mIsMuted,
                         mCurrentCallAudioState.getRoute(),
                         mAvailableRoutes);
                 setSystemAudioState(newCallAudioState);
@@ -1270,6 +1161,9 @@ public class CallAudioRouteStateMachine extends StateMachine {
                 updateRouteForForegroundCall();
                 resendSystemAudioState();
                 return;
+            case PRECONNECT_BLUETOOTH:
+                // Only meaningful while ringing on bluetooth.
+                return;
             case RUN_RUNNABLE:
                 java.lang.Runnable r = (java.lang.Runnable) msg.obj;
                 r.run();
@@ -1288,14 +1182,30 @@ public class CallAudioRouteStateMachine extends StateMachine {
         getHandler().getLooper().dump(pw::println, "");
     }
 
+    public void dumpTransitionLatencies(IndentingPrintWriter pw) {
+        mTransitionTracker.dump(pw);
+    }
+
+    @VisibleForTesting
+    public CallAudioRouteTransitionTracker getTransitionTracker() {
+        return mTransitionTracker;
+    }
+
+    private String getCurrentStateName() {
+        IState currentState = getCurrentState();
+        return currentState == null ? null : currentState.getName();
+    }
+
     public boolean isHfpDeviceAvailable() {
         return mBluetoothRouteManager.isBluetoothAvailable();
     }
 
     private void setSpeakerphoneOn(boolean on) {
-        if (mAudioManager.isSpeakerphoneOn() != on) {
+        if (isSpeakerphoneOn() != on) {
             Log.i(this, "turning speaker phone %s", on);
             mAudioManager.setSpeakerphoneOn(on);
+            mSpeakerphoneState = on ? FACT_TRUE : FACT_FALSE;
+            mTransitionTracker.onAudioRouteApplied();
             mStatusBarNotifier.notifySpeakerphone(on);
         }
     }
@@ -1309,6 +1219,7 @@ public class CallAudioRouteStateMachine extends StateMachine {
                 } else {
                     mBluetoothRouteManager.disconnectBluetoothAudio();
                 }
+                mTransitionTracker.onAudioRouteApplied();
             }
         }
     }
@@ -1317,7 +1228,7 @@ public class CallAudioRouteStateMachine extends StateMachine {
         mIsMuted = mute;
         Log.addEvent(mCallsManager.getForegroundCall(), mute ?
                 LogUtils.Events.MUTE : LogUtils.Events.UNMUTE);
-        if (mute != mAudioManager.isMicrophoneMute() && isInActiveState()) {
+        if (mute != isMicrophoneMute() && isInActiveState()) {
             IAudioService audio = mAudioServiceFactory.getAudioService();
             Log.i(this, "changing microphone mute state to: %b [serviceIsNull=%b]",
                     mute, audio == null);
@@ -1330,6 +1241,7 @@ public class CallAudioRouteStateMachine extends StateMachine {
                     // user and not the current foreground, which we want to avoid.
                     audio.setMicrophoneMute(
                             mute, mContext.getOpPackageName(), getCurrentUserId());
+                    mMicrophoneMuteState = mute ? FACT_TRUE : FACT_FALSE;
                     mStatusBarNotifier.notifyMute(mute);
 
                 } catch (RemoteException e) {
@@ -1341,6 +1253,39 @@ public class CallAudioRouteStateMachine extends StateMachine {
         }
     }
 
+    /**
+     * @return The shared CallAudioState instance with the given values.
+     */
+    private static CallAudioState getCallAudioState(boolean muted, int route,
+            int supportedRouteMask) {
+        if (Integer.bitCount(route) != 1 || route > ROUTE_SPEAKER
+                || (supportedRouteMask & ~CallAudioState.ROUTE_ALL) != 0) {
+            return new CallAudioState(muted, route, supportedRouteMask);
+        }
+        return CALL_AUDIO_STATES[getCallAudioStateIndex(muted,
+                Integer.numberOfTrailingZeros(route), supportedRouteMask)];
+    }
+
+    private static int getCallAudioStateIndex(boolean muted, int routeIndex,
+            int supportedRouteMask) {
+        return ((muted ? NUM_ROUTES : 0) + routeIndex) * (CallAudioState.ROUTE_ALL + 1)
+                + supportedRouteMask;
+    }
+
+    private boolean isSpeakerphoneOn() {
+        if (mSpeakerphoneState == FACT_UNKNOWN) {
+            mSpeakerphoneState = mAudioManager.isSpeakerphoneOn() ? FACT_TRUE : FACT_FALSE;
+        }
+        return mSpeakerphoneState == FACT_TRUE;
+    }
+
+    private boolean isMicrophoneMute() {
+        if (mMicrophoneMuteState == FACT_UNKNOWN) {
+            mMicrophoneMuteState = mAudioManager.isMicrophoneMute() ? FACT_TRUE : FACT_FALSE;
+        }
+        return mMicrophoneMuteState == FACT_TRUE;
+    }
+
     /**
      * Updates the CallAudioState object from current internal state. The result is used for
      * external communication only.
@@ -1350,12 +1295,12 @@ public class CallAudioRouteStateMachine extends StateMachine {
         if (currentState == null) {
             Log.e(this, new IllegalStateException(), "Current state should never be null" +
                     " when updateInternalCallAudioState is called.");
-            mCurrentCallAudioState = new CallAudioState(
+            mCurrentCallAudioState = getCallAudioState(
                     mIsMuted, mCurrentCallAudioState.getRoute(), mAvailableRoutes);
             return;
         }
-        int currentRoute = mStateNameToRouteCode.get(currentState.getName());
-        mCurrentCallAudioState = new CallAudioState(mIsMuted, currentRoute, mAvailableRoutes);
+        int currentRoute = ((AudioState) currentState).getRouteCode();
+        mCurrentCallAudioState = getCallAudioState(mIsMuted, currentRoute, mAvailableRoutes);
     }
 
     private void setSystemAudioState(CallAudioState newCallAudioState) {
@@ -1373,6 +1318,7 @@ public class CallAudioRouteStateMachine extends StateMachine {
             if (force || !newCallAudioState.equals(mLastKnownCallAudioState)) {
 
                 mCallsManager.onCallAudioStateChanged(mLastKnownCallAudioState, newCallAudioState);
+                mTransitionTracker.onCallAudioStatePublished();
                 updateAudioForForegroundCall(newCallAudioState);
                 mLastKnownCallAudioState = newCallAudioState;
             }
@@ -1441,7 +1387,7 @@ public class CallAudioRouteStateMachine extends StateMachine {
             route = ROUTE_SPEAKER;
         }
 
-        return new CallAudioState(false, route, supportedRouteMask);
+        return getCallAudioState(false, route, supportedRouteMask);
     }
 
     private int getCurrentUserId() {
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Times how long each message handled by the {@link CallAudioRouteStateMachine} takes to get
+ * through the following milestones, and aggregates the timings per (from state, to state) pair:
+ * <ol>
+ *     <li>queue: from the message being sent until it is handled,</li>
+ *     <li>enter: until the new route state has been entered,</li>
+ *     <li>audio: until the AudioManager / Bluetooth call changing the route has returned,</li>
+ *     <li>publish: until the new CallAudioState has been passed on to CallsManager, which
+ *     forwards it to the InCallServices.</li>
+ * </ol>
+ * Milestones a message doesn't reach are not recorded; the total is measured up to the last
+ * milestone reached. Only messages which change the route state or publish a new CallAudioState
+ * are recorded.
+ *
+ * The most recently handled messages are also kept so that they can be recovered from a bug
+ * report and replayed against the state machine in a test.
+ *
+ * The on* methods must be called on the state machine's thread; the rest are thread-safe.
+ */
+public class CallAudioRouteTransitionTracker {
+    /** Timings for one (from state, to state) pair; all values are in milliseconds. */
+    public static final class TransitionStats {
+        public final LatencyHistogram queueMillis = new LatencyHistogram();
+        public final LatencyHistogram enterMillis = new LatencyHistogram();
+        public final LatencyHistogram audioMillis = new LatencyHistogram();
+        public final LatencyHistogram publishMillis = new LatencyHistogram();
+        public final LatencyHistogram totalMillis = new LatencyHistogram();
+
+        void merge(TransitionStats other) {
+            queueMillis.merge(other.queueMillis);
+            enterMillis.merge(other.enterMillis);
+            audioMillis.merge(other.audioMillis);
+            publishMillis.merge(other.publishMillis);
+            totalMillis.merge(other.totalMillis);
+        }
+    }
+
+    @VisibleForTesting
+    public static final int MAX_RECENT_MESSAGES = 64;
+    private static final long NOT_REACHED = -1;
+
+    private final SparseArray<String> mMessageCodeToName;
+
+    // State for the message currently being handled; only used on the state machine thread.
+    private String mFromState;
+    private long mEnqueueTime;
+    private long mHandleTime;
+    private long mEnterTime = NOT_REACHED;
+    private long mAudioAppliedTime = NOT_REACHED;
+    private long mPublishedTime = NOT_REACHED;
+
+    // Keyed by from state, then by to state, so that recording needs no key allocation.
+    // Guarded by this.
+    private final Map<String, Map<String, TransitionStats>> mStats = new TreeMap<>();
+    private final int[] mRecentWhat = new int[MAX_RECENT_MESSAGES];
+    private final int[] mRecentArg1 = new int[MAX_RECENT_MESSAGES];
+    private int mRecentCount;
+    private int mRecentNext;
+
+    public CallAudioRouteTransitionTracker(SparseArray<String> messageCodeToName) {
+        mMessageCodeToName = messageCodeToName;
+    }
+
+    public void onMessageStarted(Message msg, String fromState) {
+        mHandleTime = SystemClock.uptimeMillis();
+        // For messages which weren't delayed, the time they were due is when they were sent.
+        mEnqueueTime = Math.min(msg.getWhen(), mHandleTime);
+        mFromState = fromState;
+        mEnterTime = NOT_REACHED;
+        mAudioAppliedTime = NOT_REACHED;
+        mPublishedTime = NOT_REACHED;
+        synchronized (this) {
+            mRecentWhat[mRecentNext] = msg.what;
+            mRecentArg1[mRecentNext] = msg.arg1;
+            mRecentNext = (mRecentNext + 1) % MAX_RECENT_MESSAGES;
+            mRecentCount = Math.min(mRecentCount + 1, MAX_RECENT_MESSAGES);
+        }
+    }
+
+    public void onStateEntered() {
+        mEnterTime = SystemClock.uptimeMillis();
+    }
+
+    public void onAudioRouteApplied() {
+        mAudioAppliedTime = SystemClock.uptimeMillis();
+    }
+
+    public void onCallAudioStatePublished() {
+        mPublishedTime = SystemClock.uptimeMillis();
+    }
+
+    public void onMessageFinished(String toState) {
+        if (mFromState == null || toState == null) {
+            return;
+        }
+        if (mFromState.equals(toState) && mPublishedTime == NOT_REACHED) {
+            return;
+        }
+        synchronized (this) {
+            Map<String, TransitionStats> statsByToState = mStats.get(mFromState);
+            if (statsByToState == null) {
+                statsByToState = new TreeMap<>();
+                mStats.put(mFromState, statsByToState);
+            }
+            TransitionStats stats = statsByToState.get(toState);
+            if (stats == null) {
+                stats = new TransitionStats();
+                statsByToState.put(toState, stats);
+            }
+            long last = mHandleTime;
+            stats.queueMillis.record(mHandleTime - mEnqueueTime);
+            if (mEnterTime != NOT_REACHED) {
+                stats.enterMillis.record(mEnterTime - last);
+                last = mEnterTime;
+            }
+            if (mAudioAppliedTime != NOT_REACHED) {
+                stats.audioMillis.record(mAudioAppliedTime - last);
+                last = mAudioAppliedTime;
+            }
+            if (mPublishedTime != NOT_REACHED) {
+                stats.publishMillis.record(mPublishedTime - last);
+                last = mPublishedTime;
+            }
+            stats.totalMillis.record(last - mEnqueueTime);
+        }
+        mFromState = null;
+    }
+
+    /**
+     * @return A copy of the timings for the given transition, or null if there were none.
+     */
+    public synchronized TransitionStats getStats(String fromState, String toState) {
+        Map<String, TransitionStats> statsByToState = mStats.get(fromState);
+        TransitionStats stats = statsByToState == null ? null : statsByToState.get(toState);
+        if (stats == null) {
+            return null;
+        }
+        TransitionStats copy = new TransitionStats();
+        copy.merge(stats);
+        return copy;
+    }
+
+    /**
+     * @return The most recently handled messages, oldest first, formatted as
+     * {@code NAME(arg1)} and separated by spaces.
+     */
+    public synchronized String getRecentMessages() {
+        StringBuilder sb = new StringBuilder();
+        int start = (mRecentNext - mRecentCount + MAX_RECENT_MESSAGES) % MAX_RECENT_MESSAGES;
+        for (int i = 0; i < mRecentCount; i++) {
+            int index = (start + i) % MAX_RECENT_MESSAGES;
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(mMessageCodeToName.get(mRecentWhat[index], "unknown"))
+                    .append('(').append(mRecentArg1[index]).append(')');
+        }
+        return sb.toString();
+    }
+
+    public synchronized void reset() {
+        mStats.clear();
+        mRecentCount = 0;
+        mRecentNext = 0;
+    }
+
+    public synchronized void dump(IndentingPrintWriter pw) {
+        for (Map.Entry<String, Map<String, TransitionStats>> from : mStats.entrySet()) {
+            for (Map.Entry<String, TransitionStats> to : from.getValue().entrySet()) {
+                TransitionStats stats = to.getValue();
+                pw.println(from.getKey() + "->" + to.getKey() + ":");
+                pw.increaseIndent();
+                pw.println("total:   " + stats.totalMillis);
+                pw.println("queue:   " + stats.queueMillis);
+                pw.println("enter:   " + stats.enterMillis);
+                pw.println("audio:   " + stats.audioMillis);
+                pw.println("publish: " + stats.publishMillis);
+                pw.decreaseIndent();
+            }
+        }
+        pw.println("Recent messages: " + getRecentMessages());
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.telecom.Log;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * The listeners of a {@link Call}, kept as copy-on-write arrays.
+ *
+ * Besides the array of all the listeners, there is an array for each {@link Call.Listener}
+ * callback holding only the listeners which override it; a listener extending
+ * {@link Call.ListenerBase} which doesn't override a callback is left out of its array. The
+ * arrays are rebuilt when a listener is added or removed, which is rare compared to notifying
+ * them, so notifying is a plain loop over an array: it allocates nothing, and listeners may add
+ * or remove listeners while being notified. Which callbacks a listener class overrides is worked
+ * out once per class.
+ */
+public class CallListeners {
+    public static final int ON_SUCCESSFUL_OUTGOING_CALL = 0;
+    public static final int ON_FAILED_OUTGOING_CALL = 1;
+    public static final int ON_SUCCESSFUL_INCOMING_CALL = 2;
+    public static final int ON_FAILED_INCOMING_CALL = 3;
+    public static final int ON_SUCCESSFUL_UNKNOWN_CALL = 4;
+    public static final int ON_FAILED_UNKNOWN_CALL = 5;
+    public static final int ON_RINGBACK_REQUESTED = 6;
+    public static final int ON_POST_DIAL_WAIT = 7;
+    public static final int ON_POST_DIAL_CHAR = 8;
+    public static final int ON_CONNECTION_CAPABILITIES_CHANGED = 9;
+    public static final int ON_CONNECTION_PROPERTIES_CHANGED = 10;
+    public static final int ON_PARENT_CHANGED = 11;
+    public static final int ON_CHILDREN_CHANGED = 12;
+    public static final int ON_CANNED_SMS_RESPONSES_LOADED = 13;
+    public static final int ON_VIDEO_CALL_PROVIDER_CHANGED = 14;
+    public static final int ON_CALLER_INFO_CHANGED = 15;
+    public static final int ON_IS_VOIP_AUDIO_MODE_CHANGED = 16;
+    public static final int ON_STATUS_HINTS_CHANGED = 17;
+    public static final int ON_EXTRAS_CHANGED = 18;
+    public static final int ON_EXTRAS_REMOVED = 19;
+    public static final int ON_HANDLE_CHANGED = 20;
+    public static final int ON_CALLER_DISPLAY_NAME_CHANGED = 21;
+    public static final int ON_VIDEO_STATE_CHANGED = 22;
+    public static final int ON_TARGET_PHONE_ACCOUNT_CHANGED = 23;
+    public static final int ON_CONNECTION_MANAGER_PHONE_ACCOUNT_CHANGED = 24;
+    public static final int ON_PHONE_ACCOUNT_CHANGED = 25;
+    public static final int ON_CONFERENCEABLE_CALLS_CHANGED = 26;
+    public static final int ON_CANCELED_VIA_NEW_OUTGOING_CALL_BROADCAST = 27;
+    public static final int ON_HOLD_TONE_REQUESTED = 28;
+    public static final int ON_CONNECTION_EVENT = 29;
+    public static final int ON_EXTERNAL_CALL_CHANGED = 30;
+    public static final int ON_RTT_INITIATION_FAILURE = 31;
+    public static final int ON_REMOTE_RTT_REQUEST = 32;
+    public static final int ON_HANDOVER_REQUESTED = 33;
+    public static final int ON_CONFERENCE_STATE_CHANGED = 34;
+    private static final int NUM_CALLBACKS = 35;
+
+    /** The {@link Call.Listener} method for each callback. */
+    private static final String[] CALLBACK_METHODS = {
+            "onSuccessfulOutgoingCall",
+            "onFailedOutgoingCall",
+            "onSuccessfulIncomingCall",
+            "onFailedIncomingCall",
+            "onSuccessfulUnknownCall",
+            "onFailedUnknownCall",
+            "onRingbackRequested",
+            "onPostDialWait",
+            "onPostDialChar",
+            "onConnectionCapabilitiesChanged",
+            "onConnectionPropertiesChanged",
+            "onParentChanged",
+            "onChildrenChanged",
+            "onCannedSmsResponsesLoaded",
+            "onVideoCallProviderChanged",
+            "onCallerInfoChanged",
+            "onIsVoipAudioModeChanged",
+            "onStatusHintsChanged",
+            "onExtrasChanged",
+            "onExtrasRemoved",
+            "onHandleChanged",
+            "onCallerDisplayNameChanged",
+            "onVideoStateChanged",
+            "onTargetPhoneAccountChanged",
+            "onConnectionManagerPhoneAccountChanged",
+            "onPhoneAccountChanged",
+            "onConferenceableCallsChanged",
+            "onCanceledViaNewOutgoingCallBroadcast",
+            "onHoldToneRequested",
+            "onConnectionEvent",
+            "onExternalCallChanged",
+            "onRttInitiationFailure",
+            "onRemoteRttRequest",
+            "onHandoverRequested",
+            "onConferenceStateChanged",
+    };
+
+    private static final Call.Listener[] EMPTY = new Call.Listener[0];
+
+    // Guarded by itself.
+    private static final Map<Class<?>, Long> sMasks = new ArrayMap<>();
+
+    /**
+     * When set, {@link #get} returns a fresh copy of all the listeners, as notifying them did
+     * before this class was used; benchmarks use this as their baseline.
+     */
+    @VisibleForTesting
+    public static volatile boolean sCopyOnNotifyForTesting = false;
+
+    // Written while holding this, but read without it; the arrays are replaced, never changed.
+    private volatile Call.Listener[] mAll = EMPTY;
+    private volatile Call.Listener[][] mByCallback = new Call.Listener[NUM_CALLBACKS][];
+
+    public CallListeners() {
+        for (int i = 0; i < NUM_CALLBACKS; i++) {
+            mByCallback[i] = EMPTY;
+        }
+    }
+
+    /**
+     * Adds a listener, unless it has already been added.
+     */
+    public synchronized void add(Call.Listener listener) {
+        if (indexOf(listener) >= 0) {
+            return;
+        }
+        Call.Listener[] all = new Call.Listener[mAll.length + 1];
+        System.arraycopy(mAll, 0, all, 0, mAll.length);
+        all[mAll.length] = listener;
+        rebuild(all);
+    }
+
+    public synchronized void remove(Call.Listener listener) {
+        int index = indexOf(listener);
+        if (index < 0) {
+            return;
+        }
+        Call.Listener[] all = new Call.Listener[mAll.length - 1];
+        System.arraycopy(mAll, 0, all, 0, index);
+        System.arraycopy(mAll, index + 1, all, index, mAll.length - index - 1);
+        rebuild(all);
+    }
+
+    /**
+     * @param callback One of the {@code ON_*} constants.
+     * @return The listeners overriding the callback. The array must not be modified.
+     */
+    public Call.Listener[] get(int callback) {
+        if (sCopyOnNotifyForTesting) {
+            return mAll.clone();
+        }
+        return mByCallback[callback];
+    }
+
+    /**
+     * @return All of the listeners. The array must not be modified.
+     */
+    public Call.Listener[] getAll() {
+        return mAll;
+    }
+
+    /**
+     * @return A bit for each {@code ON_*} callback the listener's class overrides. Callbacks
+     * inherited unchanged from {@link Call.ListenerBase} are empty, so those are left out.
+     */
+    @VisibleForTesting
+    public static long getMask(Call.Listener listener) {
+        Class<?> listenerClass = listener.getClass();
+        synchronized (sMasks) {
+            Long mask = sMasks.get(listenerClass);
+            if (mask == null) {
+                mask = computeMask(listenerClass);
+                sMasks.put(listenerClass, mask);
+            }
+            return mask;
+        }
+    }
+
+    private static long computeMask(Class<?> listenerClass) {
+        long mask = 0;
+        for (Method method : Call.Listener.class.getMethods()) {
+            int callback = indexOfMethod(method.getName());
+            if (callback < 0) {
+                continue;
+            }
+            try {
+                if (listenerClass.getMethod(method.getName(), method.getParameterTypes())
+                        .getDeclaringClass() == Call.ListenerBase.class) {
+                    continue;
+                }
+            } catch (NoSuchMethodException e) {
+                Log.w(CallListeners.class, "Can't find %s on %s", method.getName(),
+                        listenerClass);
+            }
+            mask |= 1L << callback;
+        }
+        return mask;
+    }
+
+    private static int indexOfMethod(String name) {
+        for (int i = 0; i < NUM_CALLBACKS; i++) {
+            if (CALLBACK_METHODS[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(Call.Listener listener) {
+        for (int i = 0; i < mAll.length; i++) {
+            if (mAll[i] == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void rebuild(Call.Listener[] all) {
+        long[] masks = new long[all.length];
+        for (int i = 0; i < all.length; i++) {
+            masks[i] = getMask(all[i]);
+        }
+        Call.Listener[][] byCallback = new Call.Listener[NUM_CALLBACKS][];
+        for (int callback = 0; callback < NUM_CALLBACKS; callback++) {
+            int count = 0;
+            for (long mask : masks) {
+                if ((mask & (1L << callback)) != 0) {
+                    count++;
+                }
+            }
+            Call.Listener[] listeners = count == 0 ? EMPTY : new Call.Listener[count];
+            count = 0;
+            for (int i = 0; i < all.length; i++) {
+                if ((masks[i] & (1L << callback)) != 0) {
+                    listeners[count++] = all[i];
+                }
+            }
+            byCallback[callback] = listeners;
+        }
+        mAll = all;
+        mByCallback = byCallback;
+    }
+}
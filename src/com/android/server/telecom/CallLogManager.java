@@ -29,6 +29,7 @@ import android.os.PersistableBundle;
 import android.provider.CallLog.Calls;
 import android.telecom.DisconnectCause;
 import android.telecom.Log;
+import android.telecom.Logging.Runnable;
 import android.telecom.PhoneAccount;
 import android.telecom.PhoneAccountHandle;
 import android.telecom.VideoProfile;
@@ -47,7 +48,7 @@ import java.util.Locale;
  * background thread to avoid blocking on the main thread.
  */
 @VisibleForTesting
-public final class CallLogManager extends CallsManagerListenerBase {
+public final class CallLogManager extends NonCriticalListenerBase {
 
     public interface LogCallCompletedListener {
         void onLogCompleted(@Nullable Uri uri);
@@ -179,12 +180,13 @@ public final class CallLogManager extends CallsManagerListenerBase {
 
     void logCall(Call call, int type, boolean showNotificationForMissedCall) {
         if (type == Calls.MISSED_TYPE && showNotificationForMissedCall) {
+            // The notification is shown once the call has been logged, without the lock.
+            final MissedCallNotifier.CallInfo callInfo = new MissedCallNotifier.CallInfo(call);
             logCall(call, Calls.MISSED_TYPE,
                     new LogCallCompletedListener() {
                         @Override
                         public void onLogCompleted(@Nullable Uri uri) {
-                            mMissedCallNotifier.showMissedCallNotification(
-                                    new MissedCallNotifier.CallInfo(call));
+                            mMissedCallNotifier.showMissedCallNotification(callInfo);
                         }
                     });
         } else {
@@ -193,7 +195,8 @@ public final class CallLogManager extends CallsManagerListenerBase {
     }
 
     /**
-     * Logs a call to the call log based on the {@link Call} object passed in.
+     * Logs a call to the call log based on the {@link Call} object passed in. The call is read
+     * immediately, and the rest of the work is done from {@link #runLater}.
      *
      * @param call The call object being logged
      * @param callLogType The type of call log entry to log this call as. See:
@@ -214,25 +217,30 @@ public final class CallLogManager extends CallsManagerListenerBase {
         final PhoneAccountHandle emergencyAccountHandle =
                 TelephonyUtil.getDefaultEmergencyPhoneAccount().getAccountHandle();
 
-        String formattedViaNumber = PhoneNumberUtils.formatNumber(call.getViaNumber(),
-                getCountryIso());
-        formattedViaNumber = (formattedViaNumber != null) ?
-                formattedViaNumber : call.getViaNumber();
+        final String viaNumber = call.getViaNumber();
 
-        PhoneAccountHandle accountHandle = call.getTargetPhoneAccount();
-        if (emergencyAccountHandle.equals(accountHandle)) {
-            accountHandle = null;
-        }
+        PhoneAccountHandle targetAccountHandle = call.getTargetPhoneAccount();
+        final PhoneAccountHandle accountHandle =
+                emergencyAccountHandle.equals(targetAccountHandle) ? null : targetAccountHandle;
 
-        Long callDataUsage = call.getCallDataUsage() == Call.DATA_USAGE_NOT_SET ? null :
+        final Long callDataUsage = call.getCallDataUsage() == Call.DATA_USAGE_NOT_SET ? null :
                 call.getCallDataUsage();
 
-        int callFeatures = getCallFeatures(call.getVideoStateHistory(),
+        final int callFeatures = getCallFeatures(call.getVideoStateHistory(),
                 call.getDisconnectCause().getCode() == DisconnectCause.CALL_PULLED);
-        logCall(call.getCallerInfo(), logNumber, call.getPostDialDigits(), formattedViaNumber,
-                call.getHandlePresentation(), callLogType, callFeatures, accountHandle,
-                creationTime, age, callDataUsage, call.isEmergencyCall(), call.getInitiatingUser(),
-                logCallCompletedListener);
+        final CallerInfo callerInfo = call.getCallerInfo();
+        final String postDialDigits = call.getPostDialDigits();
+        final int presentation = call.getHandlePresentation();
+        final boolean isEmergency = call.isEmergencyCall();
+        final UserHandle initiatingUser = call.getInitiatingUser();
+        runLater("CLM.lC", () -> {
+            String formattedViaNumber = PhoneNumberUtils.formatNumber(viaNumber,
+                    getCountryIso());
+            formattedViaNumber = (formattedViaNumber != null) ? formattedViaNumber : viaNumber;
+            logCall(callerInfo, logNumber, postDialDigits, formattedViaNumber, presentation,
+                    callLogType, callFeatures, accountHandle, creationTime, age, callDataUsage,
+                    isEmergency, initiatingUser, logCallCompletedListener);
+        });
     }
 
     /**
@@ -439,7 +447,14 @@ public final class CallLogManager extends CallsManagerListenerBase {
         Intent callAddIntent = new Intent(ACTION_CALLS_TABLE_ADD_ENTRY);
         callAddIntent.putExtra(CALL_TYPE, callType);
         callAddIntent.putExtra(CALL_DURATION, duration);
-        mContext.sendBroadcast(callAddIntent, PERMISSION_PROCESS_CALLLOG_INFO);
+        // Nothing in the call flow waits on the broadcast, so it can wait for the calls to end.
+        TelecomScheduler.getInstance().post(TelecomScheduler.PRIORITY_DEFERRABLE, "CLM.sACB",
+                new Runnable("CLM.sACB", null /*lock*/) {
+                    @Override
+                    public void loggedRun() {
+                        mContext.sendBroadcast(callAddIntent, PERMISSION_PROCESS_CALLLOG_INFO);
+                    }
+                }.prepare());
     }
 
     private String getCountryIsoFromCountry(Country country) {
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.os.SystemClock;
+import android.telecom.Logging.EventManager;
+import android.text.format.DateUtils;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.telecom.nano.TelecomLogClass;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Derives the duration of each call-setup phase from the events logged for a call and aggregates
+ * them into latency histograms per ConnectionService, so that slow carrier or VoIP
+ * ConnectionServices can be identified from aggregate data rather than individual event logs.
+ *
+ * The histograms are rolling: each ConnectionService has one set for the current
+ * {@link #WINDOW_MILLIS} window and one for the window before it. Reported histograms merge the
+ * two, so they cover the calls which ended in the last one to two windows.
+ *
+ * This class is not thread-safe; {@link Analytics} guards access to it with its own lock.
+ */
+public class CallSetupPhaseTracker {
+    /**
+     * A call-setup phase, delimited by the first occurrence of {@link #startEvent} and the first
+     * occurrence of {@link #endEvent} after it.
+     */
+    public static final class Phase {
+        public final int id;
+        public final String name;
+        public final String startEvent;
+        public final String endEvent;
+
+        Phase(int id, String name, String startEvent, String endEvent) {
+            this.id = id;
+            this.name = name;
+            this.startEvent = startEvent;
+            this.endEvent = endEvent;
+        }
+    }
+
+    // Keep these in sync with CallSetupPhaseHistogram.CallSetupPhase in telecom.proto.
+    public static final int PHASE_BIND_CS = 0;
+    public static final int PHASE_START_TO_DIALING = 1;
+    public static final int PHASE_DIALING_TO_ACTIVE = 2;
+    public static final int PHASE_FILTERING = 3;
+    public static final int PHASE_ACCEPT_TO_ACTIVE = 4;
+    public static final int PHASE_FILTERING_TO_RINGER = 5;
+    public static final int PHASE_RINGER_TO_AUDIBLE = 6;
+
+    public static final Phase[] PHASES = {
+            new Phase(PHASE_BIND_CS, "bindCs",
+                    LogUtils.Events.BIND_CS, LogUtils.Events.CS_BOUND),
+            new Phase(PHASE_START_TO_DIALING, "startToDialing",
+                    LogUtils.Events.START_CONNECTION, LogUtils.Events.SET_DIALING),
+            new Phase(PHASE_DIALING_TO_ACTIVE, "dialingToActive",
+                    LogUtils.Events.SET_DIALING, LogUtils.Events.SET_ACTIVE),
+            new Phase(PHASE_FILTERING, "filtering",
+                    LogUtils.Events.FILTERING_INITIATED, LogUtils.Events.FILTERING_COMPLETED),
+            new Phase(PHASE_ACCEPT_TO_ACTIVE, "acceptToActive",
+                    LogUtils.Events.REQUEST_ACCEPT, LogUtils.Events.SET_ACTIVE),
+            new Phase(PHASE_FILTERING_TO_RINGER, "filteringToRinger",
+                    LogUtils.Events.FILTERING_COMPLETED, LogUtils.Events.START_RINGER),
+            new Phase(PHASE_RINGER_TO_AUDIBLE, "ringerToAudible",
+                    LogUtils.Events.START_RINGER, LogUtils.Events.RINGTONE_STARTED),
+    };
+
+    /** Value reported by {@link #computePhaseDurations} for phases the call never went through. */
+    public static final long NO_DURATION = -1;
+
+    /**
+     * The maximum number of ConnectionServices tracked. When exceeded, the service which least
+     * recently completed a call is dropped.
+     */
+    @VisibleForTesting
+    public static final int MAX_CONNECTION_SERVICES = 32;
+
+    /** How long samples are recorded into the current histograms before they are rotated out. */
+    @VisibleForTesting
+    public static final long WINDOW_MILLIS = DateUtils.DAY_IN_MILLIS;
+
+    /** The histograms of a single ConnectionService, indexed by phase ID. */
+    private static final class ServiceHistograms {
+        LatencyHistogram[] current = createHistograms();
+        LatencyHistogram[] previous = createHistograms();
+
+        /** Starts a new window; the current window becomes the previous one. */
+        void rotate() {
+            LatencyHistogram[] oldest = previous;
+            previous = current;
+            current = oldest;
+            for (LatencyHistogram histogram : current) {
+                histogram.reset();
+            }
+        }
+
+        /** @return A new histogram merging both windows for the given phase. */
+        LatencyHistogram get(int phase) {
+            LatencyHistogram result = new LatencyHistogram(previous[phase]);
+            result.merge(current[phase]);
+            return result;
+        }
+
+        boolean isEmpty() {
+            for (int i = 0; i < PHASES.length; i++) {
+                if (current[i].getCount() > 0 || previous[i].getCount() > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static LatencyHistogram[] createHistograms() {
+            LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            return histograms;
+        }
+    }
+
+    private final LinkedHashMap<String, ServiceHistograms> mHistogramsByService =
+            new LinkedHashMap<String, ServiceHistograms>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ServiceHistograms> e) {
+                    return size() > MAX_CONNECTION_SERVICES;
+                }
+            };
+
+    private final ClockProxy mClock;
+    private long mWindowStartMillis;
+
+    public CallSetupPhaseTracker() {
+        this(new ClockProxy() {
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+
+            @Override
+            public long elapsedRealtime() {
+                return SystemClock.elapsedRealtime();
+            }
+        });
+    }
+
+    @VisibleForTesting
+    public CallSetupPhaseTracker(ClockProxy clock) {
+        mClock = clock;
+        mWindowStartMillis = clock.elapsedRealtime();
+    }
+
+    /**
+     * Records the phase durations for a call that has finished.
+     * @param connectionService The flattened component name of the call's ConnectionService.
+     * @param events The events logged for the call, in the order they occurred.
+     */
+    public void onCallEnded(String connectionService, List<EventManager.Event> events) {
+        if (connectionService == null || events == null) {
+            return;
+        }
+        long[] durations = computePhaseDurations(events);
+        ServiceHistograms histograms = null;
+        for (int i = 0; i < durations.length; i++) {
+            if (durations[i] == NO_DURATION) {
+                continue;
+            }
+            if (histograms == null) {
+                histograms = getOrCreateHistograms(connectionService);
+            }
+            histograms.current[i].record(durations[i]);
+        }
+    }
+
+    /**
+     * @return A copy of the histogram for the given ConnectionService and phase, or null if no
+     * calls have been recorded for that ConnectionService in the last one to two windows.
+     */
+    public LatencyHistogram getHistogram(String connectionService, int phase) {
+        rotateIfNeeded();
+        ServiceHistograms histograms = mHistogramsByService.get(connectionService);
+        return histograms == null ? null : histograms.get(phase);
+    }
+
+    public void reset() {
+        mHistogramsByService.clear();
+        mWindowStartMillis = mClock.elapsedRealtime();
+    }
+
+    public TelecomLogClass.CallSetupPhaseHistogram[] toProto() {
+        rotateIfNeeded();
+        List<TelecomLogClass.CallSetupPhaseHistogram> result = new ArrayList<>();
+        for (Map.Entry<String, ServiceHistograms> e : mHistogramsByService.entrySet()) {
+            for (Phase phase : PHASES) {
+                LatencyHistogram histogram = e.getValue().get(phase.id);
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                TelecomLogClass.CallSetupPhaseHistogram proto =
+                        new TelecomLogClass.CallSetupPhaseHistogram()
+                                .setConnectionService(e.getKey())
+                                .setPhase(phase.id);
+                proto.histogram = histogram.toProto();
+                result.add(proto);
+            }
+        }
+        return result.toArray(new TelecomLogClass.CallSetupPhaseHistogram[result.size()]);
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        rotateIfNeeded();
+        for (Map.Entry<String, ServiceHistograms> e : mHistogramsByService.entrySet()) {
+            pw.println(e.getKey() + ":");
+            pw.increaseIndent();
+            for (Phase phase : PHASES) {
+                LatencyHistogram histogram = e.getValue().get(phase.id);
+                if (histogram.getCount() > 0) {
+                    pw.println(phase.name + ": " + histogram);
+                }
+            }
+            pw.decreaseIndent();
+        }
+    }
+
+    /**
+     * Computes the duration of every phase in {@link #PHASES} for a single call.
+     * @return An array indexed by phase ID, containing {@link #NO_DURATION} for phases whose start
+     * or end event was not logged.
+     */
+    @VisibleForTesting
+    public static long[] computePhaseDurations(List<EventManager.Event> events) {
+        long[] startTimes = new long[PHASES.length];
+        long[] durations = new long[PHASES.length];
+        for (int i = 0; i < PHASES.length; i++) {
+            startTimes[i] = NO_DURATION;
+            durations[i] = NO_DURATION;
+        }
+        for (EventManager.Event event : events) {
+            for (int i = 0; i < PHASES.length; i++) {
+                if (durations[i] != NO_DURATION) {
+                    continue;
+                }
+                // Check the end event first so that phases ending where another phase begins
+                // (e.g. SET_DIALING) are attributed correctly.
+                if (startTimes[i] != NO_DURATION && PHASES[i].endEvent.equals(event.eventId)) {
+                    durations[i] = Math.max(0, event.time - startTimes[i]);
+                } else if (startTimes[i] == NO_DURATION
+                        && PHASES[i].startEvent.equals(event.eventId)) {
+                    startTimes[i] = event.time;
+                }
+            }
+        }
+        return durations;
+    }
+
+    private ServiceHistograms getOrCreateHistograms(String connectionService) {
+        rotateIfNeeded();
+        ServiceHistograms histograms = mHistogramsByService.get(connectionService);
+        if (histograms == null) {
+            histograms = new ServiceHistograms();
+            mHistogramsByService.put(connectionService, histograms);
+        }
+        return histograms;
+    }
+
+    /**
+     * Starts a new window if the current one has ended, dropping ConnectionServices which have
+     * no calls left in either window.
+     */
+    private void rotateIfNeeded() {
+        long elapsedMillis = mClock.elapsedRealtime() - mWindowStartMillis;
+        if (elapsedMillis < WINDOW_MILLIS) {
+            return;
+        }
+        if (elapsedMillis >= 2 * WINDOW_MILLIS) {
+            // Everything was recorded more than a full window ago, so both windows are empty.
+            reset();
+            return;
+        }
+        mWindowStartMillis += WINDOW_MILLIS;
+        Iterator<ServiceHistograms> it = mHistogramsByService.values().iterator();
+        while (it.hasNext()) {
+            ServiceHistograms histograms = it.next();
+            histograms.rotate();
+            if (histograms.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+}
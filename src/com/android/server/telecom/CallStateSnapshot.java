@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.telephony.TelephonyManager;
+
+/**
+ * An immutable summary of the state of all calls tracked by {@link CallsManager}.
+ *
+ * {@link CallsManager} publishes a new snapshot through a volatile field whenever a call is
+ * added or removed, or changes state, conference membership or external status. This lets
+ * frequently polled, read-only {@link android.telecom.TelecomManager} queries such as
+ * {@code isInCall} be answered without taking the Telecom lock.
+ */
+public final class CallStateSnapshot {
+    public static final CallStateSnapshot IDLE = new CallStateSnapshot(
+            false /* hasOngoingCalls */, false /* hasOngoingManagedCalls */,
+            false /* hasRingingCall */, TelephonyManager.CALL_STATE_IDLE);
+
+    /** @see CallsManager#hasOngoingCalls() */
+    public final boolean hasOngoingCalls;
+    /** @see CallsManager#hasOngoingManagedCalls() */
+    public final boolean hasOngoingManagedCalls;
+    /** @see CallsManager#hasRingingCall() */
+    public final boolean hasRingingCall;
+    /** @see CallsManager#getCallState() */
+    public final int callState;
+
+    public CallStateSnapshot(boolean hasOngoingCalls, boolean hasOngoingManagedCalls,
+            boolean hasRingingCall, int callState) {
+        this.hasOngoingCalls = hasOngoingCalls;
+        this.hasOngoingManagedCalls = hasOngoingManagedCalls;
+        this.hasRingingCall = hasRingingCall;
+        this.callState = callState;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CallStateSnapshot)) {
+            return false;
+        }
+        CallStateSnapshot other = (CallStateSnapshot) o;
+        return hasOngoingCalls == other.hasOngoingCalls
+                && hasOngoingManagedCalls == other.hasOngoingManagedCalls
+                && hasRingingCall == other.hasRingingCall
+                && callState == other.callState;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = hasOngoingCalls ? 1 : 0;
+        result = 31 * result + (hasOngoingManagedCalls ? 1 : 0);
+        result = 31 * result + (hasRingingCall ? 1 : 0);
+        result = 31 * result + callState;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "[ongoing=" + hasOngoingCalls + ", ongoingManaged=" + hasOngoingManagedCalls
+                + ", ringing=" + hasRingingCall + ", callState=" + callState + "]";
+    }
+}
@@ -22,9 +22,7 @@ import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Handler;
-import android.os.Looper;
 import android.telecom.Log;
-import android.telecom.Logging.Runnable;
 import android.telecom.Logging.Session;
 import android.text.TextUtils;
 
@@ -65,7 +63,7 @@ public class CallerInfoLookupHelper {
     private final ContactsAsyncHelper mContactsAsyncHelper;
     private final Context mContext;
     private final TelecomSystem.SyncRoot mLock;
-    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final TelecomLooper.MonitoredHandler mHandler = TelecomLooper.createHandler();
 
     public CallerInfoLookupHelper(Context context,
             CallerInfoAsyncQueryFactory callerInfoAsyncQueryFactory,
@@ -117,9 +115,9 @@ public class CallerInfoLookupHelper {
             }
         }
 
-        mHandler.post(new Runnable("CILH.sL", mLock) {
+        mHandler.post("CILH.sL", new LockProfiler.ProfiledRunnable("CILH.sL", mLock) {
             @Override
-            public void loggedRun() {
+            public void profiledRun() {
                 Session continuedSession = Log.createSubsession();
                 try {
                     CallerInfoAsyncQuery query = mCallerInfoAsyncQueryFactory.startQuery(
@@ -171,9 +169,9 @@ public class CallerInfoLookupHelper {
     }
 
     private void startPhotoLookup(final Uri handle, final Uri contactPhotoUri) {
-        mHandler.post(new Runnable("CILH.sPL", mLock) {
+        mHandler.post("CILH.sPL", new LockProfiler.ProfiledRunnable("CILH.sPL", mLock) {
             @Override
-            public void loggedRun() {
+            public void profiledRun() {
                 Session continuedSession = Log.createSubsession();
                 try {
                     mContactsAsyncHelper.startObtainPhotoAsync(
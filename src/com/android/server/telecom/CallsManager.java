@@ -23,8 +23,6 @@ import android.content.Intent;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.os.Process;
 import android.os.SystemClock;
 import android.os.SystemProperties;
@@ -44,7 +42,6 @@ import android.telecom.ParcelableConference;
 import android.telecom.ParcelableConnection;
 import android.telecom.PhoneAccount;
 import android.telecom.PhoneAccountHandle;
-import android.telecom.Logging.Runnable;
 import android.telecom.TelecomManager;
 import android.telecom.VideoProfile;
 import android.telephony.PhoneNumberUtils;
@@ -234,10 +231,7 @@ public class CallsManager extends Call.ListenerBase
     private RespondViaSmsManager mRespondViaSmsManager;
     private final Ringer mRinger;
     private final InCallWakeLockController mInCallWakeLockController;
-    // For this set initial table size to 16 because we add 13 listeners in
-    // the CallsManager constructor.
-    private final Set<CallsManagerListener> mListeners = Collections.newSetFromMap(
-            new ConcurrentHashMap<CallsManagerListener, Boolean>(16, 0.9f, 1));
+    private final CallsManagerListenerDispatcher mListeners;
     private final HeadsetMediaButton mHeadsetMediaButton;
     private final WiredHeadsetManager mWiredHeadsetManager;
     private final BluetoothRouteManager mBluetoothRouteManager;
@@ -245,6 +239,11 @@ public class CallsManager extends Call.ListenerBase
     private final TtyManager mTtyManager;
     private final ProximitySensorManager mProximitySensorManager;
     private final PhoneStateBroadcaster mPhoneStateBroadcaster;
+    /**
+     * The most recently published call state summary; may be read without holding the lock.
+     * See {@link #updateCallStateSnapshot()}.
+     */
+    private volatile CallStateSnapshot mCallStateSnapshot = CallStateSnapshot.IDLE;
     private final CallLogManager mCallLogManager;
     private final Context mContext;
     private final TelecomSystem.SyncRoot mLock;
@@ -260,15 +259,17 @@ public class CallsManager extends Call.ListenerBase
     private final ClockProxy mClockProxy;
     private final Set<Call> mLocallyDisconnectingCalls = new HashSet<>();
     private final Set<Call> mPendingCallsToDisconnect = new HashSet<>();
-    /* Handler tied to thread in which CallManager was initialized. */
-    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /* Handler on the Telecom looper, see {@link TelecomLooper}. */
+    private final TelecomLooper.MonitoredHandler mHandler = TelecomLooper.createHandler();
     private final EmergencyCallHelper mEmergencyCallHelper;
 
     private boolean mCanAddCall = true;
 
     private TelephonyManager.MultiSimVariants mRadioSimVariants = null;
 
-    private Runnable mStopTone;
+    /** Stops the DTMF tone for {@link #mStopToneCall} in case no other tone follows. */
+    private final TelecomTimerWheel.Timer mStopToneTimer;
+    private Call mStopToneCall;
 
     /**
      * Listener to PhoneAccountRegistrar events.
@@ -311,6 +312,7 @@ public class CallsManager extends Call.ListenerBase
             ClockProxy clockProxy) {
         mContext = context;
         mLock = lock;
+        mListeners = new CallsManagerListenerDispatcher(TelecomLooper.createHandler());
         mPhoneNumberUtilsAdapter = phoneNumberUtilsAdapter;
         mContactsAsyncHelper = contactsAsyncHelper;
         mCallerInfoAsyncQueryFactory = callerInfoAsyncQueryFactory;
@@ -329,6 +331,11 @@ public class CallsManager extends Call.ListenerBase
 
         mDtmfLocalTonePlayer =
                 new DtmfLocalTonePlayer(new DtmfLocalTonePlayer.ToneGeneratorProxy());
+        mStopToneTimer = TelecomTimerWheel.getInstance().createTimer(this, "CM.oPDC", mLock,
+                () -> {
+                    mDtmfLocalTonePlayer.stopTone(mStopToneCall);
+                    mStopToneCall = null;
+                });
         CallAudioRouteStateMachine callAudioRouteStateMachine = new CallAudioRouteStateMachine(
                 context,
                 this,
@@ -371,19 +378,25 @@ public class CallsManager extends Call.ListenerBase
         mPhoneStateBroadcaster = new PhoneStateBroadcaster(this);
         mCallLogManager = new CallLogManager(context, phoneAccountRegistrar, mMissedCallNotifier);
         mConnectionServiceRepository =
-                new ConnectionServiceRepository(mPhoneAccountRegistrar, mContext, mLock, this);
+                new ConnectionServiceRepository(mPhoneAccountRegistrar, mContext, mLock, this,
+                        mTimeoutsAdapter);
         mInCallWakeLockController = inCallWakeLockControllerFactory.create(context, this);
         mClockProxy = clockProxy;
 
         mListeners.add(mInCallWakeLockController);
-        mListeners.add(statusBarNotifier);
-        mListeners.add(mCallLogManager);
-        mListeners.add(mPhoneStateBroadcaster);
         mListeners.add(mInCallController);
         mListeners.add(mCallAudioManager);
-        mListeners.add(missedCallNotifier);
         mListeners.add(mHeadsetMediaButton);
         mListeners.add(mProximitySensorManager);
+        // updateCallStateSnapshot() reads the call state from this as soon as an event has been
+        // dispatched, so it has to be told synchronously.
+        mListeners.add(mPhoneStateBroadcaster);
+        // Nothing in the processing of a call waits on these, so they're told about it once the
+        // listeners above have been, and do the rest of their work without the lock.
+        mListeners.addNonCritical(statusBarNotifier);
+        mListeners.addNonCritical(mCallLogManager);
+        // Handles no events itself; CallLogManager shows its notifications.
+        mListeners.add(missedCallNotifier);
 
         // There is no USER_SWITCHED broadcast for user 0, handle it here explicitly.
         final UserManager userManager = UserManager.get(mContext);
@@ -429,9 +442,8 @@ public class CallsManager extends Call.ListenerBase
         }
 
         // The call's ConnectionService has been updated.
-        for (CallsManagerListener listener : mListeners) {
-            listener.onConnectionServiceChanged(call, null, call.getConnectionService());
-        }
+        final ConnectionServiceWrapper service = call.getConnectionService();
+        mListeners.onConnectionServiceChanged(call, null, service);
 
         markCallAsDialing(call);
     }
@@ -452,6 +464,10 @@ public class CallsManager extends Call.ListenerBase
             return;
         }
 
+        // Resolve the ringtone while the call is filtered, so that it is ready to play as soon
+        // as filtering completes.
+        mRinger.prefetchRingtone(incomingCall);
+
         List<IncomingCallFilter.CallFilter> filters = new ArrayList<>();
         filters.add(new DirectToVoicemailCallFilter(mCallerInfoLookupHelper));
         filters.add(new AsyncBlockCheckFilter(mContext, new BlockCheckerAdapter()));
@@ -472,6 +488,7 @@ public class CallsManager extends Call.ListenerBase
                     result.shouldAllowCall ? "successful incoming call" : "blocking call");
         } else {
             Log.i(this, "onCallFilteringCompleted: call already disconnected.");
+            mRinger.discardPrefetchedRingtone(incomingCall);
             return;
         }
 
@@ -509,6 +526,11 @@ public class CallsManager extends Call.ListenerBase
                         new MissedCallNotifier.CallInfo(incomingCall));
             }
         }
+
+        if (!mCalls.contains(incomingCall)) {
+            // The call was blocked or rejected, so it will never ring.
+            mRinger.discardPrefetchedRingtone(incomingCall);
+        }
     }
 
     /**
@@ -564,9 +586,7 @@ public class CallsManager extends Call.ListenerBase
 
     @Override
     public void onRingbackRequested(Call call, boolean ringback) {
-        for (CallsManagerListener listener : mListeners) {
-            listener.onRingbackRequested(call, ringback);
-        }
+        mListeners.onRingbackRequested(call, ringback);
     }
 
     @Override
@@ -579,31 +599,20 @@ public class CallsManager extends Call.ListenerBase
         if (PhoneNumberUtils.is12Key(nextChar)) {
             // Play tone if it is one of the dialpad digits, canceling out the previously queued
             // up stopTone runnable since playing a new tone automatically stops the previous tone.
-            if (mStopTone != null) {
-                mHandler.removeCallbacks(mStopTone.getRunnableToCancel());
-                mStopTone.cancel();
-            }
+            mStopToneTimer.cancel();
 
             mDtmfLocalTonePlayer.playTone(call, nextChar);
 
-            mStopTone = new Runnable("CM.oPDC", mLock) {
-                @Override
-                public void loggedRun() {
-                    // Set a timeout to stop the tone in case there isn't another tone to
-                    // follow.
-                    mDtmfLocalTonePlayer.stopTone(call);
-                }
-            };
-            mHandler.postDelayed(mStopTone.prepare(),
+            // Set a timeout to stop the tone in case there isn't another tone to follow.
+            mStopToneCall = call;
+            mStopToneTimer.schedule(
                     Timeouts.getDelayBetweenDtmfTonesMillis(mContext.getContentResolver()));
         } else if (nextChar == 0 || nextChar == TelecomManager.DTMF_CHARACTER_WAIT ||
                 nextChar == TelecomManager.DTMF_CHARACTER_PAUSE) {
             // Stop the tone if a tone is playing, removing any other stopTone callbacks since
             // the previous tone is being stopped anyway.
-            if (mStopTone != null) {
-                mHandler.removeCallbacks(mStopTone.getRunnableToCancel());
-                mStopTone.cancel();
-            }
+            mStopToneTimer.cancel();
+            mStopToneCall = null;
             mDtmfLocalTonePlayer.stopTone(call);
         } else {
             Log.w(this, "onPostDialChar: invalid value %d", nextChar);
@@ -614,41 +623,40 @@ public class CallsManager extends Call.ListenerBase
     public void onParentChanged(Call call) {
         // parent-child relationship affects which call should be foreground, so do an update.
         updateCanAddCall();
-        for (CallsManagerListener listener : mListeners) {
-            listener.onIsConferencedChanged(call);
-        }
+        mListeners.onIsConferencedChanged(call);
+        updateCallStateSnapshot();
     }
 
     @Override
     public void onChildrenChanged(Call call) {
         // parent-child relationship affects which call should be foreground, so do an update.
         updateCanAddCall();
-        for (CallsManagerListener listener : mListeners) {
-            listener.onIsConferencedChanged(call);
-        }
+        mListeners.onIsConferencedChanged(call);
+        updateCallStateSnapshot();
+    }
+
+    @Override
+    public void onCallerInfoChanged(Call call) {
+        mRinger.onCallerInfoChanged(call);
     }
 
     @Override
     public void onIsVoipAudioModeChanged(Call call) {
-        for (CallsManagerListener listener : mListeners) {
-            listener.onIsVoipAudioModeChanged(call);
-        }
+        mListeners.onIsVoipAudioModeChanged(call);
     }
 
     @Override
     public void onVideoStateChanged(Call call, int previousVideoState, int newVideoState) {
-        for (CallsManagerListener listener : mListeners) {
-            listener.onVideoStateChanged(call, previousVideoState, newVideoState);
-        }
+        mListeners.onVideoStateChanged(call, previousVideoState, newVideoState);
     }
 
     @Override
     public boolean onCanceledViaNewOutgoingCallBroadcast(final Call call,
             long disconnectionTimeout) {
         mPendingCallsToDisconnect.add(call);
-        mHandler.postDelayed(new Runnable("CM.oCVNOCB", mLock) {
+        mHandler.postDelayed("CM.oCVNOCB", new LockProfiler.ProfiledRunnable("CM.oCVNOCB", mLock) {
             @Override
-            public void loggedRun() {
+            public void profiledRun() {
                 if (mPendingCallsToDisconnect.remove(call)) {
                     Log.i(this, "Delayed disconnection of call: %s", call);
                     call.disconnect();
@@ -693,9 +701,7 @@ public class CallsManager extends Call.ListenerBase
         Log.v(TAG, "onSessionModifyRequestReceived : videoProfile = " + VideoProfile
                 .videoStateToString(videoState));
 
-        for (CallsManagerListener listener : mListeners) {
-            listener.onSessionModifyRequestReceived(call, videoProfile);
-        }
+        mListeners.onSessionModifyRequestReceived(call, videoProfile);
     }
 
     public Collection<Call> getCalls() {
@@ -712,9 +718,7 @@ public class CallsManager extends Call.ListenerBase
      */
     @Override
     public void onHoldToneRequested(Call call) {
-        for (CallsManagerListener listener : mListeners) {
-            listener.onHoldToneRequested(call);
-        }
+        mListeners.onHoldToneRequested(call);
     }
 
     /**
@@ -1362,9 +1366,7 @@ public class CallsManager extends Call.ListenerBase
                 // TODO: Import logic from CallManager.acceptCall()
             }
 
-            for (CallsManagerListener listener : mListeners) {
-                listener.onIncomingCallAnswered(call);
-            }
+            mListeners.onIncomingCallAnswered(call);
 
             // We do not update the UI until we get confirmation of the answer() through
             // {@link #markCallAsActive}.
@@ -1424,9 +1426,7 @@ public class CallsManager extends Call.ListenerBase
         if (!mCalls.contains(call)) {
             Log.i(this, "Request to reject a non-existent call %s", call);
         } else {
-            for (CallsManagerListener listener : mListeners) {
-                listener.onIncomingCallRejected(call, rejectWithMessage, textMessage);
-            }
+            mListeners.onIncomingCallRejected(call, rejectWithMessage, textMessage);
             call.reject(rejectWithMessage, textMessage);
         }
     }
@@ -1612,9 +1612,8 @@ public class CallsManager extends Call.ListenerBase
     @Override
     public void onExternalCallChanged(Call call, boolean isExternalCall) {
         Log.v(this, "onConnectionPropertiesChanged: %b", isExternalCall);
-        for (CallsManagerListener listener : mListeners) {
-            listener.onExternalCallChanged(call, isExternalCall);
-        }
+        mListeners.onExternalCallChanged(call, isExternalCall);
+        updateCallStateSnapshot();
     }
 
     private void handleCallTechnologyChange(Call call) {
@@ -1711,9 +1710,7 @@ public class CallsManager extends Call.ListenerBase
     public void onCallAudioStateChanged(CallAudioState oldAudioState, CallAudioState
             newAudioState) {
         Log.v(this, "onAudioStateChanged, audioState: %s -> %s", oldAudioState, newAudioState);
-        for (CallsManagerListener listener : mListeners) {
-            listener.onCallAudioStateChanged(oldAudioState, newAudioState);
-        }
+        mListeners.onCallAudioStateChanged(oldAudioState, newAudioState);
     }
 
     void markCallAsRinging(Call call) {
@@ -2080,6 +2077,37 @@ public class CallsManager extends Call.ListenerBase
         return mPhoneStateBroadcaster.getCallState();
     }
 
+    /**
+     * Returns the most recently published summary of the call state. Unlike the other call state
+     * queries on this class, this may be called without holding the Telecom lock.
+     */
+    public CallStateSnapshot getCallStateSnapshot() {
+        return mCallStateSnapshot;
+    }
+
+    /**
+     * Computes a call state summary from the current set of calls. Must be called with the lock
+     * held.
+     */
+    @VisibleForTesting
+    public CallStateSnapshot computeCallStateSnapshot() {
+        return new CallStateSnapshot(hasOngoingCalls(), hasOngoingManagedCalls(),
+                hasRingingCall(), getCallState());
+    }
+
+    /**
+     * Recomputes the call state summary returned by {@link #getCallStateSnapshot()}. Must be
+     * called with the lock held, after listeners have been informed of the change, since
+     * {@link #getCallState()} is tracked by the {@link PhoneStateBroadcaster} listener; that
+     * listener must therefore not be added as a non-critical one.
+     */
+    private void updateCallStateSnapshot() {
+        CallStateSnapshot snapshot = computeCallStateSnapshot();
+        if (!snapshot.equals(mCallStateSnapshot)) {
+            mCallStateSnapshot = snapshot;
+        }
+    }
+
     /**
      * Retrieves the {@link PhoneAccountRegistrar}.
      *
@@ -2137,6 +2165,7 @@ public class CallsManager extends Call.ListenerBase
         Log.v(this, "addCall(%s)", call);
         call.addListener(this);
         mCalls.add(call);
+        TelecomScheduler.getInstance().setNumCalls(mCalls.size());
 
         // Specifies the time telecom finished routing the call. This is used by the dialer for
         // analytics.
@@ -2146,15 +2175,8 @@ public class CallsManager extends Call.ListenerBase
 
         updateCanAddCall();
         // onCallAdded for calls which immediately take the foreground (like the first call).
-        for (CallsManagerListener listener : mListeners) {
-            if (LogUtils.SYSTRACE_DEBUG) {
-                Trace.beginSection(listener.getClass().toString() + " addCall");
-            }
-            listener.onCallAdded(call);
-            if (LogUtils.SYSTRACE_DEBUG) {
-                Trace.endSection();
-            }
-        }
+        mListeners.onCallAdded(call);
+        updateCallStateSnapshot();
         Trace.endSection();
     }
 
@@ -2165,12 +2187,14 @@ public class CallsManager extends Call.ListenerBase
         call.setParentAndChildCall(null);  // clean up parent relationship before destroying.
         call.removeListener(this);
         call.clearConnectionService();
+        mRinger.discardPrefetchedRingtone(call);
         // TODO: clean up RTT pipes
 
         boolean shouldNotify = false;
         if (mCalls.contains(call)) {
             mCalls.remove(call);
             shouldNotify = true;
+            TelecomScheduler.getInstance().setNumCalls(mCalls.size());
         }
 
         call.destroy();
@@ -2178,15 +2202,8 @@ public class CallsManager extends Call.ListenerBase
         // Only broadcast changes for calls that are being tracked.
         if (shouldNotify) {
             updateCanAddCall();
-            for (CallsManagerListener listener : mListeners) {
-                if (LogUtils.SYSTRACE_DEBUG) {
-                    Trace.beginSection(listener.getClass().toString() + " onCallRemoved");
-                }
-                listener.onCallRemoved(call);
-                if (LogUtils.SYSTRACE_DEBUG) {
-                    Trace.endSection();
-                }
-            }
+            mListeners.onCallRemoved(call);
+            updateCallStateSnapshot();
         }
         Trace.endSection();
     }
@@ -2222,15 +2239,8 @@ public class CallsManager extends Call.ListenerBase
             // Only broadcast state change for calls that are being tracked.
             if (mCalls.contains(call)) {
                 updateCanAddCall();
-                for (CallsManagerListener listener : mListeners) {
-                    if (LogUtils.SYSTRACE_DEBUG) {
-                        Trace.beginSection(listener.getClass().toString() + " onCallStateChanged");
-                    }
-                    listener.onCallStateChanged(call, oldState, newState);
-                    if (LogUtils.SYSTRACE_DEBUG) {
-                        Trace.endSection();
-                    }
-                }
+                mListeners.onCallStateChanged(call, oldState, newState);
+                updateCallStateSnapshot();
             }
             Trace.endSection();
         }
@@ -2354,15 +2364,7 @@ public class CallsManager extends Call.ListenerBase
         boolean newCanAddCall = canAddCall();
         if (newCanAddCall != mCanAddCall) {
             mCanAddCall = newCanAddCall;
-            for (CallsManagerListener listener : mListeners) {
-                if (LogUtils.SYSTRACE_DEBUG) {
-                    Trace.beginSection(listener.getClass().toString() + " updateCanAddCall");
-                }
-                listener.onCanAddCallChanged(mCanAddCall);
-                if (LogUtils.SYSTRACE_DEBUG) {
-                    Trace.endSection();
-                }
-            }
+            mListeners.onCanAddCallChanged(newCanAddCall);
         }
     }
 
@@ -2836,13 +2838,29 @@ public class CallsManager extends Call.ListenerBase
     }
 
     private void reloadMissedCallsOfUser(UserHandle userHandle) {
-        mMissedCallNotifier.reloadFromDatabase(mCallerInfoLookupHelper,
-                new MissedCallNotifier.CallInfoFactory(), userHandle);
+        // Reloading queries the call log, which shouldn't hold up any ongoing calls.
+        TelecomScheduler.getInstance().post(TelecomScheduler.PRIORITY_DEFERRABLE, "CM.rMCOU",
+                new LockProfiler.ProfiledRunnable("CM.rMCOU", mLock) {
+                    @Override
+                    public void profiledRun() {
+                        mMissedCallNotifier.reloadFromDatabase(mCallerInfoLookupHelper,
+                                new MissedCallNotifier.CallInfoFactory(), userHandle);
+                    }
+                }.prepare());
     }
 
     public void onBootCompleted() {
         mMissedCallNotifier.reloadAfterBootComplete(mCallerInfoLookupHelper,
                 new MissedCallNotifier.CallInfoFactory());
+        prebindConnectionServices();
+    }
+
+    /**
+     * Binds to the connection service of the current user's default outgoing account ahead of
+     * the first call through it.
+     */
+    public void prebindConnectionServices() {
+        mConnectionServiceRepository.prebindDefaultOutgoingService(mCurrentUserHandle);
     }
 
     public boolean isIncomingCallPermitted(PhoneAccountHandle phoneAccountHandle) {
@@ -2906,7 +2924,7 @@ public class CallsManager extends Call.ListenerBase
      */
     public void waitOnHandlers() {
         CountDownLatch mainHandlerLatch = new CountDownLatch(3);
-        mHandler.post(() -> {
+        mHandler.post("CM.wOH", () -> {
             mainHandlerLatch.countDown();
         });
         mCallAudioManager.getCallAudioModeStateMachine().getHandler().post(() -> {
@@ -3069,6 +3087,11 @@ public class CallsManager extends Call.ListenerBase
             mConnectionServiceRepository.dump(pw);
             pw.decreaseIndent();
         }
+
+        pw.println("mListeners dispatch times (us):");
+        pw.increaseIndent();
+        mListeners.dump(pw);
+        pw.decreaseIndent();
     }
 
     /**
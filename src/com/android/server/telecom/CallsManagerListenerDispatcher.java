@@ -0,0 +1,417 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.telecom.CallAudioState;
+import android.telecom.Log;
+import android.telecom.VideoProfile;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the {@link CallsManager.CallsManagerListener}s and dispatches each event only to the
+ * listeners which handle it. Events are dispatched by calling the matching
+ * {@link CallsManager.CallsManagerListener} method on the dispatcher itself.
+ *
+ * Most listeners extend {@link CallsManagerListenerBase} and only override a few of its
+ * callbacks. When a listener is added, the callbacks it overrides are worked out once, and for
+ * each event an array of the listeners interested in it is rebuilt; dispatching an event then
+ * just walks that array, without allocating. The time each listener spends handling each event
+ * is recorded, so that slow listeners show up in dumpsys.
+ *
+ * Listeners added with {@link #addNonCritical} extend {@link NonCriticalListenerBase}. They are
+ * called after the listeners call processing depends on, and only read what they need from the
+ * call there; the rest of their work is posted to a separate handler, which runs it without the
+ * Telecom lock, so it no longer adds to the time the lock is held while dispatching. Without a
+ * handler, that work runs synchronously as well.
+ */
+public class CallsManagerListenerDispatcher implements CallsManager.CallsManagerListener {
+    public static final int ON_CALL_ADDED = 0;
+    public static final int ON_CALL_REMOVED = 1;
+    public static final int ON_CALL_STATE_CHANGED = 2;
+    public static final int ON_CONNECTION_SERVICE_CHANGED = 3;
+    public static final int ON_INCOMING_CALL_ANSWERED = 4;
+    public static final int ON_INCOMING_CALL_REJECTED = 5;
+    public static final int ON_CALL_AUDIO_STATE_CHANGED = 6;
+    public static final int ON_RINGBACK_REQUESTED = 7;
+    public static final int ON_IS_CONFERENCED_CHANGED = 8;
+    public static final int ON_IS_VOIP_AUDIO_MODE_CHANGED = 9;
+    public static final int ON_VIDEO_STATE_CHANGED = 10;
+    public static final int ON_CAN_ADD_CALL_CHANGED = 11;
+    public static final int ON_SESSION_MODIFY_REQUEST_RECEIVED = 12;
+    public static final int ON_HOLD_TONE_REQUESTED = 13;
+    public static final int ON_EXTERNAL_CALL_CHANGED = 14;
+    private static final int NUM_EVENTS = 15;
+
+    /** The {@link CallsManager.CallsManagerListener} method handling each event. */
+    private static final String[] EVENT_METHODS = {
+            "onCallAdded",
+            "onCallRemoved",
+            "onCallStateChanged",
+            "onConnectionServiceChanged",
+            "onIncomingCallAnswered",
+            "onIncomingCallRejected",
+            "onCallAudioStateChanged",
+            "onRingbackRequested",
+            "onIsConferencedChanged",
+            "onIsVoipAudioModeChanged",
+            "onVideoStateChanged",
+            "onCanAddCallChanged",
+            "onSessionModifyRequestReceived",
+            "onHoldToneRequested",
+            "onExternalCallChanged",
+    };
+
+    private static final Class<?>[][] EVENT_PARAMETERS = {
+            { Call.class },
+            { Call.class },
+            { Call.class, int.class, int.class },
+            { Call.class, ConnectionServiceWrapper.class, ConnectionServiceWrapper.class },
+            { Call.class },
+            { Call.class, boolean.class, String.class },
+            { CallAudioState.class, CallAudioState.class },
+            { Call.class, boolean.class },
+            { Call.class },
+            { Call.class },
+            { Call.class, int.class, int.class },
+            { boolean.class },
+            { Call.class, VideoProfile.class },
+            { Call.class },
+            { Call.class, boolean.class },
+    };
+
+    private static final class Entry {
+        final CallsManager.CallsManagerListener listener;
+        final int mask;
+        final boolean isNonCritical;
+        // Guarded by this; dispatch times are in microseconds.
+        final LatencyHistogram[] dispatchMicros = new LatencyHistogram[NUM_EVENTS];
+
+        Entry(CallsManager.CallsManagerListener listener, int mask, boolean isNonCritical) {
+            this.listener = listener;
+            this.mask = mask;
+            this.isNonCritical = isNonCritical;
+        }
+
+        synchronized void record(int event, long micros) {
+            if (dispatchMicros[event] == null) {
+                dispatchMicros[event] = new LatencyHistogram();
+            }
+            dispatchMicros[event].record(micros);
+        }
+    }
+
+    private static final Entry[] EMPTY = new Entry[0];
+
+    private final TelecomLooper.MonitoredHandler mNonCriticalHandler;
+
+    // Guarded by this.
+    private final List<Entry> mEntries = new ArrayList<>();
+    /**
+     * The listeners called for each event, with the non-critical listeners last; replaced
+     * whenever a listener is added or removed.
+     */
+    private volatile Entry[][] mDispatch;
+
+    /**
+     * Creates a dispatcher which runs the work of non-critical listeners synchronously.
+     */
+    public CallsManagerListenerDispatcher() {
+        this(null);
+    }
+
+    /**
+     * @param nonCriticalHandler The handler to run the work of non-critical listeners from, or
+     * null to run it synchronously.
+     */
+    public CallsManagerListenerDispatcher(TelecomLooper.MonitoredHandler nonCriticalHandler) {
+        mNonCriticalHandler = nonCriticalHandler;
+        rebuild();
+    }
+
+    /**
+     * Adds a listener, unless it has already been added.
+     */
+    public void add(CallsManager.CallsManagerListener listener) {
+        add(listener, false);
+    }
+
+    /**
+     * Adds a listener which nothing in the processing of a call waits on, unless it has already
+     * been added. It receives the events after the other listeners, and the work it passes to
+     * {@link NonCriticalListenerBase#runLater} runs from the non-critical handler.
+     */
+    public void addNonCritical(NonCriticalListenerBase listener) {
+        listener.setHandler(mNonCriticalHandler);
+        add(listener, true);
+    }
+
+    private synchronized void add(CallsManager.CallsManagerListener listener,
+            boolean isNonCritical) {
+        if (indexOf(listener) >= 0) {
+            return;
+        }
+        mEntries.add(new Entry(listener, computeMask(listener), isNonCritical));
+        rebuild();
+    }
+
+    public synchronized void remove(CallsManager.CallsManagerListener listener) {
+        int index = indexOf(listener);
+        if (index >= 0) {
+            mEntries.remove(index);
+            rebuild();
+        }
+    }
+
+    @Override
+    public void onCallAdded(Call call) {
+        for (Entry entry : mDispatch[ON_CALL_ADDED]) {
+            long startNanos = beginDelivery(entry, ON_CALL_ADDED);
+            entry.listener.onCallAdded(call);
+            endDelivery(entry, ON_CALL_ADDED, startNanos);
+        }
+    }
+
+    @Override
+    public void onCallRemoved(Call call) {
+        for (Entry entry : mDispatch[ON_CALL_REMOVED]) {
+            long startNanos = beginDelivery(entry, ON_CALL_REMOVED);
+            entry.listener.onCallRemoved(call);
+            endDelivery(entry, ON_CALL_REMOVED, startNanos);
+        }
+    }
+
+    @Override
+    public void onCallStateChanged(Call call, int oldState, int newState) {
+        for (Entry entry : mDispatch[ON_CALL_STATE_CHANGED]) {
+            long startNanos = beginDelivery(entry, ON_CALL_STATE_CHANGED);
+            entry.listener.onCallStateChanged(call, oldState, newState);
+            endDelivery(entry, ON_CALL_STATE_CHANGED, startNanos);
+        }
+    }
+
+    @Override
+    public void onConnectionServiceChanged(Call call, ConnectionServiceWrapper oldService,
+            ConnectionServiceWrapper newService) {
+        for (Entry entry : mDispatch[ON_CONNECTION_SERVICE_CHANGED]) {
+            long startNanos = beginDelivery(entry, ON_CONNECTION_SERVICE_CHANGED);
+            entry.listener.onConnectionServiceChanged(call, oldService, newService);
+            endDelivery(entry, ON_CONNECTION_SERVICE_CHANGED, startNanos);
+        }
+    }
+
+    @Override
+    public void onIncomingCallAnswered(Call call) {
+        for (Entry entry : mDispatch[ON_INCOMING_CALL_ANSWERED]) {
+            long startNanos = beginDelivery(entry, ON_INCOMING_CALL_ANSWERED);
+            entry.listener.onIncomingCallAnswered(call);
+            endDelivery(entry, ON_INCOMING_CALL_ANSWERED, startNanos);
+        }
+    }
+
+    @Override
+    public void onIncomingCallRejected(Call call, boolean rejectWithMessage, String textMessage) {
+        for (Entry entry : mDispatch[ON_INCOMING_CALL_REJECTED]) {
+            long startNanos = beginDelivery(entry, ON_INCOMING_CALL_REJECTED);
+            entry.listener.onIncomingCallRejected(call, rejectWithMessage, textMessage);
+            endDelivery(entry, ON_INCOMING_CALL_REJECTED, startNanos);
+        }
+    }
+
+    @Override
+    public void onCallAudioStateChanged(CallAudioState oldAudioState,
+            CallAudioState newAudioState) {
+        for (Entry entry : mDispatch[ON_CALL_AUDIO_STATE_CHANGED]) {
+            long startNanos = beginDelivery(entry, ON_CALL_AUDIO_STATE_CHANGED);
+            entry.listener.onCallAudioStateChanged(oldAudioState, newAudioState);
+            endDelivery(entry, ON_CALL_AUDIO_STATE_CHANGED, startNanos);
+        }
+    }
+
+    @Override
+    public void onRingbackRequested(Call call, boolean ringback) {
+        for (Entry entry : mDispatch[ON_RINGBACK_REQUESTED]) {
+            long startNanos = beginDelivery(entry, ON_RINGBACK_REQUESTED);
+            entry.listener.onRingbackRequested(call, ringback);
+            endDelivery(entry, ON_RINGBACK_REQUESTED, startNanos);
+        }
+    }
+
+    @Override
+    public void onIsConferencedChanged(Call call) {
+        for (Entry entry : mDispatch[ON_IS_CONFERENCED_CHANGED]) {
+            long startNanos = beginDelivery(entry, ON_IS_CONFERENCED_CHANGED);
+            entry.listener.onIsConferencedChanged(call);
+            endDelivery(entry, ON_IS_CONFERENCED_CHANGED, startNanos);
+        }
+    }
+
+    @Override
+    public void onIsVoipAudioModeChanged(Call call) {
+        for (Entry entry : mDispatch[ON_IS_VOIP_AUDIO_MODE_CHANGED]) {
+            long startNanos = beginDelivery(entry, ON_IS_VOIP_AUDIO_MODE_CHANGED);
+            entry.listener.onIsVoipAudioModeChanged(call);
+            endDelivery(entry, ON_IS_VOIP_AUDIO_MODE_CHANGED, startNanos);
+        }
+    }
+
+    @Override
+    public void onVideoStateChanged(Call call, int previousVideoState, int newVideoState) {
+        for (Entry entry : mDispatch[ON_VIDEO_STATE_CHANGED]) {
+            long startNanos = beginDelivery(entry, ON_VIDEO_STATE_CHANGED);
+            entry.listener.onVideoStateChanged(call, previousVideoState, newVideoState);
+            endDelivery(entry, ON_VIDEO_STATE_CHANGED, startNanos);
+        }
+    }
+
+    @Override
+    public void onCanAddCallChanged(boolean canAddCall) {
+        for (Entry entry : mDispatch[ON_CAN_ADD_CALL_CHANGED]) {
+            long startNanos = beginDelivery(entry, ON_CAN_ADD_CALL_CHANGED);
+            entry.listener.onCanAddCallChanged(canAddCall);
+            endDelivery(entry, ON_CAN_ADD_CALL_CHANGED, startNanos);
+        }
+    }
+
+    @Override
+    public void onSessionModifyRequestReceived(Call call, VideoProfile videoProfile) {
+        for (Entry entry : mDispatch[ON_SESSION_MODIFY_REQUEST_RECEIVED]) {
+            long startNanos = beginDelivery(entry, ON_SESSION_MODIFY_REQUEST_RECEIVED);
+            entry.listener.onSessionModifyRequestReceived(call, videoProfile);
+            endDelivery(entry, ON_SESSION_MODIFY_REQUEST_RECEIVED, startNanos);
+        }
+    }
+
+    @Override
+    public void onHoldToneRequested(Call call) {
+        for (Entry entry : mDispatch[ON_HOLD_TONE_REQUESTED]) {
+            long startNanos = beginDelivery(entry, ON_HOLD_TONE_REQUESTED);
+            entry.listener.onHoldToneRequested(call);
+            endDelivery(entry, ON_HOLD_TONE_REQUESTED, startNanos);
+        }
+    }
+
+    @Override
+    public void onExternalCallChanged(Call call, boolean isExternalCall) {
+        for (Entry entry : mDispatch[ON_EXTERNAL_CALL_CHANGED]) {
+            long startNanos = beginDelivery(entry, ON_EXTERNAL_CALL_CHANGED);
+            entry.listener.onExternalCallChanged(call, isExternalCall);
+            endDelivery(entry, ON_EXTERNAL_CALL_CHANGED, startNanos);
+        }
+    }
+
+    private static long beginDelivery(Entry entry, int event) {
+        if (LogUtils.SYSTRACE_DEBUG) {
+            Trace.beginSection(entry.listener.getClass().toString() + " " + EVENT_METHODS[event]);
+        }
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    private static void endDelivery(Entry entry, int event, long startNanos) {
+        entry.record(event, (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000);
+        if (LogUtils.SYSTRACE_DEBUG) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * @return The number of listeners an event is dispatched to.
+     */
+    @VisibleForTesting
+    public int getNumListeners(int event) {
+        return mDispatch[event].length;
+    }
+
+    /**
+     * @return A bit for each {@code ON_*} event the listener handles. Callbacks inherited
+     * unchanged from {@link CallsManagerListenerBase} are empty, so those events are skipped.
+     */
+    @VisibleForTesting
+    public static int computeMask(CallsManager.CallsManagerListener listener) {
+        int mask = 0;
+        for (int event = 0; event < NUM_EVENTS; event++) {
+            try {
+                Class<?> declaringClass = listener.getClass()
+                        .getMethod(EVENT_METHODS[event], EVENT_PARAMETERS[event])
+                        .getDeclaringClass();
+                if (declaringClass != CallsManagerListenerBase.class) {
+                    mask |= 1 << event;
+                }
+            } catch (NoSuchMethodException e) {
+                Log.w(CallsManagerListenerDispatcher.class, "Can't find %s on %s",
+                        EVENT_METHODS[event], listener);
+                mask |= 1 << event;
+            }
+        }
+        return mask;
+    }
+
+    private int indexOf(CallsManager.CallsManagerListener listener) {
+        for (int i = 0; i < mEntries.size(); i++) {
+            if (mEntries.get(i).listener == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void rebuild() {
+        Entry[][] dispatch = new Entry[NUM_EVENTS][];
+        List<Entry> interested = new ArrayList<>(mEntries.size());
+        for (int event = 0; event < NUM_EVENTS; event++) {
+            interested.clear();
+            addInterested(interested, event, false /* isNonCritical */);
+            addInterested(interested, event, true /* isNonCritical */);
+            dispatch[event] = interested.toArray(EMPTY);
+        }
+        mDispatch = dispatch;
+    }
+
+    private void addInterested(List<Entry> interested, int event, boolean isNonCritical) {
+        for (Entry entry : mEntries) {
+            if ((entry.mask & (1 << event)) != 0 && entry.isNonCritical == isNonCritical) {
+                interested.add(entry);
+            }
+        }
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        List<Entry> entries;
+        synchronized (this) {
+            entries = new ArrayList<>(mEntries);
+        }
+        for (Entry entry : entries) {
+            pw.println(entry.listener.getClass().getSimpleName()
+                    + (entry.isNonCritical ? " (non-critical):" : ":"));
+            pw.increaseIndent();
+            synchronized (entry) {
+                for (int event = 0; event < NUM_EVENTS; event++) {
+                    if (entry.dispatchMicros[event] != null) {
+                        pw.println(EVENT_METHODS[event] + ": " + entry.dispatchMicros[event]);
+                    }
+                }
+            }
+            pw.decreaseIndent();
+        }
+    }
+}
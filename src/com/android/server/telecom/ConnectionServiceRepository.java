@@ -19,15 +19,25 @@ package com.android.server.telecom;
 import android.content.ComponentName;
 import android.content.Context;
 import android.os.UserHandle;
+import android.telecom.Log;
+import android.telecom.PhoneAccountHandle;
 import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.IndentingPrintWriter;
 
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Searches for and returns connection services.
+ *
+ * Also keeps a small pool of connection services bound while they are idle, so that calls
+ * through them don't have to wait for a bind and possibly a process start. The services used for
+ * the most calls recently, ranked by {@link PhoneAccountHandle}, are kept bound until they have
+ * been idle for {@link Timeouts#getConnectionServiceWarmIdleTimeoutMillis}; the service of the
+ * user's default outgoing account is bound when the device boots and when the user changes.
  */
 @VisibleForTesting
 public class ConnectionServiceRepository {
@@ -37,6 +47,32 @@ public class ConnectionServiceRepository {
     private final Context mContext;
     private final TelecomSystem.SyncRoot mLock;
     private final CallsManager mCallsManager;
+    private final Timeouts.Adapter mTimeoutsAdapter;
+    private final TelecomTimerWheel mTimerWheel;
+
+    /** The recent call count is halved for every account once the total reaches this. */
+    private static final int MAX_TOTAL_CALL_COUNT = 64;
+
+    /** A service being kept bound by the warm pool, and the account it is ranked by. */
+    private final class WarmService {
+        final ConnectionServiceWrapper service;
+        PhoneAccountHandle handle;
+        final TelecomTimerWheel.Timer idleTimeout = mTimerWheel.createTimer(
+                ConnectionServiceRepository.this, "CSR.iT", mLock,
+                () -> onIdleTimeout(WarmService.this));
+
+        WarmService(ConnectionServiceWrapper service, PhoneAccountHandle handle) {
+            this.service = service;
+            this.handle = handle;
+        }
+    }
+
+    /** Maximum number of services kept bound by the warm pool; 0 disables it. */
+    private final int mWarmPoolSize;
+    private final Map<ConnectionServiceWrapper, WarmService> mWarmServices = new HashMap<>();
+    /** Decaying count of the calls made through each account. */
+    private final Map<PhoneAccountHandle, Integer> mRecentCallCounts = new HashMap<>();
+    private int mTotalCallCount = 0;
 
     private final ServiceBinder.Listener<ConnectionServiceWrapper> mUnbindListener =
             new ServiceBinder.Listener<ConnectionServiceWrapper>() {
@@ -52,11 +88,28 @@ public class ConnectionServiceRepository {
             PhoneAccountRegistrar phoneAccountRegistrar,
             Context context,
             TelecomSystem.SyncRoot lock,
-            CallsManager callsManager) {
+            CallsManager callsManager,
+            Timeouts.Adapter timeoutsAdapter) {
+        this(phoneAccountRegistrar, context, lock, callsManager, timeoutsAdapter,
+                TelecomTimerWheel.getInstance());
+    }
+
+    @VisibleForTesting
+    public ConnectionServiceRepository(
+            PhoneAccountRegistrar phoneAccountRegistrar,
+            Context context,
+            TelecomSystem.SyncRoot lock,
+            CallsManager callsManager,
+            Timeouts.Adapter timeoutsAdapter,
+            TelecomTimerWheel timerWheel) {
         mPhoneAccountRegistrar = phoneAccountRegistrar;
         mContext = context;
         mLock = lock;
         mCallsManager = callsManager;
+        mTimeoutsAdapter = timeoutsAdapter;
+        mTimerWheel = timerWheel;
+        mWarmPoolSize = context.getResources().getInteger(
+                R.integer.connection_service_warm_pool_size);
     }
 
     @VisibleForTesting
@@ -78,6 +131,165 @@ public class ConnectionServiceRepository {
         return service;
     }
 
+    /**
+     * Called when a call is about to be created through the given service. Counts the call
+     * against its account, and keeps the service bound afterwards if the account is one of the
+     * most used.
+     */
+    @VisibleForTesting
+    public void onServiceUsed(ConnectionServiceWrapper service, Call call) {
+        if (mWarmPoolSize <= 0) {
+            return;
+        }
+        PhoneAccountHandle handle = call.getConnectionManagerPhoneAccount();
+        if (handle == null || !service.getComponentName().equals(handle.getComponentName())) {
+            handle = call.getTargetPhoneAccount();
+        }
+        if (handle == null) {
+            return;
+        }
+
+        Integer count = mRecentCallCounts.get(handle);
+        mRecentCallCounts.put(handle, count == null ? 1 : count + 1);
+        if (++mTotalCallCount >= MAX_TOTAL_CALL_COUNT) {
+            decayCallCounts();
+        }
+        if (getRank(handle) < mWarmPoolSize) {
+            keepWarm(service, handle);
+        }
+    }
+
+    /**
+     * Binds to the service of the user's default outgoing account, if there is one and the warm
+     * pool has room for it.
+     */
+    @VisibleForTesting
+    public void prebindDefaultOutgoingService(UserHandle userHandle) {
+        if (mWarmPoolSize <= 0) {
+            return;
+        }
+        PhoneAccountHandle handle =
+                mPhoneAccountRegistrar.getUserSelectedOutgoingPhoneAccount(userHandle);
+        if (handle == null) {
+            return;
+        }
+        Log.i(this, "Prebinding default outgoing service %s", handle.getComponentName());
+        ConnectionServiceWrapper service = getService(handle.getComponentName(),
+                handle.getUserHandle());
+        if (keepWarm(service, handle)) {
+            service.prebind();
+        }
+    }
+
+    /**
+     * Adds the service to the warm pool, evicting the least used service if the pool is full.
+     *
+     * @return {@code true} if the service is in the pool afterwards; {@code false} if it was the
+     * least used, and so was evicted straight away.
+     */
+    private boolean keepWarm(ConnectionServiceWrapper service, PhoneAccountHandle handle) {
+        WarmService warmService = mWarmServices.get(service);
+        if (warmService == null) {
+            warmService = new WarmService(service, handle);
+            mWarmServices.put(service, warmService);
+            // Held as if the service had another call, so it stays bound after its calls end.
+            service.incrementAssociatedCallCount();
+            if (mWarmServices.size() > mWarmPoolSize) {
+                release(getLeastUsedWarmService());
+                if (!mWarmServices.containsKey(service)) {
+                    return false;
+                }
+            }
+        } else {
+            warmService.handle = handle;
+        }
+        scheduleIdleTimeout(warmService);
+        return true;
+    }
+
+    private void scheduleIdleTimeout(WarmService warmService) {
+        warmService.idleTimeout.schedule(mTimeoutsAdapter.getConnectionServiceWarmIdleTimeoutMillis(
+                mContext.getContentResolver()));
+    }
+
+    private void onIdleTimeout(WarmService warmService) {
+        if (mWarmServices.get(warmService.service) != warmService) {
+            return;
+        }
+        if (warmService.service.getAssociatedCallCount() > 1) {
+            // Still in use; the service is only idle once its calls have ended.
+            scheduleIdleTimeout(warmService);
+            return;
+        }
+        Log.i(this, "Releasing idle service %s", warmService.service.getComponentName());
+        release(warmService);
+    }
+
+    private void release(WarmService warmService) {
+        mWarmServices.remove(warmService.service);
+        warmService.idleTimeout.cancel();
+        // Unbinds the service if it has no calls.
+        warmService.service.decrementAssociatedCallCount();
+    }
+
+    private WarmService getLeastUsedWarmService() {
+        WarmService leastUsed = null;
+        for (WarmService warmService : mWarmServices.values()) {
+            if (leastUsed == null
+                    || getCallCount(warmService.handle) < getCallCount(leastUsed.handle)) {
+                leastUsed = warmService;
+            }
+        }
+        return leastUsed;
+    }
+
+    /**
+     * @return The number of accounts with more recent calls than the given one.
+     */
+    private int getRank(PhoneAccountHandle handle) {
+        int count = getCallCount(handle);
+        int rank = 0;
+        for (Integer otherCount : mRecentCallCounts.values()) {
+            if (otherCount > count) {
+                rank++;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * @return The decaying count of recent calls through the account.
+     */
+    @VisibleForTesting
+    public int getCallCount(PhoneAccountHandle handle) {
+        Integer count = mRecentCallCounts.get(handle);
+        return count == null ? 0 : count;
+    }
+
+    private void decayCallCounts() {
+        mTotalCallCount = 0;
+        Iterator<Map.Entry<PhoneAccountHandle, Integer>> iterator =
+                mRecentCallCounts.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<PhoneAccountHandle, Integer> entry = iterator.next();
+            int count = entry.getValue() / 2;
+            if (count == 0) {
+                iterator.remove();
+            } else {
+                entry.setValue(count);
+                mTotalCallCount += count;
+            }
+        }
+    }
+
+    /**
+     * @return Whether the warm pool is keeping the service bound.
+     */
+    @VisibleForTesting
+    public boolean isWarm(ConnectionServiceWrapper service) {
+        return mWarmServices.containsKey(service);
+    }
+
     /**
      * Dumps the state of the {@link ConnectionServiceRepository}.
      *
@@ -86,10 +298,14 @@ public class ConnectionServiceRepository {
     public void dump(IndentingPrintWriter pw) {
         pw.println("mServiceCache:");
         pw.increaseIndent();
-        for (Pair<ComponentName, UserHandle> cacheKey : mServiceCache.keySet()) {
-            ComponentName componentName = cacheKey.first;
-            pw.println(componentName);
+        for (ConnectionServiceWrapper service : mServiceCache.values()) {
+            pw.print(service.getComponentName());
+            if (mWarmServices.containsKey(service)) {
+                pw.print(" (warm)");
+            }
+            pw.println(" bind latency (ms): " + service.getBindLatencyHistogram());
         }
         pw.decreaseIndent();
+        pw.println("Recent call counts: " + mRecentCallCounts);
     }
 }
@@ -73,7 +73,8 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_HANDLE_CREATE_CONNECTION_COMPLETE);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock,
+                        LogUtils.Sessions.CSW_HANDLE_CREATE_CONNECTION_COMPLETE, () -> {
                     logIncoming("handleCreateConnectionComplete %s", callId);
                     ConnectionServiceWrapper.this
                             .handleCreateConnectionComplete(callId, request, connection);
@@ -86,7 +87,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                         } catch (RemoteException e) {
                         }
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -98,7 +99,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_SET_ACTIVE);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.CSW_SET_ACTIVE, () -> {
                     logIncoming("setActive %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -106,7 +107,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                     } else {
                         // Log.w(this, "setActive, unknown call id: %s", msg.obj);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -118,7 +119,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_SET_RINGING);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.CSW_SET_RINGING, () -> {
                     logIncoming("setRinging %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -126,7 +127,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                     } else {
                         // Log.w(this, "setRinging, unknown call id: %s", msg.obj);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -139,13 +140,13 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.sVP");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.sVP", () -> {
                     logIncoming("setVideoProvider %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setVideoProvider(videoProvider);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -157,7 +158,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_SET_DIALING);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.CSW_SET_DIALING, () -> {
                     logIncoming("setDialing %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -165,7 +166,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                     } else {
                         // Log.w(this, "setDialing, unknown call id: %s", msg.obj);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -177,13 +178,13 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_SET_PULLING);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.CSW_SET_PULLING, () -> {
                     logIncoming("setPulling %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         mCallsManager.markCallAsPulling(call);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -196,7 +197,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_SET_DISCONNECTED);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.CSW_SET_DISCONNECTED, () -> {
                     logIncoming("setDisconnected %s %s", callId, disconnectCause);
                     Call call = mCallIdMapper.getCall(callId);
                     Log.d(this, "disconnect call %s %s", disconnectCause, call);
@@ -205,7 +206,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                     } else {
                         // Log.w(this, "setDisconnected, unknown call id: %s", args.arg1);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -217,7 +218,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_SET_ON_HOLD);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.CSW_SET_ON_HOLD, () -> {
                     logIncoming("setOnHold %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -225,7 +226,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                     } else {
                         // Log.w(this, "setOnHold, unknown call id: %s", msg.obj);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -238,7 +239,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.SRR");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.SRR", () -> {
                     logIncoming("setRingbackRequested %s %b", callId, ringback);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -246,7 +247,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                     } else {
                         // Log.w(this, "setRingback, unknown call id: %s", args.arg1);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -258,7 +259,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_REMOVE_CALL);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.CSW_REMOVE_CALL, () -> {
                     logIncoming("removeCall %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -269,7 +270,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                             mCallsManager.markCallAsRemoved(call);
                         }
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -282,7 +283,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.sCC");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.sCC", () -> {
                     logIncoming("setConnectionCapabilities %s %d", callId, connectionCapabilities);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -291,7 +292,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                         // Log.w(ConnectionServiceWrapper.this,
                         // "setConnectionCapabilities, unknown call id: %s", msg.obj);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -304,13 +305,13 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession("CSW.sCP");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.sCP", () -> {
                     logIncoming("setConnectionProperties %s %d", callId, connectionProperties);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setConnectionProperties(connectionProperties);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -323,7 +324,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_SET_IS_CONFERENCED);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.CSW_SET_IS_CONFERENCED, () -> {
                     logIncoming("setIsConferenced %s %s", callId, conferenceCallId);
                     Call childCall = mCallIdMapper.getCall(callId);
                     if (childCall != null) {
@@ -337,7 +338,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                     } else {
                         // Log.w(this, "setIsConferenced, unknown call id: %s", args.arg1);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -349,7 +350,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.sCMF");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.sCMF", () -> {
                     logIncoming("setConferenceMergeFailed %s", callId);
                     // TODO: we should move the UI for indication a merge failure here
                     // from CallNotifier.onSuppServiceFailed(). This way the InCallUI can
@@ -360,7 +361,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                     } else {
                         Log.w(this, "setConferenceMergeFailed, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -373,7 +374,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, LogUtils.Sessions.CSW_ADD_CONFERENCE_CALL);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.CSW_ADD_CONFERENCE_CALL, () -> {
                     if (mCallIdMapper.getCall(callId) != null) {
                         Log.w(this, "Attempting to add a conference call using an existing " +
                                 "call id %s", callId);
@@ -448,7 +449,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                             childCall.setParentAndChildCall(conferenceCall);
                         }
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -461,7 +462,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.oPDW");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.oPDW", () -> {
                     logIncoming("onPostDialWait %s %s", callId, remaining);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -469,7 +470,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                     } else {
                         // Log.w(this, "onPostDialWait, unknown call id: %s", args.arg1);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -482,7 +483,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.oPDC");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.oPDC", () -> {
                     logIncoming("onPostDialChar %s %s", callId, nextChar);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -490,7 +491,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                     } else {
                         // Log.w(this, "onPostDialChar, unknown call id: %s", args.arg1);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -504,11 +505,11 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.qRCS");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.qRCS", () -> {
                     logIncoming("queryRemoteConnectionServices %s", callback);
                     ConnectionServiceWrapper.this
                             .queryRemoteConnectionServices(callingUserHandle, callback);
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -520,13 +521,13 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.sVS");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.sVS", () -> {
                     logIncoming("setVideoState %s %d", callId, videoState);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setVideoState(videoState);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -538,13 +539,13 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.sIVAM");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.sIVAM", () -> {
                     logIncoming("setIsVoipAudioMode %s %b", callId, isVoip);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setIsVoipAudioMode(isVoip);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -556,11 +557,11 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.sAR");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.sAR", () -> {
                     logIncoming("setAudioRoute %s %s", callId,
                             CallAudioState.audioRouteToString(audioRoute));
                     mCallsManager.setAudioRoute(audioRoute);
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -573,13 +574,13 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.sSH");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.sSH", () -> {
                     logIncoming("setStatusHints %s %s", callId, statusHints);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setStatusHints(statusHints);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -591,13 +592,13 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.pE");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.pE", () -> {
                     Bundle.setDefusable(extras, true);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.putExtras(Call.SOURCE_CONNECTION_SERVICE, extras);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -609,13 +610,13 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.rE");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.rE", () -> {
                     logIncoming("removeExtra %s %s", callId, keys);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.removeExtras(Call.SOURCE_CONNECTION_SERVICE, keys);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -628,13 +629,13 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.sA");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.sA", () -> {
                     logIncoming("setAddress %s %s %d", callId, address, presentation);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setHandle(address, presentation);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -647,14 +648,14 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.sCDN");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.sCDN", () -> {
                     logIncoming("setCallerDisplayName %s %s %d", callId, callerDisplayName,
                             presentation);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.setCallerDisplayName(callerDisplayName, presentation);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -667,7 +668,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.sCC");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.sCC", () -> {
 
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -683,7 +684,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                         }
                         call.setConferenceableCalls(conferenceableCalls);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -703,7 +704,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             }
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.aEC", () -> {
                     // Make sure that the PhoneAccount associated with the incoming
                     // ParcelableConnection is in fact registered to Telecom and is being called
                     // from the correct user.
@@ -756,7 +757,7 @@ public class ConnectionServiceWrapper extends ServiceBinder {
                                 "currently registered with Telecom."), "Unable to " +
                                 "addExistingConnection.");
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -769,13 +770,13 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.oCE");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.oCE", () -> {
                     Bundle.setDefusable(extras, true);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.onConnectionEvent(event, extras);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -794,12 +795,12 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.oRIF");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.oRIF", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.onRttConnectionFailure(reason);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -818,12 +819,12 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             Log.startSession(sessionInfo, "CSW.oRRR");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "CSW.oRRR", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.onRemoteRttRequest();
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
                 Log.endSession();
@@ -977,9 +978,29 @@ public class ConnectionServiceWrapper extends ServiceBinder {
             }
         };
 
+        mConnectionServiceRepository.onServiceUsed(this, call);
         mBinder.bind(callback, call);
     }
 
+    /**
+     * Binds to the {@link ConnectionService} ahead of any call, so that the next call through it
+     * doesn't have to wait for the bind. The caller must hold an associated call count for as long
+     * as the service should stay bound.
+     */
+    void prebind() {
+        Log.d(this, "prebind() %s", getComponentName());
+        mBinder.bind(new BindCallback() {
+            @Override
+            public void onSuccess() {
+            }
+
+            @Override
+            public void onFailure() {
+                Log.w(this, "Failed to prebind %s", getComponentName());
+            }
+        }, null /* call */);
+    }
+
     /**
      * Notifies the {@link ConnectionService} associated with a {@link Call} that the request to
      * create a connection has been denied or failed.
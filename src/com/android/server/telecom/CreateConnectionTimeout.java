@@ -17,10 +17,7 @@
 package com.android.server.telecom;
 
 import android.content.Context;
-import android.os.Handler;
-import android.os.Looper;
 import android.telecom.Log;
-import android.telecom.Logging.Runnable;
 import android.telecom.PhoneAccountHandle;
 import android.telephony.TelephonyManager;
 
@@ -30,22 +27,23 @@ import java.util.Objects;
 /**
  * Registers a timeout for a call and disconnects the call when the timeout expires.
  */
-final class CreateConnectionTimeout extends Runnable {
+final class CreateConnectionTimeout {
     private final Context mContext;
     private final PhoneAccountRegistrar mPhoneAccountRegistrar;
     private final ConnectionServiceWrapper mConnectionService;
     private final Call mCall;
-    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final TelecomTimerWheel.Timer mTimer;
     private boolean mIsRegistered;
     private boolean mIsCallTimedOut;
 
     CreateConnectionTimeout(Context context, PhoneAccountRegistrar phoneAccountRegistrar,
             ConnectionServiceWrapper service, Call call) {
-        super("CCT", null /*lock*/);
         mContext = context;
         mPhoneAccountRegistrar = phoneAccountRegistrar;
         mConnectionService = service;
         mCall = call;
+        mTimer = TelecomTimerWheel.getInstance().createTimer(this, "CCT", null /* lock */,
+                this::onTimeout);
     }
 
     boolean isTimeoutNeededForCall(Collection<PhoneAccountHandle> accounts,
@@ -87,23 +85,21 @@ final class CreateConnectionTimeout extends Runnable {
         if (timeoutLengthMillis <= 0) {
             Log.d(this, "registerTimeout, timeout set to %d, skipping", timeoutLengthMillis);
         } else {
-            mHandler.postDelayed(prepare(), timeoutLengthMillis);
+            mTimer.schedule(timeoutLengthMillis);
         }
     }
 
     void unregisterTimeout() {
         Log.d(this, "unregisterTimeout");
         mIsRegistered = false;
-        mHandler.removeCallbacksAndMessages(null);
-        cancel();
+        mTimer.cancel();
     }
 
     boolean isCallTimedOut() {
         return mIsCallTimedOut;
     }
 
-    @Override
-    public void loggedRun() {
+    private void onTimeout() {
         if (mIsRegistered && isCallBeingPlaced(mCall)) {
             Log.i(this, "run, call timed out, calling disconnect");
             mIsCallTimedOut = true;
@@ -24,7 +24,6 @@ import android.content.IntentFilter;
 import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Handler;
-import android.os.Looper;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.telecom.DefaultDialerManager;
@@ -107,7 +106,7 @@ public class DefaultDialerCache {
         }
     };
 
-    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Handler mHandler = TelecomLooper.createHandler();
     private final ContentObserver mDefaultDialerObserver = new ContentObserver(mHandler) {
         @Override
         public void onChange(boolean selfChange) {
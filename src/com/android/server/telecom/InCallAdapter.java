@@ -51,7 +51,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_ANSWER_CALL, mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.ICA_ANSWER_CALL, () -> {
                     Log.d(this, "answerCall(%s,%d)", callId, videoState);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -59,7 +59,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "answerCall, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -74,7 +74,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_REJECT_CALL, mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.ICA_REJECT_CALL, () -> {
                     Log.d(this, "rejectCall(%s,%b,%s)", callId, rejectWithMessage, textMessage);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -82,7 +82,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "setRingback, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -97,7 +97,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.pDT", mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.pDT", () -> {
                     Log.d(this, "playDtmfTone(%s,%c)", callId, digit);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -105,7 +105,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "playDtmfTone, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -120,7 +120,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sDT", mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.sDT", () -> {
                     Log.d(this, "stopDtmfTone(%s)", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -128,7 +128,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "stopDtmfTone, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -143,7 +143,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.pDC", mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.pDC", () -> {
                     Log.d(this, "postDialContinue(%s)", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -151,7 +151,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "postDialContinue, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -166,7 +166,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_DISCONNECT_CALL, mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.ICA_DISCONNECT_CALL, () -> {
                     Log.v(this, "disconnectCall: %s", callId);
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
@@ -174,7 +174,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "disconnectCall, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -189,14 +189,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_HOLD_CALL, mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.ICA_HOLD_CALL, () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         mCallsManager.holdCall(call);
                     } else {
                         Log.w(this, "holdCall, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -211,14 +211,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_UNHOLD_CALL, mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.ICA_UNHOLD_CALL, () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         mCallsManager.unholdCall(call);
                     } else {
                         Log.w(this, "unholdCall, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -234,14 +234,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.pAS", mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.pAS", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         mCallsManager.phoneAccountSelected(call, accountHandle, setDefault);
                     } else {
                         Log.w(this, "phoneAccountSelected, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -256,9 +256,9 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_MUTE, mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.ICA_MUTE, () -> {
                     mCallsManager.mute(shouldMute);
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -273,9 +273,9 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_SET_AUDIO_ROUTE, mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.ICA_SET_AUDIO_ROUTE, () -> {
                     mCallsManager.setAudioRoute(route);
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -290,7 +290,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession(LogUtils.Sessions.ICA_CONFERENCE, mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, LogUtils.Sessions.ICA_CONFERENCE, () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     Call otherCall = mCallIdMapper.getCall(otherCallId);
                     if (call != null && otherCall != null) {
@@ -298,7 +298,7 @@ class InCallAdapter extends IInCallAdapter.Stub {
                     } else {
                         Log.w(this, "conference, unknown call id: %s or %s", callId, otherCallId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -313,14 +313,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sFC", mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.sFC", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.splitFromConference();
                     } else {
                         Log.w(this, "splitFromConference, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -335,14 +335,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.mC", mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.mC", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.mergeConference();
                     } else {
                         Log.w(this, "mergeConference, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -357,14 +357,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sC", mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.sC", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.swapConference();
                     } else {
                         Log.w(this, "swapConference, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -379,14 +379,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.pEC", mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.pEC", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.pullExternalCall();
                     } else {
                         Log.w(this, "pullExternalCall, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -401,14 +401,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sCE", mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.sCE", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.sendCallEvent(event, extras);
                     } else {
                         Log.w(this, "sendCallEvent, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -423,14 +423,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.pE", mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.pE", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.putExtras(Call.SOURCE_INCALL_SERVICE, extras);
                     } else {
                         Log.w(this, "putExtras, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -445,14 +445,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.rE", mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.rE", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.removeExtras(Call.SOURCE_INCALL_SERVICE, keys);
                     } else {
                         Log.w(this, "removeExtra, unknown call id: %s", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -467,9 +467,9 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.tOnPS", mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.tOnPS", () -> {
                     mCallsManager.turnOnProximitySensor();
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -484,9 +484,9 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.tOffPS", mOwnerComponentName);
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.tOffPS", () -> {
                     mCallsManager.turnOffProximitySensor(screenOnImmediately);
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -501,14 +501,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sRR");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.sRR", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.sendRttRequest();
                     } else {
                         Log.w(this, "stopRtt(): call %s not found", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -523,14 +523,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.rTRR");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.rTRR", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.handleRttRequestResponse(id, accept);
                     } else {
                         Log.w(this, "respondToRttRequest(): call %s not found", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -545,14 +545,14 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sRTT");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.sRTT", () -> {
                     Call call = mCallIdMapper.getCall(callId);
                     if (call != null) {
                         call.stopRtt();
                     } else {
                         Log.w(this, "stopRtt(): call %s not found", callId);
                     }
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
@@ -567,9 +567,9 @@ class InCallAdapter extends IInCallAdapter.Stub {
             Log.startSession("ICA.sRM");
             long token = Binder.clearCallingIdentity();
             try {
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "ICA.sRM", () -> {
                     // TODO
-                }
+                });
             } finally {
                 Binder.restoreCallingIdentity(token);
             }
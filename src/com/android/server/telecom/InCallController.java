@@ -17,19 +17,23 @@
 package com.android.server.telecom;
 
 import android.Manifest;
+import android.app.ActivityManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.pm.ServiceInfo;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.Trace;
 import android.os.UserHandle;
 import android.telecom.CallAudioState;
@@ -37,7 +41,6 @@ import android.telecom.ConnectionService;
 import android.telecom.DefaultDialerManager;
 import android.telecom.InCallService;
 import android.telecom.Log;
-import android.telecom.Logging.Runnable;
 import android.telecom.ParcelableCall;
 import android.telecom.TelecomManager;
 import android.text.TextUtils;
@@ -51,6 +54,7 @@ import com.android.server.telecom.SystemStateProvider.SystemStateListener;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -172,6 +176,13 @@ public class InCallController extends CallsManagerListenerBase {
                     try {
                         Log.d(this, "onServiceConnected: %s %b %b", name, mIsBound, mIsConnected);
                         mIsBound = true;
+                        // Only the first connection after connect() measures the bind; the
+                        // connection is re-delivered if the service dies and restarts.
+                        if (mBindStartMillis != 0) {
+                            mCostTracker.onBound(mInCallServiceInfo.getComponentName(),
+                                    SystemClock.elapsedRealtime() - mBindStartMillis);
+                            mBindStartMillis = 0;
+                        }
                         if (mIsConnected) {
                             // Only proceed if we are supposed to be connected.
                             onConnected(service);
@@ -189,6 +200,7 @@ public class InCallController extends CallsManagerListenerBase {
                     try {
                         Log.d(this, "onDisconnected: %s", name);
                         mIsBound = false;
+                        mCostTracker.onDisconnected(mInCallServiceInfo.getComponentName());
                         onDisconnected();
                     } finally {
                         Log.endSession();
@@ -200,6 +212,7 @@ public class InCallController extends CallsManagerListenerBase {
         private final InCallServiceInfo mInCallServiceInfo;
         private boolean mIsConnected = false;
         private boolean mIsBound = false;
+        private long mBindStartMillis;
 
         public InCallServiceBindingConnection(InCallServiceInfo info) {
             mInCallServiceInfo = info;
@@ -231,6 +244,7 @@ public class InCallController extends CallsManagerListenerBase {
 
             Log.i(this, "Attempting to bind to InCall %s, with %s", mInCallServiceInfo, intent);
             mIsConnected = true;
+            mBindStartMillis = SystemClock.elapsedRealtime();
             if (!mContext.bindServiceAsUser(intent, mServiceConnection,
                         Context.BIND_AUTO_CREATE | Context.BIND_FOREGROUND_SERVICE,
                         UserHandle.CURRENT)) {
@@ -255,8 +269,12 @@ public class InCallController extends CallsManagerListenerBase {
         @Override
         public void disconnect() {
             if (mIsConnected) {
+                if (mIsBound) {
+                    mCostTracker.onUnbound(mInCallServiceInfo.getComponentName());
+                }
                 mContext.unbindService(mServiceConnection);
                 mIsConnected = false;
+                mIsBound = false;
             } else {
                 Log.addEvent(null, LogUtils.Events.INFO, "Already disconnected, ignoring request.");
             }
@@ -275,8 +293,11 @@ public class InCallController extends CallsManagerListenerBase {
         }
 
         protected void onConnected(IBinder service) {
+            long startMillis = SystemClock.elapsedRealtime();
             boolean shouldRemainConnected =
                     InCallController.this.onConnected(mInCallServiceInfo, service);
+            mCostTracker.onConnected(mInCallServiceInfo.getComponentName(),
+                    SystemClock.elapsedRealtime() - startMillis);
             if (!shouldRemainConnected) {
                 // Sometimes we can opt to disconnect for certain reasons, like if the
                 // InCallService rejected our initialization step, or the calls went away
@@ -534,24 +555,60 @@ public class InCallController extends CallsManagerListenerBase {
         }
     }
 
+    /**
+     * Connects to the non-UI InCallServices. Services which are over their budget, see
+     * {@link InCallServiceCostTracker}, are only connected once the UI service has been sent the
+     * calls, or once the budget has passed.
+     */
     private class NonUIInCallServiceConnectionCollection extends InCallServiceConnection {
         private final List<InCallServiceBindingConnection> mSubConnections;
+        private final List<InCallServiceBindingConnection> mDeferredConnections;
+        private final TelecomTimerWheel.Timer mConnectDeferredTimer;
+        private Call mCall;
 
         public NonUIInCallServiceConnectionCollection(
-                List<InCallServiceBindingConnection> subConnections) {
+                List<InCallServiceBindingConnection> subConnections,
+                List<InCallServiceBindingConnection> deferredConnections) {
             mSubConnections = subConnections;
+            mDeferredConnections = deferredConnections;
+            mConnectDeferredTimer = TelecomTimerWheel.getInstance().createTimer(
+                    InCallController.this, "ICC.cD", mLock, () -> {
+                        Log.i(InCallController.this, "Budget passed; connecting %d deferred "
+                                + "non-UI InCallServices.", mDeferredConnections.size());
+                        connectDeferred();
+                    });
         }
 
         @Override
         public int connect(Call call) {
             for (InCallServiceBindingConnection subConnection : mSubConnections) {
-                subConnection.connect(call);
+                if (!mDeferredConnections.contains(subConnection)) {
+                    subConnection.connect(call);
+                }
+            }
+            if (!mDeferredConnections.isEmpty()) {
+                mCall = call;
+                mConnectDeferredTimer.schedule(mTimeoutsAdapter
+                        .getNonUiInCallServiceBindBudgetMillis(mContext.getContentResolver()));
             }
             return CONNECTION_SUCCEEDED;
         }
 
+        /**
+         * Connects the services which were left out by {@link #connect(Call)}.
+         */
+        public void connectDeferred() {
+            mConnectDeferredTimer.cancel();
+            for (InCallServiceBindingConnection subConnection : mDeferredConnections) {
+                subConnection.connect(mCall);
+            }
+            mDeferredConnections.clear();
+            mCall = null;
+        }
+
         @Override
         public void disconnect() {
+            mConnectDeferredTimer.cancel();
             for (InCallServiceBindingConnection subConnection : mSubConnections) {
                 if (subConnection.isConnected()) {
                     subConnection.disconnect();
@@ -691,6 +748,9 @@ public class InCallController extends CallsManagerListenerBase {
     private final SystemStateListener mSystemStateListener = new SystemStateListener() {
         @Override
         public void onCarModeChanged(boolean isCarMode) {
+            synchronized (mLock) {
+                clearInCallServiceInfoCache();
+            }
             if (mInCallServiceConnection != null) {
                 mInCallServiceConnection.setCarMode(shouldUseCarModeUI());
             }
@@ -726,10 +786,72 @@ public class InCallController extends CallsManagerListenerBase {
     private CarSwappingInCallServiceConnection mInCallServiceConnection;
     private NonUIInCallServiceConnectionCollection mNonUIInCallServiceConnections;
 
+    private final InCallKeepAlivePolicy mKeepAlivePolicy;
+    private final InCallServiceCostTracker mCostTracker = new InCallServiceCostTracker();
+    /** Unbinds from the services once the last call has ended. */
+    private final TelecomTimerWheel.Timer mUnbindTimer;
+
+    /**
+     * Results of {@link #getInCallServiceComponents(String, ComponentName, int)}, keyed by
+     * {@link #getInCallServiceInfoCacheKey}. Since the key includes the user and their default
+     * dialer, only package and car mode changes need to clear the cache. Guarded by mLock.
+     */
+    private final Map<String, List<InCallServiceInfo>> mInCallServiceInfoCache = new ArrayMap<>();
+    private int mInCallServiceInfoCacheHits;
+    private int mInCallServiceInfoCacheMisses;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.startSession("ICC.oR");
+            try {
+                synchronized (mLock) {
+                    clearInCallServiceInfoCache();
+                }
+            } finally {
+                Log.endSession();
+            }
+        }
+    };
+
+    private final ComponentCallbacks2 mComponentCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            synchronized (mLock) {
+                if (mKeepAlivePolicy.onTrimMemory(level, SystemClock.elapsedRealtime())
+                        && mUnbindTimer.isScheduled()) {
+                    // Don't hold on to the services for longer than the configured delay.
+                    Log.i(InCallController.this, "onTrimMemory: %d; shortening keep-alive", level);
+                    mUnbindTimer.schedule(mTimeoutsAdapter.getCallRemoveUnbindInCallServicesDelay(
+                            mContext.getContentResolver()));
+                }
+            }
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+    };
+
     public InCallController(Context context, TelecomSystem.SyncRoot lock, CallsManager callsManager,
             SystemStateProvider systemStateProvider,
             DefaultDialerCache defaultDialerCache, Timeouts.Adapter timeoutsAdapter,
             EmergencyCallHelper emergencyCallHelper) {
+        this(context, lock, callsManager, systemStateProvider, defaultDialerCache, timeoutsAdapter,
+                emergencyCallHelper,
+                new InCallKeepAlivePolicy(ActivityManager.isLowRamDeviceStatic()));
+    }
+
+    @VisibleForTesting
+    public InCallController(Context context, TelecomSystem.SyncRoot lock, CallsManager callsManager,
+            SystemStateProvider systemStateProvider,
+            DefaultDialerCache defaultDialerCache, Timeouts.Adapter timeoutsAdapter,
+            EmergencyCallHelper emergencyCallHelper, InCallKeepAlivePolicy keepAlivePolicy) {
         mContext = context;
         mLock = lock;
         mCallsManager = callsManager;
@@ -744,10 +866,36 @@ public class InCallController extends CallsManagerListenerBase {
                 resources.getString(R.string.incall_default_class));
 
         mSystemStateProvider.addListener(mSystemStateListener);
+
+        mUnbindTimer = TelecomTimerWheel.getInstance().createTimer(this, "ICC.oCR", mLock, () -> {
+            // Check again to make sure there are no active calls.
+            if (mCallsManager.getCalls().isEmpty()) {
+                unbindFromServices();
+
+                mEmergencyCallHelper.maybeRevokeTemporaryLocationPermission();
+            }
+        });
+        mKeepAlivePolicy = keepAlivePolicy;
+        mContext.registerComponentCallbacks(mComponentCallbacks);
+
+        IntentFilter packageIntentFilter = new IntentFilter();
+        packageIntentFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageIntentFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageIntentFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageIntentFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageIntentFilter.addDataScheme("package");
+        mContext.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, packageIntentFilter,
+                null, null);
     }
 
     @Override
     public void onCallAdded(Call call) {
+        mUnbindTimer.cancel();
+        mKeepAlivePolicy.onCallStarted(mCallsManager.getCurrentUserHandle(),
+                SystemClock.elapsedRealtime(),
+                mTimeoutsAdapter.getCallRemoveUnbindInCallServicesDelay(
+                        mContext.getContentResolver()),
+                isBoundAndConnectedToServices());
         if (!isBoundAndConnectedToServices()) {
             Log.i(this, "onCallAdded: %s; not bound or connected.", call);
             // We are not bound, or we're not connected.
@@ -802,26 +950,23 @@ public class InCallController extends CallsManagerListenerBase {
         Log.i(this, "onCallRemoved: %s", call);
         if (mCallsManager.getCalls().isEmpty()) {
             /** Let's add a 2 second delay before we send unbind to the services to hopefully
-             *  give them enough time to process all the pending messages.
+             *  give them enough time to process all the pending messages. If another call is
+             *  likely to follow soon, keep them bound for longer.
              */
-            Handler handler = new Handler(Looper.getMainLooper());
-            handler.postDelayed(new Runnable("ICC.oCR", mLock) {
-                @Override
-                public void loggedRun() {
-                    // Check again to make sure there are no active calls.
-                    if (mCallsManager.getCalls().isEmpty()) {
-                        unbindFromServices();
-
-                        mEmergencyCallHelper.maybeRevokeTemporaryLocationPermission();
-                    }
-                }
-            }.prepare(), mTimeoutsAdapter.getCallRemoveUnbindInCallServicesDelay(
-                            mContext.getContentResolver()));
+            long nowMillis = SystemClock.elapsedRealtime();
+            long unbindDelayMillis = mKeepAlivePolicy.getUnbindDelayMillis(
+                    mCallsManager.getCurrentUserHandle(),
+                    mTimeoutsAdapter.getCallRemoveUnbindInCallServicesDelay(
+                            mContext.getContentResolver()),
+                    nowMillis);
+            mKeepAlivePolicy.onCallsEnded(nowMillis, unbindDelayMillis);
+            mUnbindTimer.schedule(unbindDelayMillis);
         }
         call.removeListener(mCallListener);
         mCallIdMapper.removeCall(call);
     }
 
+
     @Override
     public void onExternalCallChanged(Call call, boolean isExternalCall) {
         Log.i(this, "onExternalCallChanged: %s -> %b", call, isExternalCall);
@@ -1088,10 +1233,21 @@ public class InCallController extends CallsManagerListenerBase {
         List<InCallServiceInfo> nonUIInCallComponents =
                 getInCallServiceComponents(IN_CALL_SERVICE_TYPE_NON_UI);
         List<InCallServiceBindingConnection> nonUIInCalls = new LinkedList<>();
+        List<InCallServiceBindingConnection> deferredNonUIInCalls = new ArrayList<>();
+        long budgetMillis = mTimeoutsAdapter.getNonUiInCallServiceBindBudgetMillis(
+                mContext.getContentResolver());
         for (InCallServiceInfo serviceInfo : nonUIInCallComponents) {
-            nonUIInCalls.add(new InCallServiceBindingConnection(serviceInfo));
+            InCallServiceBindingConnection connection =
+                    new InCallServiceBindingConnection(serviceInfo);
+            nonUIInCalls.add(connection);
+            if (mCostTracker.isOverBudget(serviceInfo.getComponentName(), budgetMillis)) {
+                Log.i(this, "Deferring %s until the UI has the call.", serviceInfo);
+                mCostTracker.onDeferred(serviceInfo.getComponentName());
+                deferredNonUIInCalls.add(connection);
+            }
         }
-        mNonUIInCallServiceConnections = new NonUIInCallServiceConnectionCollection(nonUIInCalls);
+        mNonUIInCallServiceConnections = new NonUIInCallServiceConnectionCollection(nonUIInCalls,
+                deferredNonUIInCalls);
         mNonUIInCallServiceConnections.connect(call);
     }
 
@@ -1144,8 +1300,41 @@ public class InCallController extends CallsManagerListenerBase {
 
     private List<InCallServiceInfo> getInCallServiceComponents(String packageName,
             ComponentName componentName, int requestedType) {
+        int userId = mCallsManager.getCurrentUserHandle().getIdentifier();
+        String key = getInCallServiceInfoCacheKey(userId, packageName, componentName,
+                requestedType);
+        List<InCallServiceInfo> retval = mInCallServiceInfoCache.get(key);
+        if (retval != null) {
+            mInCallServiceInfoCacheHits++;
+            return retval;
+        }
+        mInCallServiceInfoCacheMisses++;
+        retval = Collections.unmodifiableList(
+                queryInCallServiceComponents(packageName, componentName, requestedType));
+        mInCallServiceInfoCache.put(key, retval);
+        return retval;
+    }
 
-        List<InCallServiceInfo> retval = new LinkedList<>();
+    private String getInCallServiceInfoCacheKey(int userId, String packageName,
+            ComponentName componentName, int requestedType) {
+        // The default dialer affects the type of the services found, see getInCallServiceType.
+        return userId + "/" + mDefaultDialerCache.getDefaultDialerApplication(userId) + "/"
+                + packageName + "/"
+                + (componentName == null ? null : componentName.flattenToShortString()) + "/"
+                + requestedType;
+    }
+
+    private void clearInCallServiceInfoCache() {
+        if (!mInCallServiceInfoCache.isEmpty()) {
+            Log.d(this, "Clearing InCallService component cache.");
+            mInCallServiceInfoCache.clear();
+        }
+    }
+
+    private List<InCallServiceInfo> queryInCallServiceComponents(String packageName,
+            ComponentName componentName, int requestedType) {
+
+        List<InCallServiceInfo> retval = new ArrayList<>();
 
         Intent serviceIntent = new Intent(InCallService.SERVICE_INTERFACE);
         if (packageName != null) {
@@ -1319,6 +1508,11 @@ public class InCallController extends CallsManagerListenerBase {
         } catch (RemoteException ignored) {
         }
         Log.i(this, "%s calls sent to InCallService.", numCallsSent);
+        if (mNonUIInCallServiceConnections != null && mInCallServiceConnection != null
+                && info.equals(mInCallServiceConnection.getInfo())) {
+            // The UI has the calls, so the slower non-UI services can be connected now.
+            mNonUIInCallServiceConnections.connectDeferred();
+        }
         Trace.endSection();
         return true;
     }
@@ -1403,6 +1597,11 @@ public class InCallController extends CallsManagerListenerBase {
         return mInCallServiceConnection != null && mInCallServiceConnection.isConnected();
     }
 
+    @VisibleForTesting
+    public InCallServiceCostTracker getCostTracker() {
+        return mCostTracker;
+    }
+
     /**
      * Dumps the state of the {@link InCallController}.
      *
@@ -1422,6 +1621,20 @@ public class InCallController extends CallsManagerListenerBase {
             mInCallServiceConnection.dump(pw);
         }
         pw.decreaseIndent();
+
+        pw.println("InCallService component cache: " + mInCallServiceInfoCache.size()
+                + " entries, " + mInCallServiceInfoCacheHits + " hits, "
+                + mInCallServiceInfoCacheMisses + " misses");
+
+        pw.println("InCallService costs:");
+        pw.increaseIndent();
+        mCostTracker.dump(pw);
+        pw.decreaseIndent();
+
+        pw.println("Keep-alive:");
+        pw.increaseIndent();
+        mKeepAlivePolicy.dump(pw);
+        pw.decreaseIndent();
     }
 
     public boolean doesConnectedDialerSupportRinging() {
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.content.ComponentCallbacks2;
+import android.os.UserHandle;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides how long {@link InCallController} keeps the InCallServices bound once the last call
+ * has ended.
+ *
+ * The gap between one call ending and the next starting is tracked per user. If the next call
+ * usually starts soon, the services are kept bound for about twice the typical gap, so that
+ * back-to-back calls don't have to rebind them. Otherwise the configured unbind delay is used, as
+ * it is on low RAM devices and for a while after the system reports memory pressure. Not thread
+ * safe; must be called with the Telecom lock held.
+ */
+public class InCallKeepAlivePolicy {
+    /** Longest the services are kept bound for, however short the gaps between calls. */
+    @VisibleForTesting
+    public static final long MAX_KEEP_ALIVE_MILLIS = 30000L;
+
+    /** Gaps longer than this aren't considered back-to-back calls and aren't recorded. */
+    @VisibleForTesting
+    public static final long MAX_TRACKED_GAP_MILLIS = 120000L;
+
+    /** How long a memory pressure signal disables keeping the services bound for. */
+    @VisibleForTesting
+    public static final long MEMORY_PRESSURE_HOLD_MILLIS = 60000L;
+
+    /** Weight given to the newest gap in the per-user average, out of 4. */
+    private static final int GAP_SAMPLE_WEIGHT = 1;
+
+    private static final class UserStats {
+        long averageGapMillis = -1;
+        int numGaps;
+    }
+
+    private final boolean mIsLowRamDevice;
+    private final Map<UserHandle, UserStats> mUserStats = new HashMap<>();
+    private long mCallsEndedMillis = -1;
+    private long mUnbindDelayMillis;
+    private int mTrimMemoryLevel;
+    private long mMemoryPressureMillis = -1;
+
+    // Statistics
+    private int mRebindsAvoided;
+    private int mKeepAlivesExtended;
+
+    public InCallKeepAlivePolicy(boolean isLowRamDevice) {
+        mIsLowRamDevice = isLowRamDevice;
+    }
+
+    /**
+     * Called when the last call has ended.
+     *
+     * @param nowMillis The current time, in {@link android.os.SystemClock#elapsedRealtime}.
+     * @param unbindDelayMillis The delay after which the services are unbound, as returned by
+     * {@link #getUnbindDelayMillis}.
+     */
+    public void onCallsEnded(long nowMillis, long unbindDelayMillis) {
+        mCallsEndedMillis = nowMillis;
+        mUnbindDelayMillis = unbindDelayMillis;
+    }
+
+    /**
+     * Called when a call is added.
+     *
+     * @param userHandle The current user.
+     * @param nowMillis The current time, in {@link android.os.SystemClock#elapsedRealtime}.
+     * @param baseDelayMillis The configured unbind delay.
+     * @param isBound Whether the InCallServices are still bound.
+     */
+    public void onCallStarted(UserHandle userHandle, long nowMillis, long baseDelayMillis,
+            boolean isBound) {
+        if (mCallsEndedMillis < 0) {
+            return;
+        }
+        long gapMillis = nowMillis - mCallsEndedMillis;
+        mCallsEndedMillis = -1;
+        if (isBound && gapMillis > baseDelayMillis && gapMillis <= mUnbindDelayMillis) {
+            // The services would have been unbound with the configured delay.
+            mRebindsAvoided++;
+        }
+        if (gapMillis > MAX_TRACKED_GAP_MILLIS) {
+            return;
+        }
+        UserStats stats = mUserStats.get(userHandle);
+        if (stats == null) {
+            stats = new UserStats();
+            mUserStats.put(userHandle, stats);
+        }
+        stats.averageGapMillis = stats.averageGapMillis < 0 ? gapMillis
+                : (GAP_SAMPLE_WEIGHT * gapMillis
+                        + (4 - GAP_SAMPLE_WEIGHT) * stats.averageGapMillis) / 4;
+        stats.numGaps++;
+    }
+
+    /**
+     * Records a level passed to {@link ComponentCallbacks2#onTrimMemory}.
+     *
+     * @param nowMillis The current time, in {@link android.os.SystemClock#elapsedRealtime}.
+     * @return {@code true} if the level indicates memory pressure, in which case the services
+     * shouldn't be kept bound beyond the configured delay.
+     */
+    public boolean onTrimMemory(int level, long nowMillis) {
+        mTrimMemoryLevel = level;
+        // Levels between RUNNING_CRITICAL and MODERATE are about this process's UI or its place
+        // in the LRU list, not about the system running low.
+        boolean isMemoryPressure = (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level <= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL)
+                || level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+        if (isMemoryPressure) {
+            mMemoryPressureMillis = nowMillis;
+        }
+        return isMemoryPressure;
+    }
+
+    /**
+     * @param nowMillis The current time, in {@link android.os.SystemClock#elapsedRealtime}.
+     * @return How long to keep the services bound after the last call has ended.
+     */
+    public long getUnbindDelayMillis(UserHandle userHandle, long baseDelayMillis,
+            long nowMillis) {
+        UserStats stats = mUserStats.get(userHandle);
+        if (stats == null || mIsLowRamDevice || (mMemoryPressureMillis >= 0
+                && nowMillis - mMemoryPressureMillis < MEMORY_PRESSURE_HOLD_MILLIS)) {
+            return baseDelayMillis;
+        }
+        long keepAliveMillis = Math.min(2 * stats.averageGapMillis, MAX_KEEP_ALIVE_MILLIS);
+        if (keepAliveMillis <= baseDelayMillis) {
+            return baseDelayMillis;
+        }
+        mKeepAlivesExtended++;
+        return keepAliveMillis;
+    }
+
+    @VisibleForTesting
+    public int getRebindsAvoided() {
+        return mRebindsAvoided;
+    }
+
+    @VisibleForTesting
+    public int getKeepAlivesExtended() {
+        return mKeepAlivesExtended;
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        pw.println("Keep-alives extended: " + mKeepAlivesExtended + " rebinds avoided: "
+                + mRebindsAvoided + " trim memory level: " + mTrimMemoryLevel);
+        for (Map.Entry<UserHandle, UserStats> entry : mUserStats.entrySet()) {
+            pw.println(entry.getKey() + ": average gap between calls "
+                    + entry.getValue().averageGapMillis + " ms over "
+                    + entry.getValue().numGaps + " calls");
+        }
+    }
+}
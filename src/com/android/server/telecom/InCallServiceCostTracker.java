@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.content.ComponentName;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.Map;
+
+/**
+ * Keeps track of how long each InCallService takes to bind, and how long
+ * {@link InCallController} spends sending it the existing calls once it has connected.
+ *
+ * A non-UI service whose typical bind or onConnected time exceeds the budget, or which keeps
+ * disconnecting unexpectedly, is considered over budget. {@link InCallController} then only binds
+ * to it once the UI service has been sent the call, so that a slow or crash-looping service
+ * doesn't hold up the UI. Not thread safe; must be called with the Telecom lock held.
+ *
+ * The decision only looks at recent behaviour, so a service which has been fixed or updated
+ * recovers: the typical times are the medians of the last {@link #RECENT_SAMPLES} samples, and
+ * the unexpected disconnects are forgotten once the service stays bound until it is unbound.
+ * The histograms cover every sample since boot and are only used for dumpsys.
+ */
+public class InCallServiceCostTracker {
+    /** Unexpected disconnects after which a service is considered over budget. */
+    @VisibleForTesting
+    public static final int MAX_DISCONNECTS = 3;
+
+    /** Number of recent bind and onConnected times the budget is checked against. */
+    @VisibleForTesting
+    public static final int RECENT_SAMPLES = 5;
+
+    /** The last {@link #RECENT_SAMPLES} values recorded, in a ring buffer. */
+    public static final class RecentSamples {
+        private final long[] mSamples = new long[RECENT_SAMPLES];
+        private int mCount;
+        private int mNext;
+
+        void record(long value) {
+            mSamples[mNext] = value;
+            mNext = (mNext + 1) % RECENT_SAMPLES;
+            mCount = Math.min(mCount + 1, RECENT_SAMPLES);
+        }
+
+        /**
+         * @return The lower median of the recent samples, or 0 if there are none.
+         */
+        public long getMedian() {
+            int rank = (mCount - 1) / 2;
+            for (int i = 0; i < mCount; i++) {
+                int numLess = 0;
+                int numEqual = 0;
+                for (int j = 0; j < mCount; j++) {
+                    if (mSamples[j] < mSamples[i]) {
+                        numLess++;
+                    } else if (mSamples[j] == mSamples[i]) {
+                        numEqual++;
+                    }
+                }
+                if (numLess <= rank && rank < numLess + numEqual) {
+                    return mSamples[i];
+                }
+            }
+            return 0;
+        }
+    }
+
+    /** The costs of a single InCallService; latencies are in milliseconds. */
+    public static final class ServiceCost {
+        public final LatencyHistogram bindMillis = new LatencyHistogram();
+        public final LatencyHistogram onConnectedMillis = new LatencyHistogram();
+        public final RecentSamples recentBindMillis = new RecentSamples();
+        public final RecentSamples recentOnConnectedMillis = new RecentSamples();
+        public int numDisconnects;
+        /** Unexpected disconnects since the service last stayed bound until it was unbound. */
+        public int numRecentDisconnects;
+        public int numDeferred;
+    }
+
+    private final Map<ComponentName, ServiceCost> mCosts = new ArrayMap<>();
+
+    public void onBound(ComponentName componentName, long bindMillis) {
+        ServiceCost cost = getOrCreate(componentName);
+        cost.bindMillis.record(bindMillis);
+        cost.recentBindMillis.record(bindMillis);
+    }
+
+    public void onConnected(ComponentName componentName, long onConnectedMillis) {
+        ServiceCost cost = getOrCreate(componentName);
+        cost.onConnectedMillis.record(onConnectedMillis);
+        cost.recentOnConnectedMillis.record(onConnectedMillis);
+    }
+
+    /**
+     * Called when a service disconnects while Telecom is still bound to it.
+     */
+    public void onDisconnected(ComponentName componentName) {
+        ServiceCost cost = getOrCreate(componentName);
+        cost.numDisconnects++;
+        cost.numRecentDisconnects++;
+    }
+
+    /**
+     * Called when Telecom unbinds from a service which was still bound, which means it didn't
+     * disconnect unexpectedly this time.
+     */
+    public void onUnbound(ComponentName componentName) {
+        ServiceCost cost = mCosts.get(componentName);
+        if (cost != null) {
+            cost.numRecentDisconnects = 0;
+        }
+    }
+
+    public void onDeferred(ComponentName componentName) {
+        getOrCreate(componentName).numDeferred++;
+    }
+
+    /**
+     * @param budgetMillis The longest a service may typically take to bind or to be sent the
+     * calls; a budget of 0 or less means no service is ever over budget.
+     * @return Whether binding to the given service should wait until the UI has the call.
+     */
+    public boolean isOverBudget(ComponentName componentName, long budgetMillis) {
+        ServiceCost cost = mCosts.get(componentName);
+        if (cost == null || budgetMillis <= 0) {
+            return false;
+        }
+        return cost.numRecentDisconnects >= MAX_DISCONNECTS
+                || cost.recentBindMillis.getMedian() > budgetMillis
+                || cost.recentOnConnectedMillis.getMedian() > budgetMillis;
+    }
+
+    @VisibleForTesting
+    public ServiceCost getCost(ComponentName componentName) {
+        return mCosts.get(componentName);
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        for (Map.Entry<ComponentName, ServiceCost> entry : mCosts.entrySet()) {
+            ServiceCost cost = entry.getValue();
+            pw.println(entry.getKey().flattenToShortString() + ": disconnects: "
+                    + cost.numDisconnects + " (recent: " + cost.numRecentDisconnects
+                    + ") deferred: " + cost.numDeferred);
+            pw.increaseIndent();
+            pw.println("bind:        " + cost.bindMillis + " recent median: "
+                    + cost.recentBindMillis.getMedian());
+            pw.println("onConnected: " + cost.onConnectedMillis + " recent median: "
+                    + cost.recentOnConnectedMillis.getMedian());
+            pw.decreaseIndent();
+        }
+    }
+
+    private ServiceCost getOrCreate(ComponentName componentName) {
+        ServiceCost cost = mCosts.get(componentName);
+        if (cost == null) {
+            cost = new ServiceCost();
+            mCosts.put(componentName, cost);
+        }
+        return cost;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.media.ToneGenerator;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.telecom.Log;
+import android.telecom.Logging.Session;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.SomeArgs;
+import com.android.internal.util.IndentingPrintWriter;
+
+/**
+ * Plays the tones requested through {@link InCallTonePlayer}s on a single, long-lived thread.
+ *
+ * Start and stop requests are queued to the tone thread as messages, so they are handled in the
+ * order they were made. {@link ToneGenerator}s are kept for reuse, one per (stream, volume) pair,
+ * and released once no tone has been played for {@link #IDLE_RELEASE_DELAY_MILLIS}. If a second
+ * tone needs a generator with the same parameters while the cached one is in use, a temporary
+ * generator is created for it.
+ */
+public class InCallToneEngine {
+    private static final int MSG_PLAY = 1;
+    private static final int MSG_STOP = 2;
+    private static final int MSG_TIMEOUT = 3;
+    private static final int MSG_RELEASE_IDLE = 4;
+
+    @VisibleForTesting
+    public static final long IDLE_RELEASE_DELAY_MILLIS = 60000L;
+
+    private final class ToneHandler extends Handler {
+        ToneHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_PLAY:
+                case MSG_STOP: {
+                    SomeArgs args = (SomeArgs) msg.obj;
+                    InCallTonePlayer player = (InCallTonePlayer) args.arg1;
+                    try {
+                        Log.continueSession((Session) args.arg2, "ICTE.hM");
+                        if (msg.what == MSG_PLAY) {
+                            player.play();
+                        } else {
+                            removeMessages(MSG_TIMEOUT, player);
+                            player.stop();
+                        }
+                    } finally {
+                        args.recycle();
+                        Log.endSession();
+                    }
+                    break;
+                }
+                case MSG_TIMEOUT:
+                    ((InCallTonePlayer) msg.obj).stop();
+                    break;
+                case MSG_RELEASE_IDLE:
+                    releaseIdleToneGenerators();
+                    break;
+                default:
+                    Log.w(this, "Unknown message: %d", msg.what);
+                    break;
+            }
+        }
+    }
+
+    private final InCallTonePlayer.ToneGeneratorFactory mToneGeneratorFactory;
+    private ToneHandler mHandler;
+
+    /**
+     * Idle tone generators, keyed by {@link #getKey}. Only accessed on the tone thread.
+     */
+    private final SparseArray<ToneGenerator> mIdleToneGenerators = new SparseArray<>();
+
+    // Statistics, guarded by this.
+    private final LatencyHistogram mStartLatencyMillis = new LatencyHistogram();
+    private int mToneGeneratorsCreated;
+    private int mToneGeneratorsReused;
+
+    public InCallToneEngine(InCallTonePlayer.ToneGeneratorFactory toneGeneratorFactory) {
+        mToneGeneratorFactory = toneGeneratorFactory;
+    }
+
+    /**
+     * Queues a request to start playing the given tone.
+     */
+    void play(InCallTonePlayer player) {
+        SomeArgs args = SomeArgs.obtain();
+        args.arg1 = player;
+        args.arg2 = Log.createSubsession();
+        getHandler().obtainMessage(MSG_PLAY, args).sendToTarget();
+    }
+
+    /**
+     * Queues a request to stop playing the given tone.
+     */
+    void stop(InCallTonePlayer player) {
+        SomeArgs args = SomeArgs.obtain();
+        args.arg1 = player;
+        args.arg2 = Log.createSubsession();
+        getHandler().obtainMessage(MSG_STOP, args).sendToTarget();
+    }
+
+    /**
+     * Called on the tone thread once a tone has started playing.
+     *
+     * @param requestTimeMillis When the tone was requested, in {@link SystemClock#elapsedRealtime}.
+     * @param timeoutMillis How long the tone should play before being stopped automatically.
+     */
+    void onToneStarted(InCallTonePlayer player, long requestTimeMillis, long timeoutMillis) {
+        synchronized (this) {
+            mStartLatencyMillis.record(SystemClock.elapsedRealtime() - requestTimeMillis);
+        }
+        mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_TIMEOUT, player), timeoutMillis);
+    }
+
+    /**
+     * Called on the tone thread to get a tone generator for the given stream and volume.
+     * @return The tone generator, or null if one could not be created.
+     */
+    ToneGenerator acquireToneGenerator(int stream, int volume) {
+        mHandler.removeMessages(MSG_RELEASE_IDLE);
+        int key = getKey(stream, volume);
+        ToneGenerator toneGenerator = mIdleToneGenerators.get(key);
+        if (toneGenerator != null) {
+            mIdleToneGenerators.remove(key);
+            synchronized (this) {
+                mToneGeneratorsReused++;
+            }
+            return toneGenerator;
+        }
+
+        // If the ToneGenerator creation fails, just continue without it. It is a local audio
+        // signal, and is not as important.
+        try {
+            Log.v(this, "Creating generator");
+            toneGenerator = mToneGeneratorFactory.get(stream, volume);
+        } catch (RuntimeException e) {
+            Log.w(this, "Failed to create ToneGenerator.", e);
+            return null;
+        }
+        synchronized (this) {
+            mToneGeneratorsCreated++;
+        }
+        return toneGenerator;
+    }
+
+    /**
+     * Called on the tone thread to return a tone generator obtained from
+     * {@link #acquireToneGenerator}.
+     */
+    void releaseToneGenerator(int stream, int volume, ToneGenerator toneGenerator) {
+        toneGenerator.stopTone();
+        int key = getKey(stream, volume);
+        if (mIdleToneGenerators.get(key) == null) {
+            mIdleToneGenerators.put(key, toneGenerator);
+        } else {
+            toneGenerator.release();
+        }
+        mHandler.removeMessages(MSG_RELEASE_IDLE);
+        mHandler.sendEmptyMessageDelayed(MSG_RELEASE_IDLE, IDLE_RELEASE_DELAY_MILLIS);
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        synchronized (this) {
+            pw.println("Tone start latency (ms): " + mStartLatencyMillis);
+            pw.println("ToneGenerators created: " + mToneGeneratorsCreated + " reused: "
+                    + mToneGeneratorsReused);
+        }
+    }
+
+    @VisibleForTesting
+    public synchronized LatencyHistogram getStartLatencyHistogram() {
+        return new LatencyHistogram(mStartLatencyMillis);
+    }
+
+    @VisibleForTesting
+    public synchronized int getToneGeneratorsCreated() {
+        return mToneGeneratorsCreated;
+    }
+
+    @VisibleForTesting
+    public synchronized int getToneGeneratorsReused() {
+        return mToneGeneratorsReused;
+    }
+
+    /**
+     * Creates the tone thread if none exists, and returns its handler.
+     */
+    @VisibleForTesting
+    public synchronized Handler getHandler() {
+        if (mHandler == null) {
+            HandlerThread thread = new HandlerThread("tonegenerator-incall");
+            thread.start();
+            mHandler = new ToneHandler(thread.getLooper());
+        }
+        return mHandler;
+    }
+
+    private void releaseIdleToneGenerators() {
+        Log.d(this, "Releasing %d idle tone generators.", mIdleToneGenerators.size());
+        for (int i = 0; i < mIdleToneGenerators.size(); i++) {
+            mIdleToneGenerators.valueAt(i).release();
+        }
+        mIdleToneGenerators.clear();
+    }
+
+    private static int getKey(int stream, int volume) {
+        return (stream << 16) | volume;
+    }
+}
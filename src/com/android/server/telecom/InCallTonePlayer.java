@@ -18,20 +18,18 @@ package com.android.server.telecom;
 
 import android.media.AudioManager;
 import android.media.ToneGenerator;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.SystemClock;
 import android.telecom.Log;
-import android.telecom.Logging.Runnable;
-import android.telecom.Logging.Session;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
 
 /**
  * Play a call-related tone (ringback, busy signal, etc.) through ToneGenerator. To use, create an
  * instance using InCallTonePlayer.Factory (passing in the TONE_* constant for the tone you want)
- * and start() it. Implemented on top of {@link Thread} so that the tone plays in its own thread.
+ * and call startTone() on it. The tone is played on the shared {@link InCallToneEngine} thread.
  */
-public class InCallTonePlayer extends Thread {
+public class InCallTonePlayer {
 
     /**
      * Factory used to create InCallTonePlayers. Exists to aid with testing mocks.
@@ -40,13 +38,14 @@ public class InCallTonePlayer extends Thread {
         private CallAudioManager mCallAudioManager;
         private final CallAudioRoutePeripheralAdapter mCallAudioRoutePeripheralAdapter;
         private final TelecomSystem.SyncRoot mLock;
-        private final ToneGeneratorFactory mToneGeneratorFactory;
+        private final InCallToneEngine mEngine;
 
-        Factory(CallAudioRoutePeripheralAdapter callAudioRoutePeripheralAdapter,
+        @VisibleForTesting
+        public Factory(CallAudioRoutePeripheralAdapter callAudioRoutePeripheralAdapter,
                 TelecomSystem.SyncRoot lock, ToneGeneratorFactory toneGeneratorFactory) {
             mCallAudioRoutePeripheralAdapter = callAudioRoutePeripheralAdapter;
             mLock = lock;
-            mToneGeneratorFactory = toneGeneratorFactory;
+            mEngine = new InCallToneEngine(toneGeneratorFactory);
         }
 
         public void setCallAudioManager(CallAudioManager callAudioManager) {
@@ -55,7 +54,16 @@ public class InCallTonePlayer extends Thread {
 
         public InCallTonePlayer createPlayer(int tone) {
             return new InCallTonePlayer(tone, mCallAudioManager,
-                    mCallAudioRoutePeripheralAdapter, mLock, mToneGeneratorFactory);
+                    mCallAudioRoutePeripheralAdapter, mLock, mEngine);
+        }
+
+        @VisibleForTesting
+        public InCallToneEngine getEngine() {
+            return mEngine;
+        }
+
+        public void dump(IndentingPrintWriter pw) {
+            mEngine.dump(pw);
         }
     }
 
@@ -103,21 +111,29 @@ public class InCallTonePlayer extends Thread {
     private final CallAudioManager mCallAudioManager;
     private final CallAudioRoutePeripheralAdapter mCallAudioRoutePeripheralAdapter;
 
-    private final Handler mMainThreadHandler = new Handler(Looper.getMainLooper());
+    private final TelecomLooper.MonitoredHandler mTelecomHandler = TelecomLooper.createHandler();
 
     /** The ID of the tone to play. */
     private final int mToneId;
 
-    /** Current state of the tone player. */
+    /** Current state of the tone player. Only accessed on the tone thread. */
     private int mState;
 
+    /** Set when the tone is stopped, so that it is not started if it hasn't been already. */
+    private volatile boolean mIsStopRequested;
+
+    /** When the tone was requested, in {@link SystemClock#elapsedRealtime()}. */
+    private long mRequestTimeMillis;
+
+    /** The generator playing the tone, and its parameters. Only accessed on the tone thread. */
+    private ToneGenerator mToneGenerator;
+    private int mStream;
+    private int mToneVolume;
+
     /** Telecom lock object. */
     private final TelecomSystem.SyncRoot mLock;
 
-    private Session mSession;
-    private final Object mSessionLock = new Object();
-
-    private final ToneGeneratorFactory mToneGenerator;
+    private final InCallToneEngine mEngine;
 
     /**
      * Initializes the tone player. Private; use the {@link Factory} to create tone players.
@@ -129,27 +145,22 @@ public class InCallTonePlayer extends Thread {
             CallAudioManager callAudioManager,
             CallAudioRoutePeripheralAdapter callAudioRoutePeripheralAdapter,
             TelecomSystem.SyncRoot lock,
-            ToneGeneratorFactory toneGeneratorFactory) {
+            InCallToneEngine engine) {
         mState = STATE_OFF;
         mToneId = toneId;
         mCallAudioManager = callAudioManager;
         mCallAudioRoutePeripheralAdapter = callAudioRoutePeripheralAdapter;
         mLock = lock;
-        mToneGenerator = toneGeneratorFactory;
+        mEngine = engine;
     }
 
-    /** {@inheritDoc} */
-    @Override
-    public void run() {
-        ToneGenerator toneGenerator = null;
+    /**
+     * Starts the tone. Called on the tone thread.
+     */
+    void play() {
+        boolean isPlaying = false;
         try {
-            synchronized (mSessionLock) {
-                if (mSession != null) {
-                    Log.continueSession(mSession, "ICTP.r");
-                    mSession = null;
-                }
-            }
-            Log.d(this, "run(toneId = %s)", mToneId);
+            Log.d(this, "play(toneId = %s)", mToneId);
 
             final int toneType;  // Passed to ToneGenerator.startTone.
             final int toneVolume;  // Passed to the ToneGenerator constructor.
@@ -233,15 +244,17 @@ public class InCallTonePlayer extends Thread {
                 stream = AudioManager.STREAM_BLUETOOTH_SCO;
             }
 
-            // If the ToneGenerator creation fails, just continue without it. It is a local audio
-            // signal, and is not as important.
-            try {
-                Log.v(this, "Creating generator");
-                toneGenerator = mToneGenerator.get(stream, toneVolume);
-            } catch (RuntimeException e) {
-                Log.w(this, "Failed to create ToneGenerator.", e);
+            if (mIsStopRequested) {
+                Log.d(this, "Tone %d was stopped before it started.", mToneId);
+                return;
+            }
+
+            mToneGenerator = mEngine.acquireToneGenerator(stream, toneVolume);
+            if (mToneGenerator == null) {
                 return;
             }
+            mStream = stream;
+            mToneVolume = toneVolume;
 
             // TODO: Certain CDMA tones need to check the ringer-volume state before
             // playing. See CallNotifier.InCallTonePlayer.
@@ -249,29 +262,34 @@ public class InCallTonePlayer extends Thread {
             // TODO: Some tones play through the end of a call so we need to inform
             // CallAudioManager that we want focus the same way that Ringer does.
 
-            synchronized (this) {
-                if (mState != STATE_STOPPED) {
-                    mState = STATE_ON;
-                    toneGenerator.startTone(toneType);
-                    try {
-                        Log.v(this, "Starting tone %d...waiting for %d ms.", mToneId,
-                                toneLengthMillis + TIMEOUT_BUFFER_MILLIS);
-                        wait(toneLengthMillis + TIMEOUT_BUFFER_MILLIS);
-                    } catch (InterruptedException e) {
-                        Log.w(this, "wait interrupted", e);
-                    }
-                }
-            }
-            mState = STATE_OFF;
+            mState = STATE_ON;
+            mToneGenerator.startTone(toneType);
+            Log.v(this, "Starting tone %d...stopping in %d ms.", mToneId,
+                    toneLengthMillis + TIMEOUT_BUFFER_MILLIS);
+            mEngine.onToneStarted(this, mRequestTimeMillis,
+                    (long) toneLengthMillis + TIMEOUT_BUFFER_MILLIS);
+            isPlaying = true;
         } finally {
-            if (toneGenerator != null) {
-                toneGenerator.release();
+            if (!isPlaying) {
+                mState = STATE_STOPPED;
+                cleanUpTonePlayer();
             }
+        }
+    }
+
+    /**
+     * Stops the tone once it has finished or was stopped. Called on the tone thread.
+     */
+    void stop() {
+        if (mState == STATE_ON) {
+            Log.d(this, "Stopping the tone %d.", mToneId);
+            mEngine.releaseToneGenerator(mStream, mToneVolume, mToneGenerator);
+            mToneGenerator = null;
             cleanUpTonePlayer();
-            Log.endSession();
         }
+        mState = STATE_STOPPED;
     }
-    
+
     @VisibleForTesting
     public void startTone() {
         sTonesPlaying++;
@@ -279,19 +297,8 @@ public class InCallTonePlayer extends Thread {
             mCallAudioManager.setIsTonePlaying(true);
         }
 
-        synchronized (mSessionLock) {
-            if (mSession != null) {
-                Log.cancelSubsession(mSession);
-            }
-            mSession = Log.createSubsession();
-        }
-
-        super.start();
-    }
-
-    @Override
-    public void start() {
-        Log.w(this, "Do not call the start method directly; use startTone instead.");
+        mRequestTimeMillis = SystemClock.elapsedRealtime();
+        mEngine.play(this);
     }
 
     /**
@@ -299,20 +306,15 @@ public class InCallTonePlayer extends Thread {
      */
     @VisibleForTesting
     public void stopTone() {
-        synchronized (this) {
-            if (mState == STATE_ON) {
-                Log.d(this, "Stopping the tone %d.", mToneId);
-                notify();
-            }
-            mState = STATE_STOPPED;
-        }
+        mIsStopRequested = true;
+        mEngine.stop(this);
     }
 
     private void cleanUpTonePlayer() {
-        // Release focus on the main thread.
-        mMainThreadHandler.post(new Runnable("ICTP.cUTP", mLock) {
+        // Release focus on the Telecom looper.
+        mTelecomHandler.post("ICTP.cUTP", new LockProfiler.ProfiledRunnable("ICTP.cUTP", mLock) {
             @Override
-            public void loggedRun() {
+            public void profiledRun() {
                 if (sTonesPlaying == 0) {
                     Log.wtf(this, "Over-releasing focus for tone player.");
                 } else if (--sTonesPlaying == 0) {
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import com.android.server.telecom.nano.TelecomLogClass;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size, log-linear histogram of latencies. Values are in milliseconds unless the owner
+ * documents otherwise (e.g. {@link LockProfiler} records microseconds).
+ *
+ * Values below {@link #SUB_BUCKET_COUNT} each get their own bucket. Above that, every power of
+ * two is split into {@link #SUB_BUCKET_COUNT} linear buckets, so the relative error of any bucket
+ * is bounded by 1 / {@link #SUB_BUCKET_COUNT}. Values of {@link #MAX_TRACKABLE_MILLIS} or more
+ * fall into a single overflow bucket. Since every histogram shares the same bucket layout, the
+ * counts of two histograms can be merged by simple addition, both on-device and after export.
+ *
+ * This class is not thread-safe; callers are expected to provide their own locking.
+ */
+public class LatencyHistogram {
+    /** Number of bits used to split each power of two into linear sub-buckets. */
+    public static final int SUB_BUCKET_BITS = 3;
+    public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /** Number of bits of magnitude tracked before values land in the overflow bucket. */
+    public static final int MAX_TRACKABLE_BITS = 16;
+    public static final long MAX_TRACKABLE_MILLIS = 1L << MAX_TRACKABLE_BITS;
+    private static final int OVERFLOW_BUCKET =
+            SUB_BUCKET_COUNT + (MAX_TRACKABLE_BITS - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+    public static final int NUM_BUCKETS = OVERFLOW_BUCKET + 1;
+
+    private final int[] mCounts = new int[NUM_BUCKETS];
+    private long mCount;
+    private long mSum;
+    private long mMax;
+
+    public LatencyHistogram() {
+    }
+
+    public LatencyHistogram(LatencyHistogram other) {
+        merge(other);
+    }
+
+    /**
+     * Records a single sample. Negative values are clamped to zero.
+     */
+    public void record(long valueMillis) {
+        if (valueMillis < 0) {
+            valueMillis = 0;
+        }
+        mCounts[getBucketIndex(valueMillis)]++;
+        mCount++;
+        mSum += valueMillis;
+        mMax = Math.max(mMax, valueMillis);
+    }
+
+    /**
+     * Adds the samples from another histogram into this one.
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            mCounts[i] += other.mCounts[i];
+        }
+        mCount += other.mCount;
+        mSum += other.mSum;
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mCount = 0;
+        mSum = 0;
+        mMax = 0;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public double getMean() {
+        return mCount == 0 ? 0 : (double) mSum / mCount;
+    }
+
+    public int getBucketCount(int bucketIndex) {
+        return mCounts[bucketIndex];
+    }
+
+    /**
+     * Returns an upper bound on the value at the given percentile, accurate to within the width
+     * of the bucket containing it.
+     * @param percentile A value between 0 and 100.
+     */
+    public long getPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(mCount * Math.min(100.0, Math.max(0.0, percentile)) / 100);
+        if (target == 0) {
+            target = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += mCounts[i];
+            if (seen >= target) {
+                return Math.min(mMax, getBucketUpperBound(i));
+            }
+        }
+        return mMax;
+    }
+
+    public TelecomLogClass.LatencyHistogram toProto() {
+        TelecomLogClass.LatencyHistogram result = new TelecomLogClass.LatencyHistogram()
+                .setSubBucketBits(SUB_BUCKET_BITS)
+                .setSampleCount(mCount)
+                .setSumMillis(mSum)
+                .setMaxMillis(mMax);
+        // Trailing empty buckets are omitted to keep the encoded form small.
+        int lastNonEmpty = NUM_BUCKETS - 1;
+        while (lastNonEmpty >= 0 && mCounts[lastNonEmpty] == 0) {
+            lastNonEmpty--;
+        }
+        result.bucketCounts = Arrays.copyOf(mCounts, lastNonEmpty + 1);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d max=%d", mCount, getMean(),
+                getPercentile(50), getPercentile(90), getPercentile(99), mMax);
+    }
+
+    public static int getBucketIndex(long valueMillis) {
+        if (valueMillis < SUB_BUCKET_COUNT) {
+            return (int) Math.max(0, valueMillis);
+        }
+        if (valueMillis >= MAX_TRACKABLE_MILLIS) {
+            return OVERFLOW_BUCKET;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(valueMillis);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (valueMillis >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return The smallest value that falls into the bucket with the given index.
+     */
+    public static long getBucketLowerBound(int bucketIndex) {
+        if (bucketIndex < SUB_BUCKET_COUNT) {
+            return bucketIndex;
+        }
+        if (bucketIndex >= OVERFLOW_BUCKET) {
+            return MAX_TRACKABLE_MILLIS;
+        }
+        int shift = (bucketIndex - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (bucketIndex - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return ((long) (SUB_BUCKET_COUNT + subBucket)) << shift;
+    }
+
+    /**
+     * @return The largest value that falls into the bucket with the given index.
+     */
+    public static long getBucketUpperBound(int bucketIndex) {
+        if (bucketIndex >= OVERFLOW_BUCKET) {
+            return Long.MAX_VALUE;
+        }
+        return getBucketLowerBound(bucketIndex + 1) - 1;
+    }
+}
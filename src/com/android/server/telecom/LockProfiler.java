@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.telecom.Log;
+import android.telecom.Logging;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Records how long callers wait to acquire the {@link TelecomSystem.SyncRoot} lock and how long
+ * they hold it, per call site. Profiling is off by default and is toggled through
+ * {@code dumpsys telecom lockprofiler on|off|reset}.
+ *
+ * Call sites take the lock through {@link #runLocked} or {@link #callLocked} in place of a
+ * synchronized block:
+ * <pre>
+ *     LockProfiler.runLocked(mLock, "TSI.iIC", () -> {
+ *         ...
+ *     });
+ * </pre>
+ * Runnables which are posted with the lock extend {@link ProfiledRunnable} instead of
+ * {@link Logging.Runnable}. The session which held the lock is the one active when the lock was
+ * acquired, so sessions should be started before taking the lock.
+ *
+ * When profiling is disabled, {@link #onAcquireStarted()} returns 0 after a single volatile read
+ * and the other calls return immediately. The holder state is only ever touched while the
+ * profiled lock is held, so it needs no synchronization of its own; only the aggregated
+ * statistics are guarded by a separate, briefly held lock.
+ */
+public class LockProfiler {
+    public static final String LOCK_PROFILER_DUMPSYS_ARG = "lockprofiler";
+    private static final String ENABLE_ARG = "on";
+    private static final String DISABLE_ARG = "off";
+    private static final String RESET_ARG = "reset";
+
+    @VisibleForTesting
+    public static final int MAX_LONGEST_HOLDS = 10;
+    private static final int MAX_CALL_SITES = 256;
+    private static final long NANOS_PER_MICRO = 1000;
+    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("HH:mm:ss.SSS");
+
+    /** Aggregated statistics for a single call site; times are in microseconds. */
+    public static final class SiteStats {
+        public final LatencyHistogram waitMicros = new LatencyHistogram();
+        public final LatencyHistogram holdMicros = new LatencyHistogram();
+    }
+
+    private static final class LongHold {
+        final String site;
+        final String sessionName;
+        final long holdMicros;
+        final long endTimeMillis;
+
+        LongHold(String site, String sessionName, long holdMicros, long endTimeMillis) {
+            this.site = site;
+            this.sessionName = sessionName;
+            this.holdMicros = holdMicros;
+            this.endTimeMillis = endTimeMillis;
+        }
+    }
+
+    /** A block of code run with the lock held. */
+    public interface LockedBlock<E extends Exception> {
+        void run() throws E;
+    }
+
+    /** A block of code run with the lock held which returns a value. */
+    public interface LockedCall<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * A {@link Logging.Runnable} whose lock wait and hold times are reported under its subsession
+     * name. Subclasses implement {@link #profiledRun()} rather than {@link #loggedRun()}. The
+     * runnable returned by {@link #prepare()} wraps the one returned by
+     * {@link #getRunnableToCancel()}, so it must not be canceled through the latter.
+     */
+    public abstract static class ProfiledRunnable extends Logging.Runnable {
+        private final String mSite;
+        private long mLockRequestTime;
+
+        public ProfiledRunnable(String subsessionName, Object lock) {
+            super(subsessionName, lock);
+            mSite = subsessionName;
+        }
+
+        @Override
+        public java.lang.Runnable prepare() {
+            final java.lang.Runnable runnable = super.prepare();
+            return () -> {
+                mLockRequestTime = onAcquireStarted();
+                runnable.run();
+            };
+        }
+
+        @Override
+        public final void loggedRun() {
+            onAcquired(mSite, mLockRequestTime);
+            try {
+                profiledRun();
+            } finally {
+                onReleasing();
+            }
+        }
+
+        public abstract void profiledRun();
+    }
+
+    private static volatile boolean sIsEnabled = false;
+
+    // Holder state, guarded by the profiled lock itself.
+    private static int sHoldDepth = 0;
+    private static String sHoldSite;
+    private static String sHoldSessionId;
+    private static long sHoldStartNanos;
+
+    private static final Object sStatsLock = new Object();
+    private static final Map<String, SiteStats> sSiteStats = new HashMap<>();
+    // Min-heap on hold time, so the shortest of the retained holds is evicted first.
+    private static final PriorityQueue<LongHold> sLongestHolds = new PriorityQueue<>(
+            MAX_LONGEST_HOLDS + 1, (a, b) -> Long.compare(a.holdMicros, b.holdMicros));
+
+    public static void setEnabled(boolean isEnabled) {
+        sIsEnabled = isEnabled;
+    }
+
+    public static boolean isEnabled() {
+        return sIsEnabled;
+    }
+
+    /**
+     * Runs {@code block} while holding {@code lock}, recording the wait and hold times under
+     * {@code site}.
+     */
+    public static <E extends Exception> void runLocked(Object lock, String site,
+            LockedBlock<E> block) throws E {
+        final long lockRequestTime = onAcquireStarted();
+        synchronized (lock) {
+            onAcquired(site, lockRequestTime);
+            try {
+                block.run();
+            } finally {
+                onReleasing();
+            }
+        }
+    }
+
+    /**
+     * Like {@link #runLocked}, but returns the value computed by {@code call}.
+     */
+    public static <T, E extends Exception> T callLocked(Object lock, String site,
+            LockedCall<T, E> call) throws E {
+        final long lockRequestTime = onAcquireStarted();
+        synchronized (lock) {
+            onAcquired(site, lockRequestTime);
+            try {
+                return call.call();
+            } finally {
+                onReleasing();
+            }
+        }
+    }
+
+    /**
+     * Called immediately before entering the synchronized block.
+     * @return A token to pass to {@link #onAcquired}; 0 if profiling is disabled.
+     */
+    public static long onAcquireStarted() {
+        return sIsEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Called as the first statement inside the synchronized block.
+     * @param site A short name identifying the call site, usually its session name.
+     * @param acquireStartNanos The value returned by {@link #onAcquireStarted()}.
+     */
+    public static void onAcquired(String site, long acquireStartNanos) {
+        if (acquireStartNanos == 0 && sHoldDepth == 0) {
+            return;
+        }
+        // The lock is reentrant; only the outermost acquisition is measured.
+        if (sHoldDepth++ > 0) {
+            return;
+        }
+        // The session may end before the lock is released, so note it now.
+        sHoldSessionId = Log.getSessionId();
+        long now = System.nanoTime();
+        sHoldSite = site;
+        sHoldStartNanos = now;
+        synchronized (sStatsLock) {
+            getSiteStats(site).waitMicros.record((now - acquireStartNanos) / NANOS_PER_MICRO);
+        }
+    }
+
+    /**
+     * Called in a finally clause as the last statement inside the synchronized block.
+     */
+    public static void onReleasing() {
+        if (sHoldDepth == 0 || --sHoldDepth > 0) {
+            return;
+        }
+        long holdMicros = (System.nanoTime() - sHoldStartNanos) / NANOS_PER_MICRO;
+        String site = sHoldSite;
+        String sessionId = sHoldSessionId;
+        sHoldSite = null;
+        sHoldSessionId = null;
+        synchronized (sStatsLock) {
+            getSiteStats(site).holdMicros.record(holdMicros);
+            if (sLongestHolds.size() < MAX_LONGEST_HOLDS
+                    || sLongestHolds.peek().holdMicros < holdMicros) {
+                sLongestHolds.add(new LongHold(site, sessionId, holdMicros,
+                        System.currentTimeMillis()));
+                if (sLongestHolds.size() > MAX_LONGEST_HOLDS) {
+                    sLongestHolds.poll();
+                }
+            }
+        }
+    }
+
+    public static void reset() {
+        synchronized (sStatsLock) {
+            sSiteStats.clear();
+            sLongestHolds.clear();
+        }
+    }
+
+    /**
+     * @return A copy of the statistics for the given call site, or null if none were recorded.
+     */
+    @VisibleForTesting
+    public static SiteStats getSiteStatsForTesting(String site) {
+        synchronized (sStatsLock) {
+            SiteStats stats = sSiteStats.get(site);
+            if (stats == null) {
+                return null;
+            }
+            SiteStats copy = new SiteStats();
+            copy.waitMicros.merge(stats.waitMicros);
+            copy.holdMicros.merge(stats.holdMicros);
+            return copy;
+        }
+    }
+
+    /**
+     * Handles {@code dumpsys telecom lockprofiler [on|off|reset]}.
+     */
+    public static void handleDumpArgs(IndentingPrintWriter pw, String[] args) {
+        if (args.length > 1) {
+            if (ENABLE_ARG.equals(args[1])) {
+                setEnabled(true);
+            } else if (DISABLE_ARG.equals(args[1])) {
+                setEnabled(false);
+            } else if (RESET_ARG.equals(args[1])) {
+                reset();
+            }
+        }
+        dump(pw);
+    }
+
+    public static void dump(IndentingPrintWriter pw) {
+        pw.println("enabled: " + sIsEnabled);
+        synchronized (sStatsLock) {
+            List<Map.Entry<String, SiteStats>> entries = new ArrayList<>(sSiteStats.entrySet());
+            // Sites which held the lock the longest in total are the most interesting.
+            entries.sort((a, b) -> Double.compare(
+                    b.getValue().holdMicros.getMean() * b.getValue().holdMicros.getCount(),
+                    a.getValue().holdMicros.getMean() * a.getValue().holdMicros.getCount()));
+            pw.println("Per call site (us):");
+            pw.increaseIndent();
+            for (Map.Entry<String, SiteStats> e : entries) {
+                pw.println(e.getKey() + ":");
+                pw.increaseIndent();
+                pw.println("wait: " + e.getValue().waitMicros);
+                pw.println("hold: " + e.getValue().holdMicros);
+                pw.decreaseIndent();
+            }
+            pw.decreaseIndent();
+
+            List<LongHold> longest = new ArrayList<>(sLongestHolds);
+            longest.sort((a, b) -> Long.compare(b.holdMicros, a.holdMicros));
+            pw.println("Longest holds:");
+            pw.increaseIndent();
+            for (LongHold hold : longest) {
+                pw.println(String.format("%s: %dus site=%s session=%s",
+                        DATE_FORMAT.format(new Date(hold.endTimeMillis)), hold.holdMicros,
+                        hold.site, hold.sessionName));
+            }
+            pw.decreaseIndent();
+        }
+    }
+
+    private static SiteStats getSiteStats(String site) {
+        SiteStats stats = sSiteStats.get(site);
+        if (stats == null) {
+            if (sSiteStats.size() >= MAX_CALL_SITES) {
+                // Call sites are a fixed set in practice; fold anything unexpected together.
+                site = "other";
+                stats = sSiteStats.get(site);
+            }
+            if (stats == null) {
+                stats = new SiteStats();
+                sSiteStats.put(site, stats);
+            }
+        }
+        return stats;
+    }
+}
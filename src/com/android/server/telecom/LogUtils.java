@@ -76,6 +76,7 @@ public class LogUtils {
         public static final String STOP_DTMF = "STOP_DTMF";
         public static final String START_RINGER = "START_RINGER";
         public static final String STOP_RINGER = "STOP_RINGER";
+        public static final String RINGTONE_STARTED = "RINGTONE_STARTED";
         public static final String START_VIBRATOR = "START_VIBRATOR";
         public static final String STOP_VIBRATOR = "STOP_VIBRATOR";
         public static final String SKIP_VIBRATION = "SKIP_VIBRATION";
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.telecom.Logging.Runnable;
+
+/**
+ * Base class for the listeners added with {@link CallsManagerListenerDispatcher#addNonCritical}.
+ *
+ * Their callbacks are called while the event is dispatched, with the Telecom lock held, like
+ * those of any other listener. They should only read what they need from the call there, and
+ * pass the rest of their work to {@link #runLater}. That work runs from the dispatcher's
+ * non-critical handler without the Telecom lock, so it must only use the values read in the
+ * callback, never the {@link Call} itself.
+ */
+public class NonCriticalListenerBase extends CallsManagerListenerBase {
+    // Set once, when the listener is added to the dispatcher.
+    private volatile TelecomLooper.MonitoredHandler mHandler;
+
+    void setHandler(TelecomLooper.MonitoredHandler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Runs work from the non-critical handler, in the order it was passed; without a handler,
+     * runs it immediately.
+     *
+     * @param name The subsession name, which also identifies the work in the handler's stats.
+     */
+    protected void runLater(String name, java.lang.Runnable work) {
+        TelecomLooper.MonitoredHandler handler = mHandler;
+        if (handler == null) {
+            work.run();
+            return;
+        }
+        handler.post(name, new Runnable(name, null /*lock*/) {
+            @Override
+            public void loggedRun() {
+                work.run();
+            }
+        }.prepare());
+    }
+}
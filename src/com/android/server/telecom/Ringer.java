@@ -123,7 +123,9 @@ public class Ringer {
                 (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
         boolean isVolumeOverZero = audioManager.getStreamVolume(AudioManager.STREAM_RING) > 0;
         boolean shouldRingForContact = shouldRingForContact(foregroundCall.getContactUri());
-        boolean isRingtonePresent = !(mRingtoneFactory.getRingtone(foregroundCall) == null);
+        // Avoid resolving the ringtone again on this thread if it has already been prefetched.
+        boolean isRingtonePresent = mRingtonePlayer.hasPrefetchedRingtone(foregroundCall)
+                || mRingtoneFactory.getRingtone(foregroundCall) != null;
         boolean isSelfManaged = foregroundCall.isSelfManaged();
 
         boolean isRingerAudible = isVolumeOverZero && shouldRingForContact && isRingtonePresent;
@@ -146,6 +148,7 @@ public class Ringer {
             }
             Log.i(this, "Ending early -- isTheaterModeOn=%s, letDialerHandleRinging=%s, " +
                     "isSelfManaged=%s", isTheaterModeOn, letDialerHandleRinging, isSelfManaged);
+            mRingtonePlayer.discardPrefetch(foregroundCall);
             return shouldAcquireAudioFocus;
         }
 
@@ -176,6 +179,7 @@ public class Ringer {
             Log.i(this, "startRinging: skipping because ringer would not be audible. " +
                     "isVolumeOverZero=%s, shouldRingForContact=%s, isRingtonePresent=%s",
                     isVolumeOverZero, shouldRingForContact, isRingtonePresent);
+            mRingtonePlayer.discardPrefetch(foregroundCall);
         }
 
         if (shouldVibrate(mContext, foregroundCall) && !mIsVibrating && shouldRingForContact) {
@@ -189,7 +193,34 @@ public class Ringer {
         return shouldAcquireAudioFocus;
     }
 
+    /**
+     * Starts resolving the ringtone for an incoming call which is still being filtered.
+     */
+    public void prefetchRingtone(Call incomingCall) {
+        mRingtonePlayer.prefetch(mRingtoneFactory, incomingCall);
+    }
+
+    /**
+     * Resolves the ringtone again if the contact lookup for a call with a prefetched ringtone
+     * completed, since the contact may have a custom ringtone.
+     */
+    public void onCallerInfoChanged(Call call) {
+        if (mRingtonePlayer.isPrefetching(call)) {
+            mRingtonePlayer.prefetch(mRingtoneFactory, call);
+        }
+    }
+
+    /**
+     * Discards the ringtone prefetched for a call which will not ring.
+     */
+    public void discardPrefetchedRingtone(Call call) {
+        mRingtonePlayer.discardPrefetch(call);
+    }
+
     public void startCallWaiting(Call call) {
+        // The call waiting tone is played instead of the ringtone.
+        mRingtonePlayer.discardPrefetch(call);
+
         if (mSystemSettingsUtil.isTheaterModeOn(mContext)) {
             return;
         }
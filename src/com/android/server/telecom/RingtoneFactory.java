@@ -16,13 +16,19 @@
 
 package com.android.server.telecom;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.content.pm.UserInfo;
+import android.database.ContentObserver;
 import android.media.AudioManager;
 import android.media.RingtoneManager;
 import android.media.Ringtone;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.provider.Settings;
@@ -30,6 +36,7 @@ import android.provider.Settings;
 import android.telecom.Log;
 import android.telecom.PhoneAccount;
 import android.text.TextUtils;
+import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.CallerInfo;
@@ -40,16 +47,69 @@ import java.util.List;
  * Uses the incoming {@link Call}'s ringtone URI (obtained by the Contact Lookup) to obtain a
  * {@link Ringtone} from the {@link RingtoneManager} that can be played by the system during an
  * incoming call. If the ringtone URI is null, use the default Ringtone for the active user.
+ *
+ * The per-user contexts and default ringtone URIs needed to do so are cached, and the cache is
+ * cleared when the default ringtone setting changes, when a managed profile is added, removed,
+ * enabled or disabled, and on user switch.
  */
 @VisibleForTesting
 public class RingtoneFactory {
 
+    /** The context and default ringtone URI resolved for a user. */
+    private static final class DefaultRingtone {
+        final Context context;
+        final Uri uri;
+
+        DefaultRingtone(Context context, Uri uri) {
+            this.context = context;
+            this.uri = uri;
+        }
+    }
+
+    private final BroadcastReceiver mInvalidateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Log.i(RingtoneFactory.this, "Clearing ringtone cache for %s", intent.getAction());
+            clearCache();
+        }
+    };
+
+    private final ContentObserver mRingtoneObserver =
+            new ContentObserver(new Handler(Looper.getMainLooper())) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    clearCache();
+                }
+            };
+
     private final Context mContext;
     private final CallsManager mCallsManager;
 
+    // The caches below may be read from the ringtone thread and are guarded by mCacheLock.
+    private final Object mCacheLock = new Object();
+    /** Incremented whenever the cache is cleared, so that stale lookups are not cached. */
+    private int mCacheGeneration;
+    private final SparseArray<Context> mUserContexts = new SparseArray<>();
+    /** Work profile context per parent user; a null value means there is no work profile. */
+    private final SparseArray<Context> mWorkProfileContexts = new SparseArray<>();
+    /** Default ringtone per user context; keyed by UserHandle.USER_NULL for no context. */
+    private final SparseArray<DefaultRingtone> mDefaultRingtones = new SparseArray<>();
+
     public RingtoneFactory(CallsManager callsManager, Context context) {
         mContext = context;
         mCallsManager = callsManager;
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_MANAGED_PROFILE_ADDED);
+        filter.addAction(Intent.ACTION_MANAGED_PROFILE_REMOVED);
+        filter.addAction(Intent.ACTION_MANAGED_PROFILE_AVAILABLE);
+        filter.addAction(Intent.ACTION_MANAGED_PROFILE_UNAVAILABLE);
+        filter.addAction(Intent.ACTION_USER_SWITCHED);
+        filter.addAction(Intent.ACTION_USER_REMOVED);
+        context.registerReceiverAsUser(mInvalidateReceiver, UserHandle.ALL, filter, null, null);
+        context.getContentResolver().registerContentObserver(
+                Settings.System.getUriFor(Settings.System.RINGTONE), false, mRingtoneObserver,
+                UserHandle.USER_ALL);
     }
 
     public Ringtone getRingtone(Call incomingCall) {
@@ -67,18 +127,11 @@ public class RingtoneFactory {
         if(ringtone == null) {
             // Contact didn't specify ringtone or custom Ringtone creation failed. Get default
             // ringtone for user or profile.
-            Context contextToUse = hasDefaultRingtoneForUser(userContext) ? userContext : mContext;
-            Uri defaultRingtoneUri;
-            if (UserManager.get(contextToUse).isUserUnlocked(contextToUse.getUserId())) {
-                defaultRingtoneUri = RingtoneManager.getActualDefaultRingtoneUri(contextToUse,
-                        RingtoneManager.TYPE_RINGTONE);
-            } else {
-                defaultRingtoneUri = Settings.System.DEFAULT_RINGTONE_URI;
-            }
-            if (defaultRingtoneUri == null) {
+            DefaultRingtone defaultRingtone = getDefaultRingtone(userContext);
+            if (defaultRingtone.uri == null) {
                 return null;
             }
-            ringtone = RingtoneManager.getRingtone(contextToUse, defaultRingtoneUri);
+            ringtone = RingtoneManager.getRingtone(defaultRingtone.context, defaultRingtone.uri);
         }
         if (ringtone != null) {
             ringtone.setStreamType(AudioManager.STREAM_RING);
@@ -86,7 +139,74 @@ public class RingtoneFactory {
         return ringtone;
     }
 
-    private Context getWorkProfileContextForUser(UserHandle userHandle) {
+    /**
+     * @return The default ringtone URI for the given user context, or for the system if the user
+     * has none.
+     */
+    @VisibleForTesting
+    public Uri getDefaultRingtoneUri(Context userContext) {
+        return getDefaultRingtone(userContext).uri;
+    }
+
+    private DefaultRingtone getDefaultRingtone(Context userContext) {
+        int key = userContext == null ? UserHandle.USER_NULL : userContext.getUserId();
+        int generation;
+        synchronized (mCacheLock) {
+            DefaultRingtone cached = mDefaultRingtones.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            generation = mCacheGeneration;
+        }
+
+        Context contextToUse = hasDefaultRingtoneForUser(userContext) ? userContext : mContext;
+        DefaultRingtone defaultRingtone;
+        if (UserManager.get(contextToUse).isUserUnlocked(contextToUse.getUserId())) {
+            defaultRingtone = new DefaultRingtone(contextToUse,
+                    RingtoneManager.getActualDefaultRingtoneUri(contextToUse,
+                            RingtoneManager.TYPE_RINGTONE));
+            synchronized (mCacheLock) {
+                if (generation == mCacheGeneration) {
+                    mDefaultRingtones.put(key, defaultRingtone);
+                }
+            }
+        } else {
+            // Not cached, so that the actual default is used once the user is unlocked.
+            defaultRingtone = new DefaultRingtone(contextToUse,
+                    Settings.System.DEFAULT_RINGTONE_URI);
+        }
+        return defaultRingtone;
+    }
+
+    private void clearCache() {
+        synchronized (mCacheLock) {
+            mCacheGeneration++;
+            mUserContexts.clear();
+            mWorkProfileContexts.clear();
+            mDefaultRingtones.clear();
+        }
+    }
+
+    @VisibleForTesting
+    public Context getWorkProfileContextForUser(UserHandle userHandle) {
+        int generation;
+        synchronized (mCacheLock) {
+            int index = mWorkProfileContexts.indexOfKey(userHandle.getIdentifier());
+            if (index >= 0) {
+                return mWorkProfileContexts.valueAt(index);
+            }
+            generation = mCacheGeneration;
+        }
+        Context workProfileContext = resolveWorkProfileContextForUser(userHandle);
+        synchronized (mCacheLock) {
+            if (generation == mCacheGeneration) {
+                mWorkProfileContexts.put(userHandle.getIdentifier(), workProfileContext);
+            }
+        }
+        return workProfileContext;
+    }
+
+    private Context resolveWorkProfileContextForUser(UserHandle userHandle) {
         // UserManager.getEnabledProfiles returns the enabled profiles along with the user's handle
         // itself (so we must filter out the user).
         List<UserInfo> profiles = UserManager.get(mContext).getEnabledProfiles(
@@ -109,18 +229,35 @@ public class RingtoneFactory {
         return null;
     }
 
-    private Context getContextForUserHandle(UserHandle userHandle) {
+    @VisibleForTesting
+    public Context getContextForUserHandle(UserHandle userHandle) {
         if(userHandle == null) {
             return null;
         }
+        synchronized (mCacheLock) {
+            Context userContext = mUserContexts.get(userHandle.getIdentifier());
+            if (userContext != null) {
+                return userContext;
+            }
+        }
         try {
-            return mContext.createPackageContextAsUser(mContext.getPackageName(), 0, userHandle);
+            Context userContext = mContext.createPackageContextAsUser(mContext.getPackageName(),
+                    0, userHandle);
+            synchronized (mCacheLock) {
+                mUserContexts.put(userHandle.getIdentifier(), userContext);
+            }
+            return userContext;
         } catch (PackageManager.NameNotFoundException e) {
             Log.w("RingtoneFactory", "Package name not found: " + e.getMessage());
         }
         return null;
     }
 
+    @VisibleForTesting
+    public ContentObserver getRingtoneObserver() {
+        return mRingtoneObserver;
+    }
+
     private boolean hasDefaultRingtoneForUser(Context userContext) {
         if(userContext == null) {
             return false;
@@ -129,7 +266,7 @@ public class RingtoneFactory {
                 Settings.System.RINGTONE, userContext.getUserId()));
     }
 
-    private boolean isWorkContact(Call incomingCall) {
+    static boolean isWorkContact(Call incomingCall) {
         CallerInfo contactCallerInfo = incomingCall.getCallerInfo();
         return (contactCallerInfo != null) &&
                 (contactCallerInfo.userType == CallerInfo.USER_TYPE_WORK);
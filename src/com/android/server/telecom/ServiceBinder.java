@@ -22,6 +22,7 @@ import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.IBinder;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.telecom.Log;
 import android.text.TextUtils;
@@ -85,6 +86,7 @@ abstract class ServiceBinder {
                 ServiceConnection connection = new ServiceBinderConnection(call);
 
                 Log.addEvent(call, LogUtils.Events.BIND_CS, mComponentName);
+                mBindStartMillis = SystemClock.elapsedRealtime();
                 final int bindingFlags = Context.BIND_AUTO_CREATE | Context.BIND_FOREGROUND_SERVICE;
                 final boolean isBound;
                 if (mUserHandle != null) {
@@ -143,7 +145,14 @@ abstract class ServiceBinder {
             try {
                 Log.startSession("SBC.oSC");
                 synchronized (mLock) {
-                    Log.i(this, "Service bound %s", componentName);
+                    // The connection is re-delivered if the service dies and restarts; only
+                    // the first connection after a bind request measures the bind.
+                    if (mBindStartMillis != 0) {
+                        long bindMillis = SystemClock.elapsedRealtime() - mBindStartMillis;
+                        mBindStartMillis = 0;
+                        mBindLatencyMillis.record(bindMillis);
+                        Log.i(this, "Service bound %s in %d ms", componentName, bindMillis);
+                    }
 
                     Log.addEvent(mCall, LogUtils.Events.CS_BOUND, componentName);
                     mCall = null;
@@ -226,6 +235,15 @@ abstract class ServiceBinder {
 
     private int mAssociatedCallCount = 0;
 
+    /**
+     * When the current bind was requested, in {@link SystemClock#elapsedRealtime}, or 0 once the
+     * service has connected.
+     */
+    private long mBindStartMillis;
+
+    /** Time from requesting a bind until the service connected. Guarded by mLock. */
+    private final LatencyHistogram mBindLatencyMillis = new LatencyHistogram();
+
     /**
      * Indicates that an unbind request was made when the service was not yet bound. If the service
      * successfully connects when this is true, it should be unbound immediately.
@@ -309,6 +327,21 @@ abstract class ServiceBinder {
         return mComponentName;
     }
 
+    /**
+     * @return A copy of the bind latencies recorded for this service.
+     */
+    @VisibleForTesting
+    public final LatencyHistogram getBindLatencyHistogram() {
+        return new LatencyHistogram(mBindLatencyMillis);
+    }
+
+    /**
+     * @return {@code true} if the service is currently bound.
+     */
+    final boolean isBound() {
+        return mBinder != null;
+    }
+
     @VisibleForTesting
     public boolean isServiceValid(String actionName) {
         if (mBinder == null) {
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.provider.Settings;
+import android.telecom.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory copy of the settings Telecom reads on the call path, such as the values read by
+ * {@link Timeouts} and {@link SystemSettingsUtil}.
+ *
+ * Each setting is read from the settings provider the first time it is requested, after which a
+ * {@link ContentObserver} keeps the cached copy up to date; subsequent reads are served from
+ * memory without a binder call. Until {@link #initialize(Context)} has been called, for example
+ * in unit tests, the static accessors fall through to {@link Settings}.
+ *
+ * This class is safe to use from any thread.
+ */
+public class SettingsCache {
+    public static final int NAMESPACE_SECURE = 0;
+    public static final int NAMESPACE_SYSTEM = 1;
+    public static final int NAMESPACE_GLOBAL = 2;
+
+    /**
+     * Reads settings and observes changes to them; abstracted for testing.
+     */
+    @VisibleForTesting
+    public interface SettingsReader {
+        String getString(int namespace, String name);
+
+        void registerObserver(int namespace, String name, ContentObserver observer);
+    }
+
+    private static class ContentResolverSettingsReader implements SettingsReader {
+        private final ContentResolver mContentResolver;
+
+        ContentResolverSettingsReader(ContentResolver contentResolver) {
+            mContentResolver = contentResolver;
+        }
+
+        @Override
+        public String getString(int namespace, String name) {
+            switch (namespace) {
+                case NAMESPACE_SYSTEM:
+                    return Settings.System.getString(mContentResolver, name);
+                case NAMESPACE_GLOBAL:
+                    return Settings.Global.getString(mContentResolver, name);
+                default:
+                    return Settings.Secure.getString(mContentResolver, name);
+            }
+        }
+
+        @Override
+        public void registerObserver(int namespace, String name, ContentObserver observer) {
+            mContentResolver.registerContentObserver(getUriFor(namespace, name),
+                    false /* notifyForDescendants */, observer);
+        }
+    }
+
+    /** Wraps a cached value so that unset (null) settings can be cached too. */
+    private static final class Entry {
+        final int namespace;
+        final String name;
+        volatile String value;
+        // Guarded by this; numbers the reads from the provider in the order they were started.
+        int readsStarted;
+        int newestReadStored;
+
+        Entry(int namespace, String name, String value) {
+            this.namespace = namespace;
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    private static volatile SettingsCache sInstance;
+
+    private final SettingsReader mReader;
+    // One map per namespace, so that lookups need no composite key.
+    private final ConcurrentHashMap<String, Entry> mSecureEntries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Entry> mSystemEntries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Entry> mGlobalEntries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Uri, Entry> mEntriesByUri = new ConcurrentHashMap<>();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mRefreshes = new AtomicLong();
+
+    // Runs on a binder thread, so refreshing a value never blocks the Telecom looper.
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            Entry entry = uri == null ? null : mEntriesByUri.get(uri);
+            if (entry != null) {
+                refresh(entry);
+            } else {
+                for (Entry e : mEntriesByUri.values()) {
+                    refresh(e);
+                }
+            }
+        }
+    };
+
+    /**
+     * Sets up the process-wide cache. Called once when the Telecom system is created.
+     */
+    public static void initialize(Context context) {
+        if (sInstance == null) {
+            ContentResolver cr = context.getContentResolver();
+            sInstance = new SettingsCache(new ContentResolverSettingsReader(cr));
+            // Load the values read when a call is placed or received up front, so that the
+            // first call after boot does not pay for them either.
+            Timeouts.preload(cr);
+            getSystemInt(cr, Settings.System.VIBRATE_WHEN_RINGING, 0);
+            getGlobalInt(cr, Settings.Global.THEATER_MODE_ON, 0);
+        }
+    }
+
+    public static SettingsCache getInstance() {
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public static void setInstanceForTesting(SettingsCache cache) {
+        sInstance = cache;
+    }
+
+    public static long getSecureLong(ContentResolver cr, String name, long defaultValue) {
+        SettingsCache cache = sInstance;
+        if (cache == null) {
+            return Settings.Secure.getLong(cr, name, defaultValue);
+        }
+        return parseLong(cache.getString(NAMESPACE_SECURE, name), defaultValue);
+    }
+
+    public static int getSystemInt(ContentResolver cr, String name, int defaultValue) {
+        SettingsCache cache = sInstance;
+        if (cache == null) {
+            return Settings.System.getInt(cr, name, defaultValue);
+        }
+        return parseInt(cache.getString(NAMESPACE_SYSTEM, name), defaultValue);
+    }
+
+    public static int getGlobalInt(ContentResolver cr, String name, int defaultValue) {
+        SettingsCache cache = sInstance;
+        if (cache == null) {
+            return Settings.Global.getInt(cr, name, defaultValue);
+        }
+        return parseInt(cache.getString(NAMESPACE_GLOBAL, name), defaultValue);
+    }
+
+    @VisibleForTesting
+    public SettingsCache(SettingsReader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * @return The cached value of the setting, reading it from the provider on first use.
+     */
+    public String getString(int namespace, String name) {
+        ConcurrentHashMap<String, Entry> entries = getEntries(namespace);
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            mHits.incrementAndGet();
+            return entry.value;
+        }
+        synchronized (mEntriesByUri) {
+            entry = entries.get(name);
+            if (entry != null) {
+                return entry.value;
+            }
+            mMisses.incrementAndGet();
+            entry = new Entry(namespace, name, null);
+            try {
+                // Start observing before the first read so that a change in between is not lost.
+                mReader.registerObserver(namespace, name, mObserver);
+                mEntriesByUri.put(getUriFor(namespace, name), entry);
+            } catch (RuntimeException e) {
+                // Without an observer the value could go stale, so don't cache it.
+                Log.w(this, "Unable to observe setting %s: %s", name, e);
+                return mReader.getString(namespace, name);
+            }
+            read(entry);
+            entries.put(name, entry);
+            return entry.value;
+        }
+    }
+
+    @VisibleForTesting
+    public void onSettingChanged(int namespace, String name) {
+        Entry entry = getEntries(namespace).get(name);
+        if (entry != null) {
+            refresh(entry);
+        }
+    }
+
+    public void dump(IndentingPrintWriter pw) {
+        pw.println("entries: " + mEntriesByUri.size() + " hits: " + mHits.get() + " misses: "
+                + mMisses.get() + " refreshes: " + mRefreshes.get());
+    }
+
+    private void refresh(Entry entry) {
+        mRefreshes.incrementAndGet();
+        read(entry);
+    }
+
+    /**
+     * Reads the setting from the provider into the entry. The first read and any refreshes can
+     * run at the same time on different threads, so the value is only stored if no read started
+     * after this one has stored its value already; otherwise an older value could overwrite a
+     * newer one.
+     */
+    private void read(Entry entry) {
+        final int readNumber;
+        synchronized (entry) {
+            readNumber = ++entry.readsStarted;
+        }
+        String value = mReader.getString(entry.namespace, entry.name);
+        synchronized (entry) {
+            if (readNumber > entry.newestReadStored) {
+                entry.newestReadStored = readNumber;
+                entry.value = value;
+            }
+        }
+    }
+
+    private ConcurrentHashMap<String, Entry> getEntries(int namespace) {
+        switch (namespace) {
+            case NAMESPACE_SYSTEM:
+                return mSystemEntries;
+            case NAMESPACE_GLOBAL:
+                return mGlobalEntries;
+            default:
+                return mSecureEntries;
+        }
+    }
+
+    private static Uri getUriFor(int namespace, String name) {
+        switch (namespace) {
+            case NAMESPACE_SYSTEM:
+                return Settings.System.getUriFor(name);
+            case NAMESPACE_GLOBAL:
+                return Settings.Global.getUriFor(name);
+            default:
+                return Settings.Secure.getUriFor(name);
+        }
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
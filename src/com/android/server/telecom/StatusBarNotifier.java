@@ -25,10 +25,12 @@ import com.android.internal.annotations.VisibleForTesting;
 // TODO: Needed for move to system service: import com.android.internal.R;
 
 /**
- * Manages the special status bar notifications used by the phone app.
+ * Manages the special status bar notifications used by the phone app. The icons are updated from
+ * the non-critical handler, which is the only thread to touch {@link #mIsShowingMute} and
+ * {@link #mIsShowingSpeakerphone}.
  */
 @VisibleForTesting
-public class StatusBarNotifier extends CallsManagerListenerBase {
+public class StatusBarNotifier extends NonCriticalListenerBase {
     private static final String SLOT_MUTE = "mute";
     private static final String SLOT_SPEAKERPHONE = "speakerphone";
 
@@ -57,10 +59,11 @@ public class StatusBarNotifier extends CallsManagerListenerBase {
     @VisibleForTesting
     public void notifyMute(boolean isMuted) {
         // Never display anything if there are no calls.
-        if (!mCallsManager.hasAnyCalls()) {
-            isMuted = false;
-        }
+        final boolean showMute = isMuted && mCallsManager.hasAnyCalls();
+        runLater("SBN.nM", () -> updateMuteIcon(showMute));
+    }
 
+    private void updateMuteIcon(boolean isMuted) {
         if (mIsShowingMute == isMuted) {
             return;
         }
@@ -82,10 +85,11 @@ public class StatusBarNotifier extends CallsManagerListenerBase {
     @VisibleForTesting
     public void notifySpeakerphone(boolean isSpeakerphone) {
         // Never display anything if there are no calls.
-        if (!mCallsManager.hasAnyCalls()) {
-            isSpeakerphone = false;
-        }
+        final boolean showSpeakerphone = isSpeakerphone && mCallsManager.hasAnyCalls();
+        runLater("SBN.nS", () -> updateSpeakerphoneIcon(showSpeakerphone));
+    }
 
+    private void updateSpeakerphoneIcon(boolean isSpeakerphone) {
         if (mIsShowingSpeakerphone == isSpeakerphone) {
             return;
         }
@@ -28,12 +28,12 @@ import com.android.internal.annotations.VisibleForTesting;
 public class SystemSettingsUtil {
 
     public boolean isTheaterModeOn(Context context) {
-        return Settings.Global.getInt(context.getContentResolver(), Settings.Global.THEATER_MODE_ON,
-                0) == 1;
+        return SettingsCache.getGlobalInt(context.getContentResolver(),
+                Settings.Global.THEATER_MODE_ON, 0) == 1;
     }
 
     public boolean canVibrateWhenRinging(Context context) {
-        return Settings.System.getInt(context.getContentResolver(),
+        return SettingsCache.getSystemInt(context.getContentResolver(),
                 Settings.System.VIBRATE_WHEN_RINGING, 0) != 0;
     }
 }
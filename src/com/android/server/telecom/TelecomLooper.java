@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.Map;
+
+/**
+ * Owns the looper Telecom processes calls on. It runs on its own thread at foreground priority,
+ * so that call processing isn't held up behind Telecom's own activities and broadcast receivers,
+ * which stay on the main looper.
+ *
+ * Handlers created through {@link #createHandler()} report how long each message waited in the
+ * queue and how long it took to run, keyed by the name it was posted with.
+ */
+public final class TelecomLooper {
+    private static final String THREAD_NAME = "telecom-core";
+
+    /**
+     * A handler which records the latency of the messages it dispatches in the
+     * {@link TelecomLooper} statistics.
+     */
+    public static class MonitoredHandler extends Handler {
+        public MonitoredHandler(Looper looper) {
+            super(looper);
+        }
+
+        /**
+         * Posts the runnable, reporting its latencies under the given name.
+         */
+        public final boolean post(String name, java.lang.Runnable r) {
+            return postDelayed(name, r, 0);
+        }
+
+        /**
+         * Posts the runnable after the given delay, reporting its latencies under the given name.
+         * The delay itself isn't counted as queueing time.
+         */
+        public final boolean postDelayed(String name, java.lang.Runnable r, long delayMillis) {
+            Message msg = Message.obtain(this, r);
+            msg.obj = name;
+            return sendMessageDelayed(msg, delayMillis);
+        }
+
+        @Override
+        public String getMessageName(Message message) {
+            if (message.obj instanceof String) {
+                return (String) message.obj;
+            }
+            return super.getMessageName(message);
+        }
+
+        @Override
+        public void dispatchMessage(Message msg) {
+            long startMillis = SystemClock.uptimeMillis();
+            // The message is recycled once dispatched, so read it first.
+            long queueMillis = startMillis - msg.getWhen();
+            String name = getMessageName(msg);
+            super.dispatchMessage(msg);
+            recordLatency(name, queueMillis, SystemClock.uptimeMillis() - startMillis);
+        }
+    }
+
+    /** Latencies of the messages posted with one name; values are in milliseconds. */
+    public static final class MessageStats {
+        public final LatencyHistogram queueMillis = new LatencyHistogram();
+        public final LatencyHistogram runMillis = new LatencyHistogram();
+    }
+
+    private static HandlerThread sThread;
+    // Guarded by sStats.
+    private static final Map<String, MessageStats> sStats = new ArrayMap<>();
+
+    private TelecomLooper() {}
+
+    /**
+     * @return The looper for call processing, starting its thread if needed.
+     */
+    public static synchronized Looper getLooper() {
+        if (sThread == null) {
+            sThread = new HandlerThread(THREAD_NAME, Process.THREAD_PRIORITY_FOREGROUND);
+            sThread.start();
+        }
+        return sThread.getLooper();
+    }
+
+    /**
+     * @return A new {@link MonitoredHandler} on the call processing looper.
+     */
+    public static MonitoredHandler createHandler() {
+        return new MonitoredHandler(getLooper());
+    }
+
+    /**
+     * Records the latencies of something run on the call processing looper outside of a
+     * {@link MonitoredHandler}, e.g. a {@link TelecomTimerWheel} timer.
+     */
+    public static void recordLatency(String name, long queueMillis, long runMillis) {
+        synchronized (sStats) {
+            MessageStats stats = sStats.get(name);
+            if (stats == null) {
+                stats = new MessageStats();
+                sStats.put(name, stats);
+            }
+            stats.queueMillis.record(queueMillis);
+            stats.runMillis.record(runMillis);
+        }
+    }
+
+    /**
+     * @return A copy of the latencies recorded for the given name, or null if there were none.
+     */
+    @VisibleForTesting
+    public static MessageStats getStats(String name) {
+        synchronized (sStats) {
+            MessageStats stats = sStats.get(name);
+            if (stats == null) {
+                return null;
+            }
+            MessageStats copy = new MessageStats();
+            copy.queueMillis.merge(stats.queueMillis);
+            copy.runMillis.merge(stats.runMillis);
+            return copy;
+        }
+    }
+
+    public static void dump(IndentingPrintWriter pw) {
+        synchronized (sStats) {
+            for (Map.Entry<String, MessageStats> entry : sStats.entrySet()) {
+                pw.println(entry.getKey() + ":");
+                pw.increaseIndent();
+                pw.println("queue: " + entry.getValue().queueMillis);
+                pw.println("run:   " + entry.getValue().runMillis);
+                pw.decreaseIndent();
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.ArrayDeque;
+
+/**
+ * Runs work on the {@link TelecomLooper} according to how urgent it is, rather than strictly in
+ * the order it was posted.
+ *
+ * <ul>
+ *     <li>{@link #PRIORITY_CRITICAL} work, such as presenting an incoming call once it has been
+ *     filtered, runs ahead of anything already queued on the looper, in the order it was posted.
+ *     </li>
+ *     <li>{@link #PRIORITY_NORMAL} work is queued behind what is already on the looper.</li>
+ *     <li>{@link #PRIORITY_DEFERRABLE} work, such as call log broadcasts and missed call
+ *     notification reloads, is run in batches of at most {@link #MAX_BATCH_SIZE}, queued behind
+ *     other work. While there are calls, batches are only run every
+ *     {@link #DEFERRED_BATCH_DELAY_MILLIS}, so that they don't compete with call processing.</li>
+ * </ul>
+ *
+ * Runnables are expected to be prepared {@link android.telecom.Logging.Runnable}s, which carry
+ * their Logging session and take the Telecom lock themselves. The time each one waits is
+ * recorded per priority, and per name in the {@link TelecomLooper} statistics.
+ */
+public class TelecomScheduler {
+    public static final int PRIORITY_CRITICAL = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_DEFERRABLE = 2;
+    private static final int NUM_PRIORITIES = 3;
+
+    private static final String[] PRIORITY_NAMES = { "critical", "normal", "deferrable" };
+
+    /** How long deferrable work is held back for while there are calls. */
+    @VisibleForTesting
+    public static final long DEFERRED_BATCH_DELAY_MILLIS = 500L;
+
+    /** Most deferrable runnables run before yielding the looper to other work. */
+    @VisibleForTesting
+    public static final int MAX_BATCH_SIZE = 8;
+
+    private static final class Task {
+        final int priority;
+        final String name;
+        final java.lang.Runnable runnable;
+        final long postedMillis;
+
+        Task(int priority, String name, java.lang.Runnable runnable, long postedMillis) {
+            this.priority = priority;
+            this.name = name;
+            this.runnable = runnable;
+            this.postedMillis = postedMillis;
+        }
+    }
+
+    private static TelecomScheduler sInstance;
+
+    private final Handler mHandler;
+    private final java.lang.Runnable mRunCritical = this::runCritical;
+    private final java.lang.Runnable mRunDeferred = this::runDeferred;
+
+    // Guarded by this.
+    private final ArrayDeque<Task> mCritical = new ArrayDeque<>();
+    private final ArrayDeque<Task> mDeferred = new ArrayDeque<>();
+    private final LatencyHistogram[] mQueueMillis = new LatencyHistogram[NUM_PRIORITIES];
+    private boolean mIsCriticalPending;
+    private boolean mIsDeferredPending;
+    private int mNumCalls;
+    private long mNumBatches;
+
+    /**
+     * @return The scheduler running on the {@link TelecomLooper}.
+     */
+    public static synchronized TelecomScheduler getInstance() {
+        if (sInstance == null) {
+            sInstance = new TelecomScheduler(TelecomLooper.getLooper());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public TelecomScheduler(Looper looper) {
+        mHandler = new Handler(looper);
+        for (int i = 0; i < NUM_PRIORITIES; i++) {
+            mQueueMillis[i] = new LatencyHistogram();
+        }
+    }
+
+    @VisibleForTesting
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * Posts a runnable with the given priority.
+     *
+     * @param priority One of {@link #PRIORITY_CRITICAL}, {@link #PRIORITY_NORMAL} or
+     * {@link #PRIORITY_DEFERRABLE}.
+     * @param name The name to record the runnable's latencies under, e.g. "ICF.oCFC".
+     * @param r The runnable, usually from {@link android.telecom.Logging.Runnable#prepare}.
+     */
+    public void post(int priority, String name, java.lang.Runnable r) {
+        if (priority < PRIORITY_CRITICAL || priority > PRIORITY_DEFERRABLE) {
+            throw new IllegalArgumentException("Invalid priority " + priority);
+        }
+        Task task = new Task(priority, name, r, SystemClock.uptimeMillis());
+        synchronized (this) {
+            switch (priority) {
+                case PRIORITY_CRITICAL:
+                    mCritical.add(task);
+                    if (!mIsCriticalPending) {
+                        mIsCriticalPending = true;
+                        mHandler.postAtFrontOfQueue(mRunCritical);
+                    }
+                    break;
+                case PRIORITY_NORMAL:
+                    mHandler.post(() -> run(task));
+                    break;
+                case PRIORITY_DEFERRABLE:
+                    mDeferred.add(task);
+                    scheduleDeferred();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Called when the number of calls changes; deferrable work is held back while there are any.
+     */
+    public synchronized void setNumCalls(int numCalls) {
+        boolean wasUnderLoad = mNumCalls > 0;
+        mNumCalls = numCalls;
+        if (wasUnderLoad && numCalls == 0 && mIsDeferredPending) {
+            // Don't hold back what was deferred now that the calls are over.
+            mHandler.removeCallbacks(mRunDeferred);
+            mIsDeferredPending = false;
+            scheduleDeferred();
+        }
+    }
+
+    /**
+     * @return A copy of the time spent queued by the runnables of the given priority.
+     */
+    @VisibleForTesting
+    public synchronized LatencyHistogram getQueueLatency(int priority) {
+        return new LatencyHistogram(mQueueMillis[priority]);
+    }
+
+    private void scheduleDeferred() {
+        if (mIsDeferredPending || mDeferred.isEmpty()) {
+            return;
+        }
+        mIsDeferredPending = true;
+        if (mNumCalls > 0) {
+            mHandler.postDelayed(mRunDeferred, DEFERRED_BATCH_DELAY_MILLIS);
+        } else {
+            mHandler.post(mRunDeferred);
+        }
+    }
+
+    private void runCritical() {
+        while (true) {
+            Task task;
+            synchronized (this) {
+                task = mCritical.poll();
+                if (task == null) {
+                    mIsCriticalPending = false;
+                    return;
+                }
+            }
+            run(task);
+        }
+    }
+
+    private void runDeferred() {
+        synchronized (this) {
+            mIsDeferredPending = false;
+            mNumBatches++;
+        }
+        for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+            Task task;
+            synchronized (this) {
+                task = mDeferred.poll();
+            }
+            if (task == null) {
+                break;
+            }
+            run(task);
+        }
+        synchronized (this) {
+            scheduleDeferred();
+        }
+    }
+
+    private void run(Task task) {
+        long startMillis = SystemClock.uptimeMillis();
+        long queueMillis = startMillis - task.postedMillis;
+        synchronized (this) {
+            mQueueMillis[task.priority].record(queueMillis);
+        }
+        task.runnable.run();
+        TelecomLooper.recordLatency(task.name, queueMillis,
+                SystemClock.uptimeMillis() - startMillis);
+    }
+
+    public synchronized void dump(IndentingPrintWriter pw) {
+        pw.println("Calls: " + mNumCalls + " pending critical: " + mCritical.size()
+                + " deferred: " + mDeferred.size() + " deferred batches: " + mNumBatches);
+        pw.increaseIndent();
+        for (int i = 0; i < NUM_PRIORITIES; i++) {
+            pw.println(PRIORITY_NAMES[i] + " queue: " + mQueueMillis[i]);
+        }
+        pw.decreaseIndent();
+    }
+}
@@ -86,7 +86,7 @@ public class TelecomServiceImpl {
                 String callingPackage) {
             try {
                 Log.startSession("TSI.gDOPA");
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.gDOPA", () -> {
                     if (!canReadPhoneState(callingPackage, "getDefaultOutgoingPhoneAccount")) {
                         return null;
                     }
@@ -102,7 +102,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -110,18 +110,18 @@ public class TelecomServiceImpl {
 
         @Override
         public PhoneAccountHandle getUserSelectedOutgoingPhoneAccount() {
-            synchronized (mLock) {
-                try {
-                    Log.startSession("TSI.gUSOPA");
+            try {
+                Log.startSession("TSI.gUSOPA");
+                return LockProfiler.callLocked(mLock, "TSI.gUSOPA", () -> {
                     final UserHandle callingUserHandle = Binder.getCallingUserHandle();
                     return mPhoneAccountRegistrar.getUserSelectedOutgoingPhoneAccount(
                             callingUserHandle);
-                } catch (Exception e) {
-                    Log.e(this, e, "getUserSelectedOutgoingPhoneAccount");
-                    throw e;
-                } finally {
-                    Log.endSession();
-                }
+                });
+            } catch (Exception e) {
+                Log.e(this, e, "getUserSelectedOutgoingPhoneAccount");
+                throw e;
+            } finally {
+                Log.endSession();
             }
         }
 
@@ -129,7 +129,7 @@ public class TelecomServiceImpl {
         public void setUserSelectedOutgoingPhoneAccount(PhoneAccountHandle accountHandle) {
             try {
                 Log.startSession("TSI.sUSOPA");
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "TSI.sUSOPA", () -> {
                     enforceModifyPermission();
                     UserHandle callingUserHandle = Binder.getCallingUserHandle();
                     long token = Binder.clearCallingIdentity();
@@ -142,7 +142,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -156,7 +156,7 @@ public class TelecomServiceImpl {
                 if (!canReadPhoneState(callingPackage, "getDefaultOutgoingPhoneAccount")) {
                     return Collections.emptyList();
                 }
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.gCCPA", () -> {
                     final UserHandle callingUserHandle = Binder.getCallingUserHandle();
                     long token = Binder.clearCallingIdentity();
                     try {
@@ -168,7 +168,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -181,7 +181,7 @@ public class TelecomServiceImpl {
                 if (!canReadPhoneState(callingPackage, "Requires READ_PHONE_STATE permission.")) {
                     throw new SecurityException("Requires READ_PHONE_STATE permission.");
                 }
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.gSMPA", () -> {
                     final UserHandle callingUserHandle = Binder.getCallingUserHandle();
                     long token = Binder.clearCallingIdentity();
                     try {
@@ -193,7 +193,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -213,7 +213,7 @@ public class TelecomServiceImpl {
                     return Collections.emptyList();
                 }
 
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.gPASS", () -> {
                     final UserHandle callingUserHandle = Binder.getCallingUserHandle();
                     long token = Binder.clearCallingIdentity();
                     try {
@@ -225,7 +225,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -233,44 +233,44 @@ public class TelecomServiceImpl {
 
         @Override
         public List<PhoneAccountHandle> getPhoneAccountsForPackage(String packageName) {
-            synchronized (mLock) {
-                final UserHandle callingUserHandle = Binder.getCallingUserHandle();
-                long token = Binder.clearCallingIdentity();
-                try {
-                    Log.startSession("TSI.gPAFP");
+            final UserHandle callingUserHandle = Binder.getCallingUserHandle();
+            long token = Binder.clearCallingIdentity();
+            try {
+                Log.startSession("TSI.gPAFP");
+                return LockProfiler.callLocked(mLock, "TSI.gPAFP", () -> {
                     return mPhoneAccountRegistrar.getPhoneAccountsForPackage(packageName,
                             callingUserHandle);
-                } catch (Exception e) {
-                    Log.e(this, e, "getPhoneAccountsForPackage %s", packageName);
-                    throw e;
-                } finally {
-                    Binder.restoreCallingIdentity(token);
-                    Log.endSession();
-                }
+                });
+            } catch (Exception e) {
+                Log.e(this, e, "getPhoneAccountsForPackage %s", packageName);
+                throw e;
+            } finally {
+                Binder.restoreCallingIdentity(token);
+                Log.endSession();
             }
         }
 
         @Override
         public PhoneAccount getPhoneAccount(PhoneAccountHandle accountHandle) {
-            synchronized (mLock) {
-                final UserHandle callingUserHandle = Binder.getCallingUserHandle();
-                long token = Binder.clearCallingIdentity();
-                try {
-                    Log.startSession("TSI.gPA");
-                    // In ideal case, we should not resolve the handle across profiles. But given
-                    // the fact that profile's call is handled by its parent user's in-call UI,
-                    // parent user's in call UI need to be able to get phone account from the
-                    // profile's phone account handle.
+            final UserHandle callingUserHandle = Binder.getCallingUserHandle();
+            long token = Binder.clearCallingIdentity();
+            try {
+                Log.startSession("TSI.gPA");
+                return LockProfiler.callLocked(mLock, "TSI.gPA", () -> {
+                    // In ideal case, we should not resolve the handle across profiles. But
+                    // given the fact that profile's call is handled by its parent user's in-
+                    // call UI, parent user's in call UI need to be able to get phone account
+                    // from the profile's phone account handle.
                     return mPhoneAccountRegistrar
                             .getPhoneAccount(accountHandle, callingUserHandle,
                             /* acrossProfiles */ true);
-                } catch (Exception e) {
-                    Log.e(this, e, "getPhoneAccount %s", accountHandle);
-                    throw e;
-                } finally {
-                    Binder.restoreCallingIdentity(token);
-                    Log.endSession();
-                }
+                });
+            } catch (Exception e) {
+                Log.e(this, e, "getPhoneAccount %s", accountHandle);
+                throw e;
+            } finally {
+                Binder.restoreCallingIdentity(token);
+                Log.endSession();
             }
         }
 
@@ -287,7 +287,7 @@ public class TelecomServiceImpl {
                     throw e;
                 }
 
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.gAPAC", () -> {
                     try {
                         // This list is pre-filtered for the calling user.
                         return getAllPhoneAccounts().size();
@@ -296,7 +296,7 @@ public class TelecomServiceImpl {
                         throw e;
 
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -304,9 +304,9 @@ public class TelecomServiceImpl {
 
         @Override
         public List<PhoneAccount> getAllPhoneAccounts() {
-            synchronized (mLock) {
-                try {
-                    Log.startSession("TSI.gAPA");
+            try {
+                Log.startSession("TSI.gAPA");
+                return LockProfiler.callLocked(mLock, "TSI.gAPA", () -> {
                     try {
                         enforceModifyPermission(
                                 "getAllPhoneAccounts requires MODIFY_PHONE_STATE permission.");
@@ -326,9 +326,9 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                } finally {
-                    Log.endSession();
-                }
+                });
+            } finally {
+                Log.endSession();
             }
         }
 
@@ -345,7 +345,7 @@ public class TelecomServiceImpl {
                     throw e;
                 }
 
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.gAPAH", () -> {
                     final UserHandle callingUserHandle = Binder.getCallingUserHandle();
                     long token = Binder.clearCallingIdentity();
                     try {
@@ -356,7 +356,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -381,9 +381,9 @@ public class TelecomServiceImpl {
 
         @Override
         public PhoneAccountHandle getSimCallManagerForUser(int user) {
-            synchronized (mLock) {
-                try {
-                    Log.startSession("TSI.gSCMFU");
+            try {
+                Log.startSession("TSI.gSCMFU");
+                return LockProfiler.callLocked(mLock, "TSI.gSCMFU", () -> {
                     final int callingUid = Binder.getCallingUid();
                     long token = Binder.clearCallingIdentity();
                     try {
@@ -394,12 +394,12 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                } catch (Exception e) {
-                    Log.e(this, e, "getSimCallManager");
-                    throw e;
-                } finally {
-                    Log.endSession();
-                }
+                });
+            } catch (Exception e) {
+                Log.e(this, e, "getSimCallManager");
+                throw e;
+            } finally {
+                Log.endSession();
             }
         }
 
@@ -407,7 +407,7 @@ public class TelecomServiceImpl {
         public void registerPhoneAccount(PhoneAccount account) {
             try {
                 Log.startSession("TSI.rPA");
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "TSI.rPA", () -> {
                     if (!mContext.getApplicationContext().getResources().getBoolean(
                             com.android.internal.R.bool.config_voice_capable)) {
                         Log.w(this,
@@ -450,7 +450,7 @@ public class TelecomServiceImpl {
                         Log.e(this, e, "registerPhoneAccount %s", account);
                         throw e;
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -458,9 +458,9 @@ public class TelecomServiceImpl {
 
         @Override
         public void unregisterPhoneAccount(PhoneAccountHandle accountHandle) {
-            synchronized (mLock) {
-                try {
-                    Log.startSession("TSI.uPA");
+            try {
+                Log.startSession("TSI.uPA");
+                LockProfiler.runLocked(mLock, "TSI.uPA", () -> {
                     enforcePhoneAccountModificationForPackage(
                             accountHandle.getComponentName().getPackageName());
                     enforceUserHandleMatchesCaller(accountHandle);
@@ -470,29 +470,29 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                } catch (Exception e) {
-                    Log.e(this, e, "unregisterPhoneAccount %s", accountHandle);
-                    throw e;
-                } finally {
-                    Log.endSession();
-                }
+                });
+            } catch (Exception e) {
+                Log.e(this, e, "unregisterPhoneAccount %s", accountHandle);
+                throw e;
+            } finally {
+                Log.endSession();
             }
         }
 
         @Override
         public void clearAccounts(String packageName) {
-            synchronized (mLock) {
-                try {
-                    Log.startSession("TSI.cA");
+            try {
+                Log.startSession("TSI.cA");
+                LockProfiler.runLocked(mLock, "TSI.cA", () -> {
                     enforcePhoneAccountModificationForPackage(packageName);
                     mPhoneAccountRegistrar
                             .clearAccounts(packageName, Binder.getCallingUserHandle());
-                } catch (Exception e) {
-                    Log.e(this, e, "clearAccounts %s", packageName);
-                    throw e;
-                } finally {
-                    Log.endSession();
-                }
+                });
+            } catch (Exception e) {
+                Log.e(this, e, "clearAccounts %s", packageName);
+                throw e;
+            } finally {
+                Log.endSession();
             }
         }
 
@@ -504,7 +504,7 @@ public class TelecomServiceImpl {
                 String callingPackage) {
             try {
                 Log.startSession("TSI.iVMN");
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.iVMN", () -> {
                     if (!canReadPhoneState(callingPackage, "isVoiceMailNumber")) {
                         return false;
                     }
@@ -523,7 +523,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -536,7 +536,7 @@ public class TelecomServiceImpl {
         public String getVoiceMailNumber(PhoneAccountHandle accountHandle, String callingPackage) {
             try {
                 Log.startSession("TSI.gVMN");
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.gVMN", () -> {
                     if (!canReadPhoneState(callingPackage, "getVoiceMailNumber")) {
                         return null;
                     }
@@ -558,7 +558,7 @@ public class TelecomServiceImpl {
                         Log.e(this, e, "getSubscriptionIdForPhoneAccount");
                         throw e;
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -575,7 +575,7 @@ public class TelecomServiceImpl {
                     return null;
                 }
 
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "getL1N", () -> {
                     final UserHandle callingUserHandle = Binder.getCallingUserHandle();
                     if (!isPhoneAccountHandleVisibleToCallingUser(accountHandle,
                             callingUserHandle)) {
@@ -594,7 +594,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -607,7 +607,7 @@ public class TelecomServiceImpl {
         public void silenceRinger(String callingPackage) {
             try {
                 Log.startSession("TSI.sR");
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "TSI.sR", () -> {
                     enforcePermissionOrPrivilegedDialer(MODIFY_PHONE_STATE, callingPackage);
 
                     long token = Binder.clearCallingIdentity();
@@ -618,7 +618,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -689,9 +689,9 @@ public class TelecomServiceImpl {
                     return false;
                 }
 
-                synchronized (mLock) {
-                    return mCallsManager.hasOngoingCalls();
-                }
+                // Answered from the published snapshot; this is polled heavily by apps and
+                // should not block behind the Telecom lock.
+                return mCallsManager.getCallStateSnapshot().hasOngoingCalls;
             } finally {
                 Log.endSession();
             }
@@ -709,9 +709,7 @@ public class TelecomServiceImpl {
                             "READ_PHONE_STATE permission can use this method.");
                 }
 
-                synchronized (mLock) {
-                    return mCallsManager.hasOngoingManagedCalls();
-                }
+                return mCallsManager.getCallStateSnapshot().hasOngoingManagedCalls;
             } finally {
                 Log.endSession();
             }
@@ -734,14 +732,12 @@ public class TelecomServiceImpl {
                     }
                 }
 
-                synchronized (mLock) {
-                    // Note: We are explicitly checking the calls telecom is tracking rather than
-                    // relying on mCallsManager#getCallState(). Since getCallState() relies on the
-                    // current state as tracked by PhoneStateBroadcaster, any failure to properly
-                    // track the current call state there could result in the wrong ringing state
-                    // being reported by this API.
-                    return mCallsManager.hasRingingCall();
-                }
+                // Note: We are explicitly checking the calls telecom is tracking rather than
+                // relying on mCallsManager#getCallState(). Since getCallState() relies on the
+                // current state as tracked by PhoneStateBroadcaster, any failure to properly
+                // track the current call state there could result in the wrong ringing state
+                // being reported by this API.
+                return mCallsManager.getCallStateSnapshot().hasRingingCall;
             } finally {
                 Log.endSession();
             }
@@ -754,9 +750,7 @@ public class TelecomServiceImpl {
         public int getCallState() {
             try {
                 Log.startSession("TSI.getCallState");
-                synchronized (mLock) {
-                    return mCallsManager.getCallState();
-                }
+                return mCallsManager.getCallStateSnapshot().callState;
             } finally {
                 Log.endSession();
             }
@@ -769,7 +763,7 @@ public class TelecomServiceImpl {
         public boolean endCall() {
             try {
                 Log.startSession("TSI.eC");
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.eC", () -> {
                     enforceModifyPermission();
 
                     long token = Binder.clearCallingIdentity();
@@ -778,7 +772,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -791,7 +785,7 @@ public class TelecomServiceImpl {
         public void acceptRingingCall(String packageName) {
             try {
                 Log.startSession("TSI.aRC");
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "TSI.aRC", () -> {
                     if (!enforceAnswerCallPermission(packageName, Binder.getCallingUid())) return;
 
                     long token = Binder.clearCallingIdentity();
@@ -800,7 +794,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -814,7 +808,7 @@ public class TelecomServiceImpl {
         public void acceptRingingCallWithVideoState(String packageName, int videoState) {
             try {
                 Log.startSession("TSI.aRCWVS");
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "TSI.aRCWVS", () -> {
                     if (!enforceAnswerCallPermission(packageName, Binder.getCallingUid())) return;
 
                     long token = Binder.clearCallingIdentity();
@@ -823,7 +817,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -840,7 +834,7 @@ public class TelecomServiceImpl {
                     return;
                 }
 
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "TSI.sICS", () -> {
 
                     long token = Binder.clearCallingIdentity();
                     try {
@@ -848,7 +842,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -861,7 +855,7 @@ public class TelecomServiceImpl {
         public void cancelMissedCallsNotification(String callingPackage) {
             try {
                 Log.startSession("TSI.cMCN");
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "TSI.cMCN", () -> {
                     enforcePermissionOrPrivilegedDialer(MODIFY_PHONE_STATE, callingPackage);
                     UserHandle userHandle = Binder.getCallingUserHandle();
                     long token = Binder.clearCallingIdentity();
@@ -870,7 +864,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -882,7 +876,7 @@ public class TelecomServiceImpl {
         public boolean handlePinMmi(String dialString, String callingPackage) {
             try {
                 Log.startSession("TSI.hPM");
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.hPM", () -> {
                     enforcePermissionOrPrivilegedDialer(MODIFY_PHONE_STATE, callingPackage);
 
                     // Switch identity so that TelephonyManager checks Telecom's permissions
@@ -896,7 +890,7 @@ public class TelecomServiceImpl {
                     }
 
                     return retval;
-                }
+                });
             }finally {
                 Log.endSession();
             }
@@ -910,7 +904,7 @@ public class TelecomServiceImpl {
                 String dialString, String callingPackage) {
             try {
                 Log.startSession("TSI.hPMFPA");
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.hPMFPA", () -> {
                     enforcePermissionOrPrivilegedDialer(MODIFY_PHONE_STATE, callingPackage);
 
                     UserHandle callingUserHandle = Binder.getCallingUserHandle();
@@ -932,7 +926,7 @@ public class TelecomServiceImpl {
                         Binder.restoreCallingIdentity(token);
                     }
                     return retval;
-                }
+                });
             }finally {
                 Log.endSession();
             }
@@ -946,7 +940,7 @@ public class TelecomServiceImpl {
                 String callingPackage) {
             try {
                 Log.startSession("TSI.aAUFPA");
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.aAUFPA", () -> {
                     enforcePermissionOrPrivilegedDialer(MODIFY_PHONE_STATE, callingPackage);
                     if (!isPhoneAccountHandleVisibleToCallingUser(accountHandle,
                             Binder.getCallingUserHandle())) {
@@ -967,7 +961,7 @@ public class TelecomServiceImpl {
                     }
 
                     return Uri.parse(retval);
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -991,9 +985,9 @@ public class TelecomServiceImpl {
                     }
                 }
 
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.iTS", () -> {
                     return mCallsManager.isTtySupported();
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -1010,9 +1004,9 @@ public class TelecomServiceImpl {
                     return TelecomManager.TTY_MODE_OFF;
                 }
 
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.gCTM", () -> {
                     return mCallsManager.getCurrentTtyMode();
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -1025,7 +1019,7 @@ public class TelecomServiceImpl {
         public void addNewIncomingCall(PhoneAccountHandle phoneAccountHandle, Bundle extras) {
             try {
                 Log.startSession("TSI.aNIC");
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "TSI.aNIC", () -> {
                     Log.i(this, "Adding new incoming call with phoneAccountHandle %s",
                             phoneAccountHandle);
                     if (phoneAccountHandle != null &&
@@ -1075,7 +1069,7 @@ public class TelecomServiceImpl {
                         Log.w(this, "Null phoneAccountHandle. Ignoring request to add new" +
                                 " incoming call");
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -1097,7 +1091,7 @@ public class TelecomServiceImpl {
                     throw e;
                 }
 
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "TSI.aNUC", () -> {
                     if (phoneAccountHandle != null &&
                             phoneAccountHandle.getComponentName() != null) {
                         mAppOpsManager.checkPackage(
@@ -1128,7 +1122,7 @@ public class TelecomServiceImpl {
                                 "Null phoneAccountHandle or not initiated by Telephony. " +
                                         "Ignoring request to add new unknown call.");
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -1185,7 +1179,7 @@ public class TelecomServiceImpl {
                 final boolean hasCallPermission = mContext.checkCallingPermission(CALL_PHONE) ==
                         PackageManager.PERMISSION_GRANTED;
 
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "TSI.pC", () -> {
                     final UserHandle userHandle = Binder.getCallingUserHandle();
                     long token = Binder.clearCallingIdentity();
                     try {
@@ -1201,7 +1195,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -1215,7 +1209,7 @@ public class TelecomServiceImpl {
             try {
                 Log.startSession("TSI.ePA");
                 enforceModifyPermission();
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.ePA", () -> {
                     long token = Binder.clearCallingIdentity();
                     try {
                         // enable/disable phone account
@@ -1223,7 +1217,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -1235,7 +1229,7 @@ public class TelecomServiceImpl {
                 Log.startSession("TSI.sDD");
                 enforcePermission(MODIFY_PHONE_STATE);
                 enforcePermission(WRITE_SECURE_SETTINGS);
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.sDD", () -> {
                     long token = Binder.clearCallingIdentity();
                     try {
                         final boolean result = mDefaultDialerCache.setDefaultDialer(
@@ -1252,7 +1246,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -1291,6 +1285,10 @@ public class TelecomServiceImpl {
                 Analytics.dumpToEncodedProto(writer, args);
                 return;
             }
+            if (args.length > 0 && LockProfiler.LOCK_PROFILER_DUMPSYS_ARG.equals(args[0])) {
+                LockProfiler.handleDumpArgs(new IndentingPrintWriter(writer, "  "), args);
+                return;
+            }
             boolean isTimeLineView = (args.length > 0 && TIME_LINE_ARG.equalsIgnoreCase(args[0]));
 
             final IndentingPrintWriter pw = new IndentingPrintWriter(writer, "  ");
@@ -1309,6 +1307,44 @@ public class TelecomServiceImpl {
                 pw.increaseIndent();
                 Analytics.dump(pw);
                 pw.decreaseIndent();
+
+                TelecomSystem telecomSystem = TelecomSystem.getInstance();
+                if (telecomSystem != null
+                        && telecomSystem.getBluetoothPhoneServiceImpl() != null) {
+                    pw.println("BluetoothPhoneServiceImpl:");
+                    pw.increaseIndent();
+                    telecomSystem.getBluetoothPhoneServiceImpl().dump(pw);
+                    pw.decreaseIndent();
+                }
+
+                if (SettingsCache.getInstance() != null) {
+                    pw.println("SettingsCache:");
+                    pw.increaseIndent();
+                    SettingsCache.getInstance().dump(pw);
+                    pw.decreaseIndent();
+                }
+
+                pw.println("TelecomLooper message latencies (ms):");
+                pw.increaseIndent();
+                TelecomLooper.dump(pw);
+                pw.decreaseIndent();
+
+                pw.println("TelecomTimerWheel:");
+                pw.increaseIndent();
+                TelecomTimerWheel.getInstance().dump(pw);
+                pw.decreaseIndent();
+
+                pw.println("TelecomScheduler queue latencies (ms):");
+                pw.increaseIndent();
+                TelecomScheduler.getInstance().dump(pw);
+                pw.decreaseIndent();
+
+                if (LockProfiler.isEnabled()) {
+                    pw.println("LockProfiler:");
+                    pw.increaseIndent();
+                    LockProfiler.dump(pw);
+                    pw.decreaseIndent();
+                }
             }
             if (isTimeLineView) {
                 Log.dumpEventsTimeline(pw);
@@ -1333,14 +1369,14 @@ public class TelecomServiceImpl {
             try {
                 Log.startSession("TSI.iICP");
                 enforcePermission(android.Manifest.permission.MANAGE_OWN_CALLS);
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.iICP", () -> {
                     long token = Binder.clearCallingIdentity();
                     try {
                         return mCallsManager.isIncomingCallPermitted(phoneAccountHandle);
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -1354,14 +1390,14 @@ public class TelecomServiceImpl {
             try {
                 Log.startSession("TSI.iOCP");
                 enforcePermission(android.Manifest.permission.MANAGE_OWN_CALLS);
-                synchronized (mLock) {
+                return LockProfiler.callLocked(mLock, "TSI.iOCP", () -> {
                     long token = Binder.clearCallingIdentity();
                     try {
                         return mCallsManager.isOutgoingCallPermitted(phoneAccountHandle);
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
@@ -1377,7 +1413,7 @@ public class TelecomServiceImpl {
             try {
                 Log.startSession("TSI.wOH");
                 enforceModifyPermission();
-                synchronized (mLock) {
+                LockProfiler.runLocked(mLock, "TSI.wOH", () -> {
                     long token = Binder.clearCallingIdentity();
                     try {
                         Log.i(this, "waitOnHandlers");
@@ -1385,7 +1421,7 @@ public class TelecomServiceImpl {
                     } finally {
                         Binder.restoreCallingIdentity(token);
                     }
-                }
+                });
             } finally {
                 Log.endSession();
             }
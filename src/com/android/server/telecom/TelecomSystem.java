@@ -125,6 +125,9 @@ public class TelecomSystem {
                     UserHandle currentUserHandle = new UserHandle(userHandleId);
                     mPhoneAccountRegistrar.setCurrentUserHandle(currentUserHandle);
                     mCallsManager.onUserSwitch(currentUserHandle);
+                    if (mIsBootComplete) {
+                        mCallsManager.prebindConnectionServices();
+                    }
                 }
             } finally {
                 Log.endSession();
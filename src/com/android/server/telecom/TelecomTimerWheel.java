@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.telecom.Log;
+import android.telecom.Logging.Session;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.util.IndentingPrintWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs Telecom's timeouts from a single hashed timer wheel on one thread, instead of posting
+ * a separate delayed Runnable to a Handler for each one.
+ *
+ * Each owner creates its {@link Timer} once and schedules and cancels it as often as needed;
+ * both are O(1) and allocate nothing beyond the Logging subsession which is carried over to the
+ * timer's action. Timers are kept in intrusive lists, one per {@link #TICK_MILLIS} slot of the
+ * wheel; a timer more than one revolution away simply stays in its slot until its tick comes
+ * round. The wheel only wakes its thread at the earliest deadline, however far away that is, so
+ * long timeouts don't wake an idle device every revolution, and fires each timer no earlier than
+ * its deadline.
+ *
+ * A timer's action runs while holding the lock given to its constructor, if any. A timer which is
+ * cancelled or rescheduled while holding that lock is guaranteed not to run for the cancelled
+ * deadline, even if the wheel had already found it due.
+ */
+public class TelecomTimerWheel {
+    @VisibleForTesting
+    public static final long TICK_MILLIS = 10L;
+    @VisibleForTesting
+    public static final int NUM_SLOTS = 512;
+
+    /**
+     * A reusable timeout. Its action runs on the wheel's thread once the delay passed to
+     * {@link #schedule} has elapsed, unless it is cancelled or rescheduled first.
+     */
+    public static class Timer {
+        private final TelecomTimerWheel mWheel;
+        private final String mOwner;
+        private final String mName;
+        private final TelecomSystem.SyncRoot mLock;
+        private final java.lang.Runnable mAction;
+
+        // Guarded by mWheel.
+        private Timer mPrev;
+        private Timer mNext;
+        private int mSlot = -1;
+        private long mDeadlineMillis;
+        private long mExpiryTick;
+        private boolean mIsFiring;
+        private Session mSubsession;
+
+        /**
+         * @param owner The object owning the timer, shown in dumpsys.
+         * @param name The name of the session the action runs in, e.g. "ICC.oCR".
+         * @param lock The lock to hold while running the action, or null.
+         */
+        public Timer(TelecomTimerWheel wheel, Object owner, String name,
+                TelecomSystem.SyncRoot lock, java.lang.Runnable action) {
+            mWheel = wheel;
+            mOwner = owner.getClass().getSimpleName();
+            mName = name;
+            mLock = lock;
+            mAction = action;
+        }
+
+        /**
+         * Schedules the timer to run after the given delay, replacing any pending deadline.
+         */
+        public void schedule(long delayMillis) {
+            mWheel.schedule(this, delayMillis);
+        }
+
+        /**
+         * Cancels the pending deadline, if any.
+         */
+        public void cancel() {
+            mWheel.cancel(this);
+        }
+
+        public boolean isScheduled() {
+            synchronized (mWheel) {
+                return mSlot >= 0 || mIsFiring;
+            }
+        }
+
+        private void fire() {
+            if (mLock != null) {
+                synchronized (mLock) {
+                    fireLocked();
+                }
+            } else {
+                fireLocked();
+            }
+        }
+
+        private void fireLocked() {
+            Session subsession;
+            long deadlineMillis;
+            synchronized (mWheel) {
+                if (!mIsFiring) {
+                    // Cancelled or rescheduled since the wheel found it due.
+                    return;
+                }
+                mIsFiring = false;
+                subsession = mSubsession;
+                mSubsession = null;
+                deadlineMillis = mDeadlineMillis;
+            }
+            long startMillis = SystemClock.uptimeMillis();
+            Log.continueSession(subsession, mName);
+            try {
+                mAction.run();
+            } finally {
+                Log.endSession();
+                TelecomLooper.recordLatency(mName, startMillis - deadlineMillis,
+                        SystemClock.uptimeMillis() - startMillis);
+            }
+        }
+    }
+
+    private static TelecomTimerWheel sInstance;
+
+    private final Handler mHandler;
+    private final Timer[] mSlots = new Timer[NUM_SLOTS];
+    private final java.lang.Runnable mTick = this::onTick;
+    // Only used on the wheel's thread.
+    private final List<Timer> mDueTimers = new ArrayList<>();
+
+    // Guarded by this.
+    private int mNumTimers;
+    /** The tick the wheel last processed; its slot may still hold timers due later in it. */
+    private long mCurrentTick;
+    private long mWakeMillis = Long.MAX_VALUE;
+    private long mNumFired;
+    private long mNumCancelled;
+
+    /**
+     * @return The wheel running on the {@link TelecomLooper}.
+     */
+    public static synchronized TelecomTimerWheel getInstance() {
+        if (sInstance == null) {
+            sInstance = new TelecomTimerWheel(TelecomLooper.getLooper());
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    public TelecomTimerWheel(Looper looper) {
+        mHandler = new Handler(looper);
+        mCurrentTick = SystemClock.uptimeMillis() / TICK_MILLIS;
+    }
+
+    /**
+     * Creates a timer owned by the given object; see {@link Timer#Timer}.
+     */
+    public Timer createTimer(Object owner, String name, TelecomSystem.SyncRoot lock,
+            java.lang.Runnable action) {
+        return new Timer(this, owner, name, lock, action);
+    }
+
+    @VisibleForTesting
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    private synchronized void schedule(Timer timer, long delayMillis) {
+        unlink(timer);
+        if (timer.mSubsession != null) {
+            Log.cancelSubsession(timer.mSubsession);
+        }
+        timer.mSubsession = Log.createSubsession();
+        timer.mIsFiring = false;
+        long now = SystemClock.uptimeMillis();
+        timer.mDeadlineMillis = now + Math.max(0, delayMillis);
+        timer.mExpiryTick = timer.mDeadlineMillis / TICK_MILLIS;
+        link(timer);
+        if (timer.mDeadlineMillis < mWakeMillis) {
+            wakeAt(timer.mDeadlineMillis);
+        }
+    }
+
+    private synchronized void cancel(Timer timer) {
+        if (timer.mSlot < 0 && !timer.mIsFiring) {
+            return;
+        }
+        unlink(timer);
+        timer.mIsFiring = false;
+        if (timer.mSubsession != null) {
+            Log.cancelSubsession(timer.mSubsession);
+            timer.mSubsession = null;
+        }
+        mNumCancelled++;
+        // The pending wake-up is left alone; waking with nothing due is harmless.
+    }
+
+    private void onTick() {
+        synchronized (this) {
+            mWakeMillis = Long.MAX_VALUE;
+            long now = SystemClock.uptimeMillis();
+            long nowTick = now / TICK_MILLIS;
+            // Catching up on more than a revolution visits every slot once.
+            long firstTick = Math.max(mCurrentTick, nowTick - NUM_SLOTS + 1);
+            for (long tick = firstTick; tick <= nowTick; tick++) {
+                collectDue(tick, now);
+            }
+            mCurrentTick = nowTick;
+            scheduleNextWake(now);
+        }
+        for (int i = 0; i < mDueTimers.size(); i++) {
+            mDueTimers.get(i).fire();
+        }
+        mDueTimers.clear();
+    }
+
+    /**
+     * Moves the timers in the slot for the given tick which are due at {@code now} to
+     * {@link #mDueTimers}.
+     */
+    private void collectDue(long tick, long now) {
+        Timer timer = mSlots[(int) (tick % NUM_SLOTS)];
+        while (timer != null) {
+            Timer next = timer.mNext;
+            if (timer.mExpiryTick <= tick && timer.mDeadlineMillis <= now) {
+                unlink(timer);
+                timer.mIsFiring = true;
+                mNumFired++;
+                mDueTimers.add(timer);
+            }
+            timer = next;
+        }
+    }
+
+    private void scheduleNextWake(long now) {
+        if (mNumTimers == 0) {
+            return;
+        }
+        // Walk the slots in tick order. Once a slot holds a timer due in this revolution, no timer
+        // in a later slot can be due sooner; until then, the earliest of the timers a revolution
+        // or more away is kept, so that if every timer is that far away the wheel sleeps until
+        // the first of them rather than waking each revolution. Waking in a later revolution is
+        // fine, since catching up visits every slot.
+        long wakeMillis = Long.MAX_VALUE;
+        for (int i = 0; i < NUM_SLOTS; i++) {
+            long tick = mCurrentTick + i;
+            boolean isDueThisRevolution = false;
+            for (Timer timer = mSlots[(int) (tick % NUM_SLOTS)]; timer != null;
+                    timer = timer.mNext) {
+                wakeMillis = Math.min(wakeMillis, timer.mDeadlineMillis);
+                isDueThisRevolution |= timer.mExpiryTick <= tick;
+            }
+            if (isDueThisRevolution) {
+                break;
+            }
+        }
+        wakeAt(Math.max(now, wakeMillis));
+    }
+
+    private void wakeAt(long uptimeMillis) {
+        mHandler.removeCallbacks(mTick);
+        mWakeMillis = uptimeMillis;
+        mHandler.postAtTime(mTick, uptimeMillis);
+    }
+
+    private void link(Timer timer) {
+        int slot = (int) (timer.mExpiryTick % NUM_SLOTS);
+        timer.mSlot = slot;
+        timer.mPrev = null;
+        timer.mNext = mSlots[slot];
+        if (mSlots[slot] != null) {
+            mSlots[slot].mPrev = timer;
+        }
+        mSlots[slot] = timer;
+        mNumTimers++;
+    }
+
+    private void unlink(Timer timer) {
+        if (timer.mSlot < 0) {
+            return;
+        }
+        if (timer.mPrev != null) {
+            timer.mPrev.mNext = timer.mNext;
+        } else {
+            mSlots[timer.mSlot] = timer.mNext;
+        }
+        if (timer.mNext != null) {
+            timer.mNext.mPrev = timer.mPrev;
+        }
+        timer.mPrev = null;
+        timer.mNext = null;
+        timer.mSlot = -1;
+        mNumTimers--;
+    }
+
+    /**
+     * @return When the wheel will next wake its thread, in {@link SystemClock#uptimeMillis}, or
+     * {@link Long#MAX_VALUE} if it won't.
+     */
+    @VisibleForTesting
+    public synchronized long getWakeMillis() {
+        return mWakeMillis;
+    }
+
+    @VisibleForTesting
+    public synchronized int getNumTimers() {
+        return mNumTimers;
+    }
+
+    public synchronized void dump(IndentingPrintWriter pw) {
+        pw.println("Pending timers: " + mNumTimers + " fired: " + mNumFired + " cancelled: "
+                + mNumCancelled);
+        pw.increaseIndent();
+        long now = SystemClock.uptimeMillis();
+        for (Timer head : mSlots) {
+            for (Timer timer = head; timer != null; timer = timer.mNext) {
+                pw.println(timer.mOwner + " " + timer.mName + ": due in "
+                        + (timer.mDeadlineMillis - now) + " ms");
+            }
+        }
+        pw.decreaseIndent();
+    }
+}
@@ -17,7 +17,6 @@
 package com.android.server.telecom;
 
 import android.content.ContentResolver;
-import android.provider.Settings;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -38,6 +37,10 @@ public final class Timeouts {
             return Timeouts.getCallRemoveUnbindInCallServicesDelay(cr);
         }
 
+        public long getNonUiInCallServiceBindBudgetMillis(ContentResolver cr) {
+            return Timeouts.getNonUiInCallServiceBindBudgetMillis(cr);
+        }
+
         public long getRetryBluetoothConnectAudioBackoffMillis(ContentResolver cr) {
             return Timeouts.getRetryBluetoothConnectAudioBackoffMillis(cr);
         }
@@ -49,6 +52,10 @@ public final class Timeouts {
         public long getEmergencyCallbackWindowMillis(ContentResolver cr) {
             return Timeouts.getEmergencyCallbackWindowMillis(cr);
         }
+
+        public long getConnectionServiceWarmIdleTimeoutMillis(ContentResolver cr) {
+            return Timeouts.getConnectionServiceWarmIdleTimeoutMillis(cr);
+        }
     }
 
     /** A prefix to use for all keys so to not clobber the global namespace. */
@@ -58,7 +65,8 @@ public final class Timeouts {
 
     /**
      * Returns the timeout value from Settings or the default value if it hasn't been changed. This
-     * method is safe to call from any thread, including the UI thread.
+     * method is safe to call from any thread, including the UI thread. Once the
+     * {@link SettingsCache} is initialized, the value is served from memory.
      *
      * @param contentResolver The content resolved.
      * @param key Settings key to retrieve.
@@ -66,7 +74,27 @@ public final class Timeouts {
      * @return The timeout value from Settings or the default value if it hasn't been changed.
      */
     private static long get(ContentResolver contentResolver, String key, long defaultValue) {
-        return Settings.Secure.getLong(contentResolver, PREFIX + key, defaultValue);
+        return SettingsCache.getSecureLong(contentResolver, PREFIX + key, defaultValue);
+    }
+
+    /**
+     * Reads every timeout once so that they are held by the {@link SettingsCache} before the
+     * first call.
+     */
+    static void preload(ContentResolver contentResolver) {
+        getNewOutgoingCallCancelMillis(contentResolver);
+        getMaxNewOutgoingCallCancelMillis(contentResolver);
+        getDelayBetweenDtmfTonesMillis(contentResolver);
+        getEmergencyCallTimeoutMillis(contentResolver);
+        getEmergencyCallTimeoutRadioOffMillis(contentResolver);
+        getCallRemoveUnbindInCallServicesDelay(contentResolver);
+        getNonUiInCallServiceBindBudgetMillis(contentResolver);
+        getBluetoothPendingTimeoutMillis(contentResolver);
+        getRetryBluetoothConnectAudioBackoffMillis(contentResolver);
+        getBluetoothPhoneStateCoalesceMillis(contentResolver);
+        getConnectionServiceWarmIdleTimeoutMillis(contentResolver);
+        getCallScreeningTimeoutMillis(contentResolver);
+        getEmergencyCallbackWindowMillis(contentResolver);
     }
 
     /**
@@ -124,6 +152,15 @@ public final class Timeouts {
                 2000L /* 2 seconds */);
     }
 
+    /**
+     * Returns the longest a non-UI InCallService may typically take to bind, or to be sent the
+     * existing calls once connected, before it is only bound once the UI has the call. A value of
+     * 0 disables deferring these services.
+     */
+    public static long getNonUiInCallServiceBindBudgetMillis(ContentResolver contentResolver) {
+        return get(contentResolver, "non_ui_in_call_service_bind_budget_millis", 1000L);
+    }
+
     /**
      * Returns the amount of time for which bluetooth is considered connected after requesting
      * connection. This compensates for the amount of time it takes for the audio route to
@@ -142,6 +179,22 @@ public final class Timeouts {
         return get(contentResolver, "retry_bluetooth_connect_audio_backoff_millis", 500L);
     }
 
+    /**
+     * Returns the minimum amount of time between phone state updates sent to a bluetooth headset,
+     * other than those for ringing, dialing or answered calls.
+     */
+    public static long getBluetoothPhoneStateCoalesceMillis(ContentResolver contentResolver) {
+        return get(contentResolver, "bluetooth_phone_state_coalesce_millis", 100L);
+    }
+
+    /**
+     * Returns how long a connection service is kept bound by the warm pool after its last call.
+     */
+    public static long getConnectionServiceWarmIdleTimeoutMillis(ContentResolver contentResolver) {
+        return get(contentResolver, "connection_service_warm_idle_timeout_millis",
+                TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES));
+    }
+
     /**
      * Returns the amount of time to wait for the call screening service to allow or disallow a
      * call.
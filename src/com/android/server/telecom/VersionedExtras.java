@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom;
+
+import android.os.Bundle;
+import android.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The extras of a {@link Call}, along with the version at which each key last changed.
+ *
+ * Every put or removal which actually changes a key moves the version on, so a receiver which
+ * remembers the version it was last brought up to date at can be sent only the keys which have
+ * changed since, rather than the whole bundle. Putting a key with the value it already has is not
+ * a change; connection services which report the same metadata over and over don't cause any
+ * updates while it stays the same.
+ *
+ * Values are compared with {@link Objects#deepEquals}, and nested bundles key by key. Bundle
+ * doesn't implement equals(), nor do many Parcelables; such values are only equal if they are
+ * the same instance, so putting them again always counts as a change.
+ */
+public class VersionedExtras {
+    private final Bundle mExtras = new Bundle();
+    /** The version at which each key was last put or removed. */
+    private final Map<String, Long> mVersions = new ArrayMap<>();
+    private long mVersion;
+
+    /**
+     * @return The current extras. The bundle must not be modified.
+     */
+    public Bundle getBundle() {
+        return mExtras;
+    }
+
+    /**
+     * @return The version of the most recent change.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Merges extras into these extras.
+     *
+     * @param extras The extras to merge.
+     * @return The extras which changed, which is empty if none did.
+     */
+    public Bundle put(Bundle extras) {
+        Bundle changed = new Bundle(extras);
+        for (String key : extras.keySet()) {
+            if (mExtras.containsKey(key) && valuesEqual(mExtras.get(key), extras.get(key))) {
+                changed.remove(key);
+            }
+        }
+        if (!changed.isEmpty()) {
+            mVersion++;
+            for (String key : changed.keySet()) {
+                mVersions.put(key, mVersion);
+            }
+            mExtras.putAll(changed);
+        }
+        return changed;
+    }
+
+    /**
+     * Removes keys from these extras.
+     *
+     * @param keys The keys to remove.
+     * @return The keys which were present, which is empty if none were.
+     */
+    public List<String> remove(List<String> keys) {
+        List<String> removed = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            if (mExtras.containsKey(key) && !removed.contains(key)) {
+                removed.add(key);
+            }
+        }
+        if (!removed.isEmpty()) {
+            mVersion++;
+            for (String key : removed) {
+                mExtras.remove(key);
+                mVersions.put(key, mVersion);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @param version A version previously returned by {@link #getVersion()}.
+     * @return The extras which were put after that version and are still present.
+     */
+    public Bundle getChangedSince(long version) {
+        Bundle changed = new Bundle(mExtras);
+        for (String key : mExtras.keySet()) {
+            if (mVersions.get(key) <= version) {
+                changed.remove(key);
+            }
+        }
+        return changed;
+    }
+
+    private static boolean valuesEqual(Object a, Object b) {
+        if (a instanceof Bundle && b instanceof Bundle) {
+            Bundle bundleA = (Bundle) a;
+            Bundle bundleB = (Bundle) b;
+            if (!bundleA.keySet().equals(bundleB.keySet())) {
+                return false;
+            }
+            for (String key : bundleA.keySet()) {
+                if (!valuesEqual(bundleA.get(key), bundleB.get(key))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return Objects.deepEquals(a, b);
+    }
+
+    /**
+     * @param version A version previously returned by {@link #getVersion()}.
+     * @return The keys which were removed after that version and haven't been put again.
+     */
+    public List<String> getRemovedSince(long version) {
+        List<String> removed = null;
+        for (Map.Entry<String, Long> entry : mVersions.entrySet()) {
+            if (entry.getValue() > version && !mExtras.containsKey(entry.getKey())) {
+                if (removed == null) {
+                    removed = new ArrayList<>();
+                }
+                removed.add(entry.getKey());
+            }
+        }
+        return removed == null ? Collections.emptyList() : removed;
+    }
+}
@@ -23,8 +23,10 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.os.Build;
 import android.telecom.Log;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.telecom.BluetoothAdapterProxy;
 import com.android.server.telecom.BluetoothHeadsetProxy;
 import com.android.server.telecom.TelecomSystem;
@@ -70,6 +72,7 @@ public class BluetoothDeviceManager {
                             List<BluetoothDevice> devicesToRemove = new LinkedList<>(
                                     mConnectedDevicesByAddress.values());
                             mConnectedDevicesByAddress.clear();
+                            mAudioConnectedDevice = null;
                             for (BluetoothDevice device : devicesToRemove) {
                                 mBluetoothRouteManager.onDeviceLost(device);
                             }
@@ -87,7 +90,9 @@ public class BluetoothDeviceManager {
             try {
                 String action = intent.getAction();
 
-                if (action.equals(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED)) {
+                if (action.equals(BluetoothHeadset.ACTION_AUDIO_STATE_CHANGED)) {
+                    handleAudioStateChanged(intent);
+                } else if (action.equals(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED)) {
                     int bluetoothHeadsetState = intent.getIntExtra(BluetoothHeadset.EXTRA_STATE,
                             BluetoothHeadset.STATE_DISCONNECTED);
                     BluetoothDevice device =
@@ -112,6 +117,10 @@ public class BluetoothDeviceManager {
                                 || bluetoothHeadsetState == BluetoothHeadset.STATE_DISCONNECTING) {
                             if (mConnectedDevicesByAddress.containsKey(device.getAddress())) {
                                 mConnectedDevicesByAddress.remove(device.getAddress());
+                                if (mAudioConnectedDevice != null && Objects.equals(
+                                        mAudioConnectedDevice.getAddress(), device.getAddress())) {
+                                    mAudioConnectedDevice = null;
+                                }
                                 mBluetoothRouteManager.onDeviceLost(device);
                             }
                         }
@@ -123,9 +132,15 @@ public class BluetoothDeviceManager {
         }
     };
 
+    // The connected HFP devices and the device with SCO audio, as reported by the headset
+    // broadcasts. Route decisions are made from these rather than by querying the Bluetooth
+    // stack. Guarded by mLock.
     private final LinkedHashMap<String, BluetoothDevice> mConnectedDevicesByAddress =
             new LinkedHashMap<>();
+    private BluetoothDevice mAudioConnectedDevice;
     private final TelecomSystem.SyncRoot mLock;
+    // Whether to compare the cached state against the Bluetooth stack when it's read.
+    private boolean mIsConsistencyCheckEnabled = Build.IS_DEBUGGABLE;
 
     private BluetoothRouteManager mBluetoothRouteManager;
     private BluetoothHeadsetProxy mBluetoothHeadsetService;
@@ -140,6 +155,7 @@ public class BluetoothDeviceManager {
         }
         IntentFilter intentFilter =
                 new IntentFilter(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED);
+        intentFilter.addAction(BluetoothHeadset.ACTION_AUDIO_STATE_CHANGED);
         context.registerReceiver(mReceiver, intentFilter);
     }
 
@@ -163,6 +179,34 @@ public class BluetoothDeviceManager {
         return result;
     }
 
+    /**
+     * @return Whether the device with the given address is connected over HFP.
+     */
+    public boolean isDeviceConnected(String address) {
+        boolean isConnected;
+        synchronized (mLock) {
+            isConnected = address != null && mConnectedDevicesByAddress.containsKey(address);
+        }
+        if (mIsConsistencyCheckEnabled) {
+            checkDeviceConnected(address, isConnected);
+        }
+        return isConnected;
+    }
+
+    /**
+     * @return The device that HFP audio is connected to, or null if there isn't one.
+     */
+    public BluetoothDevice getAudioConnectedDevice() {
+        BluetoothDevice device;
+        synchronized (mLock) {
+            device = mAudioConnectedDevice;
+        }
+        if (mIsConsistencyCheckEnabled) {
+            checkAudioConnectedDevice(device);
+        }
+        return device;
+    }
+
     public BluetoothHeadsetProxy getHeadsetService() {
         return mBluetoothHeadsetService;
     }
@@ -170,4 +214,74 @@ public class BluetoothDeviceManager {
     public void setHeadsetServiceForTesting(BluetoothHeadsetProxy bluetoothHeadset) {
         mBluetoothHeadsetService = bluetoothHeadset;
     }
+
+    @VisibleForTesting
+    public void setConsistencyCheckEnabledForTesting(boolean isEnabled) {
+        mIsConsistencyCheckEnabled = isEnabled;
+    }
+
+    private void handleAudioStateChanged(Intent intent) {
+        int audioState = intent.getIntExtra(BluetoothHeadset.EXTRA_STATE,
+                BluetoothHeadset.STATE_AUDIO_DISCONNECTED);
+        BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
+        if (device == null) {
+            Log.w(this, "Got null device from audio state broadcast. Ignoring.");
+            return;
+        }
+
+        Log.i(this, "Device %s transitioned to audio state %d", device.getAddress(), audioState);
+        synchronized (mLock) {
+            switch (audioState) {
+                case BluetoothHeadset.STATE_AUDIO_CONNECTED:
+                    mAudioConnectedDevice = device;
+                    mBluetoothRouteManager.onAudioOn(device.getAddress());
+                    break;
+                case BluetoothHeadset.STATE_AUDIO_DISCONNECTED:
+                    if (mAudioConnectedDevice != null && Objects.equals(
+                            mAudioConnectedDevice.getAddress(), device.getAddress())) {
+                        mAudioConnectedDevice = null;
+                    }
+                    mBluetoothRouteManager.onAudioLost(device.getAddress());
+                    break;
+            }
+        }
+    }
+
+    private void checkDeviceConnected(String address, boolean isConnected) {
+        BluetoothHeadsetProxy bluetoothHeadset = mBluetoothHeadsetService;
+        if (bluetoothHeadset == null || address == null) {
+            return;
+        }
+        boolean isConnectedInStack = false;
+        for (BluetoothDevice device : bluetoothHeadset.getConnectedDevices()) {
+            if (Objects.equals(device.getAddress(), address)) {
+                isConnectedInStack = true;
+                break;
+            }
+        }
+        if (isConnectedInStack != isConnected) {
+            Log.w(this, "Cached connection state of %s is %b, but the stack reports %b",
+                    address, isConnected, isConnectedInStack);
+        }
+    }
+
+    private void checkAudioConnectedDevice(BluetoothDevice cachedDevice) {
+        BluetoothHeadsetProxy bluetoothHeadset = mBluetoothHeadsetService;
+        if (bluetoothHeadset == null) {
+            return;
+        }
+        BluetoothDevice stackDevice = null;
+        for (BluetoothDevice device : bluetoothHeadset.getConnectedDevices()) {
+            if (bluetoothHeadset.isAudioConnected(device)) {
+                stackDevice = device;
+                break;
+            }
+        }
+        String cachedAddress = cachedDevice == null ? null : cachedDevice.getAddress();
+        String stackAddress = stackDevice == null ? null : stackDevice.getAddress();
+        if (!Objects.equals(cachedAddress, stackAddress)) {
+            Log.w(this, "Cached audio device is %s, but the stack reports %s",
+                    cachedAddress, stackAddress);
+        }
+    }
 }
@@ -17,12 +17,9 @@
 package com.android.server.telecom.bluetooth;
 
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothHeadset;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Message;
+import android.os.SystemClock;
 import android.telecom.Log;
 import android.telecom.Logging.Session;
 import android.util.SparseArray;
@@ -39,10 +36,8 @@ import com.android.server.telecom.Timeouts;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -78,47 +73,6 @@ public class BluetoothRouteManager extends StateMachine {
         void onBluetoothStateChange(int oldState, int newState);
     }
 
-    // Broadcast receiver to receive audio state change broadcasts from the BT stack
-    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            Log.startSession("BRM.oR");
-            try {
-                String action = intent.getAction();
-
-                if (action.equals(BluetoothHeadset.ACTION_AUDIO_STATE_CHANGED)) {
-                    int bluetoothHeadsetAudioState =
-                            intent.getIntExtra(BluetoothHeadset.EXTRA_STATE,
-                                    BluetoothHeadset.STATE_AUDIO_DISCONNECTED);
-                    BluetoothDevice device =
-                            intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    if (device == null) {
-                        Log.w(BluetoothRouteManager.this, "Got null device from broadcast. " +
-                                "Ignoring.");
-                        return;
-                    }
-
-                    Log.i(BluetoothRouteManager.this, "Device %s transitioned to audio state %d",
-                            device.getAddress(), bluetoothHeadsetAudioState);
-                    Session session = Log.createSubsession();
-                    SomeArgs args = SomeArgs.obtain();
-                    args.arg1 = session;
-                    args.arg2 = device.getAddress();
-                    switch (bluetoothHeadsetAudioState) {
-                        case BluetoothHeadset.STATE_AUDIO_CONNECTED:
-                            sendMessage(HFP_IS_ON, args);
-                            break;
-                        case BluetoothHeadset.STATE_AUDIO_DISCONNECTED:
-                            sendMessage(HFP_LOST, args);
-                            break;
-                    }
-                }
-            } finally {
-                Log.endSession();
-            }
-        }
-    };
-
     /**
      * Constants representing messages sent to the state machine.
      * Messages are expected to be sent with {@link SomeArgs} as the obj.
@@ -149,6 +103,9 @@ public class BluetoothRouteManager extends StateMachine {
 
     private static final int MAX_CONNECTION_RETRIES = 2;
 
+    // Weight given to the newest sample in the per-device average connection time, out of 4.
+    private static final int CONNECT_TIME_SAMPLE_WEIGHT = 1;
+
     // States
     private final class AudioOffState extends State {
         @Override
@@ -250,6 +207,7 @@ public class BluetoothRouteManager extends StateMachine {
 
     private final class AudioConnectingState extends State {
         private final String mDeviceAddress;
+        private long mConnectStartMillis;
 
         AudioConnectingState(String address) {
             mDeviceAddress = address;
@@ -262,6 +220,7 @@ public class BluetoothRouteManager extends StateMachine {
 
         @Override
         public void enter() {
+            mConnectStartMillis = SystemClock.elapsedRealtime();
             SomeArgs args = SomeArgs.obtain();
             args.arg1 = Log.createSubsession();
             sendMessageDelayed(CONNECTION_TIMEOUT, args,
@@ -358,6 +317,8 @@ public class BluetoothRouteManager extends StateMachine {
                     case HFP_IS_ON:
                         if (Objects.equals(mDeviceAddress, address)) {
                             Log.i(LOG_TAG, "HFP connection success for device %s.", mDeviceAddress);
+                            recordConnectTime(mDeviceAddress,
+                                    SystemClock.elapsedRealtime() - mConnectStartMillis);
                             transitionTo(mAudioConnectedStates.get(mDeviceAddress));
                         } else {
                             Log.w(LOG_TAG, "In connecting state for device %s but %s" +
@@ -530,6 +491,9 @@ public class BluetoothRouteManager extends StateMachine {
     private final Map<String, AudioConnectedState> mAudioConnectedStates = new HashMap<>();
     private final Set<State> statesToCleanUp = new HashSet<>();
     private final LinkedHashSet<String> mMostRecentlyUsedDevices = new LinkedHashSet<>();
+    // Moving average of how long SCO took to connect, per device address. Only accessed on the
+    // state machine thread.
+    private final Map<String, Long> mAverageConnectMillis = new HashMap<>();
 
     private final TelecomSystem.SyncRoot mLock;
     private final Context mContext;
@@ -547,9 +511,6 @@ public class BluetoothRouteManager extends StateMachine {
         mDeviceManager.setBluetoothRouteManager(this);
         mTimeoutsAdapter = timeoutsAdapter;
 
-        IntentFilter intentFilter = new IntentFilter(BluetoothHeadset.ACTION_AUDIO_STATE_CHANGED);
-        context.registerReceiver(mReceiver, intentFilter);
-
         mAudioOffState = new AudioOffState();
         addState(mAudioOffState);
         setInitialState(mAudioOffState);
@@ -649,6 +610,26 @@ public class BluetoothRouteManager extends StateMachine {
         sendMessage(LOST_DEVICE, args);
     }
 
+    /**
+     * Called by {@link BluetoothDeviceManager} when HFP audio is connected to a device.
+     */
+    public void onAudioOn(String address) {
+        SomeArgs args = SomeArgs.obtain();
+        args.arg1 = Log.createSubsession();
+        args.arg2 = address;
+        sendMessage(HFP_IS_ON, args);
+    }
+
+    /**
+     * Called by {@link BluetoothDeviceManager} when HFP audio is disconnected from a device.
+     */
+    public void onAudioLost(String address) {
+        SomeArgs args = SomeArgs.obtain();
+        args.arg1 = Log.createSubsession();
+        args.arg2 = address;
+        sendMessage(HFP_LOST, args);
+    }
+
     private String connectHfpAudio(String address) {
         return connectHfpAudio(address, 0, null);
     }
@@ -677,14 +658,9 @@ public class BluetoothRouteManager extends StateMachine {
             Log.i(this, "connectHfpAudio: no headset service available.");
             return null;
         }
-        List<BluetoothDevice> deviceList = bluetoothHeadset.getConnectedDevices();
-        Optional<BluetoothDevice> matchingDevice = deviceList.stream()
-                .filter(d -> Objects.equals(d.getAddress(), address))
-                .findAny();
-
-        String actualAddress = matchingDevice.isPresent() ?
-                address : getPreferredDevice(excludeAddress);
-        if (!matchingDevice.isPresent()) {
+        boolean isDeviceConnected = mDeviceManager.isDeviceConnected(address);
+        String actualAddress = isDeviceConnected ? address : getPreferredDevice(excludeAddress);
+        if (!isDeviceConnected) {
             Log.i(this, "No device with address %s available. Using %s instead.",
                     address, actualAddress);
         }
@@ -698,8 +674,7 @@ public class BluetoothRouteManager extends StateMachine {
                 args.arg2 = actualAddress;
                 args.argi1 = retryCount + 1;
                 sendMessageDelayed(RETRY_HFP_CONNECTION, args,
-                        mTimeoutsAdapter.getRetryBluetoothConnectAudioBackoffMillis(
-                                mContext.getContentResolver()));
+                        getRetryBackoffMillis(actualAddress));
             }
             return null;
         }
@@ -707,6 +682,37 @@ public class BluetoothRouteManager extends StateMachine {
         return actualAddress;
     }
 
+    /**
+     * Records how long a successful connection to the given device took, as part of a running
+     * average per device. Only called from the state machine's thread outside of tests.
+     */
+    @VisibleForTesting
+    public void recordConnectTime(String address, long connectMillis) {
+        Long average = mAverageConnectMillis.get(address);
+        long newAverage = average == null ? connectMillis
+                : (CONNECT_TIME_SAMPLE_WEIGHT * connectMillis
+                        + (4 - CONNECT_TIME_SAMPLE_WEIGHT) * average) / 4;
+        Log.d(LOG_TAG, "SCO connected to %s in %d ms; average %d ms.", address, connectMillis,
+                newAverage);
+        mAverageConnectMillis.put(address, newAverage);
+    }
+
+    /**
+     * Returns how long to wait before retrying a failed connection to the given device. Devices
+     * which have connected before are retried after about as long as they usually take to
+     * connect, bounded to within a quarter and twice the configured backoff.
+     */
+    @VisibleForTesting
+    public long getRetryBackoffMillis(String address) {
+        long backoffMillis = mTimeoutsAdapter.getRetryBluetoothConnectAudioBackoffMillis(
+                mContext.getContentResolver());
+        Long average = mAverageConnectMillis.get(address);
+        if (average == null) {
+            return backoffMillis;
+        }
+        return Math.max(backoffMillis / 4, Math.min(average, backoffMillis * 2));
+    }
+
     private String getPreferredDevice(String excludeAddress) {
         String preferredDevice = null;
         for (String address : mMostRecentlyUsedDevices) {
@@ -742,23 +748,7 @@ public class BluetoothRouteManager extends StateMachine {
      */
     @VisibleForTesting
     public BluetoothDevice getBluetoothAudioConnectedDevice() {
-        BluetoothHeadsetProxy bluetoothHeadset = mDeviceManager.getHeadsetService();
-        if (bluetoothHeadset == null) {
-            Log.i(this, "getBluetoothAudioConnectedDevice: no headset service available.");
-            return null;
-        }
-        List<BluetoothDevice> deviceList = bluetoothHeadset.getConnectedDevices();
-
-        for (int i = 0; i < deviceList.size(); i++) {
-            BluetoothDevice device = deviceList.get(i);
-            boolean isAudioOn = bluetoothHeadset.isAudioConnected(device);
-            Log.v(this, "isBluetoothAudioConnected: ==> isAudioOn = " + isAudioOn
-                    + "for headset: " + device);
-            if (isAudioOn) {
-                return device;
-            }
-        }
-        return null;
+        return mDeviceManager.getAudioConnectedDevice();
     }
 
     private boolean connectAudio(String address) {
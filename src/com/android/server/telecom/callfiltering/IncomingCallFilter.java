@@ -18,14 +18,15 @@ package com.android.server.telecom.callfiltering;
 
 import android.content.Context;
 import android.os.Handler;
-import android.os.Looper;
 import android.telecom.Log;
-import android.telecom.Logging.Runnable;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.telecom.Call;
+import com.android.server.telecom.LockProfiler;
 import com.android.server.telecom.LogUtils;
+import com.android.server.telecom.TelecomScheduler;
 import com.android.server.telecom.TelecomSystem;
+import com.android.server.telecom.TelecomTimerWheel;
 import com.android.server.telecom.Timeouts;
 
 import java.util.List;
@@ -38,11 +39,11 @@ public class IncomingCallFilter implements CallFilterResultCallback {
 
     private final TelecomSystem.SyncRoot mTelecomLock;
     private final Context mContext;
-    private final Handler mHandler = new Handler(Looper.getMainLooper());
     private final List<CallFilter> mFilters;
     private final Call mCall;
     private final CallFilterResultCallback mListener;
     private final Timeouts.Adapter mTimeoutsAdapter;
+    private final TelecomTimerWheel.Timer mTimeoutTimer;
 
     private CallFilteringResult mResult = new CallFilteringResult(
             true, // shouldAllowCall
@@ -64,6 +65,16 @@ public class IncomingCallFilter implements CallFilterResultCallback {
         mFilters = filters;
         mNumPendingFilters = filters.size();
         mTimeoutsAdapter = timeoutsAdapter;
+        // performFiltering time-out
+        mTimeoutTimer = TelecomTimerWheel.getInstance().createTimer(this, "ICF.pFTO", lock,
+                () -> {
+                    if (mIsPending) {
+                        Log.i(IncomingCallFilter.this, "Call filtering has timed out.");
+                        Log.addEvent(mCall, LogUtils.Events.FILTERING_TIMED_OUT);
+                        mListener.onCallFilteringComplete(mCall, mResult);
+                        mIsPending = false;
+                    }
+                });
     }
 
     public void performFiltering() {
@@ -71,18 +82,9 @@ public class IncomingCallFilter implements CallFilterResultCallback {
         for (CallFilter filter : mFilters) {
             filter.startFilterLookup(mCall, this);
         }
-        // synchronized to prevent a race on mResult and to enter into Telecom.
-        mHandler.postDelayed(new Runnable("ICF.pFTO", mTelecomLock) { // performFiltering time-out
-            @Override
-            public void loggedRun() {
-                if (mIsPending) {
-                    Log.i(IncomingCallFilter.this, "Call filtering has timed out.");
-                    Log.addEvent(mCall, LogUtils.Events.FILTERING_TIMED_OUT);
-                    mListener.onCallFilteringComplete(mCall, mResult);
-                    mIsPending = false;
-                }
-            }
-        }.prepare(), mTimeoutsAdapter.getCallScreeningTimeoutMillis(mContext.getContentResolver()));
+        // The timer holds mTelecomLock to prevent a race on mResult and to enter into Telecom.
+        mTimeoutTimer.schedule(
+                mTimeoutsAdapter.getCallScreeningTimeoutMillis(mContext.getContentResolver()));
     }
 
     public void onCallFilteringComplete(Call call, CallFilteringResult result) {
@@ -90,11 +92,14 @@ public class IncomingCallFilter implements CallFilterResultCallback {
             mNumPendingFilters--;
             mResult = result.combine(mResult);
             if (mNumPendingFilters == 0) {
-                // synchronized on mTelecomLock to enter into Telecom.
-                mHandler.post(new Runnable("ICF.oCFC", mTelecomLock) {
+                // synchronized on mTelecomLock to enter into Telecom. The call can't ring until
+                // this has run, so it goes ahead of anything already queued.
+                TelecomScheduler.getInstance().post(TelecomScheduler.PRIORITY_CRITICAL,
+                        "ICF.oCFC", new LockProfiler.ProfiledRunnable("ICF.oCFC", mTelecomLock) {
                     @Override
-                    public void loggedRun() {
+                    public void profiledRun() {
                         if (mIsPending) {
+                            mTimeoutTimer.cancel();
                             Log.addEvent(mCall, LogUtils.Events.FILTERING_COMPLETED, mResult);
                             mListener.onCallFilteringComplete(mCall, mResult);
                             mIsPending = false;
@@ -110,6 +115,6 @@ public class IncomingCallFilter implements CallFilterResultCallback {
      */
     @VisibleForTesting
     public Handler getHandler() {
-        return mHandler;
+        return TelecomScheduler.getInstance().getHandler();
     }
 }
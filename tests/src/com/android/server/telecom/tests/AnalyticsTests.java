@@ -39,6 +39,7 @@ import android.util.Base64;
 import com.android.internal.util.IndentingPrintWriter;
 import com.android.server.telecom.Analytics;
 import com.android.server.telecom.CallAudioRouteStateMachine;
+import com.android.server.telecom.LatencyHistogram;
 import com.android.server.telecom.LogUtils;
 import com.android.server.telecom.nano.TelecomLogClass;
 
@@ -267,6 +268,36 @@ public class AnalyticsTests extends TelecomSystemTest {
                 .forEach(s -> assertTrue(s.getTime() >= minTime));
     }
 
+    @SmallTest
+    public void testAnalyticsSessionTimingHistogram() throws Exception {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        Analytics.dumpToEncodedProto(pw, new String[]{"", "clear"});
+
+        Analytics.addSessionTiming(LogUtils.Sessions.ICA_ANSWER_CALL, 10);
+        Analytics.addSessionTiming(LogUtils.Sessions.ICA_ANSWER_CALL, 20);
+        Analytics.addSessionTiming(LogUtils.Sessions.ICA_ANSWER_CALL, 3000);
+        LatencyHistogram histogram =
+                Analytics.getSessionTimingHistogram(LogUtils.Sessions.ICA_ANSWER_CALL);
+        assertEquals(3, histogram.getCount());
+        assertEquals(3000, histogram.getMax());
+
+        sw = new StringWriter();
+        pw = new PrintWriter(sw);
+        Analytics.dumpToEncodedProto(pw, new String[]{});
+        TelecomLogClass.TelecomLog analyticsProto =
+                TelecomLogClass.TelecomLog.parseFrom(Base64.decode(sw.toString(), Base64.DEFAULT));
+        boolean found = false;
+        for (TelecomLogClass.SessionTimingHistogram h : analyticsProto.sessionTimingHistograms) {
+            if (h.getSessionEntryPoint() == TelecomAnalytics.SessionTiming.ICA_ANSWER_CALL) {
+                found = true;
+                assertEquals(3, h.histogram.getSampleCount());
+                assertEquals(3030, h.histogram.getSumMillis());
+            }
+        }
+        assertTrue(found);
+    }
+
     @MediumTest
     public void testAnalyticsDumpToProto() throws Exception {
         Analytics.reset();
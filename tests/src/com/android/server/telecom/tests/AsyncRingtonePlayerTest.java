@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.media.Ringtone;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.AsyncRingtonePlayer;
+import com.android.server.telecom.Call;
+import com.android.server.telecom.RingtoneFactory;
+
+import org.mockito.Mock;
+
+import java.util.function.BooleanSupplier;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AsyncRingtonePlayerTest extends TelecomTestCase {
+    private static final long TEST_TIMEOUT = 1000;
+    private static final Uri RINGTONE_URI = Uri.parse("content://media/ringtone/1");
+    private static final Uri CUSTOM_RINGTONE_URI = Uri.parse("content://media/ringtone/2");
+
+    @Mock RingtoneFactory mockRingtoneFactory;
+    @Mock Call mockCall1;
+    @Mock Call mockCall2;
+
+    private AsyncRingtonePlayer mPlayer;
+    private Ringtone mRingtone1;
+    private Ringtone mRingtone2;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mPlayer = new AsyncRingtonePlayer();
+        mRingtone1 = mock(Ringtone.class);
+        mRingtone2 = mock(Ringtone.class);
+        when(mockCall1.getRingtone()).thenReturn(RINGTONE_URI);
+        when(mockCall2.getRingtone()).thenReturn(RINGTONE_URI);
+        when(mockRingtoneFactory.getRingtone(mockCall1)).thenReturn(mRingtone1, mRingtone2);
+        when(mockRingtoneFactory.getRingtone(mockCall2)).thenReturn(mRingtone2);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mPlayer.stop();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testPrefetchedRingtoneIsPlayed() {
+        prefetchAndWait(mockCall1);
+        assertTrue(mPlayer.isPrefetching(mockCall1));
+
+        mPlayer.play(mockRingtoneFactory, mockCall1, 0, 0);
+        verify(mRingtone1, timeout(TEST_TIMEOUT)).play();
+        // The ringtone is only resolved once, ahead of time.
+        verify(mockRingtoneFactory, times(1)).getRingtone(mockCall1);
+        assertFalse(mPlayer.isPrefetching(mockCall1));
+        assertFalse(mPlayer.hasPrefetchedRingtone(mockCall1));
+
+        mPlayer.stop();
+        verify(mRingtone1, timeout(TEST_TIMEOUT)).stop();
+        waitUntil(() -> !mPlayer.isThreadRunning());
+    }
+
+    @SmallTest
+    public void testStalePrefetchIsNotPlayed() {
+        prefetchAndWait(mockCall1);
+        // The contact lookup finds a custom ringtone after the prefetch.
+        when(mockCall1.getRingtone()).thenReturn(CUSTOM_RINGTONE_URI);
+        assertFalse(mPlayer.hasPrefetchedRingtone(mockCall1));
+
+        mPlayer.play(mockRingtoneFactory, mockCall1, 0, 0);
+        verify(mRingtone2, timeout(TEST_TIMEOUT)).play();
+        verify(mRingtone1).stop();
+        verify(mRingtone1, never()).play();
+        verify(mockRingtoneFactory, times(2)).getRingtone(mockCall1);
+    }
+
+    @SmallTest
+    public void testPrefetchForAnotherCallIsNotPlayed() {
+        prefetchAndWait(mockCall1);
+        assertFalse(mPlayer.hasPrefetchedRingtone(mockCall2));
+
+        mPlayer.play(mockRingtoneFactory, mockCall2, 0, 0);
+        verify(mRingtone2, timeout(TEST_TIMEOUT)).play();
+        verify(mRingtone1).stop();
+        verify(mRingtone1, never()).play();
+    }
+
+    @SmallTest
+    public void testDiscardPrefetch() {
+        prefetchAndWait(mockCall1);
+
+        // Discarding for a call which isn't being prefetched for has no effect.
+        mPlayer.discardPrefetch(mockCall2);
+        assertTrue(mPlayer.isPrefetching(mockCall1));
+
+        mPlayer.discardPrefetch(mockCall1);
+        assertFalse(mPlayer.isPrefetching(mockCall1));
+        verify(mRingtone1, timeout(TEST_TIMEOUT)).stop();
+        assertFalse(mPlayer.hasPrefetchedRingtone(mockCall1));
+        // Nothing is left for the ringtone thread to do.
+        waitUntil(() -> !mPlayer.isThreadRunning());
+        verify(mRingtone1, never()).play();
+    }
+
+    private void prefetchAndWait(Call call) {
+        mPlayer.prefetch(mockRingtoneFactory, call);
+        waitUntil(() -> mPlayer.hasPrefetchedRingtone(call));
+    }
+
+    private static void waitUntil(BooleanSupplier condition) {
+        long deadline = SystemClock.elapsedRealtime() + TEST_TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", SystemClock.elapsedRealtime() < deadline);
+            SystemClock.sleep(10);
+        }
+    }
+}
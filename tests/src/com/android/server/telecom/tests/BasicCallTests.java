@@ -21,6 +21,7 @@ import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
@@ -32,8 +33,7 @@ import android.content.IContentProvider;
 import android.media.AudioManager;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.Debug;
 import android.os.Process;
 import android.provider.BlockedNumberContract;
 import android.telecom.Call;
@@ -47,12 +47,14 @@ import android.telecom.PhoneAccount;
 import android.telecom.PhoneAccountHandle;
 import android.telecom.TelecomManager;
 import android.telecom.VideoProfile;
+import android.telephony.TelephonyManager;
 import android.support.test.filters.FlakyTest;
 import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.MediumTest;
 
 import com.android.internal.telecom.IInCallAdapter;
 import com.android.internal.telephony.CallerInfo;
+import com.android.server.telecom.CallListeners;
 
 import com.google.common.base.Predicate;
 
@@ -272,7 +274,7 @@ public class BasicCallTests extends TelecomSystemTest {
         mTelecomSystem.getTelecomServiceImpl().getBinder()
                 .addNewIncomingCall(mPhoneAccountA0.getAccountHandle(), extras);
 
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
         ArgumentCaptor<ConnectionRequest> connectionRequestCaptor
             = ArgumentCaptor.forClass(ConnectionRequest.class);
         verify(mConnectionServiceFixtureA.getTestDouble())
@@ -325,12 +327,12 @@ public class BasicCallTests extends TelecomSystemTest {
         mTelecomSystem.getTelecomServiceImpl().getBinder()
                 .addNewIncomingCall(mPhoneAccountA0.getAccountHandle(), extras);
 
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
         verify(mConnectionServiceFixtureA.getTestDouble())
                 .createConnection(any(PhoneAccountHandle.class), anyString(),
                         any(ConnectionRequest.class), eq(true), eq(false), any());
 
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
         assertEquals(1, mCallerInfoAsyncQueryFactoryFixture.mRequests.size());
         for (CallerInfoAsyncQueryFactoryFixture.Request request :
                 mCallerInfoAsyncQueryFactoryFixture.mRequests) {
@@ -369,12 +371,12 @@ public class BasicCallTests extends TelecomSystemTest {
         mTelecomSystem.getTelecomServiceImpl().getBinder()
                 .addNewIncomingCall(mPhoneAccountA0.getAccountHandle(), extras);
 
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
         verify(mConnectionServiceFixtureA.getTestDouble())
                 .createConnection(any(PhoneAccountHandle.class), anyString(),
                         any(ConnectionRequest.class), eq(true), eq(false), any());
 
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
         // Never reply to the caller info lookup.
         assertEquals(1, mCallerInfoAsyncQueryFactoryFixture.mRequests.size());
 
@@ -416,12 +418,12 @@ public class BasicCallTests extends TelecomSystemTest {
         mTelecomSystem.getTelecomServiceImpl().getBinder()
                 .addNewIncomingCall(mPhoneAccountA0.getAccountHandle(), extras);
 
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
         verify(mConnectionServiceFixtureA.getTestDouble())
                 .createConnection(any(PhoneAccountHandle.class), anyString(),
                         any(ConnectionRequest.class), eq(true), eq(false), any());
 
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
         assertEquals(1, mCallerInfoAsyncQueryFactoryFixture.mRequests.size());
         for (CallerInfoAsyncQueryFactoryFixture.Request request :
                 mCallerInfoAsyncQueryFactoryFixture.mRequests) {
@@ -949,6 +951,71 @@ public class BasicCallTests extends TelecomSystemTest {
         assertNull(mInCallServiceFixtureX.getCall(ids.mCallId));
     }
 
+    /**
+     * Ensures the lock-free call state snapshot used by the read-only TelecomManager APIs agrees
+     * with the state computed under the lock as calls move through their lifecycle.
+     */
+    @LargeTest
+    public void testCallStateSnapshotMatchesLockedState() throws Exception {
+        assertCallStateSnapshotConsistent();
+        assertFalse(mTelecomSystem.getCallsManager().getCallStateSnapshot().hasOngoingCalls);
+
+        IdPair incoming = startIncomingPhoneCall("650-555-1212",
+                mPhoneAccountA0.getAccountHandle(), mConnectionServiceFixtureA);
+        assertCallStateSnapshotConsistent();
+        assertTrue(mTelecomSystem.getCallsManager().getCallStateSnapshot().hasRingingCall);
+
+        mConnectionServiceFixtureA.sendSetActive(incoming.mConnectionId);
+        assertCallStateSnapshotConsistent();
+        assertEquals(TelephonyManager.CALL_STATE_OFFHOOK,
+                mTelecomSystem.getCallsManager().getCallStateSnapshot().callState);
+
+        mConnectionServiceFixtureA.sendSetDisconnected(incoming.mConnectionId,
+                DisconnectCause.LOCAL);
+        assertCallStateSnapshotConsistent();
+        assertFalse(mTelecomSystem.getCallsManager().getCallStateSnapshot().hasOngoingCalls);
+    }
+
+    /**
+     * The time the first call waits for its connection service to bind is recorded.
+     */
+    @LargeTest
+    public void testConnectionServiceBindLatencyRecorded() throws Exception {
+        startAndMakeActiveIncomingCall("650-555-1212",
+                mPhoneAccountA0.getAccountHandle(), mConnectionServiceFixtureA);
+        com.android.server.telecom.Call call = mTelecomSystem.getCallsManager().getCalls()
+                .iterator().next();
+        assertTrue(call.getConnectionService().getBindLatencyHistogram().getCount() > 0);
+    }
+
+    /**
+     * Swapping a conference from the InCallService changes which of its children is active without
+     * changing any call's state, so the call's listeners need to be told about it.
+     */
+    @LargeTest
+    public void testSwapConferenceNotifiesCallListeners() throws Exception {
+        IdPair ids = startAndMakeActiveIncomingCall("650-555-1212",
+                mPhoneAccountA0.getAccountHandle(), mConnectionServiceFixtureA);
+        mConnectionServiceFixtureA.mConnectionById.get(ids.mConnectionId).capabilities =
+                Connection.CAPABILITY_SWAP_CONFERENCE;
+        mConnectionServiceFixtureA.sendSetConnectionCapabilities(ids.mConnectionId);
+        com.android.server.telecom.Call call = mTelecomSystem.getCallsManager().getCalls()
+                .iterator().next();
+        com.android.server.telecom.Call.Listener listener =
+                mock(com.android.server.telecom.Call.ListenerBase.class);
+        call.addListener(listener);
+
+        mInCallServiceFixtureX.mInCallAdapter.swapConference(ids.mCallId);
+        verify(listener, timeout(TEST_TIMEOUT)).onConferenceStateChanged(call);
+    }
+
+    private void assertCallStateSnapshotConsistent() {
+        synchronized (mTelecomSystem.getLock()) {
+            assertEquals(mTelecomSystem.getCallsManager().computeCallStateSnapshot(),
+                    mTelecomSystem.getCallsManager().getCallStateSnapshot());
+        }
+    }
+
     /**
      * Basic test to ensure that when there are no calls, we permit outgoing calls by a self managed
      * CS.
@@ -975,4 +1042,59 @@ public class BasicCallTests extends TelecomSystemTest {
         assertFalse(mTelecomSystem.getTelecomServiceImpl().getBinder()
                 .isOutgoingCallPermitted(mPhoneAccountSelfManaged.getAccountHandle()));
     }
+
+    /**
+     * Measures the time and allocations per outgoing call lifecycle, from placing the call through
+     * its property updates to its disconnection and removal. The baseline run copies all of the
+     * {@link com.android.server.telecom.Call} listeners on every notification, as Call did before
+     * it used {@link CallListeners}.
+     */
+    @LargeTest
+    public void testCallLifecycleAllocationBenchmark() throws Exception {
+        final int iterations = 10;
+        // Warm up, so that class loading and the listener masks aren't counted.
+        runCallLifecycles(1);
+        long[] current = runCallLifecycles(iterations);
+        long[] baseline;
+        CallListeners.sCopyOnNotifyForTesting = true;
+        try {
+            baseline = runCallLifecycles(iterations);
+        } finally {
+            CallListeners.sCopyOnNotifyForTesting = false;
+        }
+
+        Log.i(this, "%d calls: %d us, %d allocations per call; copying listeners: %d us, "
+                + "%d allocations per call", iterations, current[0] / iterations,
+                current[1] / iterations, baseline[0] / iterations, baseline[1] / iterations);
+        assertEquals(0, mTelecomSystem.getCallsManager().getCalls().size());
+    }
+
+    /**
+     * @return The elapsed time in microseconds and the number of allocations made by all threads.
+     */
+    // Debug's allocation counters are deprecated, but they are the only way to count the
+    // allocations made on the Telecom threads as well as this one.
+    @SuppressWarnings("deprecation")
+    private long[] runCallLifecycles(int iterations) throws Exception {
+        Debug.resetGlobalAllocCount();
+        Debug.startAllocCounting();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            IdPair ids = startAndMakeActiveOutgoingCall("650-555-1212",
+                    mPhoneAccountA0.getAccountHandle(), mConnectionServiceFixtureA);
+            mConnectionServiceFixtureA.sendSetConnectionCapabilities(ids.mConnectionId);
+            mConnectionServiceFixtureA.sendSetStatusHints(ids.mConnectionId);
+            mConnectionServiceFixtureA.sendSetCallerDisplayName(ids.mConnectionId);
+            mConnectionServiceFixtureA.sendSetIsVoipAudioMode(ids.mConnectionId);
+            mConnectionServiceFixtureA.sendSetDisconnected(ids.mConnectionId,
+                    DisconnectCause.LOCAL);
+            assertEquals(Call.STATE_DISCONNECTED,
+                    mInCallServiceFixtureX.getCall(ids.mCallId).getState());
+            mConnectionServiceFixtureA.sendRemoveCall(ids.mConnectionId);
+            waitForTelecomLoopers(TEST_TIMEOUT);
+        }
+        long elapsedMicros = (System.nanoTime() - startNanos) / 1000;
+        Debug.stopAllocCounting();
+        return new long[] { elapsedMicros, Debug.getGlobalAllocCount() };
+    }
 }
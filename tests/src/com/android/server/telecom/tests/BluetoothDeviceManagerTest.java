@@ -34,7 +34,9 @@ import com.android.server.telecom.bluetooth.BluetoothRouteManager;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 public class BluetoothDeviceManagerTest extends TelecomTestCase {
@@ -145,6 +147,44 @@ public class BluetoothDeviceManagerTest extends TelecomTestCase {
         assertEquals(0, mBluetoothDeviceManager.getNumConnectedDevices());
     }
 
+    @SmallTest
+    public void testAudioStateIsCached() {
+        mBluetoothDeviceManager.setConsistencyCheckEnabledForTesting(false);
+        receiverUnderTest.onReceive(mContext,
+                buildConnectionActionIntent(BluetoothHeadset.STATE_CONNECTED, device1));
+        receiverUnderTest.onReceive(mContext,
+                buildConnectionActionIntent(BluetoothHeadset.STATE_CONNECTED, device2));
+        assertTrue(mBluetoothDeviceManager.isDeviceConnected(device1.getAddress()));
+        assertFalse(mBluetoothDeviceManager.isDeviceConnected(device3.getAddress()));
+        assertNull(mBluetoothDeviceManager.getAudioConnectedDevice());
+
+        receiverUnderTest.onReceive(mContext,
+                buildAudioActionIntent(BluetoothHeadset.STATE_AUDIO_CONNECTED, device2));
+        verify(mRouteManager).onAudioOn(device2.getAddress());
+        assertEquals(device2, mBluetoothDeviceManager.getAudioConnectedDevice());
+
+        // Audio lost on a device other than the one with audio doesn't change anything.
+        receiverUnderTest.onReceive(mContext,
+                buildAudioActionIntent(BluetoothHeadset.STATE_AUDIO_DISCONNECTED, device1));
+        assertEquals(device2, mBluetoothDeviceManager.getAudioConnectedDevice());
+
+        receiverUnderTest.onReceive(mContext,
+                buildConnectionActionIntent(BluetoothHeadset.STATE_DISCONNECTED, device2));
+        assertFalse(mBluetoothDeviceManager.isDeviceConnected(device2.getAddress()));
+        assertNull(mBluetoothDeviceManager.getAudioConnectedDevice());
+
+        // The cached state is served without querying the Bluetooth stack.
+        verify(mHeadsetProxy, never()).getConnectedDevices();
+        verify(mHeadsetProxy, never()).isAudioConnected(any(BluetoothDevice.class));
+    }
+
+    private Intent buildAudioActionIntent(int state, BluetoothDevice device) {
+        Intent i = new Intent(BluetoothHeadset.ACTION_AUDIO_STATE_CHANGED);
+        i.putExtra(BluetoothHeadset.EXTRA_STATE, state);
+        i.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
+        return i;
+    }
+
     private Intent buildConnectionActionIntent(int state, BluetoothDevice device) {
         Intent i = new Intent(BluetoothHeadset.ACTION_CONNECTION_STATE_CHANGED);
         i.putExtra(BluetoothHeadset.EXTRA_STATE, state);
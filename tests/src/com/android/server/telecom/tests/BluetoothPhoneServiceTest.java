@@ -42,6 +42,7 @@ import com.android.server.telecom.CallsManager;
 import com.android.server.telecom.PhoneAccountRegistrar;
 import com.android.server.telecom.TelecomSystem;
 
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -60,6 +61,7 @@ import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
@@ -69,6 +71,7 @@ public class BluetoothPhoneServiceTest extends TelecomTestCase {
     private static final int TEST_DTMF_TONE = 0;
     private static final String TEST_ACCOUNT_ADDRESS = "//foo.com/";
     private static final int TEST_ACCOUNT_INDEX = 0;
+    private static final long TEST_TIMEOUT = 1000;
 
     // match up with BluetoothPhoneServiceImpl
     private static final int CALL_STATE_ACTIVE = 0;
@@ -115,6 +118,8 @@ public class BluetoothPhoneServiceTest extends TelecomTestCase {
 
         // Bring in test Bluetooth Headset
         mBluetoothPhoneService.setBluetoothHeadset(mMockBluetoothHeadset);
+        // Send every update straight away unless a test is checking the coalescing.
+        mBluetoothPhoneService.setPhoneStateCoalesceMillis(0);
     }
 
     @Override
@@ -465,6 +470,9 @@ public class BluetoothPhoneServiceTest extends TelecomTestCase {
         when(newHoldingCall.isConference()).thenReturn(false);
         when(newHoldingCall.getGatewayInfo()).thenReturn(new GatewayInfo(null, null,
                 Uri.parse("tel:555-0001")));
+        mBluetoothPhoneService.mCallsManagerListener.onCallStateChanged(ringingCall,
+                CallState.RINGING, CallState.ACTIVE);
+        mBluetoothPhoneService.mCallsManagerListener.onCallAdded(newHoldingCall);
 
         mBluetoothPhoneService.mBinder.listCurrentCalls();
         verify(mMockBluetoothHeadset).clccResponse(1, 1, CALL_STATE_ACTIVE, 0, false,
@@ -474,6 +482,83 @@ public class BluetoothPhoneServiceTest extends TelecomTestCase {
         verify(mMockBluetoothHeadset, times(2)).clccResponse(0, 0, 0, 0, false, null, 0);
     }
 
+    @MediumTest
+    public void testClccSnapshotReusedUntilCallsChange() throws Exception {
+        ArrayList<Call> calls = new ArrayList<>();
+        when(mMockCallsManager.getCalls()).thenReturn(calls);
+        Call activeCall = createActiveCall();
+        calls.add(activeCall);
+        when(activeCall.getState()).thenReturn(CallState.ACTIVE);
+        when(activeCall.isConference()).thenReturn(false);
+        when(activeCall.getHandle()).thenReturn(Uri.parse("tel:555-000"));
+
+        mBluetoothPhoneService.mBinder.listCurrentCalls();
+        mBluetoothPhoneService.mBinder.listCurrentCalls();
+        verify(mMockCallsManager, times(1)).getCalls();
+        verify(mMockBluetoothHeadset, times(2)).clccResponse(1, 0, CALL_STATE_ACTIVE, 0, false,
+                "555000", PhoneNumberUtils.TOA_Unknown);
+
+        // The index of a removed call is given to the next new call.
+        calls.remove(activeCall);
+        mBluetoothPhoneService.mCallsManagerListener.onCallRemoved(activeCall);
+        Call heldCall = createHeldCall();
+        calls.add(heldCall);
+        when(heldCall.getState()).thenReturn(CallState.ON_HOLD);
+        when(heldCall.isConference()).thenReturn(false);
+        when(heldCall.getHandle()).thenReturn(Uri.parse("tel:555-001"));
+        mBluetoothPhoneService.mCallsManagerListener.onCallAdded(heldCall);
+
+        mBluetoothPhoneService.mBinder.listCurrentCalls();
+        verify(mMockCallsManager, times(2)).getCalls();
+        verify(mMockBluetoothHeadset).clccResponse(1, 0, CALL_STATE_HELD, 0, false,
+                "555001", PhoneNumberUtils.TOA_Unknown);
+    }
+
+    @MediumTest
+    public void testClccSnapshotRebuiltAfterConferenceSwap() throws Exception {
+        ArrayList<Call> calls = new ArrayList<>();
+        Call parentCall = createActiveCall();
+        final Call confCall1 = mock(Call.class);
+        final Call confCall2 = mock(Call.class);
+        calls.add(parentCall);
+        calls.add(confCall1);
+        calls.add(confCall2);
+        when(mMockCallsManager.getCalls()).thenReturn(calls);
+        when(confCall1.getState()).thenReturn(CallState.ACTIVE);
+        when(confCall2.getState()).thenReturn(CallState.ACTIVE);
+        when(confCall1.getHandle()).thenReturn(Uri.parse("tel:555-0000"));
+        when(confCall2.getHandle()).thenReturn(Uri.parse("tel:555-0001"));
+        when(parentCall.can(Connection.CAPABILITY_MERGE_CONFERENCE)).thenReturn(true);
+        when(parentCall.getConferenceLevelActiveCall()).thenReturn(confCall1);
+        when(parentCall.isConference()).thenReturn(true);
+        when(parentCall.getChildCalls()).thenReturn(new LinkedList<Call>() {{
+            add(confCall1);
+            add(confCall2);
+        }});
+        when(confCall1.getParentCall()).thenReturn(parentCall);
+        when(confCall2.getParentCall()).thenReturn(parentCall);
+        mBluetoothPhoneService.mCallsManagerListener.onCallAdded(parentCall);
+        ArgumentCaptor<Call.Listener> listenerCaptor =
+                ArgumentCaptor.forClass(Call.Listener.class);
+        verify(parentCall).addListener(listenerCaptor.capture());
+
+        mBluetoothPhoneService.mBinder.listCurrentCalls();
+        verify(mMockBluetoothHeadset).clccResponse(1, 0, CALL_STATE_ACTIVE, 0, false,
+                "5550000", PhoneNumberUtils.TOA_Unknown);
+        verify(mMockBluetoothHeadset).clccResponse(2, 0, CALL_STATE_HELD, 0, false,
+                "5550001", PhoneNumberUtils.TOA_Unknown);
+
+        // The swap doesn't change any call's state, only which child is active.
+        when(parentCall.getConferenceLevelActiveCall()).thenReturn(confCall2);
+        listenerCaptor.getValue().onConferenceStateChanged(parentCall);
+
+        mBluetoothPhoneService.mBinder.listCurrentCalls();
+        verify(mMockBluetoothHeadset).clccResponse(1, 0, CALL_STATE_HELD, 0, false,
+                "5550000", PhoneNumberUtils.TOA_Unknown);
+        verify(mMockBluetoothHeadset).clccResponse(2, 0, CALL_STATE_ACTIVE, 0, false,
+                "5550001", PhoneNumberUtils.TOA_Unknown);
+    }
+
     @MediumTest
     public void testAlertingCallClccResponse() throws Exception {
         ArrayList<Call> calls = new ArrayList<>();
@@ -884,6 +969,44 @@ public class BluetoothPhoneServiceTest extends TelecomTestCase {
                 eq(""), eq(128));
     }
 
+    @MediumTest
+    public void testIdenticalPhoneStateSuppressed() throws Exception {
+        Call activeCall = createActiveCall();
+        mBluetoothPhoneService.mCallsManagerListener.onCallAdded(activeCall);
+        mBluetoothPhoneService.mCallsManagerListener.onCallStateChanged(activeCall,
+                CallState.DIALING, CallState.ACTIVE);
+
+        verify(mMockBluetoothHeadset, times(1)).phoneStateChanged(anyInt(), anyInt(), anyInt(),
+                nullable(String.class), anyInt());
+        assertEquals(1, mBluetoothPhoneService.getNumPhoneStateUpdatesSuppressed());
+    }
+
+    @MediumTest
+    public void testHeldCallChangesCoalesced() throws Exception {
+        mBluetoothPhoneService.setPhoneStateCoalesceMillis(500);
+        Call activeCall = createActiveCall();
+        mBluetoothPhoneService.mCallsManagerListener.onCallAdded(activeCall);
+        // The call becoming active is sent straight away.
+        verify(mMockBluetoothHeadset).phoneStateChanged(eq(1), eq(0), eq(CALL_STATE_IDLE),
+                eq(""), eq(128));
+
+        // A held call is added and then replaced by another.
+        Call heldCall1 = createHeldCall();
+        doReturn(1).when(mMockCallsManager).getNumHeldCalls();
+        mBluetoothPhoneService.mCallsManagerListener.onCallAdded(heldCall1);
+        Call heldCall2 = createHeldCall();
+        mBluetoothPhoneService.mCallsManagerListener.onCallStateChanged(heldCall2,
+                CallState.ACTIVE, CallState.ON_HOLD);
+        assertEquals(2, mBluetoothPhoneService.getNumPhoneStateUpdatesCoalesced());
+
+        // Only the final state is sent, once the coalescing window has passed.
+        verify(mMockBluetoothHeadset, timeout(TEST_TIMEOUT)).phoneStateChanged(eq(1), eq(1),
+                eq(CALL_STATE_IDLE), eq(""), eq(128));
+        waitForHandlerAction(mBluetoothPhoneService.getHandler(), TEST_TIMEOUT);
+        verify(mMockBluetoothHeadset, times(2)).phoneStateChanged(anyInt(), anyInt(), anyInt(),
+                nullable(String.class), anyInt());
+    }
+
     @MediumTest
     public void testBluetoothAdapterReceiver() throws Exception {
         Call ringingCall = createRingingCall();
@@ -266,6 +266,60 @@ public class BluetoothRouteManagerTest extends StateMachineTestBase<BluetoothRou
         sm.quitNow();
     }
 
+    @SmallTest
+    public void testRetryBackoffWithoutConnectTimes() {
+        BluetoothRouteManager sm = setupStateMachine(
+                BluetoothRouteManager.AUDIO_OFF_STATE_NAME, null);
+        assertEquals(100000L, sm.getRetryBackoffMillis(device1.getAddress()));
+        sm.quitNow();
+    }
+
+    @SmallTest
+    public void testRetryBackoffTracksConnectTimesPerDevice() {
+        BluetoothRouteManager sm = setupStateMachine(
+                BluetoothRouteManager.AUDIO_OFF_STATE_NAME, null);
+        sm.recordConnectTime(device1.getAddress(), 50000L);
+        assertEquals(50000L, sm.getRetryBackoffMillis(device1.getAddress()));
+        assertEquals(100000L, sm.getRetryBackoffMillis(device2.getAddress()));
+
+        // The newest connect time is weighted a quarter.
+        sm.recordConnectTime(device1.getAddress(), 10000L);
+        assertEquals(40000L, sm.getRetryBackoffMillis(device1.getAddress()));
+        sm.recordConnectTime(device2.getAddress(), 60000L);
+        assertEquals(40000L, sm.getRetryBackoffMillis(device1.getAddress()));
+        assertEquals(60000L, sm.getRetryBackoffMillis(device2.getAddress()));
+        sm.quitNow();
+    }
+
+    @SmallTest
+    public void testRetryBackoffIsClamped() {
+        BluetoothRouteManager sm = setupStateMachine(
+                BluetoothRouteManager.AUDIO_OFF_STATE_NAME, null);
+        // Between a quarter of and twice the configured backoff.
+        sm.recordConnectTime(device1.getAddress(), 1000L);
+        assertEquals(25000L, sm.getRetryBackoffMillis(device1.getAddress()));
+        sm.recordConnectTime(device2.getAddress(), 1000000L);
+        assertEquals(200000L, sm.getRetryBackoffMillis(device2.getAddress()));
+        sm.quitNow();
+    }
+
+    @SmallTest
+    public void testConnectTimeRecordedWhenHfpConnects() {
+        BluetoothRouteManager sm = setupStateMachine(
+                BluetoothRouteManager.AUDIO_OFF_STATE_NAME, null);
+        setupConnectedDevices(new BluetoothDevice[]{device1}, null);
+        executeRoutingAction(sm, BluetoothRouteManager.CONNECT_HFP, device1.getAddress());
+        executeRoutingAction(sm, BluetoothRouteManager.HFP_IS_ON, device1.getAddress());
+        assertEquals(BluetoothRouteManager.AUDIO_CONNECTED_STATE_NAME_PREFIX
+                        + ":" + device1.getAddress(),
+                sm.getCurrentState().getName());
+        // The connection took far less than a quarter of the configured backoff.
+        assertEquals(25000L, sm.getRetryBackoffMillis(device1.getAddress()));
+        assertEquals(100000L, sm.getRetryBackoffMillis(device2.getAddress()));
+        sm.getHandler().removeMessages(BluetoothRouteManager.CONNECTION_TIMEOUT);
+        sm.quitNow();
+    }
+
     @SmallTest
     public void testProperFallbackOrder1() {
         // Device 1, 2, 3 are connected in that order. Device 1 is activated, then device 2.
@@ -418,8 +472,12 @@ public class BluetoothRouteManagerTest extends StateMachineTestBase<BluetoothRou
     private void setupConnectedDevices(BluetoothDevice[] devices, BluetoothDevice activeDevice) {
         when(mDeviceManager.getNumConnectedDevices()).thenReturn(devices.length);
         when(mHeadsetProxy.getConnectedDevices()).thenReturn(Arrays.asList(devices));
+        when(mDeviceManager.isDeviceConnected(nullable(String.class))).thenAnswer(invocation ->
+                Arrays.stream(devices).anyMatch(d -> Objects.equals(d.getAddress(),
+                        invocation.getArguments()[0])));
         if (activeDevice != null) {
             when(mHeadsetProxy.isAudioConnected(eq(activeDevice))).thenReturn(true);
+            when(mDeviceManager.getAudioConnectedDevice()).thenReturn(activeDevice);
         }
         doAnswer(invocation -> {
             BluetoothDevice first = getFirstExcluding(devices,
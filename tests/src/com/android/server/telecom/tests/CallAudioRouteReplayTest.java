@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.media.IAudioService;
+import android.os.Debug;
+import android.telecom.CallAudioState;
+import android.telecom.Log;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.MediumTest;
+import android.util.SparseArray;
+
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.telecom.Call;
+import com.android.server.telecom.CallAudioManager;
+import com.android.server.telecom.CallAudioRouteStateMachine;
+import com.android.server.telecom.CallAudioRouteTransitionTracker;
+import com.android.server.telecom.CallsManager;
+import com.android.server.telecom.ConnectionServiceWrapper;
+import com.android.server.telecom.StatusBarNotifier;
+import com.android.server.telecom.TelecomSystem;
+import com.android.server.telecom.WiredHeadsetManager;
+import com.android.server.telecom.bluetooth.BluetoothRouteManager;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Replays recorded message sequences against the {@link CallAudioRouteStateMachine} and reports
+ * the per-transition timings collected by {@link CallAudioRouteTransitionTracker}.
+ *
+ * Sequences use the format of the "Recent messages" line in the CallAudioManager dumpsys, so a
+ * sequence taken from a bug report can be pasted in as-is.
+ */
+public class CallAudioRouteReplayTest extends StateMachineTestBase<CallAudioRouteStateMachine> {
+    private static final String SPEAKER_TOGGLE_SEQUENCE = "SWITCH_FOCUS(2) "
+            + "USER_SWITCH_SPEAKER(0) USER_SWITCH_BASELINE_ROUTE(0) "
+            + "USER_SWITCH_SPEAKER(0) USER_SWITCH_BASELINE_ROUTE(0) "
+            + "MUTE_ON(0) MUTE_OFF(0) SWITCH_FOCUS(1)";
+
+    private static final String HEADSET_SEQUENCE = "SWITCH_FOCUS(2) CONNECT_WIRED_HEADSET(0) "
+            + "USER_SWITCH_SPEAKER(0) DISCONNECT_WIRED_HEADSET(0) SWITCH_FOCUS(1)";
+
+    @Mock CallsManager mockCallsManager;
+    @Mock BluetoothRouteManager mockBluetoothRouteManager;
+    @Mock IAudioService mockAudioService;
+    @Mock ConnectionServiceWrapper mockConnectionServiceWrapper;
+    @Mock WiredHeadsetManager mockWiredHeadsetManager;
+    @Mock StatusBarNotifier mockStatusBarNotifier;
+    @Mock Call fakeCall;
+
+    private CallAudioManager.AudioServiceFactory mAudioServiceFactory;
+    private final TelecomSystem.SyncRoot mLock = new TelecomSystem.SyncRoot() { };
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        MockitoAnnotations.initMocks(this);
+        mContext = mComponentContextFixture.getTestDouble().getApplicationContext();
+        mAudioServiceFactory = () -> mockAudioService;
+
+        when(mockCallsManager.getForegroundCall()).thenReturn(fakeCall);
+        when(mockCallsManager.getLock()).thenReturn(mLock);
+        when(mockCallsManager.hasVideoCall()).thenReturn(false);
+        when(fakeCall.getConnectionService()).thenReturn(mockConnectionServiceWrapper);
+        when(fakeCall.isAlive()).thenReturn(true);
+        when(fakeCall.getSupportedAudioRoutes()).thenReturn(CallAudioState.ROUTE_ALL);
+        doNothing().when(mockConnectionServiceWrapper).onCallAudioStateChanged(any(Call.class),
+                any(CallAudioState.class));
+    }
+
+    @MediumTest
+    public void testReplaySpeakerToggle() {
+        CallAudioRouteStateMachine stateMachine = replay(SPEAKER_TOGGLE_SEQUENCE,
+                new CallAudioState(false, CallAudioState.ROUTE_EARPIECE,
+                        CallAudioState.ROUTE_EARPIECE | CallAudioState.ROUTE_SPEAKER));
+        CallAudioRouteTransitionTracker tracker = stateMachine.getTransitionTracker();
+
+        CallAudioRouteTransitionTracker.TransitionStats toSpeaker =
+                tracker.getStats("ActiveEarpieceRoute", "ActiveSpeakerRoute");
+        assertNotNull(toSpeaker);
+        assertEquals(2, toSpeaker.totalMillis.getCount());
+        assertEquals(2, toSpeaker.enterMillis.getCount());
+        assertEquals(2, toSpeaker.audioMillis.getCount());
+        assertEquals(2, toSpeaker.publishMillis.getCount());
+
+        CallAudioRouteTransitionTracker.TransitionStats toEarpiece =
+                tracker.getStats("ActiveSpeakerRoute", "ActiveEarpieceRoute");
+        assertNotNull(toEarpiece);
+        assertEquals(2, toEarpiece.totalMillis.getCount());
+
+        // Mute changes publish a new audio state without changing the route.
+        CallAudioRouteTransitionTracker.TransitionStats mute =
+                tracker.getStats("ActiveEarpieceRoute", "ActiveEarpieceRoute");
+        assertNotNull(mute);
+        assertEquals(2, mute.publishMillis.getCount());
+        assertEquals(0, mute.enterMillis.getCount());
+
+        assertNotNull(tracker.getStats("ActiveEarpieceRoute", "QuiescentEarpieceRoute"));
+        report(stateMachine);
+    }
+
+    @MediumTest
+    public void testReplayHeadset() {
+        CallAudioRouteStateMachine stateMachine = replay(HEADSET_SEQUENCE,
+                new CallAudioState(false, CallAudioState.ROUTE_EARPIECE,
+                        CallAudioState.ROUTE_EARPIECE | CallAudioState.ROUTE_SPEAKER));
+        CallAudioRouteTransitionTracker tracker = stateMachine.getTransitionTracker();
+
+        assertNotNull(tracker.getStats("ActiveEarpieceRoute", "ActiveHeadsetRoute"));
+        assertNotNull(tracker.getStats("ActiveHeadsetRoute", "ActiveSpeakerRoute"));
+        assertNotNull(tracker.getStats("ActiveSpeakerRoute", "QuiescentSpeakerRoute"));
+        report(stateMachine);
+    }
+
+    @MediumTest
+    public void testRecordedSequenceCanBeReplayed() {
+        CallAudioState initState = new CallAudioState(false, CallAudioState.ROUTE_EARPIECE,
+                CallAudioState.ROUTE_EARPIECE | CallAudioState.ROUTE_SPEAKER);
+        CallAudioRouteStateMachine recorded = replay(SPEAKER_TOGGLE_SEQUENCE, initState);
+        String sequence = recorded.getTransitionTracker().getRecentMessages();
+
+        CallAudioRouteStateMachine replayed = replay(sequence, initState);
+        assertEquals(
+                recorded.getTransitionTracker().getStats("ActiveEarpieceRoute",
+                        "ActiveSpeakerRoute").totalMillis.getCount(),
+                replayed.getTransitionTracker().getStats("ActiveEarpieceRoute",
+                        "ActiveSpeakerRoute").totalMillis.getCount());
+    }
+
+    /**
+     * Measures message throughput and allocations per transition while toggling between the
+     * earpiece and the speakerphone, and checks that the published states are not allocated per
+     * transition. The allocations include those made by the mocks to record their invocations.
+     */
+    // Debug's allocation counters are deprecated, but they are the only way to count the
+    // allocations made on the state machine's thread as well as this one.
+    @SuppressWarnings("deprecation")
+    @LargeTest
+    public void testRouteSwitchBenchmark() {
+        final int iterations = 500;
+        StringBuilder sb = new StringBuilder("SWITCH_FOCUS(2)");
+        for (int i = 0; i < iterations; i++) {
+            sb.append(" USER_SWITCH_SPEAKER(0) USER_SWITCH_EARPIECE(0)");
+        }
+        CallAudioState initState = new CallAudioState(false, CallAudioState.ROUTE_EARPIECE,
+                CallAudioState.ROUTE_EARPIECE | CallAudioState.ROUTE_SPEAKER);
+
+        Debug.resetGlobalAllocCount();
+        Debug.startAllocCounting();
+        long startNanos = System.nanoTime();
+        CallAudioRouteStateMachine stateMachine = replay(sb.toString(), initState);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        Debug.stopAllocCounting();
+
+        int transitions = 2 * iterations;
+        Log.i(this, "%d transitions: %d messages/s, %d allocations per transition",
+                transitions, transitions * 1000000000L / elapsedNanos,
+                Debug.getGlobalAllocCount() / transitions);
+        report(stateMachine);
+
+        // The published states are shared instances rather than being allocated per transition.
+        ArgumentCaptor<CallAudioState> captor = ArgumentCaptor.forClass(CallAudioState.class);
+        verify(mockCallsManager, atLeast(transitions)).onCallAudioStateChanged(
+                any(CallAudioState.class), captor.capture());
+        List<CallAudioState> states = captor.getAllValues();
+        CallAudioState last = states.get(states.size() - 1);
+        assertSame(last, states.get(states.size() - 3));
+        assertNotSame(last, states.get(states.size() - 2));
+    }
+
+    private CallAudioRouteStateMachine replay(String sequence, CallAudioState initState) {
+        CallAudioRouteStateMachine stateMachine = new CallAudioRouteStateMachine(
+                mContext,
+                mockCallsManager,
+                mockBluetoothRouteManager,
+                mockWiredHeadsetManager,
+                mockStatusBarNotifier,
+                mAudioServiceFactory,
+                true);
+        stateMachine.initialize(initState);
+        waitForStateMachineActionCompletion(stateMachine,
+                CallAudioRouteStateMachine.RUN_RUNNABLE);
+        // Don't count the initialization in the replayed timings.
+        stateMachine.getTransitionTracker().reset();
+
+        for (String token : sequence.trim().split("\\s+")) {
+            int open = token.indexOf('(');
+            String name = token.substring(0, open);
+            int arg = Integer.parseInt(token.substring(open + 1, token.length() - 1));
+            int code = getMessageCode(name);
+            if (code == CallAudioRouteStateMachine.RUN_RUNNABLE) {
+                // Posted by the test harness itself; there is no runnable to replay.
+                continue;
+            }
+            stateMachine.sendMessageWithSessionInfo(code, arg);
+        }
+        waitForStateMachineActionCompletion(stateMachine,
+                CallAudioRouteStateMachine.RUN_RUNNABLE);
+        return stateMachine;
+    }
+
+    private static int getMessageCode(String name) {
+        SparseArray<String> names = CallAudioRouteStateMachine.MESSAGE_CODE_TO_NAME;
+        for (int i = 0; i < names.size(); i++) {
+            if (names.valueAt(i).equals(name)) {
+                return names.keyAt(i);
+            }
+        }
+        throw new IllegalArgumentException("Unknown message " + name);
+    }
+
+    private void report(CallAudioRouteStateMachine stateMachine) {
+        StringWriter writer = new StringWriter();
+        IndentingPrintWriter pw = new IndentingPrintWriter(writer, "  ");
+        stateMachine.dumpTransitionLatencies(pw);
+        pw.flush();
+        Log.i(this, "Replayed transition timings (ms):\n%s", writer);
+    }
+}
@@ -22,12 +22,20 @@ import android.telecom.Conference;
 import android.telecom.Connection;
 import android.telecom.InCallService;
 import android.telecom.ParcelableCall;
+import android.telecom.PhoneAccount;
 import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.MediumTest;
 
+import org.mockito.ArgumentCaptor;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
 /**
  * Tests the {@link Connection} and {@link Call} extras functionality.
  */
@@ -40,6 +48,7 @@ public class CallExtrasTest extends TelecomSystemTest {
     public final static String EXTRA_VALUE_STR = "socks";
     public final static String EXTRA_VALUE2_STR = "mozzarella";
     public final static int EXTRA_VALUE_INT = 1234;
+    private static final String EXISTING_CONNECTION_ID = "existing";
 
     /**
      * Tests setting extras on the connection side and ensuring they are propagated through to
@@ -131,6 +140,33 @@ public class CallExtrasTest extends TelecomSystemTest {
                 mInCallServiceFixtureX.getCall(ids.mCallId).getExtras().getString(EXTRA_KEY_STR));
     }
 
+    /**
+     * Tests that putting extras the call already has on the connection side is not passed on to
+     * the InCallService.
+     *
+     * @throws Exception
+     */
+    @MediumTest
+    public void testCsPutSameExtraNotPropagated() throws Exception {
+        // Get a call up and running.
+        IdPair ids = startAndMakeActiveIncomingCall("650-555-1212",
+                mPhoneAccountA0.getAccountHandle(), mConnectionServiceFixtureA);
+
+        Connection connection = mConnectionServiceFixtureA.mLatestConnection;
+        connection.putExtra(EXTRA_KEY_STR, EXTRA_VALUE_STR);
+        mInCallServiceFixtureX.waitForExtra(ids.mCallId, EXTRA_KEY_STR);
+        int numUpdates = mInCallServiceFixtureX.mNumUpdates;
+
+        // Only the second, different, extra should reach the InCallService. The extras are
+        // handled in order, so any update for the first would arrive before the second.
+        connection.putExtra(EXTRA_KEY_STR, EXTRA_VALUE_STR);
+        connection.putExtra(EXTRA_KEY_INT, EXTRA_VALUE_INT);
+        mInCallServiceFixtureX.waitForExtra(ids.mCallId, EXTRA_KEY_INT);
+        assertEquals(numUpdates + 1, mInCallServiceFixtureX.mNumUpdates);
+        assertEquals(EXTRA_VALUE_INT,
+                mInCallServiceFixtureX.getCall(ids.mCallId).getExtras().getInt(EXTRA_KEY_INT));
+    }
+
     /**
      * Tests remove extras on the connection side and ensuring the removal is reflected in the
      * InCallService.
@@ -263,6 +299,102 @@ public class CallExtrasTest extends TelecomSystemTest {
         assertEquals(EXTRA_VALUE_INT, extras.getInt(EXTRA_KEY_INT));
     }
 
+    /**
+     * Tests that a connection service whose {@link android.telecom.PhoneAccount} supports extras
+     * deltas is only sent the extras which changed.
+     *
+     * @throws Exception
+     */
+    @MediumTest
+    public void testICSPutExtrasSendsDelta() throws Exception {
+        registerExtrasDeltaAccount();
+        IdPair ids = startAndMakeActiveIncomingCall("650-555-1212",
+                mPhoneAccountA0.getAccountHandle(), mConnectionServiceFixtureA);
+        Connection connection = mConnectionServiceFixtureA.mLatestConnection;
+
+        Bundle extras = new Bundle();
+        extras.putString(EXTRA_KEY_STR, EXTRA_VALUE_STR);
+        mInCallServiceFixtureX.mInCallAdapter.putExtras(ids.mCallId, extras);
+        mConnectionServiceFixtureA.waitForExtras();
+        assertTrue(connection.getExtras().containsKey(EXTRA_KEY_STR));
+
+        Bundle moreExtras = new Bundle();
+        moreExtras.putInt(EXTRA_KEY_INT, EXTRA_VALUE_INT);
+        mInCallServiceFixtureX.mInCallAdapter.putExtras(ids.mCallId, moreExtras);
+        mConnectionServiceFixtureA.waitForExtras();
+        Bundle connectionExtras = connection.getExtras();
+        assertEquals(EXTRA_VALUE_INT, connectionExtras.getInt(EXTRA_KEY_INT));
+        assertFalse(connectionExtras.containsKey(EXTRA_KEY_STR));
+    }
+
+    /**
+     * Tests that a connection service which supports extras deltas is sent all of the extras once
+     * one has been removed, since a delta can't express the removal, and deltas again after that.
+     *
+     * @throws Exception
+     */
+    @MediumTest
+    public void testICSRemoveExtrasSendsFullBundle() throws Exception {
+        registerExtrasDeltaAccount();
+        IdPair ids = startAndMakeActiveIncomingCall("650-555-1212",
+                mPhoneAccountA0.getAccountHandle(), mConnectionServiceFixtureA);
+        Connection connection = mConnectionServiceFixtureA.mLatestConnection;
+
+        Bundle extras = new Bundle();
+        extras.putString(EXTRA_KEY_STR, EXTRA_VALUE_STR);
+        extras.putInt(EXTRA_KEY_INT, EXTRA_VALUE_INT);
+        mInCallServiceFixtureX.mInCallAdapter.putExtras(ids.mCallId, extras);
+        mConnectionServiceFixtureA.waitForExtras();
+
+        mInCallServiceFixtureX.mInCallAdapter.removeExtras(ids.mCallId,
+                new ArrayList<String>(Arrays.asList(EXTRA_KEY_STR)));
+        mConnectionServiceFixtureA.waitForExtras();
+        Bundle connectionExtras = connection.getExtras();
+        assertFalse(connectionExtras.containsKey(EXTRA_KEY_STR));
+        assertEquals(EXTRA_VALUE_INT, connectionExtras.getInt(EXTRA_KEY_INT));
+
+        Bundle moreExtras = new Bundle();
+        moreExtras.putBoolean(EXTRA_KEY_BOOL, true);
+        mInCallServiceFixtureX.mInCallAdapter.putExtras(ids.mCallId, moreExtras);
+        mConnectionServiceFixtureA.waitForExtras();
+        connectionExtras = connection.getExtras();
+        assertTrue(connectionExtras.getBoolean(EXTRA_KEY_BOOL));
+        assertFalse(connectionExtras.containsKey(EXTRA_KEY_INT));
+    }
+
+    /**
+     * Tests that when a connection manager takes over a call, its connection service is sent all
+     * of the extras rather than only those which changed since the previous service was sent
+     * them.
+     *
+     * @throws Exception
+     */
+    @LargeTest
+    public void testICSPutExtrasAfterConnectionServiceChange() throws Exception {
+        registerExtrasDeltaAccount();
+        IdPair ids = startAndMakeActiveIncomingCall("650-555-1212",
+                mPhoneAccountA0.getAccountHandle(), mConnectionServiceFixtureA);
+        Bundle extras = new Bundle();
+        extras.putString(EXTRA_KEY_STR, EXTRA_VALUE_STR);
+        mInCallServiceFixtureX.mInCallAdapter.putExtras(ids.mCallId, extras);
+        mConnectionServiceFixtureA.waitForExtras();
+
+        // Bind connection service B, which then takes over the call.
+        startAndMakeActiveOutgoingCall("650-555-1213", mPhoneAccountB0.getAccountHandle(),
+                mConnectionServiceFixtureB);
+        mConnectionServiceFixtureB.sendAddExistingConnection(EXISTING_CONNECTION_ID,
+                mPhoneAccountB0.getAccountHandle(), ids.mCallId);
+
+        Bundle moreExtras = new Bundle();
+        moreExtras.putInt(EXTRA_KEY_INT, EXTRA_VALUE_INT);
+        mInCallServiceFixtureX.mInCallAdapter.putExtras(ids.mCallId, moreExtras);
+        ArgumentCaptor<Bundle> extrasCaptor = ArgumentCaptor.forClass(Bundle.class);
+        verify(mConnectionServiceFixtureB.getTestDouble(), timeout(TEST_TIMEOUT))
+                .onExtrasChanged(eq(EXISTING_CONNECTION_ID), extrasCaptor.capture(), any());
+        assertTrue(extrasCaptor.getValue().containsKey(EXTRA_KEY_STR));
+        assertTrue(extrasCaptor.getValue().containsKey(EXTRA_KEY_INT));
+    }
+
     /**
      * A bi-directional test of the extras.  Tests setting extras from both the ConnectionService
      * and InCall side and ensuring the bundles are merged appropriately.
@@ -430,4 +562,12 @@ public class CallExtrasTest extends TelecomSystemTest {
         conferenceExtras = conference.getExtras();
         assertFalse(conferenceExtras.containsKey(EXTRA_KEY_STR));
     }
+
+    private void registerExtrasDeltaAccount() {
+        Bundle accountExtras = new Bundle();
+        accountExtras.putBoolean(
+                com.android.server.telecom.Call.EXTRA_SUPPORTS_EXTRAS_DELTAS, true);
+        mTelecomSystem.getPhoneAccountRegistrar().registerPhoneAccount(
+                PhoneAccount.builder(mPhoneAccountA0).setExtras(accountExtras).build());
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.os.Bundle;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.Call;
+import com.android.server.telecom.CallListeners;
+
+import static org.mockito.Mockito.mock;
+
+public class CallListenersTest extends TelecomTestCase {
+    private static class ExtrasListener extends Call.ListenerBase {
+        int mNumExtrasChanged;
+
+        @Override
+        public void onExtrasChanged(Call c, int source, Bundle extras) {
+            mNumExtrasChanged++;
+        }
+    }
+
+    private static class HandleListener extends ExtrasListener {
+        @Override
+        public void onHandleChanged(Call call) {
+        }
+    }
+
+    @SmallTest
+    public void testMaskOnlyHasOverriddenCallbacks() {
+        assertEquals(1L << CallListeners.ON_EXTRAS_CHANGED,
+                CallListeners.getMask(new ExtrasListener()));
+        assertEquals(1L << CallListeners.ON_EXTRAS_CHANGED | 1L << CallListeners.ON_HANDLE_CHANGED,
+                CallListeners.getMask(new HandleListener()));
+        // Callbacks numbered above 31 need the full width of the mask.
+        assertEquals(-1L >>> (64 - 35), CallListeners.getMask(mock(Call.Listener.class)));
+    }
+
+    @SmallTest
+    public void testCallbackArraysOnlyHoldInterestedListeners() {
+        CallListeners listeners = new CallListeners();
+        ExtrasListener extras = new ExtrasListener();
+        HandleListener handle = new HandleListener();
+        listeners.add(extras);
+        listeners.add(handle);
+        // Adding a listener twice has no effect.
+        listeners.add(extras);
+
+        assertEquals(2, listeners.getAll().length);
+        assertEquals(2, listeners.get(CallListeners.ON_EXTRAS_CHANGED).length);
+        assertEquals(1, listeners.get(CallListeners.ON_HANDLE_CHANGED).length);
+        assertSame(handle, listeners.get(CallListeners.ON_HANDLE_CHANGED)[0]);
+        assertEquals(0, listeners.get(CallListeners.ON_POST_DIAL_WAIT).length);
+
+        listeners.remove(extras);
+        assertEquals(1, listeners.getAll().length);
+        assertSame(handle, listeners.get(CallListeners.ON_EXTRAS_CHANGED)[0]);
+        // Removing a listener which was never added has no effect.
+        listeners.remove(extras);
+        assertEquals(1, listeners.getAll().length);
+    }
+
+    @SmallTest
+    public void testNotifyingDoesNotCopyListeners() {
+        CallListeners listeners = new CallListeners();
+        listeners.add(new ExtrasListener());
+        Call.Listener[] all = listeners.getAll();
+        Call.Listener[] extras = listeners.get(CallListeners.ON_EXTRAS_CHANGED);
+
+        // Notifying reads the same arrays each time; only adding or removing replaces them.
+        for (int i = 0; i < 10; i++) {
+            for (Call.Listener l : listeners.get(CallListeners.ON_EXTRAS_CHANGED)) {
+                l.onExtrasChanged(null, 0, null);
+            }
+            assertSame(all, listeners.getAll());
+            assertSame(extras, listeners.get(CallListeners.ON_EXTRAS_CHANGED));
+        }
+        listeners.add(new HandleListener());
+        assertNotSame(extras, listeners.get(CallListeners.ON_EXTRAS_CHANGED));
+    }
+
+    @SmallTest
+    public void testListenerRemovedWhileNotifyingIsStillNotified() {
+        final CallListeners listeners = new CallListeners();
+        final ExtrasListener second = new ExtrasListener();
+        ExtrasListener first = new ExtrasListener() {
+            @Override
+            public void onExtrasChanged(Call c, int source, Bundle extras) {
+                super.onExtrasChanged(c, source, extras);
+                listeners.remove(second);
+            }
+        };
+        listeners.add(first);
+        listeners.add(second);
+
+        for (Call.Listener l : listeners.get(CallListeners.ON_EXTRAS_CHANGED)) {
+            l.onExtrasChanged(null, 0, null);
+        }
+        assertEquals(1, first.mNumExtrasChanged);
+        assertEquals(1, second.mNumExtrasChanged);
+        assertEquals(1, listeners.get(CallListeners.ON_EXTRAS_CHANGED).length);
+    }
+}
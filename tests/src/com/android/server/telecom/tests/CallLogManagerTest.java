@@ -28,6 +28,7 @@ import android.location.CountryDetector;
 import android.location.CountryListener;
 import android.net.Uri;
 import android.os.Environment;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.PersistableBundle;
 import android.os.UserHandle;
@@ -49,10 +50,12 @@ import com.android.server.telecom.Call;
 import com.android.server.telecom.CallLogManager;
 import com.android.server.telecom.CallState;
 import com.android.server.telecom.CallsManager;
+import com.android.server.telecom.CallsManagerListenerDispatcher;
 import com.android.server.telecom.MissedCallNotifier;
 import com.android.server.telecom.PhoneAccountRegistrar;
 import com.android.server.telecom.R;
 import com.android.server.telecom.SensitivePhoneNumbers;
+import com.android.server.telecom.TelecomLooper;
 import com.android.server.telecom.TelephonyUtil;
 
 import static org.mockito.Matchers.any;
@@ -75,6 +78,8 @@ import org.mockito.stubbing.Answer;
 import java.io.File;
 import java.util.Arrays;
 import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class CallLogManagerTest extends TelecomTestCase {
 
@@ -434,6 +439,58 @@ public class CallLogManagerTest extends TelecomTestCase {
         assertEquals(insertedValues.getAsString(Calls.VIA_NUMBER), expectedNumber);
     }
 
+    @MediumTest
+    public void testLogCallFromNonCriticalHandler() throws Exception {
+        when(mMockPhoneAccountRegistrar.getPhoneAccountUnchecked(any(PhoneAccountHandle.class)))
+                .thenReturn(makeFakePhoneAccount(mDefaultAccountHandle, CURRENT_USER_ID));
+        Call fakeCall = makeFakeCall(
+                DisconnectCause.OTHER, // disconnectCauseCode
+                false, // isConference
+                true, // isIncoming
+                1L, // creationTimeMillis
+                1000L, // ageMillis
+                TEL_PHONEHANDLE, // callHandle
+                mDefaultAccountHandle, // phoneAccountHandle
+                NO_VIDEO_STATE, // callVideoState
+                POST_DIAL_STRING, // postDialDigits
+                VIA_NUMBER_STRING, // viaNumber
+                UserHandle.of(CURRENT_USER_ID)
+        );
+        HandlerThread thread = new HandlerThread("CallLogManagerTest");
+        thread.start();
+        try {
+            TelecomLooper.MonitoredHandler handler =
+                    new TelecomLooper.MonitoredHandler(thread.getLooper());
+            CallsManagerListenerDispatcher dispatcher =
+                    new CallsManagerListenerDispatcher(handler);
+            dispatcher.addNonCritical(mCallLogManager);
+            final CountDownLatch blocked = new CountDownLatch(1);
+            handler.post(() -> {
+                try {
+                    blocked.await(TEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // do nothing
+                }
+            });
+
+            dispatcher.onCallStateChanged(fakeCall, CallState.ACTIVE, CallState.DISCONNECTED);
+            // The call changes before the handler gets to log it.
+            when(fakeCall.getOriginalHandle()).thenReturn(TEL_SENSITIVE_PHONEHANDLE);
+            when(fakeCall.getCreationTimeMillis()).thenReturn(2L);
+            blocked.countDown();
+
+            // It is logged as it was when the event was dispatched.
+            ContentValues insertedValues = verifyInsertionWithCapture(CURRENT_USER_ID);
+            assertEquals(TEL_PHONEHANDLE.getSchemeSpecificPart(),
+                    insertedValues.getAsString(CallLog.Calls.NUMBER));
+            assertEquals(Long.valueOf(1L), insertedValues.getAsLong(CallLog.Calls.DATE));
+            assertEquals(Integer.valueOf(CallLog.Calls.INCOMING_TYPE),
+                    insertedValues.getAsInteger(CallLog.Calls.TYPE));
+        } finally {
+            thread.quitSafely();
+        }
+    }
+
     @MediumTest
     public void testLogCallVideoFeatures() {
         when(mMockPhoneAccountRegistrar.getPhoneAccountUnchecked(any(PhoneAccountHandle.class)))
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.telecom.Logging.EventManager;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.CallSetupPhaseTracker;
+import com.android.server.telecom.ClockProxy;
+import com.android.server.telecom.LatencyHistogram;
+import com.android.server.telecom.LogUtils;
+import com.android.server.telecom.nano.TelecomLogClass;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link CallSetupPhaseTracker}.
+ */
+public class CallSetupPhaseTrackerTest extends AndroidTestCase {
+    private static final String CS_A = "com.foo/.ConnectionServiceA";
+    private static final String CS_B = "com.bar/.ConnectionServiceB";
+
+    private long mElapsedRealtime = 1000;
+    private final ClockProxy mClock = new ClockProxy() {
+        @Override
+        public long currentTimeMillis() {
+            return mElapsedRealtime;
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return mElapsedRealtime;
+        }
+    };
+
+    @SmallTest
+    public void testOutgoingCallPhases() {
+        List<EventManager.Event> events = Arrays.asList(
+                event(LogUtils.Events.START_CONNECTION, 1000),
+                event(LogUtils.Events.BIND_CS, 1010),
+                event(LogUtils.Events.CS_BOUND, 1060),
+                event(LogUtils.Events.SET_DIALING, 1200),
+                event(LogUtils.Events.SET_ACTIVE, 4200));
+
+        long[] durations = CallSetupPhaseTracker.computePhaseDurations(events);
+        assertEquals(50, durations[CallSetupPhaseTracker.PHASE_BIND_CS]);
+        assertEquals(200, durations[CallSetupPhaseTracker.PHASE_START_TO_DIALING]);
+        assertEquals(3000, durations[CallSetupPhaseTracker.PHASE_DIALING_TO_ACTIVE]);
+        assertEquals(CallSetupPhaseTracker.NO_DURATION,
+                durations[CallSetupPhaseTracker.PHASE_FILTERING]);
+        assertEquals(CallSetupPhaseTracker.NO_DURATION,
+                durations[CallSetupPhaseTracker.PHASE_ACCEPT_TO_ACTIVE]);
+    }
+
+    @SmallTest
+    public void testIncomingCallPhases() {
+        List<EventManager.Event> events = Arrays.asList(
+                event(LogUtils.Events.FILTERING_INITIATED, 0),
+                event(LogUtils.Events.FILTERING_COMPLETED, 400),
+                // An end event without a preceding start event is ignored.
+                event(LogUtils.Events.SET_ACTIVE, 500),
+                event(LogUtils.Events.REQUEST_ACCEPT, 2000),
+                event(LogUtils.Events.SET_ACTIVE, 2300),
+                // Only the first occurrence of a phase is counted.
+                event(LogUtils.Events.REQUEST_ACCEPT, 5000),
+                event(LogUtils.Events.SET_ACTIVE, 9000));
+
+        long[] durations = CallSetupPhaseTracker.computePhaseDurations(events);
+        assertEquals(400, durations[CallSetupPhaseTracker.PHASE_FILTERING]);
+        assertEquals(300, durations[CallSetupPhaseTracker.PHASE_ACCEPT_TO_ACTIVE]);
+        assertEquals(CallSetupPhaseTracker.NO_DURATION,
+                durations[CallSetupPhaseTracker.PHASE_DIALING_TO_ACTIVE]);
+    }
+
+    @SmallTest
+    public void testRingingPhases() {
+        List<EventManager.Event> events = Arrays.asList(
+                event(LogUtils.Events.FILTERING_INITIATED, 0),
+                event(LogUtils.Events.FILTERING_COMPLETED, 400),
+                event(LogUtils.Events.START_RINGER, 450),
+                event(LogUtils.Events.RINGTONE_STARTED, 480));
+
+        long[] durations = CallSetupPhaseTracker.computePhaseDurations(events);
+        assertEquals(50, durations[CallSetupPhaseTracker.PHASE_FILTERING_TO_RINGER]);
+        assertEquals(30, durations[CallSetupPhaseTracker.PHASE_RINGER_TO_AUDIBLE]);
+    }
+
+    @SmallTest
+    public void testAggregatesPerConnectionService() {
+        CallSetupPhaseTracker tracker = new CallSetupPhaseTracker();
+        tracker.onCallEnded(CS_A, Arrays.asList(
+                event(LogUtils.Events.BIND_CS, 0), event(LogUtils.Events.CS_BOUND, 10)));
+        tracker.onCallEnded(CS_A, Arrays.asList(
+                event(LogUtils.Events.BIND_CS, 0), event(LogUtils.Events.CS_BOUND, 30)));
+        tracker.onCallEnded(CS_B, Arrays.asList(
+                event(LogUtils.Events.BIND_CS, 0), event(LogUtils.Events.CS_BOUND, 900)));
+
+        LatencyHistogram a = tracker.getHistogram(CS_A, CallSetupPhaseTracker.PHASE_BIND_CS);
+        LatencyHistogram b = tracker.getHistogram(CS_B, CallSetupPhaseTracker.PHASE_BIND_CS);
+        assertEquals(2, a.getCount());
+        assertEquals(30, a.getMax());
+        assertEquals(1, b.getCount());
+        assertEquals(900, b.getMax());
+
+        TelecomLogClass.CallSetupPhaseHistogram[] protos = tracker.toProto();
+        assertEquals(2, protos.length);
+
+        tracker.reset();
+        assertNull(tracker.getHistogram(CS_A, CallSetupPhaseTracker.PHASE_BIND_CS));
+    }
+
+    @SmallTest
+    public void testEvictsLeastRecentlyUsedConnectionService() {
+        CallSetupPhaseTracker tracker = new CallSetupPhaseTracker();
+        List<EventManager.Event> events = Arrays.asList(
+                event(LogUtils.Events.BIND_CS, 0), event(LogUtils.Events.CS_BOUND, 10));
+        for (int i = 0; i <= CallSetupPhaseTracker.MAX_CONNECTION_SERVICES; i++) {
+            tracker.onCallEnded("cs" + i, events);
+        }
+        assertNull(tracker.getHistogram("cs0", CallSetupPhaseTracker.PHASE_BIND_CS));
+        assertNotNull(tracker.getHistogram("cs1", CallSetupPhaseTracker.PHASE_BIND_CS));
+    }
+
+    @SmallTest
+    public void testHistogramsRollOver() {
+        CallSetupPhaseTracker tracker = new CallSetupPhaseTracker(mClock);
+        tracker.onCallEnded(CS_A, bindEvents(10));
+        tracker.onCallEnded(CS_B, bindEvents(900));
+
+        // The first window's calls are still reported during the second window.
+        mElapsedRealtime += CallSetupPhaseTracker.WINDOW_MILLIS;
+        tracker.onCallEnded(CS_A, bindEvents(30));
+        LatencyHistogram a = tracker.getHistogram(CS_A, CallSetupPhaseTracker.PHASE_BIND_CS);
+        assertEquals(2, a.getCount());
+        assertEquals(30, a.getMax());
+        assertEquals(1, tracker.getHistogram(CS_B, CallSetupPhaseTracker.PHASE_BIND_CS)
+                .getCount());
+
+        // In the third window, only the second window's calls are left.
+        mElapsedRealtime += CallSetupPhaseTracker.WINDOW_MILLIS;
+        a = tracker.getHistogram(CS_A, CallSetupPhaseTracker.PHASE_BIND_CS);
+        assertEquals(1, a.getCount());
+        assertEquals(30, a.getMax());
+        assertNull(tracker.getHistogram(CS_B, CallSetupPhaseTracker.PHASE_BIND_CS));
+        assertEquals(1, tracker.toProto().length);
+
+        // After two idle windows, nothing is left.
+        mElapsedRealtime += 2 * CallSetupPhaseTracker.WINDOW_MILLIS;
+        assertNull(tracker.getHistogram(CS_A, CallSetupPhaseTracker.PHASE_BIND_CS));
+        assertEquals(0, tracker.toProto().length);
+    }
+
+    private static List<EventManager.Event> bindEvents(long bindMillis) {
+        return Arrays.asList(
+                event(LogUtils.Events.BIND_CS, 0), event(LogUtils.Events.CS_BOUND, bindMillis));
+    }
+
+    private static EventManager.Event event(String eventId, long time) {
+        return new EventManager.Event(eventId, null, time, null);
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.os.HandlerThread;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.telecom.Call;
+import com.android.server.telecom.CallState;
+import com.android.server.telecom.CallsManager;
+import com.android.server.telecom.CallsManagerListenerBase;
+import com.android.server.telecom.CallsManagerListenerDispatcher;
+import com.android.server.telecom.NonCriticalListenerBase;
+import com.android.server.telecom.TelecomLooper;
+import com.android.server.telecom.TelecomSystem;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CallsManagerListenerDispatcherTest extends TelecomTestCase {
+    private static final long TEST_TIMEOUT = 1000;
+
+    private static class AddedListener extends CallsManagerListenerBase {
+        int mNumAdded;
+
+        @Override
+        public void onCallAdded(Call call) {
+            mNumAdded++;
+        }
+    }
+
+    private static class StateListener extends AddedListener {
+        int mNumStateChanges;
+
+        @Override
+        public void onCallStateChanged(Call call, int oldState, int newState) {
+            mNumStateChanges++;
+        }
+    }
+
+    /**
+     * Records the events it receives from {@link #runLater}, and whether the Telecom lock was held
+     * while recording any of them.
+     */
+    private static class RecordingListener extends NonCriticalListenerBase {
+        final List<String> mEvents = new ArrayList<>();
+        private final Object mLock;
+        boolean mWasLockHeld;
+
+        RecordingListener(Object lock) {
+            mLock = lock;
+        }
+
+        @Override
+        public void onCallAdded(Call call) {
+            record("added " + call.getId());
+        }
+
+        @Override
+        public void onCallStateChanged(Call call, int oldState, int newState) {
+            record("state " + call.getId() + " " + oldState + "->" + newState);
+        }
+
+        @Override
+        public void onCallRemoved(Call call) {
+            record("removed " + call.getId());
+        }
+
+        private void record(String event) {
+            // Only the event is passed on, never the call.
+            runLater("RL.r", () -> {
+                mWasLockHeld |= Thread.holdsLock(mLock);
+                mEvents.add(event);
+            });
+        }
+    }
+
+    private final TelecomSystem.SyncRoot mLock = new TelecomSystem.SyncRoot() { };
+    private HandlerThread mThread;
+    private TelecomLooper.MonitoredHandler mHandler;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("CallsManagerListenerDispatcherTest");
+        mThread.start();
+        mHandler = new TelecomLooper.MonitoredHandler(mThread.getLooper());
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mThread.quitSafely();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testMaskOnlyHasOverriddenCallbacks() {
+        assertEquals(1 << CallsManagerListenerDispatcher.ON_CALL_ADDED,
+                CallsManagerListenerDispatcher.computeMask(new AddedListener()));
+        // Callbacks overridden by a superclass count as well.
+        assertEquals(1 << CallsManagerListenerDispatcher.ON_CALL_ADDED
+                        | 1 << CallsManagerListenerDispatcher.ON_CALL_STATE_CHANGED,
+                CallsManagerListenerDispatcher.computeMask(new StateListener()));
+        assertEquals(0, CallsManagerListenerDispatcher.computeMask(
+                new CallsManagerListenerBase()));
+    }
+
+    @SmallTest
+    public void testDispatchOnlyReachesInterestedListeners() {
+        CallsManagerListenerDispatcher dispatcher = new CallsManagerListenerDispatcher();
+        AddedListener added = new AddedListener();
+        StateListener state = new StateListener();
+        dispatcher.add(added);
+        dispatcher.add(state);
+        // Adding a listener twice has no effect.
+        dispatcher.add(added);
+
+        assertEquals(2, dispatcher.getNumListeners(CallsManagerListenerDispatcher.ON_CALL_ADDED));
+        assertEquals(1, dispatcher.getNumListeners(
+                CallsManagerListenerDispatcher.ON_CALL_STATE_CHANGED));
+        assertEquals(0, dispatcher.getNumListeners(
+                CallsManagerListenerDispatcher.ON_CALL_REMOVED));
+
+        dispatcher.onCallAdded(null);
+        dispatcher.onCallStateChanged(null, 0, 0);
+        assertEquals(1, added.mNumAdded);
+        assertEquals(1, state.mNumAdded);
+        assertEquals(1, state.mNumStateChanges);
+
+        dispatcher.remove(state);
+        dispatcher.onCallAdded(null);
+        assertEquals(2, added.mNumAdded);
+        assertEquals(1, state.mNumAdded);
+        assertEquals(0, dispatcher.getNumListeners(
+                CallsManagerListenerDispatcher.ON_CALL_STATE_CHANGED));
+    }
+
+    @SmallTest
+    public void testMockedListenerReceivesEveryEvent() {
+        CallsManagerListenerDispatcher dispatcher = new CallsManagerListenerDispatcher();
+        CallsManager.CallsManagerListener listener = mock(CallsManagerListenerBase.class);
+        dispatcher.add(listener);
+
+        dispatcher.onCanAddCallChanged(true);
+        verify(listener).onCanAddCallChanged(true);
+    }
+
+    @SmallTest
+    public void testDumpShowsDispatchTimes() {
+        CallsManagerListenerDispatcher dispatcher = new CallsManagerListenerDispatcher();
+        dispatcher.add(new AddedListener());
+        dispatcher.onCallAdded(null);
+
+        StringWriter writer = new StringWriter();
+        IndentingPrintWriter pw = new IndentingPrintWriter(writer, "  ");
+        dispatcher.dump(pw);
+        pw.flush();
+        assertTrue(writer.toString().contains("AddedListener:"));
+        assertTrue(writer.toString().contains("onCallAdded: count=1"));
+    }
+
+    @SmallTest
+    public void testNonCriticalListenerCalledAfterDispatch() throws Exception {
+        CallsManagerListenerDispatcher dispatcher =
+                new CallsManagerListenerDispatcher(mHandler);
+        RecordingListener critical = new RecordingListener(mLock);
+        RecordingListener nonCritical = new RecordingListener(mLock);
+        dispatcher.addNonCritical(nonCritical);
+        dispatcher.add(critical);
+        Call call = createCall("1");
+
+        final CountDownLatch blocked = new CountDownLatch(1);
+        mHandler.post(() -> {
+            try {
+                blocked.await(TEST_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // do nothing
+            }
+        });
+        synchronized (mLock) {
+            dispatcher.onCallAdded(call);
+        }
+        assertEquals(1, critical.mEvents.size());
+        assertEquals(0, nonCritical.mEvents.size());
+
+        blocked.countDown();
+        waitForHandlerAction(mHandler, TEST_TIMEOUT);
+        assertEquals(critical.mEvents, nonCritical.mEvents);
+        assertTrue(critical.mWasLockHeld);
+        assertFalse(nonCritical.mWasLockHeld);
+    }
+
+    @SmallTest
+    public void testNonCriticalListenerKeepsPerCallOrder() throws Exception {
+        CallsManagerListenerDispatcher dispatcher =
+                new CallsManagerListenerDispatcher(mHandler);
+        RecordingListener critical = new RecordingListener(mLock);
+        RecordingListener nonCritical = new RecordingListener(mLock);
+        dispatcher.add(critical);
+        dispatcher.addNonCritical(nonCritical);
+
+        runLifecycles(dispatcher);
+        waitForHandlerAction(mHandler, TEST_TIMEOUT);
+
+        assertEquals(critical.mEvents, nonCritical.mEvents);
+        assertFalse(nonCritical.mWasLockHeld);
+        // Each call's events arrive in the order they were dispatched.
+        assertTrue(nonCritical.mEvents.indexOf("added 1")
+                < nonCritical.mEvents.indexOf("state 1 0->3"));
+        assertTrue(nonCritical.mEvents.indexOf("state 1 0->3")
+                < nonCritical.mEvents.indexOf("state 1 3->5"));
+        assertTrue(nonCritical.mEvents.indexOf("state 1 3->5")
+                < nonCritical.mEvents.indexOf("removed 1"));
+    }
+
+    @SmallTest
+    public void testNonCriticalListenerMatchesSynchronousMode() throws Exception {
+        CallsManagerListenerDispatcher synchronous = new CallsManagerListenerDispatcher();
+        RecordingListener synchronousListener = new RecordingListener(mLock);
+        synchronous.addNonCritical(synchronousListener);
+        CallsManagerListenerDispatcher asynchronous =
+                new CallsManagerListenerDispatcher(mHandler);
+        RecordingListener asynchronousListener = new RecordingListener(mLock);
+        asynchronous.addNonCritical(asynchronousListener);
+
+        runLifecycles(synchronous);
+        // Without a handler, the work of non-critical listeners is done while dispatching.
+        assertEquals(8, synchronousListener.mEvents.size());
+        assertTrue(synchronousListener.mWasLockHeld);
+        runLifecycles(asynchronous);
+        waitForHandlerAction(mHandler, TEST_TIMEOUT);
+
+        assertEquals(synchronousListener.mEvents, asynchronousListener.mEvents);
+    }
+
+    /**
+     * Dispatches the events of two interleaved calls, each being added, dialing, becoming active,
+     * and being removed, with the Telecom lock held as CallsManager does.
+     */
+    private void runLifecycles(CallsManagerListenerDispatcher dispatcher) {
+        Call[] calls = { createCall("1"), createCall("2") };
+        for (Call call : calls) {
+            synchronized (mLock) {
+                dispatcher.onCallAdded(call);
+            }
+        }
+        int[] states = { CallState.NEW, CallState.DIALING, CallState.ACTIVE };
+        for (int i = 1; i < states.length; i++) {
+            final int oldState = states[i - 1];
+            final int newState = states[i];
+            for (Call call : calls) {
+                synchronized (mLock) {
+                    dispatcher.onCallStateChanged(call, oldState, newState);
+                }
+            }
+        }
+        for (Call call : calls) {
+            synchronized (mLock) {
+                dispatcher.onCallRemoved(call);
+            }
+        }
+    }
+
+    private static Call createCall(String id) {
+        Call call = mock(Call.class);
+        when(call.getId()).thenReturn(id);
+        return call;
+    }
+}
@@ -606,6 +606,24 @@ public class ConnectionServiceFixture implements TestFixture<IConnectionService>
         }
     }
 
+    /**
+     * Adds a connection which this connection service has taken over from another one, as a
+     * connection manager does, and tells Telecom about it.
+     *
+     * @param originalConnectionId The ID of the call the connection was taken over from.
+     */
+    public void sendAddExistingConnection(String id, PhoneAccountHandle phoneAccountHandle,
+            String originalConnectionId) throws Exception {
+        ConnectionInfo c = new ConnectionInfo();
+        c.id = id;
+        c.request = new ConnectionRequest(phoneAccountHandle, null /* address */, null);
+        c.state = Connection.STATE_ACTIVE;
+        c.extras = new Bundle();
+        c.extras.putString(Connection.EXTRA_ORIGINAL_CONNECTION_ID, originalConnectionId);
+        mConnectionById.put(id, c);
+        sendAddExistingConnection(id);
+    }
+
     public void sendConnectionEvent(String id, String event, Bundle extras) throws Exception {
         for (IConnectionServiceAdapter a : mConnectionServiceAdapters) {
             a.onConnectionEvent(id, event, extras, null /*Session.Info*/);
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.UserHandle;
+import android.telecom.PhoneAccountHandle;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.Call;
+import com.android.server.telecom.CallsManager;
+import com.android.server.telecom.ConnectionServiceRepository;
+import com.android.server.telecom.ConnectionServiceWrapper;
+import com.android.server.telecom.PhoneAccountRegistrar;
+import com.android.server.telecom.R;
+import com.android.server.telecom.TelecomSystem;
+import com.android.server.telecom.TelecomTimerWheel;
+import com.android.server.telecom.Timeouts;
+
+import org.mockito.Mock;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConnectionServiceRepositoryTest extends TelecomTestCase {
+    private static final long TEST_TIMEOUT = 1000;
+    private static final long IDLE_TIMEOUT = 60000;
+    private static final long SHORT_IDLE_TIMEOUT = 50;
+
+    @Mock PhoneAccountRegistrar mPhoneAccountRegistrar;
+    @Mock CallsManager mCallsManager;
+    @Mock Timeouts.Adapter mTimeoutsAdapter;
+
+    private final TelecomSystem.SyncRoot mLock = new TelecomSystem.SyncRoot() { };
+    private HandlerThread mThread;
+    private ConnectionServiceRepository mRepository;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mContext = mComponentContextFixture.getTestDouble().getApplicationContext();
+        when(mContext.getResources().getInteger(R.integer.connection_service_warm_pool_size))
+                .thenReturn(2);
+        when(mTimeoutsAdapter.getConnectionServiceWarmIdleTimeoutMillis(
+                any(ContentResolver.class))).thenReturn(IDLE_TIMEOUT);
+        mThread = new HandlerThread("ConnectionServiceRepositoryTest");
+        mThread.start();
+        mRepository = new ConnectionServiceRepository(mPhoneAccountRegistrar, mContext, mLock,
+                mCallsManager, mTimeoutsAdapter, new TelecomTimerWheel(mThread.getLooper()));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mThread.quitSafely();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testMostUsedServicesKeptWarm() {
+        PhoneAccountHandle a = makeHandle("A");
+        PhoneAccountHandle b = makeHandle("B");
+        PhoneAccountHandle c = makeHandle("C");
+        useService(a);
+        useService(a);
+        useService(b);
+        assertTrue(mRepository.isWarm(getServiceFor(a)));
+        assertTrue(mRepository.isWarm(getServiceFor(b)));
+
+        // C ties with B, so one of them is evicted to keep the pool at its size.
+        useService(c);
+        assertTrue(mRepository.isWarm(getServiceFor(a)));
+        assertTrue(mRepository.isWarm(getServiceFor(b)) != mRepository.isWarm(getServiceFor(c)));
+
+        // Once C is used more than B, B is the one evicted.
+        useService(c);
+        assertTrue(mRepository.isWarm(getServiceFor(a)));
+        assertTrue(mRepository.isWarm(getServiceFor(c)));
+        assertFalse(mRepository.isWarm(getServiceFor(b)));
+    }
+
+    @SmallTest
+    public void testCallCountsDecay() {
+        PhoneAccountHandle a = makeHandle("A");
+        PhoneAccountHandle b = makeHandle("B");
+        useService(a);
+        for (int i = 0; i < 62; i++) {
+            useService(b);
+        }
+        assertEquals(1, mRepository.getCallCount(a));
+        assertEquals(62, mRepository.getCallCount(b));
+
+        // The 64th call halves every count, dropping those which reach zero.
+        useService(b);
+        assertEquals(0, mRepository.getCallCount(a));
+        assertEquals(31, mRepository.getCallCount(b));
+    }
+
+    @SmallTest
+    public void testIdleServiceReleased() throws Exception {
+        when(mTimeoutsAdapter.getConnectionServiceWarmIdleTimeoutMillis(
+                any(ContentResolver.class))).thenReturn(SHORT_IDLE_TIMEOUT);
+        PhoneAccountHandle d = makeHandle("D");
+        ConnectionServiceWrapper service = getServiceFor(d);
+
+        synchronized (mLock) {
+            prebind(d);
+            assertTrue(service.isServiceValid("testIdleServiceReleased"));
+            assertTrue(mRepository.isWarm(service));
+        }
+        // The service has no calls, so the idle timeout releases its hold and unbinds it.
+        verify(mContext, timeout(TEST_TIMEOUT)).unbindService(any(ServiceConnection.class));
+        synchronized (mLock) {
+            assertFalse(service.isServiceValid("testIdleServiceReleased"));
+            assertFalse(mRepository.isWarm(service));
+        }
+    }
+
+    @SmallTest
+    public void testPrebindDefaultOutgoingService() throws Exception {
+        PhoneAccountHandle d = makeHandle("D");
+
+        synchronized (mLock) {
+            prebind(d);
+        }
+        verifyBindCount(d, 1);
+        assertTrue(getServiceFor(d).isServiceValid("testPrebindDefaultOutgoingService"));
+        assertTrue(mRepository.isWarm(getServiceFor(d)));
+    }
+
+    @SmallTest
+    public void testPrebindSkippedWhenPoolFull() throws Exception {
+        PhoneAccountHandle a = makeHandle("A");
+        PhoneAccountHandle b = makeHandle("B");
+        PhoneAccountHandle d = makeHandle("D");
+        useService(a);
+        useService(b);
+
+        // The default account has no calls, so it is evicted as soon as it is added.
+        synchronized (mLock) {
+            prebind(d);
+        }
+        verifyBindCount(d, 0);
+        assertFalse(mRepository.isWarm(getServiceFor(d)));
+        assertTrue(mRepository.isWarm(getServiceFor(a)));
+        assertTrue(mRepository.isWarm(getServiceFor(b)));
+    }
+
+    /**
+     * Makes {@code handle} the default outgoing account, with a service the context binds to
+     * straight away, and prebinds it.
+     */
+    private void prebind(PhoneAccountHandle handle) throws Exception {
+        UserHandle user = Process.myUserHandle();
+        when(mPhoneAccountRegistrar.getUserSelectedOutgoingPhoneAccount(user)).thenReturn(handle);
+        mComponentContextFixture.addConnectionService(handle.getComponentName(),
+                new ConnectionServiceFixture().getTestDouble());
+        mRepository.prebindDefaultOutgoingService(user);
+    }
+
+    private void verifyBindCount(PhoneAccountHandle handle, int count) {
+        verify(mContext, times(count)).bindServiceAsUser(
+                argThat((Intent intent) -> handle.getComponentName().equals(intent.getComponent())),
+                any(ServiceConnection.class), anyInt(), any(UserHandle.class));
+    }
+
+    private void useService(PhoneAccountHandle handle) {
+        Call call = mock(Call.class);
+        when(call.getTargetPhoneAccount()).thenReturn(handle);
+        synchronized (mLock) {
+            mRepository.onServiceUsed(getServiceFor(handle), call);
+        }
+    }
+
+    private ConnectionServiceWrapper getServiceFor(PhoneAccountHandle handle) {
+        return mRepository.getService(handle.getComponentName(), handle.getUserHandle());
+    }
+
+    private static PhoneAccountHandle makeHandle(String id) {
+        return new PhoneAccountHandle(
+                new ComponentName("com.android.server.telecom.tests", "Service" + id), id,
+                Process.myUserHandle());
+    }
+}
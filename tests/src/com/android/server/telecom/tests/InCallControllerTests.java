@@ -17,10 +17,12 @@
 package com.android.server.telecom.tests;
 
 import android.Manifest;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
@@ -29,7 +31,6 @@ import android.content.res.Resources;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.Handler;
-import android.os.Looper;
 import android.os.UserHandle;
 import android.telecom.InCallService;
 import android.telecom.ParcelableCall;
@@ -48,6 +49,8 @@ import com.android.server.telecom.CallsManager;
 import com.android.server.telecom.DefaultDialerCache;
 import com.android.server.telecom.EmergencyCallHelper;
 import com.android.server.telecom.InCallController;
+import com.android.server.telecom.InCallKeepAlivePolicy;
+import com.android.server.telecom.InCallServiceCostTracker;
 import com.android.server.telecom.PhoneAccountRegistrar;
 import com.android.server.telecom.R;
 import com.android.server.telecom.SystemStateProvider;
@@ -72,6 +75,7 @@ import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
@@ -112,9 +116,11 @@ public class InCallControllerTests extends TelecomTestCase {
         doReturn(true).when(mMockResources).getBoolean(R.bool.grant_location_permission_enabled);
         mEmergencyCallHelper = new EmergencyCallHelper(mMockContext, SYS_PKG,
                 mTimeoutsAdapter);
+        // As on a low RAM device, the services are always unbound after the configured delay,
+        // however close together the calls in a test are.
         mInCallController = new InCallController(mMockContext, mLock, mMockCallsManager,
                 mMockSystemStateProvider, mDefaultDialerCache, mTimeoutsAdapter,
-                mEmergencyCallHelper);
+                mEmergencyCallHelper, new InCallKeepAlivePolicy(true /* isLowRamDevice */));
     }
 
     @Override
@@ -296,7 +302,7 @@ public class InCallControllerTests extends TelecomTestCase {
         // Pretend that the call has gone away.
         when(mMockCallsManager.getCalls()).thenReturn(Collections.emptyList());
         mInCallController.onCallRemoved(mMockCall);
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TelecomSystemTest.TEST_TIMEOUT);
+        waitForTelecomLoopers(TelecomSystemTest.TEST_TIMEOUT);
 
         verify(mMockPackageManager).revokeRuntimePermission(eq(SYS_PKG),
                 eq(Manifest.permission.ACCESS_FINE_LOCATION), eq(mUserHandle));
@@ -422,6 +428,50 @@ public class InCallControllerTests extends TelecomTestCase {
         assertEquals(DEF_CLASS, bindIntent.getComponent().getClassName());
     }
 
+    /**
+     * Make sure that binding again for a later call reuses the InCallServices found for the first
+     * one, until a package changes.
+     */
+    @MediumTest
+    public void testInCallServiceComponentsCached() throws Exception {
+        setupMocks(false /* isExternalCall */);
+        setupMockPackageManager(true /* default */, true /* system */, false /* external calls */);
+        when(mMockCallsManager.getCalls()).thenReturn(Collections.singletonList(mMockCall));
+        mInCallController.onCallAdded(mMockCall);
+        verify(mMockPackageManager, times(4)).queryIntentServicesAsUser(any(Intent.class),
+                eq(PackageManager.GET_META_DATA), eq(CURRENT_USER_ID));
+
+        // Unbind once the call is gone, then bind again for a new call.
+        when(mMockCallsManager.getCalls()).thenReturn(Collections.emptyList());
+        mInCallController.onCallRemoved(mMockCall);
+        // The unbind is scheduled on the timer wheel, which may not have run it yet.
+        verify(mMockContext, timeout(TelecomSystemTest.TEST_TIMEOUT).times(1))
+                .unbindService(any(ServiceConnection.class));
+        when(mMockCallsManager.getCalls()).thenReturn(Collections.singletonList(mMockCall));
+        mInCallController.onCallAdded(mMockCall);
+        verify(mMockContext, times(2)).bindServiceAsUser(any(Intent.class),
+                any(ServiceConnection.class), anyInt(), eq(UserHandle.CURRENT));
+        verify(mMockPackageManager, times(4)).queryIntentServicesAsUser(any(Intent.class),
+                eq(PackageManager.GET_META_DATA), eq(CURRENT_USER_ID));
+
+        // A package change means the services have to be looked up again.
+        ArgumentCaptor<BroadcastReceiver> receiverCaptor =
+                ArgumentCaptor.forClass(BroadcastReceiver.class);
+        verify(mMockContext).registerReceiverAsUser(receiverCaptor.capture(),
+                eq(UserHandle.ALL), any(IntentFilter.class), nullable(String.class),
+                nullable(Handler.class));
+        receiverCaptor.getValue().onReceive(mMockContext,
+                new Intent(Intent.ACTION_PACKAGE_REPLACED));
+        when(mMockCallsManager.getCalls()).thenReturn(Collections.emptyList());
+        mInCallController.onCallRemoved(mMockCall);
+        verify(mMockContext, timeout(TelecomSystemTest.TEST_TIMEOUT).times(2))
+                .unbindService(any(ServiceConnection.class));
+        when(mMockCallsManager.getCalls()).thenReturn(Collections.singletonList(mMockCall));
+        mInCallController.onCallAdded(mMockCall);
+        verify(mMockPackageManager, times(8)).queryIntentServicesAsUser(any(Intent.class),
+                eq(PackageManager.GET_META_DATA), eq(CURRENT_USER_ID));
+    }
+
     /**
      * Make sure that if a call goes away before the in-call service finishes binding and another
      * call gets connected soon after, the new call will still be sent to the in-call service.
@@ -476,6 +526,35 @@ public class InCallControllerTests extends TelecomTestCase {
         verify(mockInCallService).addCall(any(ParcelableCall.class));
     }
 
+    /**
+     * Ensures that a connection re-delivered after the service restarts isn't measured as a bind.
+     */
+    @MediumTest
+    public void testBindTimeOnlyRecordedForFirstConnection() throws Exception {
+        setupMocks(false /* isExternalCall */);
+        setupMockPackageManager(true /* default */, true /* system */, false /* external calls */);
+        mInCallController.bindToServices(mMockCall);
+
+        ArgumentCaptor<ServiceConnection> serviceConnectionCaptor =
+                ArgumentCaptor.forClass(ServiceConnection.class);
+        verify(mMockContext).bindServiceAsUser(any(Intent.class),
+                serviceConnectionCaptor.capture(), anyInt(), eq(UserHandle.CURRENT));
+        ServiceConnection serviceConnection = serviceConnectionCaptor.getValue();
+        ComponentName defDialerComponentName = new ComponentName(DEF_PKG, DEF_CLASS);
+        IBinder mockBinder = mock(IBinder.class);
+        when(mockBinder.queryLocalInterface(anyString())).thenReturn(mock(IInCallService.class));
+
+        serviceConnection.onServiceConnected(defDialerComponentName, mockBinder);
+        InCallServiceCostTracker.ServiceCost cost =
+                mInCallController.getCostTracker().getCost(defDialerComponentName);
+        assertEquals(1, cost.bindMillis.getCount());
+
+        // The service crashes and is restarted by the system.
+        serviceConnection.onServiceDisconnected(defDialerComponentName);
+        serviceConnection.onServiceConnected(defDialerComponentName, mockBinder);
+        assertEquals(1, cost.bindMillis.getCount());
+    }
+
     private void setupMocks(boolean isExternalCall) {
         when(mMockCallsManager.getCurrentUserHandle()).thenReturn(mUserHandle);
         when(mMockContext.getPackageManager()).thenReturn(mMockPackageManager);
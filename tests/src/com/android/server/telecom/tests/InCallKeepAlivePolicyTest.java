@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.content.ComponentCallbacks2;
+import android.os.UserHandle;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.InCallKeepAlivePolicy;
+
+public class InCallKeepAlivePolicyTest extends TelecomTestCase {
+    private static final long BASE_DELAY_MILLIS = 2000L;
+    private static final UserHandle USER = UserHandle.of(0);
+
+    @SmallTest
+    public void testFirstCallUsesBaseDelay() {
+        InCallKeepAlivePolicy policy = new InCallKeepAlivePolicy(false);
+        assertEquals(BASE_DELAY_MILLIS, policy.getUnbindDelayMillis(USER, BASE_DELAY_MILLIS, 0));
+        assertEquals(0, policy.getKeepAlivesExtended());
+    }
+
+    @SmallTest
+    public void testBackToBackCallsExtendKeepAlive() {
+        InCallKeepAlivePolicy policy = new InCallKeepAlivePolicy(false);
+        long now = 0;
+        // Calls follow each other 5 seconds apart.
+        for (int i = 0; i < 3; i++) {
+            long delay = policy.getUnbindDelayMillis(USER, BASE_DELAY_MILLIS, now);
+            policy.onCallsEnded(now, delay);
+            now += 5000;
+            policy.onCallStarted(USER, now, BASE_DELAY_MILLIS, delay > 5000);
+            now += 60000;
+        }
+
+        assertEquals(10000, policy.getUnbindDelayMillis(USER, BASE_DELAY_MILLIS, now));
+        assertEquals(3, policy.getKeepAlivesExtended());
+        // The first call had no history, so only the later ones found the services bound.
+        assertEquals(2, policy.getRebindsAvoided());
+    }
+
+    @SmallTest
+    public void testKeepAliveIsCapped() {
+        InCallKeepAlivePolicy policy = new InCallKeepAlivePolicy(false);
+        policy.onCallsEnded(0, BASE_DELAY_MILLIS);
+        policy.onCallStarted(USER, 100000, BASE_DELAY_MILLIS, false);
+
+        assertEquals(InCallKeepAlivePolicy.MAX_KEEP_ALIVE_MILLIS,
+                policy.getUnbindDelayMillis(USER, BASE_DELAY_MILLIS, 200000));
+    }
+
+    @SmallTest
+    public void testLongGapsAreIgnored() {
+        InCallKeepAlivePolicy policy = new InCallKeepAlivePolicy(false);
+        policy.onCallsEnded(0, BASE_DELAY_MILLIS);
+        policy.onCallStarted(USER, InCallKeepAlivePolicy.MAX_TRACKED_GAP_MILLIS + 1,
+                BASE_DELAY_MILLIS, false);
+
+        assertEquals(BASE_DELAY_MILLIS, policy.getUnbindDelayMillis(USER, BASE_DELAY_MILLIS,
+                InCallKeepAlivePolicy.MAX_TRACKED_GAP_MILLIS + 2));
+    }
+
+    @SmallTest
+    public void testMemoryPressureUsesBaseDelay() {
+        InCallKeepAlivePolicy policy = new InCallKeepAlivePolicy(false);
+        policy.onCallsEnded(0, BASE_DELAY_MILLIS);
+        policy.onCallStarted(USER, 5000, BASE_DELAY_MILLIS, false);
+
+        assertFalse(policy.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN, 10000));
+        assertEquals(10000, policy.getUnbindDelayMillis(USER, BASE_DELAY_MILLIS, 10000));
+
+        assertTrue(policy.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW, 10000));
+        assertEquals(BASE_DELAY_MILLIS, policy.getUnbindDelayMillis(USER, BASE_DELAY_MILLIS,
+                10000 + InCallKeepAlivePolicy.MEMORY_PRESSURE_HOLD_MILLIS - 1));
+        assertEquals(10000, policy.getUnbindDelayMillis(USER, BASE_DELAY_MILLIS,
+                10000 + InCallKeepAlivePolicy.MEMORY_PRESSURE_HOLD_MILLIS));
+    }
+
+    @SmallTest
+    public void testLowRamDeviceUsesBaseDelay() {
+        InCallKeepAlivePolicy policy = new InCallKeepAlivePolicy(true);
+        policy.onCallsEnded(0, BASE_DELAY_MILLIS);
+        policy.onCallStarted(USER, 5000, BASE_DELAY_MILLIS, false);
+
+        assertEquals(BASE_DELAY_MILLIS, policy.getUnbindDelayMillis(USER, BASE_DELAY_MILLIS, 6000));
+    }
+}
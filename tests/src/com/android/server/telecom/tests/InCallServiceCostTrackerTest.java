@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.content.ComponentName;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.InCallServiceCostTracker;
+
+public class InCallServiceCostTrackerTest extends TelecomTestCase {
+    private static final ComponentName SERVICE = new ComponentName("pkg", "cls");
+    private static final long BUDGET_MILLIS = 1000L;
+
+    @SmallTest
+    public void testUnknownServiceIsWithinBudget() {
+        InCallServiceCostTracker tracker = new InCallServiceCostTracker();
+        assertFalse(tracker.isOverBudget(SERVICE, BUDGET_MILLIS));
+        assertNull(tracker.getCost(SERVICE));
+    }
+
+    @SmallTest
+    public void testSlowBindIsOverBudget() {
+        InCallServiceCostTracker tracker = new InCallServiceCostTracker();
+        tracker.onBound(SERVICE, 50);
+        tracker.onConnected(SERVICE, 5);
+        assertFalse(tracker.isOverBudget(SERVICE, BUDGET_MILLIS));
+
+        tracker.onBound(SERVICE, 3000);
+        tracker.onBound(SERVICE, 4000);
+        assertTrue(tracker.isOverBudget(SERVICE, BUDGET_MILLIS));
+        assertEquals(3, tracker.getCost(SERVICE).bindMillis.getCount());
+        // A budget of 0 disables deferring.
+        assertFalse(tracker.isOverBudget(SERVICE, 0));
+    }
+
+    @SmallTest
+    public void testSlowOnConnectedIsOverBudget() {
+        InCallServiceCostTracker tracker = new InCallServiceCostTracker();
+        tracker.onBound(SERVICE, 50);
+        tracker.onConnected(SERVICE, 2000);
+        assertTrue(tracker.isOverBudget(SERVICE, BUDGET_MILLIS));
+    }
+
+    @SmallTest
+    public void testRepeatedDisconnectsAreOverBudget() {
+        InCallServiceCostTracker tracker = new InCallServiceCostTracker();
+        tracker.onBound(SERVICE, 50);
+        for (int i = 0; i < InCallServiceCostTracker.MAX_DISCONNECTS - 1; i++) {
+            tracker.onDisconnected(SERVICE);
+        }
+        assertFalse(tracker.isOverBudget(SERVICE, BUDGET_MILLIS));
+        tracker.onDisconnected(SERVICE);
+        assertTrue(tracker.isOverBudget(SERVICE, BUDGET_MILLIS));
+    }
+
+    @SmallTest
+    public void testRecoversAfterFastBinds() {
+        InCallServiceCostTracker tracker = new InCallServiceCostTracker();
+        for (int i = 0; i < 10; i++) {
+            tracker.onBound(SERVICE, 3000);
+        }
+        assertTrue(tracker.isOverBudget(SERVICE, BUDGET_MILLIS));
+
+        // Only the recent binds count, however many slow binds came before them.
+        for (int i = 0; i < InCallServiceCostTracker.RECENT_SAMPLES / 2; i++) {
+            tracker.onBound(SERVICE, 50);
+        }
+        assertTrue(tracker.isOverBudget(SERVICE, BUDGET_MILLIS));
+        tracker.onBound(SERVICE, 50);
+        assertFalse(tracker.isOverBudget(SERVICE, BUDGET_MILLIS));
+        assertEquals(10 + InCallServiceCostTracker.RECENT_SAMPLES / 2 + 1,
+                tracker.getCost(SERVICE).bindMillis.getCount());
+    }
+
+    @SmallTest
+    public void testRecoversAfterStayingBound() {
+        InCallServiceCostTracker tracker = new InCallServiceCostTracker();
+        tracker.onBound(SERVICE, 50);
+        for (int i = 0; i < InCallServiceCostTracker.MAX_DISCONNECTS; i++) {
+            tracker.onDisconnected(SERVICE);
+        }
+        assertTrue(tracker.isOverBudget(SERVICE, BUDGET_MILLIS));
+
+        // The deferred bind works, and the service stays bound until Telecom unbinds it.
+        tracker.onBound(SERVICE, 50);
+        tracker.onUnbound(SERVICE);
+        assertFalse(tracker.isOverBudget(SERVICE, BUDGET_MILLIS));
+        assertEquals(InCallServiceCostTracker.MAX_DISCONNECTS,
+                tracker.getCost(SERVICE).numDisconnects);
+    }
+}
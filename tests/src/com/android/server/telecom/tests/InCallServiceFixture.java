@@ -25,6 +25,7 @@ import android.os.Bundle;
 import android.os.IBinder;
 import android.os.IInterface;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.telecom.AudioState;
 import android.telecom.CallAudioState;
 import android.telecom.ParcelableCall;
@@ -49,6 +50,7 @@ public class InCallServiceFixture implements TestFixture<IInCallService> {
     public boolean mShowDialpad;
     public boolean mCanAddCall;
     public boolean mSilenceRinger;
+    public int mNumUpdates;
     public CountDownLatch mLock = new CountDownLatch(1);
 
     public class FakeInCallService extends IInCallService.Stub {
@@ -79,6 +81,7 @@ public class InCallServiceFixture implements TestFixture<IInCallService> {
             }
             mCallById.put(call.getId(), call);
             mLatestCallId = call.getId();
+            mNumUpdates++;
             mLock.countDown();
         }
 
@@ -165,4 +168,21 @@ public class InCallServiceFixture implements TestFixture<IInCallService> {
         }
         mLock = new CountDownLatch(1);
     }
+
+    /**
+     * Waits for updates until the extras of the given call contain the given key. Earlier
+     * updates may have released {@link #waitForUpdate()} already, so it alone doesn't show that
+     * a particular change has arrived.
+     */
+    public void waitForExtra(String callId, String key) {
+        long deadline = SystemClock.elapsedRealtime() + 5000;
+        while (!hasExtra(callId, key) && SystemClock.elapsedRealtime() < deadline) {
+            waitForUpdate();
+        }
+    }
+
+    private boolean hasExtra(String callId, String key) {
+        ParcelableCall call = getCall(callId);
+        return call != null && call.getExtras() != null && call.getExtras().containsKey(key);
+    }
 }
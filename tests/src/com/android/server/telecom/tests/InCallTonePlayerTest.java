@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.media.ToneGenerator;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.CallAudioManager;
+import com.android.server.telecom.CallAudioRoutePeripheralAdapter;
+import com.android.server.telecom.InCallToneEngine;
+import com.android.server.telecom.InCallTonePlayer;
+import com.android.server.telecom.TelecomSystem;
+
+import org.mockito.Mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class InCallTonePlayerTest extends TelecomTestCase {
+    private static final long TEST_TIMEOUT = 1000;
+
+    @Mock private CallAudioRoutePeripheralAdapter mCallAudioRoutePeripheralAdapter;
+    @Mock private CallAudioManager mCallAudioManager;
+
+    private final List<ToneGenerator> mToneGenerators = new ArrayList<>();
+    private InCallTonePlayer.Factory mFactory;
+    private InCallToneEngine mEngine;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mFactory = new InCallTonePlayer.Factory(mCallAudioRoutePeripheralAdapter,
+                new TelecomSystem.SyncRoot() { }, (streamType, volume) -> {
+                    ToneGenerator toneGenerator = mock(ToneGenerator.class);
+                    mToneGenerators.add(toneGenerator);
+                    return toneGenerator;
+                });
+        mFactory.setCallAudioManager(mCallAudioManager);
+        mEngine = mFactory.getEngine();
+    }
+
+    @SmallTest
+    public void testToneGeneratorIsReused() {
+        for (int i = 0; i < 3; i++) {
+            InCallTonePlayer player = mFactory.createPlayer(InCallTonePlayer.TONE_CALL_WAITING);
+            player.startTone();
+            waitForHandlerAction(mEngine.getHandler(), TEST_TIMEOUT);
+            player.stopTone();
+            waitForHandlerAction(mEngine.getHandler(), TEST_TIMEOUT);
+        }
+
+        assertEquals(1, mToneGenerators.size());
+        assertEquals(1, mEngine.getToneGeneratorsCreated());
+        assertEquals(2, mEngine.getToneGeneratorsReused());
+        assertEquals(3, mEngine.getStartLatencyHistogram().getCount());
+        verify(mToneGenerators.get(0), never()).release();
+    }
+
+    @SmallTest
+    public void testConcurrentTonesUseSeparateGenerators() {
+        InCallTonePlayer first = mFactory.createPlayer(InCallTonePlayer.TONE_CALL_WAITING);
+        InCallTonePlayer second = mFactory.createPlayer(InCallTonePlayer.TONE_RING_BACK);
+        first.startTone();
+        second.startTone();
+        waitForHandlerAction(mEngine.getHandler(), TEST_TIMEOUT);
+        assertEquals(2, mToneGenerators.size());
+
+        first.stopTone();
+        second.stopTone();
+        waitForHandlerAction(mEngine.getHandler(), TEST_TIMEOUT);
+        // Only one generator per stream and volume is kept.
+        verify(mToneGenerators.get(0), never()).release();
+        verify(mToneGenerators.get(1)).release();
+    }
+
+    @SmallTest
+    public void testStopBeforeStartDoesNotPlay() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mEngine.getHandler().post(() -> {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                // do nothing
+            }
+        });
+        InCallTonePlayer player = mFactory.createPlayer(InCallTonePlayer.TONE_BUSY);
+        player.startTone();
+        player.stopTone();
+        latch.countDown();
+        waitForHandlerAction(mEngine.getHandler(), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
+
+        assertEquals(0, mToneGenerators.size());
+        verify(mCallAudioManager).setIsTonePlaying(false);
+    }
+
+    @SmallTest
+    public void testReleasesTonePlayingState() {
+        InCallTonePlayer player = mFactory.createPlayer(InCallTonePlayer.TONE_CALL_ENDED);
+        player.startTone();
+        verify(mCallAudioManager).setIsTonePlaying(true);
+        waitForHandlerAction(mEngine.getHandler(), TEST_TIMEOUT);
+        verify(mToneGenerators.get(0)).startTone(anyInt());
+
+        player.stopTone();
+        waitForHandlerAction(mEngine.getHandler(), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
+        verify(mToneGenerators.get(0)).stopTone();
+        verify(mCallAudioManager).setIsTonePlaying(false);
+    }
+}
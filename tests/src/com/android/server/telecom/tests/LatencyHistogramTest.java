@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.LatencyHistogram;
+import com.android.server.telecom.nano.TelecomLogClass;
+
+/**
+ * Unit tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest extends AndroidTestCase {
+    @SmallTest
+    public void testBucketBoundsAreContiguous() {
+        assertEquals(0, LatencyHistogram.getBucketLowerBound(0));
+        for (int i = 0; i < LatencyHistogram.NUM_BUCKETS - 1; i++) {
+            long lower = LatencyHistogram.getBucketLowerBound(i);
+            long upper = LatencyHistogram.getBucketUpperBound(i);
+            assertTrue(lower <= upper);
+            assertEquals(upper + 1, LatencyHistogram.getBucketLowerBound(i + 1));
+            assertEquals(i, LatencyHistogram.getBucketIndex(lower));
+            assertEquals(i, LatencyHistogram.getBucketIndex(upper));
+        }
+        assertEquals(LatencyHistogram.NUM_BUCKETS - 1,
+                LatencyHistogram.getBucketIndex(LatencyHistogram.MAX_TRACKABLE_MILLIS));
+        assertEquals(LatencyHistogram.NUM_BUCKETS - 1,
+                LatencyHistogram.getBucketIndex(Long.MAX_VALUE));
+    }
+
+    @SmallTest
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        assertWithinBucketError(50, histogram.getPercentile(50));
+        assertWithinBucketError(90, histogram.getPercentile(90));
+        assertWithinBucketError(99, histogram.getPercentile(99));
+        assertEquals(100, histogram.getPercentile(100));
+    }
+
+    @SmallTest
+    public void testMerge() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.record(5);
+        a.record(300);
+        b.record(5);
+        b.record(100000);
+
+        a.merge(b);
+        assertEquals(4, a.getCount());
+        assertEquals(100000, a.getMax());
+        assertEquals(2, a.getBucketCount(LatencyHistogram.getBucketIndex(5)));
+        assertEquals(1, a.getBucketCount(LatencyHistogram.NUM_BUCKETS - 1));
+
+        a.reset();
+        assertEquals(0, a.getCount());
+        assertEquals(0, a.getBucketCount(LatencyHistogram.getBucketIndex(5)));
+    }
+
+    @SmallTest
+    public void testToProto() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(3);
+        histogram.record(40);
+
+        TelecomLogClass.LatencyHistogram proto = histogram.toProto();
+        assertEquals(3, proto.getSampleCount());
+        assertEquals(46, proto.getSumMillis());
+        assertEquals(40, proto.getMaxMillis());
+        assertEquals(LatencyHistogram.SUB_BUCKET_BITS, proto.getSubBucketBits());
+        assertEquals(LatencyHistogram.getBucketIndex(40) + 1, proto.bucketCounts.length);
+        assertEquals(2, proto.bucketCounts[3]);
+        assertEquals(1, proto.bucketCounts[LatencyHistogram.getBucketIndex(40)]);
+    }
+
+    private void assertWithinBucketError(long expected, long actual) {
+        double maxError = Math.max(1.0, expected / (double) LatencyHistogram.SUB_BUCKET_COUNT);
+        assertTrue("expected ~" + expected + " but was " + actual,
+                Math.abs(expected - actual) <= maxError);
+    }
+}
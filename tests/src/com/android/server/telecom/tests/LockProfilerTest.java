@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.telecom.Log;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.util.IndentingPrintWriter;
+import com.android.server.telecom.LockProfiler;
+import com.android.server.telecom.TelecomSystem;
+
+import java.io.StringWriter;
+
+/**
+ * Unit tests for {@link LockProfiler}.
+ */
+public class LockProfilerTest extends TelecomTestCase {
+    private final TelecomSystem.SyncRoot mLock = new TelecomSystem.SyncRoot() { };
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        LockProfiler.reset();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        LockProfiler.setEnabled(false);
+        LockProfiler.reset();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testDisabledRecordsNothing() {
+        LockProfiler.setEnabled(false);
+        holdLock("disabled", 0);
+        assertNull(LockProfiler.getSiteStatsForTesting("disabled"));
+    }
+
+    @SmallTest
+    public void testRecordsWaitAndHold() throws Exception {
+        LockProfiler.setEnabled(true);
+        holdLock("site", 20);
+        holdLock("site", 0);
+
+        LockProfiler.SiteStats stats = LockProfiler.getSiteStatsForTesting("site");
+        assertEquals(2, stats.waitMicros.getCount());
+        assertEquals(2, stats.holdMicros.getCount());
+        assertTrue(stats.holdMicros.getMax() >= 20 * 1000);
+    }
+
+    @SmallTest
+    public void testNestedAcquisitionCountsOnce() {
+        LockProfiler.setEnabled(true);
+        LockProfiler.runLocked(mLock, "outer", () -> holdLock("inner", 0));
+
+        assertEquals(1, LockProfiler.getSiteStatsForTesting("outer").holdMicros.getCount());
+        assertNull(LockProfiler.getSiteStatsForTesting("inner"));
+    }
+
+    @SmallTest
+    public void testCallLockedReturnsValue() {
+        LockProfiler.setEnabled(true);
+        assertEquals("value", LockProfiler.callLocked(mLock, "call", () -> "value"));
+        assertEquals(1, LockProfiler.getSiteStatsForTesting("call").holdMicros.getCount());
+    }
+
+    @SmallTest
+    public void testReleasedOnException() {
+        LockProfiler.setEnabled(true);
+        try {
+            LockProfiler.runLocked(mLock, "throws", () -> {
+                throw new IllegalStateException();
+            });
+            fail("Expected the exception to propagate.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        holdLock("after", 0);
+        assertEquals(1, LockProfiler.getSiteStatsForTesting("throws").holdMicros.getCount());
+        assertEquals(1, LockProfiler.getSiteStatsForTesting("after").holdMicros.getCount());
+    }
+
+    @SmallTest
+    public void testRecordsSessionActiveWhenAcquired() {
+        LockProfiler.setEnabled(true);
+        Log.startSession("LPT.tRSAWA");
+        final String sessionId = Log.getSessionId();
+        // The session ends before the lock is released, as with sessions started under the lock.
+        LockProfiler.runLocked(mLock, "session", () -> Log.endSession());
+
+        StringWriter sw = new StringWriter();
+        LockProfiler.dump(new IndentingPrintWriter(sw, "  "));
+        assertTrue(sw.toString().contains("site=session session=" + sessionId));
+    }
+
+    @SmallTest
+    public void testProfiledRunnable() {
+        LockProfiler.setEnabled(true);
+        final boolean[] ran = new boolean[1];
+        new LockProfiler.ProfiledRunnable("LPT.tPR", mLock) {
+            @Override
+            public void profiledRun() {
+                ran[0] = Thread.holdsLock(mLock);
+            }
+        }.prepare().run();
+
+        assertTrue(ran[0]);
+        LockProfiler.SiteStats stats = LockProfiler.getSiteStatsForTesting("LPT.tPR");
+        assertEquals(1, stats.waitMicros.getCount());
+        assertEquals(1, stats.holdMicros.getCount());
+    }
+
+    @SmallTest
+    public void testDump() {
+        LockProfiler.setEnabled(true);
+        holdLock("dumpSite", 0);
+
+        StringWriter sw = new StringWriter();
+        LockProfiler.dump(new IndentingPrintWriter(sw, "  "));
+        String result = sw.toString();
+        assertTrue(result.contains("dumpSite"));
+        assertTrue(result.contains("Longest holds"));
+    }
+
+    private void holdLock(String site, long holdMillis) {
+        LockProfiler.runLocked(mLock, site, () -> {
+            if (holdMillis > 0) {
+                try {
+                    Thread.sleep(holdMillis);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        });
+    }
+}
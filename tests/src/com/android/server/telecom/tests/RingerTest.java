@@ -39,6 +39,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -205,6 +206,47 @@ public class RingerTest extends TelecomTestCase {
                 any(long[].class), anyInt(), any(AudioAttributes.class));
     }
 
+    @SmallTest
+    public void testPrefetchedRingtoneIsNotResolvedAgain() {
+        ensureRingerIsAudible();
+        when(mockRingtonePlayer.hasPrefetchedRingtone(mockCall2)).thenReturn(true);
+        assertTrue(mRingerUnderTest.startRinging(mockCall2, false));
+        verify(mockRingtoneFactory, never()).getRingtone(any(Call.class));
+    }
+
+    @SmallTest
+    public void testCallerInfoChangeRefreshesPrefetch() {
+        mRingerUnderTest.prefetchRingtone(mockCall1);
+        verify(mockRingtonePlayer).prefetch(mockRingtoneFactory, mockCall1);
+
+        when(mockRingtonePlayer.isPrefetching(mockCall1)).thenReturn(true);
+        mRingerUnderTest.onCallerInfoChanged(mockCall1);
+        mRingerUnderTest.onCallerInfoChanged(mockCall2);
+        verify(mockRingtonePlayer, times(2)).prefetch(mockRingtoneFactory, mockCall1);
+        verify(mockRingtonePlayer, never()).prefetch(mockRingtoneFactory, mockCall2);
+    }
+
+    @SmallTest
+    public void testPrefetchDiscardedForCallWaiting() {
+        mRingerUnderTest.startCallWaiting(mockCall1);
+        verify(mockRingtonePlayer).discardPrefetch(mockCall1);
+    }
+
+    @SmallTest
+    public void testPrefetchDiscardedWhenRingerNotAudible() {
+        ensureRingerIsAudible();
+        when(mockAudioManager.getStreamVolume(AudioManager.STREAM_RING)).thenReturn(0);
+        assertFalse(mRingerUnderTest.startRinging(mockCall2, false));
+        verify(mockRingtonePlayer).discardPrefetch(mockCall2);
+    }
+
+    @SmallTest
+    public void testPrefetchKeptWhenRinging() {
+        ensureRingerIsAudible();
+        assertTrue(mRingerUnderTest.startRinging(mockCall2, false));
+        verify(mockRingtonePlayer, never()).discardPrefetch(any(Call.class));
+    }
+
     private void ensureRingerIsAudible() {
         Ringtone mockRingtone = mock(Ringtone.class);
         when(mockRingtoneFactory.getRingtone(any(Call.class))).thenReturn(mockRingtone);
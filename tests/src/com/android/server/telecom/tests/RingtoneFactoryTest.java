@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.UserInfo;
+import android.os.Handler;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.provider.Settings;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.CallsManager;
+import com.android.server.telecom.RingtoneFactory;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RingtoneFactoryTest extends TelecomTestCase {
+    private static final int USER_ID = 10;
+    private static final int WORK_USER_ID = 11;
+    private static final UserHandle USER = UserHandle.of(USER_ID);
+
+    @Mock CallsManager mCallsManager;
+
+    private UserManager mUserManager;
+    private RingtoneFactory mRingtoneFactory;
+    private BroadcastReceiver mInvalidateReceiver;
+    private IntentFilter mInvalidateFilter;
+    // How many times each cache has been filled so far.
+    private int mNumLookups;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mContext = mComponentContextFixture.getTestDouble().getApplicationContext();
+        mUserManager = (UserManager) mContext.getSystemService(Context.USER_SERVICE);
+        when(mUserManager.isUserUnlocked(anyInt())).thenReturn(true);
+        when(mUserManager.getEnabledProfiles(USER_ID)).thenReturn(Arrays.asList(
+                new UserInfo(USER_ID, "user", 0),
+                new UserInfo(WORK_USER_ID, "work", UserInfo.FLAG_MANAGED_PROFILE)));
+        mRingtoneFactory = new RingtoneFactory(mCallsManager, mContext);
+
+        ArgumentCaptor<BroadcastReceiver> receiverCaptor =
+                ArgumentCaptor.forClass(BroadcastReceiver.class);
+        ArgumentCaptor<IntentFilter> filterCaptor = ArgumentCaptor.forClass(IntentFilter.class);
+        verify(mContext).registerReceiverAsUser(receiverCaptor.capture(), eq(UserHandle.ALL),
+                filterCaptor.capture(), isNull(String.class), isNull(Handler.class));
+        mInvalidateReceiver = receiverCaptor.getValue();
+        mInvalidateFilter = filterCaptor.getValue();
+    }
+
+    @SmallTest
+    public void testLookupsAreCached() throws Exception {
+        lookUpTwice();
+        assertNotNull(mRingtoneFactory.getWorkProfileContextForUser(USER));
+        verifyLookups();
+    }
+
+    @SmallTest
+    public void testDefaultRingtoneNotCachedWhileLocked() throws Exception {
+        when(mUserManager.isUserUnlocked(anyInt())).thenReturn(false);
+        Context userContext = mRingtoneFactory.getContextForUserHandle(USER);
+        assertEquals(Settings.System.DEFAULT_RINGTONE_URI,
+                mRingtoneFactory.getDefaultRingtoneUri(userContext));
+        mRingtoneFactory.getDefaultRingtoneUri(userContext);
+        verify(mUserManager, times(2)).isUserUnlocked(anyInt());
+    }
+
+    @SmallTest
+    public void testCacheClearedByProfileAndUserChanges() throws Exception {
+        String[] actions = {
+                Intent.ACTION_MANAGED_PROFILE_ADDED,
+                Intent.ACTION_MANAGED_PROFILE_REMOVED,
+                Intent.ACTION_MANAGED_PROFILE_AVAILABLE,
+                Intent.ACTION_MANAGED_PROFILE_UNAVAILABLE,
+                Intent.ACTION_USER_SWITCHED,
+                Intent.ACTION_USER_REMOVED,
+        };
+        lookUpTwice();
+        verifyLookups();
+        for (String action : actions) {
+            assertTrue(action, mInvalidateFilter.hasAction(action));
+            mInvalidateReceiver.onReceive(mContext, new Intent(action));
+            lookUpTwice();
+            verifyLookups();
+        }
+    }
+
+    @SmallTest
+    public void testCacheClearedByRingtoneSettingChange() throws Exception {
+        lookUpTwice();
+        verifyLookups();
+        mRingtoneFactory.getRingtoneObserver().onChange(false);
+        lookUpTwice();
+        verifyLookups();
+    }
+
+    @SmallTest
+    public void testLookupRacingInvalidationIsNotCached() throws Exception {
+        final Context userContext = mRingtoneFactory.getContextForUserHandle(USER);
+        when(mUserManager.isUserUnlocked(anyInt())).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                // The ringtone setting changes while the default ringtone is being looked up.
+                mRingtoneFactory.getRingtoneObserver().onChange(false);
+                return true;
+            }
+        });
+        mRingtoneFactory.getDefaultRingtoneUri(userContext);
+        mRingtoneFactory.getDefaultRingtoneUri(userContext);
+        verify(mUserManager, times(2)).isUserUnlocked(anyInt());
+    }
+
+    /**
+     * Looks up the user context, work profile context and default ringtone twice, which should
+     * only fill each cache once.
+     */
+    private void lookUpTwice() {
+        for (int i = 0; i < 2; i++) {
+            Context userContext = mRingtoneFactory.getContextForUserHandle(USER);
+            mRingtoneFactory.getWorkProfileContextForUser(USER);
+            mRingtoneFactory.getDefaultRingtoneUri(userContext);
+        }
+        mNumLookups++;
+    }
+
+    private void verifyLookups() throws Exception {
+        verify(mContext, times(mNumLookups)).createPackageContextAsUser(anyString(), anyInt(),
+                eq(USER));
+        verify(mUserManager, times(mNumLookups)).getEnabledProfiles(USER_ID);
+        verify(mUserManager, times(mNumLookups)).isUserUnlocked(anyInt());
+    }
+}
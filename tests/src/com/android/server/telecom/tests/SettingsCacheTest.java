@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.database.ContentObserver;
+import android.provider.Settings;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.SettingsCache;
+import com.android.server.telecom.Timeouts;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link SettingsCache}.
+ */
+public class SettingsCacheTest extends TelecomTestCase {
+    private static class FakeSettingsReader implements SettingsCache.SettingsReader {
+        final Map<String, String> values = new HashMap<>();
+        int reads = 0;
+        int registrations = 0;
+        ContentObserver observer;
+        // Run during the next read, after the value has been read.
+        Runnable duringRead;
+
+        @Override
+        public String getString(int namespace, String name) {
+            reads++;
+            String value = values.get(namespace + "/" + name);
+            if (duringRead != null) {
+                Runnable r = duringRead;
+                duringRead = null;
+                r.run();
+            }
+            return value;
+        }
+
+        @Override
+        public void registerObserver(int namespace, String name, ContentObserver observer) {
+            registrations++;
+            this.observer = observer;
+        }
+    }
+
+    private FakeSettingsReader mReader;
+    private SettingsCache mCache;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mReader = new FakeSettingsReader();
+        mCache = new SettingsCache(mReader);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        SettingsCache.setInstanceForTesting(null);
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testReadsProviderOnce() {
+        mReader.values.put(SettingsCache.NAMESPACE_SECURE + "/telecom.foo", "42");
+        for (int i = 0; i < 10; i++) {
+            assertEquals("42", mCache.getString(SettingsCache.NAMESPACE_SECURE, "telecom.foo"));
+        }
+        assertEquals(1, mReader.reads);
+        assertEquals(1, mReader.registrations);
+    }
+
+    @SmallTest
+    public void testCachesUnsetValue() {
+        assertNull(mCache.getString(SettingsCache.NAMESPACE_GLOBAL, "unset"));
+        assertNull(mCache.getString(SettingsCache.NAMESPACE_GLOBAL, "unset"));
+        assertEquals(1, mReader.reads);
+    }
+
+    @SmallTest
+    public void testRefreshesOnChange() {
+        String name = Settings.System.VIBRATE_WHEN_RINGING;
+        mReader.values.put(SettingsCache.NAMESPACE_SYSTEM + "/" + name, "0");
+        assertEquals("0", mCache.getString(SettingsCache.NAMESPACE_SYSTEM, name));
+
+        mReader.values.put(SettingsCache.NAMESPACE_SYSTEM + "/" + name, "1");
+        assertEquals("0", mCache.getString(SettingsCache.NAMESPACE_SYSTEM, name));
+        mCache.onSettingChanged(SettingsCache.NAMESPACE_SYSTEM, name);
+        assertEquals("1", mCache.getString(SettingsCache.NAMESPACE_SYSTEM, name));
+    }
+
+    @SmallTest
+    public void testChangeDuringFirstReadIsKept() {
+        String name = Settings.System.VIBRATE_WHEN_RINGING;
+        String key = SettingsCache.NAMESPACE_SYSTEM + "/" + name;
+        mReader.values.put(key, "0");
+        // The setting changes, and the observer refreshes it, while it is first being read.
+        mReader.duringRead = () -> {
+            mReader.values.put(key, "1");
+            mReader.observer.onChange(false, Settings.System.getUriFor(name));
+        };
+        assertEquals("1", mCache.getString(SettingsCache.NAMESPACE_SYSTEM, name));
+        assertEquals("1", mCache.getString(SettingsCache.NAMESPACE_SYSTEM, name));
+        assertEquals(2, mReader.reads);
+    }
+
+    @SmallTest
+    public void testOlderRefreshDoesNotOverwriteNewer() {
+        String name = Settings.System.VIBRATE_WHEN_RINGING;
+        String key = SettingsCache.NAMESPACE_SYSTEM + "/" + name;
+        mReader.values.put(key, "0");
+        assertEquals("0", mCache.getString(SettingsCache.NAMESPACE_SYSTEM, name));
+
+        mReader.values.put(key, "1");
+        // A second change is refreshed while the refresh for the first is still reading.
+        mReader.duringRead = () -> {
+            mReader.values.put(key, "2");
+            mCache.onSettingChanged(SettingsCache.NAMESPACE_SYSTEM, name);
+        };
+        mCache.onSettingChanged(SettingsCache.NAMESPACE_SYSTEM, name);
+        assertEquals("2", mCache.getString(SettingsCache.NAMESPACE_SYSTEM, name));
+    }
+
+    @SmallTest
+    public void testNamespacesAreSeparate() {
+        mReader.values.put(SettingsCache.NAMESPACE_SECURE + "/name", "1");
+        mReader.values.put(SettingsCache.NAMESPACE_GLOBAL + "/name", "2");
+        assertEquals("1", mCache.getString(SettingsCache.NAMESPACE_SECURE, "name"));
+        assertEquals("2", mCache.getString(SettingsCache.NAMESPACE_GLOBAL, "name"));
+    }
+
+    @SmallTest
+    public void testTimeoutsServedFromCache() {
+        SettingsCache.setInstanceForTesting(mCache);
+        mReader.values.put(SettingsCache.NAMESPACE_SECURE + "/telecom.call_screening_timeout",
+                "1234");
+        assertEquals(1234, Timeouts.getCallScreeningTimeoutMillis(null));
+        assertEquals(1234, Timeouts.getCallScreeningTimeoutMillis(null));
+        // Unset and malformed values fall back to the default.
+        assertEquals(500L, Timeouts.getNewOutgoingCallCancelMillis(null));
+        mReader.values.put(SettingsCache.NAMESPACE_SECURE + "/telecom.delay_between_dtmf_tones_ms",
+                "bogus");
+        assertEquals(300L, Timeouts.getDelayBetweenDtmfTonesMillis(null));
+        assertEquals(3, mReader.reads);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.os.Looper;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.TelecomLooper;
+
+public class TelecomLooperTest extends TelecomTestCase {
+    private static final long TEST_TIMEOUT = 1000;
+
+    @SmallTest
+    public void testLooperIsNotMainLooper() {
+        assertNotSame(Looper.getMainLooper(), TelecomLooper.getLooper());
+        assertSame(TelecomLooper.getLooper(), TelecomLooper.getLooper());
+    }
+
+    @SmallTest
+    public void testNamedRunnablesAreMonitored() throws Exception {
+        TelecomLooper.MonitoredHandler handler = TelecomLooper.createHandler();
+        TelecomLooper.MessageStats before = TelecomLooper.getStats("TLT.tNRAM");
+        long countBefore = before == null ? 0 : before.queueMillis.getCount();
+
+        handler.post("TLT.tNRAM", () -> { });
+        handler.postDelayed("TLT.tNRAM", () -> { }, 10);
+        Thread.sleep(20);
+        waitForHandlerAction(handler, TEST_TIMEOUT);
+
+        TelecomLooper.MessageStats stats = TelecomLooper.getStats("TLT.tNRAM");
+        assertNotNull(stats);
+        assertEquals(countBefore + 2, stats.queueMillis.getCount());
+        assertEquals(countBefore + 2, stats.runMillis.getCount());
+    }
+
+    @SmallTest
+    public void testRemoveCallbacksCancelsNamedRunnable() throws Exception {
+        TelecomLooper.MonitoredHandler handler = TelecomLooper.createHandler();
+        final boolean[] ran = new boolean[1];
+        java.lang.Runnable r = () -> ran[0] = true;
+        handler.postDelayed("TLT.tRCCNR", r, 50);
+        handler.removeCallbacks(r);
+        Thread.sleep(100);
+        waitForHandlerAction(handler, TEST_TIMEOUT);
+        assertFalse(ran[0]);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.os.HandlerThread;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.TelecomScheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TelecomSchedulerTest extends TelecomTestCase {
+    private static final long TEST_TIMEOUT = 1000;
+
+    private HandlerThread mThread;
+    private TelecomScheduler mScheduler;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("TelecomSchedulerTest");
+        mThread.start();
+        mScheduler = new TelecomScheduler(mThread.getLooper());
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mThread.quitSafely();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testCriticalRunsAheadOfQueuedWork() throws Exception {
+        final List<String> order = new ArrayList<>();
+        CountDownLatch blocked = blockLooper();
+        mScheduler.post(TelecomScheduler.PRIORITY_DEFERRABLE, "TST.d", () -> order.add("d"));
+        mScheduler.post(TelecomScheduler.PRIORITY_NORMAL, "TST.n", () -> order.add("n"));
+        mScheduler.post(TelecomScheduler.PRIORITY_CRITICAL, "TST.c1", () -> order.add("c1"));
+        mScheduler.post(TelecomScheduler.PRIORITY_CRITICAL, "TST.c2", () -> order.add("c2"));
+        blocked.countDown();
+        waitForHandlerAction(mScheduler.getHandler(), TEST_TIMEOUT);
+
+        assertEquals(Arrays.asList("c1", "c2", "d", "n"), order);
+        assertEquals(2, mScheduler.getQueueLatency(TelecomScheduler.PRIORITY_CRITICAL)
+                .getCount());
+        assertEquals(1, mScheduler.getQueueLatency(TelecomScheduler.PRIORITY_NORMAL)
+                .getCount());
+        assertEquals(1, mScheduler.getQueueLatency(TelecomScheduler.PRIORITY_DEFERRABLE)
+                .getCount());
+    }
+
+    @SmallTest
+    public void testDeferrableHeldBackDuringCalls() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mScheduler.setNumCalls(1);
+        mScheduler.post(TelecomScheduler.PRIORITY_DEFERRABLE, "TST.d", latch::countDown);
+        waitForHandlerAction(mScheduler.getHandler(), TEST_TIMEOUT);
+        assertEquals(1, latch.getCount());
+
+        assertTrue(latch.await(TelecomScheduler.DEFERRED_BATCH_DELAY_MILLIS + TEST_TIMEOUT,
+                TimeUnit.MILLISECONDS));
+    }
+
+    @SmallTest
+    public void testDeferrableReleasedWhenCallsEnd() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mScheduler.setNumCalls(1);
+        mScheduler.post(TelecomScheduler.PRIORITY_DEFERRABLE, "TST.d", latch::countDown);
+        mScheduler.setNumCalls(0);
+        waitForHandlerAction(mScheduler.getHandler(), TEST_TIMEOUT);
+        assertEquals(0, latch.getCount());
+    }
+
+    @SmallTest
+    public void testDeferrableRunsInBatches() throws Exception {
+        final List<Integer> order = new ArrayList<>();
+        final int numTasks = TelecomScheduler.MAX_BATCH_SIZE + 1;
+        CountDownLatch blocked = blockLooper();
+        for (int i = 0; i < numTasks; i++) {
+            final int index = i;
+            mScheduler.post(TelecomScheduler.PRIORITY_DEFERRABLE, "TST.d", () -> {
+                order.add(index);
+                if (index == 0) {
+                    // Queued while the first batch runs, so it goes ahead of the second batch.
+                    mScheduler.post(TelecomScheduler.PRIORITY_NORMAL, "TST.n",
+                            () -> order.add(-1));
+                }
+            });
+        }
+        blocked.countDown();
+        waitForHandlerAction(mScheduler.getHandler(), TEST_TIMEOUT);
+        waitForHandlerAction(mScheduler.getHandler(), TEST_TIMEOUT);
+
+        assertEquals(numTasks + 1, order.size());
+        assertEquals(-1, (int) order.get(TelecomScheduler.MAX_BATCH_SIZE));
+        assertEquals(TelecomScheduler.MAX_BATCH_SIZE, (int) order.get(numTasks));
+    }
+
+    /**
+     * Holds up the looper until the returned latch is counted down, so that what is posted in the
+     * meantime is queued behind it.
+     */
+    private CountDownLatch blockLooper() {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        mScheduler.getHandler().post(() -> {
+            try {
+                blocked.await(TEST_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // do nothing
+            }
+        });
+        return blocked;
+    }
+}
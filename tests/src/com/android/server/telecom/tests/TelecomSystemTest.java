@@ -48,7 +48,6 @@ import android.media.ToneGenerator;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.Looper;
 import android.os.Process;
 import android.os.UserHandle;
 import android.provider.BlockedNumberContract;
@@ -356,7 +355,7 @@ public class TelecomSystemTest extends TelecomTestCase {
         // now-running TelecomSystem
         setupConnectionServices();
 
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
     }
 
     @Override
@@ -595,7 +594,7 @@ public class TelecomSystemTest extends TelecomTestCase {
         // CreateConnectionProcessor should now try the second SIM account
         connectionServiceFixture.sendSetDisconnected(emergencyIds.mConnectionId,
                 DisconnectCause.ERROR);
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
         assertEquals(Call.STATE_DIALING, mInCallServiceFixtureX.getCall(
                 emergencyIds.mCallId).getState());
         assertEquals(Call.STATE_DIALING, mInCallServiceFixtureY.getCall(
@@ -664,7 +663,7 @@ public class TelecomSystemTest extends TelecomTestCase {
         verify(localAppContext).sendBroadcastAsUser(actionCallIntent, UserHandle.SYSTEM);
         mTelecomSystem.getCallIntentProcessor().processIntent(actionCallIntent);
         // Wait for handler to start CallerInfo lookup.
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
         // Send the CallerInfo lookup reply.
         mCallerInfoAsyncQueryFactoryFixture.mRequests.forEach(
                 CallerInfoAsyncQueryFactoryFixture.Request::reply);
@@ -730,7 +729,7 @@ public class TelecomSystemTest extends TelecomTestCase {
                 .createConnection(eq(phoneAccountHandle), anyString(), any(ConnectionRequest.class),
                         eq(false)/*isIncoming*/, anyBoolean(), any());
         // Wait for handleCreateConnectionComplete
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
 
         // Make sure the number of registered InCallService Calls stays the same.
         assertEquals(startingNumCalls, mInCallServiceFixtureX.mCallById.size());
@@ -752,9 +751,9 @@ public class TelecomSystemTest extends TelecomTestCase {
                 .createConnection(eq(phoneAccountHandle), anyString(), any(ConnectionRequest.class),
                         eq(false)/*isIncoming*/, anyBoolean(), any());
         // Wait for handleCreateConnectionComplete
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
         // Wait for the callback in ConnectionService#onAdapterAttached to execute.
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
 
         // Ensure callback to CS on successful creation happened.
         verify(connectionServiceFixture.getTestDouble(), timeout(TEST_TIMEOUT))
@@ -815,7 +814,7 @@ public class TelecomSystemTest extends TelecomTestCase {
                         any(ConnectionRequest.class), eq(true), eq(false), any());
 
         // Wait for the handler to start the CallerInfo lookup
-        waitForHandlerAction(new Handler(Looper.getMainLooper()), TEST_TIMEOUT);
+        waitForTelecomLoopers(TEST_TIMEOUT);
 
         // Ensure callback to CS on successful creation happened.
         verify(connectionServiceFixture.getTestDouble(), timeout(TEST_TIMEOUT))
@@ -19,9 +19,12 @@ package com.android.server.telecom.tests;
 import org.mockito.MockitoAnnotations;
 
 import android.os.Handler;
+import android.os.Looper;
 import android.telecom.Log;
 import android.test.AndroidTestCase;
 
+import com.android.server.telecom.TelecomLooper;
+
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -47,6 +50,18 @@ public abstract class TelecomTestCase extends AndroidTestCase {
         mMockitoHelper.tearDown();
     }
 
+    /**
+     * Waits for the Telecom looper and the main looper to handle what has been posted to them,
+     * including work which either of them posts to the other.
+     */
+    protected final void waitForTelecomLoopers(long timeoutMillis) {
+        Handler telecomHandler = new Handler(TelecomLooper.getLooper());
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        waitForHandlerAction(telecomHandler, timeoutMillis);
+        waitForHandlerAction(mainHandler, timeoutMillis);
+        waitForHandlerAction(telecomHandler, timeoutMillis);
+    }
+
     protected final void waitForHandlerAction(Handler h, long timeoutMillis) {
         final CountDownLatch lock = new CountDownLatch(1);
         h.post(lock::countDown);
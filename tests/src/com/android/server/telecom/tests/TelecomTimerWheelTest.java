@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.TelecomSystem;
+import com.android.server.telecom.TelecomTimerWheel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TelecomTimerWheelTest extends TelecomTestCase {
+    private static final long TEST_TIMEOUT = 1000;
+
+    private final TelecomSystem.SyncRoot mLock = new TelecomSystem.SyncRoot() { };
+    private HandlerThread mThread;
+    private TelecomTimerWheel mWheel;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("TelecomTimerWheelTest");
+        mThread.start();
+        mWheel = new TelecomTimerWheel(mThread.getLooper());
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mThread.quitSafely();
+        super.tearDown();
+    }
+
+    @SmallTest
+    public void testTimerFiresAfterDelay() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        TelecomTimerWheel.Timer timer = mWheel.createTimer(this, "TTWT.t", mLock,
+                latch::countDown);
+        long startMillis = SystemClock.uptimeMillis();
+        timer.schedule(50);
+        assertTrue(timer.isScheduled());
+
+        assertTrue(latch.await(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertTrue(SystemClock.uptimeMillis() - startMillis >= 50);
+        waitForHandlerAction(mWheel.getHandler(), TEST_TIMEOUT);
+        assertFalse(timer.isScheduled());
+        assertEquals(0, mWheel.getNumTimers());
+    }
+
+    @SmallTest
+    public void testTimersFireInDeadlineOrder() throws Exception {
+        final List<Integer> order = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(3);
+        long[] delays = { 60, 0, 25 };
+        for (int i = 0; i < delays.length; i++) {
+            final int index = i;
+            mWheel.createTimer(this, "TTWT.t" + i, mLock, () -> {
+                order.add(index);
+                latch.countDown();
+            }).schedule(delays[i]);
+        }
+
+        assertTrue(latch.await(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(1, (int) order.get(0));
+        assertEquals(2, (int) order.get(1));
+        assertEquals(0, (int) order.get(2));
+    }
+
+    @SmallTest
+    public void testCancelledTimerDoesNotFire() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        TelecomTimerWheel.Timer timer = mWheel.createTimer(this, "TTWT.t", mLock,
+                latch::countDown);
+        timer.schedule(20);
+        timer.cancel();
+
+        assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+        assertFalse(timer.isScheduled());
+        assertEquals(0, mWheel.getNumTimers());
+    }
+
+    @SmallTest
+    public void testRescheduleReplacesDeadline() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        TelecomTimerWheel.Timer timer = mWheel.createTimer(this, "TTWT.t", mLock,
+                latch::countDown);
+        long startMillis = SystemClock.uptimeMillis();
+        timer.schedule(10);
+        timer.schedule(100);
+        assertEquals(1, mWheel.getNumTimers());
+
+        // Only the later deadline fires.
+        assertFalse(latch.await(300, TimeUnit.MILLISECONDS));
+        assertEquals(1, latch.getCount());
+        assertTrue(SystemClock.uptimeMillis() - startMillis >= 100);
+    }
+
+    @SmallTest
+    public void testTimerBeyondOneRevolution() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        TelecomTimerWheel.Timer timer = mWheel.createTimer(this, "TTWT.t", mLock,
+                latch::countDown);
+        long revolutionMillis = TelecomTimerWheel.NUM_SLOTS * TelecomTimerWheel.TICK_MILLIS;
+        timer.schedule(revolutionMillis + 20);
+
+        assertFalse(latch.await(revolutionMillis, TimeUnit.MILLISECONDS));
+        assertTrue(latch.await(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+
+    @SmallTest
+    public void testWakesOnlyAtDeadlineBeyondOneRevolution() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        TelecomTimerWheel.Timer nearTimer = mWheel.createTimer(this, "TTWT.n", mLock,
+                latch::countDown);
+        TelecomTimerWheel.Timer farTimer = mWheel.createTimer(this, "TTWT.f", mLock, () -> { });
+        long revolutionMillis = TelecomTimerWheel.NUM_SLOTS * TelecomTimerWheel.TICK_MILLIS;
+        long startMillis = SystemClock.uptimeMillis();
+        farTimer.schedule(10 * revolutionMillis);
+        nearTimer.schedule(20);
+        assertTrue(latch.await(TEST_TIMEOUT, TimeUnit.MILLISECONDS));
+
+        // With only the far timer left, the wheel sleeps until its deadline.
+        long wakeMillis = mWheel.getWakeMillis();
+        assertTrue(wakeMillis >= startMillis + 10 * revolutionMillis);
+        assertTrue(wakeMillis <= SystemClock.uptimeMillis() + 10 * revolutionMillis);
+        farTimer.cancel();
+    }
+
+    @SmallTest
+    public void testCancelWhileHoldingLockPreventsDueTimer() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final TelecomTimerWheel.Timer timer = mWheel.createTimer(this, "TTWT.t", mLock,
+                latch::countDown);
+        synchronized (mLock) {
+            timer.schedule(0);
+            // Let the wheel find the timer due; it then waits for mLock to run it.
+            Thread.sleep(50);
+            timer.cancel();
+        }
+
+        assertFalse(latch.await(100, TimeUnit.MILLISECONDS));
+    }
+}
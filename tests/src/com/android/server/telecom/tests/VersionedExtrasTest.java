@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.server.telecom.tests;
+
+import android.os.Bundle;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.server.telecom.VersionedExtras;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class VersionedExtrasTest extends TelecomTestCase {
+    private static final String KEY_STR = "STRINGKEY";
+    private static final String KEY_INT = "INTKEY";
+    private static final String KEY_ARRAY = "ARRAYKEY";
+
+    @SmallTest
+    public void testPutOnlyReturnsChangedExtras() {
+        VersionedExtras extras = new VersionedExtras();
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_STR, "socks");
+        bundle.putInt(KEY_INT, 1234);
+        bundle.putIntArray(KEY_ARRAY, new int[] { 1, 2 });
+        assertEquals(3, extras.put(bundle).size());
+        assertEquals(1, extras.getVersion());
+
+        // The same values, even in a different array, aren't a change.
+        Bundle same = new Bundle();
+        same.putString(KEY_STR, "socks");
+        same.putIntArray(KEY_ARRAY, new int[] { 1, 2 });
+        assertTrue(extras.put(same).isEmpty());
+        assertEquals(1, extras.getVersion());
+
+        Bundle changed = new Bundle();
+        changed.putString(KEY_STR, "mozzarella");
+        changed.putInt(KEY_INT, 1234);
+        Bundle result = extras.put(changed);
+        assertEquals(1, result.size());
+        assertEquals("mozzarella", result.getString(KEY_STR));
+        assertEquals("mozzarella", extras.getBundle().getString(KEY_STR));
+        assertEquals(2, extras.getVersion());
+    }
+
+    @SmallTest
+    public void testNestedBundlesComparedByKey() {
+        VersionedExtras extras = new VersionedExtras();
+        extras.put(makeNested("socks", new int[] { 1, 2 }));
+        assertEquals(1, extras.getVersion());
+
+        // An equal nested bundle, even a different instance, isn't a change.
+        assertTrue(extras.put(makeNested("socks", new int[] { 1, 2 })).isEmpty());
+        assertEquals(1, extras.getVersion());
+
+        assertEquals(1, extras.put(makeNested("socks", new int[] { 1, 3 })).size());
+        assertEquals(2, extras.getVersion());
+        Bundle nested = makeNested("socks", new int[] { 1, 3 });
+        nested.getBundle(KEY_STR).putInt(KEY_INT, 1234);
+        assertEquals(1, extras.put(nested).size());
+        assertEquals(3, extras.getVersion());
+    }
+
+    @SmallTest
+    public void testRemoveOnlyReturnsPresentKeys() {
+        VersionedExtras extras = new VersionedExtras();
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_STR, "socks");
+        extras.put(bundle);
+
+        assertTrue(extras.remove(Arrays.asList(KEY_INT)).isEmpty());
+        assertEquals(1, extras.getVersion());
+        assertEquals(Arrays.asList(KEY_STR), extras.remove(Arrays.asList(KEY_STR, KEY_INT)));
+        assertFalse(extras.getBundle().containsKey(KEY_STR));
+        assertEquals(2, extras.getVersion());
+    }
+
+    @SmallTest
+    public void testChangesSinceVersion() {
+        VersionedExtras extras = new VersionedExtras();
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_STR, "socks");
+        bundle.putInt(KEY_INT, 1234);
+        extras.put(bundle);
+        long version = extras.getVersion();
+
+        Bundle changed = new Bundle();
+        changed.putInt(KEY_INT, 5678);
+        extras.put(changed);
+        Bundle delta = extras.getChangedSince(version);
+        assertEquals(1, delta.size());
+        assertEquals(5678, delta.getInt(KEY_INT));
+        assertEquals(2, extras.getChangedSince(0).size());
+        assertTrue(extras.getChangedSince(extras.getVersion()).isEmpty());
+        assertTrue(extras.getRemovedSince(version).isEmpty());
+
+        extras.remove(Arrays.asList(KEY_STR));
+        assertEquals(Collections.singletonList(KEY_STR), extras.getRemovedSince(version));
+        assertTrue(extras.getRemovedSince(extras.getVersion()).isEmpty());
+
+        // Putting a removed key back means it is no longer removed.
+        extras.put(bundle);
+        assertTrue(extras.getRemovedSince(version).isEmpty());
+        assertEquals(2, extras.getChangedSince(version).size());
+    }
+
+    private static Bundle makeNested(String value, int[] array) {
+        Bundle nested = new Bundle();
+        nested.putString(KEY_STR, value);
+        nested.putIntArray(KEY_ARRAY, array);
+        Bundle bundle = new Bundle();
+        bundle.putBundle(KEY_STR, nested);
+        return bundle;
+    }
+}